@@ -0,0 +1,84 @@
+package com.revolut.transfer.load;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Histogram of latencies in microseconds, in the style of HdrHistogram: values up to 255 are counted exactly and
+ * bigger values in buckets of 128 sub-buckets per power of two, so any percentile has a relative error below 1% with
+ * a fixed memory footprint.</p>
+ * <p>Recording is lock-free and can be done from any number of threads</p>
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT_VALUES = SUB_BUCKETS * 2;
+
+    /**
+     * Covers more than one hour, longer latencies are counted as the highest value
+     */
+    private static final int MAX_EXPONENT = 26;
+
+    private final AtomicLongArray counts = new AtomicLongArray(EXACT_VALUES + MAX_EXPONENT * SUB_BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // retry until the maximum is at least this value
+        }
+    }
+
+    long getTotalCount() {
+        return totalCount.get();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return highest value of the bucket that contains the given percentile, 0 if nothing was recorded
+     */
+    long getValueAtPercentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long count = 0;
+        for (int index = 0; index < counts.length(); index++) {
+            count += counts.get(index);
+            if (count >= countAtPercentile) {
+                return Math.min(highestValueOf(index), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static int indexOf(long value) {
+        if (value < EXACT_VALUES) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        if (exponent > MAX_EXPONENT) {
+            return EXACT_VALUES + MAX_EXPONENT * SUB_BUCKETS - 1;
+        }
+        return EXACT_VALUES + (exponent - 1) * SUB_BUCKETS + (int) (value >>> exponent) - SUB_BUCKETS;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < EXACT_VALUES) {
+            return index;
+        }
+        int exponent = (index - EXACT_VALUES) / SUB_BUCKETS + 1;
+        long subBucket = (index - EXACT_VALUES) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << exponent) - 1;
+    }
+}
@@ -0,0 +1,221 @@
+package com.revolut.transfer.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.transfer.Main;
+import com.revolut.transfer.manager.AccountKeys;
+import org.eclipse.jetty.server.Server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Load generator of the REST API. It creates the accounts, runs a mix of account reads and transfers for a given
+ * time and reports the throughput and the latency percentiles of every kind of request.</p>
+ * <p>In the open mode the requests are sent at a fixed rate whatever the response times are, and the latency of every
+ * request is measured from the time it should have been sent. If the server stalls, the requests that could not be
+ * sent in time count the stall in their latency, so the percentiles are free of coordinated omission. In the closed
+ * mode every connection sends its next request when it gets the previous response, which measures the maximum
+ * throughput, but its latencies do not include the time the requests waited to be sent.</p>
+ * <p>Without load.url the application is started in this process. It's configured with system properties:</p>
+ * <pre>
+ * mvn -Pbenchmarks test-compile exec:java@load -Dload.mode=open -Dload.rate=2000 -Dload.distribution=ZIPFIAN
+ * </pre>
+ */
+public class LoadGenerator {
+
+    private static final String OPEN = "open";
+    private static final String CLOSED = "closed";
+    private static final String INITIAL_BALANCE = "1000000000.00";
+    private static final String AMOUNT = "0.01";
+
+    private final String url;
+    private final String mode;
+    private final int rate;
+    private final int connections;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final int numberOfAccounts;
+    private final String distribution;
+    private final double readRatio;
+
+    private final LatencyHistogram readLatencies = new LatencyHistogram();
+    private final LatencyHistogram transferLatencies = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+    private long[] accountIds;
+    private AccountKeys accountKeys;
+
+    LoadGenerator(String url, String mode, int rate, int connections, long durationSeconds, long warmupSeconds,
+                  int numberOfAccounts, String distribution, double readRatio) {
+        if (!OPEN.equals(mode) && !CLOSED.equals(mode)) {
+            throw new IllegalArgumentException("load.mode must be " + OPEN + " or " + CLOSED);
+        }
+        this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        this.mode = mode;
+        this.rate = rate;
+        this.connections = connections;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        this.numberOfAccounts = numberOfAccounts;
+        this.distribution = distribution;
+        this.readRatio = readRatio;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = System.getProperty("load.url");
+        int connections = Integer.getInteger("load.connections", 64);
+        // Keep alive one connection per thread, the default is 5
+        System.setProperty("http.maxConnections", String.valueOf(connections));
+        int port = Integer.getInteger("load.port", 8080);
+        Server server = null;
+        if (url == null) {
+            server = Main.start(port);
+            url = "http://localhost:" + port;
+        }
+        try {
+            LoadGenerator loadGenerator = new LoadGenerator(url,
+                    System.getProperty("load.mode", OPEN),
+                    Integer.getInteger("load.rate", 1000),
+                    connections,
+                    Long.getLong("load.duration", 60),
+                    Long.getLong("load.warmup", 10),
+                    Integer.getInteger("load.accounts", 1000),
+                    System.getProperty("load.distribution", AccountKeys.UNIFORM),
+                    Double.parseDouble(System.getProperty("load.read-ratio", "0.5")));
+            loadGenerator.createAccounts();
+            loadGenerator.run();
+            loadGenerator.report();
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    void createAccounts() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        accountIds = new long[numberOfAccounts];
+        for (int i = 0; i < numberOfAccounts; i++) {
+            HttpURLConnection connection = open("PUT", "/account/");
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setDoOutput(true);
+            try (OutputStream body = connection.getOutputStream()) {
+                body.write(("{\"amount\": " + INITIAL_BALANCE + "}").getBytes(StandardCharsets.UTF_8));
+            }
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IllegalStateException("Account could not be created: HTTP " + connection.getResponseCode());
+            }
+            try (InputStream response = connection.getInputStream()) {
+                accountIds[i] = mapper.readTree(response).get("id").asLong();
+            }
+        }
+        accountKeys = new AccountKeys(distribution, numberOfAccounts);
+    }
+
+    void run() throws InterruptedException {
+        long startNanos = System.nanoTime();
+        long measureFromNanos = startNanos + warmupNanos;
+        long endNanos = measureFromNanos + durationNanos;
+        ExecutorService executor = Executors.newFixedThreadPool(connections);
+        if (OPEN.equals(mode)) {
+            long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+            for (long intendedNanos = startNanos; intendedNanos < endNanos; intendedNanos += intervalNanos) {
+                long waitNanos = intendedNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+                long intendedStartNanos = intendedNanos;
+                executor.execute(() -> request(intendedStartNanos, measureFromNanos));
+            }
+        } else {
+            for (int i = 0; i < connections; i++) {
+                executor.execute(() -> {
+                    long requestStartNanos;
+                    while ((requestStartNanos = System.nanoTime()) < endNanos) {
+                        request(requestStartNanos, measureFromNanos);
+                    }
+                });
+            }
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+    }
+
+    /**
+     * Sends a read or a transfer. The latency is measured from the given start, the intended start in the open mode
+     */
+    private void request(long startNanos, long measureFromNanos) {
+        boolean read = ThreadLocalRandom.current().nextDouble() < readRatio;
+        long origin = accountKeys.next();
+        boolean ok;
+        try {
+            if (read) {
+                ok = send("GET", "/account/" + accountIds[(int) origin]);
+            } else {
+                long destination = accountKeys.nextOtherThan(origin);
+                ok = send("POST", "/account/" + accountIds[(int) origin] + "/transfer/" + accountIds[(int) destination] + "/" + AMOUNT);
+            }
+        } catch (IOException e) {
+            ok = false;
+        }
+        if (startNanos < measureFromNanos) {
+            return;
+        }
+        if (!ok) {
+            errors.incrementAndGet();
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        (read ? readLatencies : transferLatencies).record(micros);
+    }
+
+    /**
+     * Sends a request without body and reads the whole response, so the connection is kept alive for the next one
+     */
+    private boolean send(String method, String path) throws IOException {
+        HttpURLConnection connection = open(method, path);
+        int status = connection.getResponseCode();
+        try (InputStream response = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (response != null) {
+                byte[] buffer = new byte[4096];
+                while (response.read(buffer) != -1) {
+                    // discard the response
+                }
+            }
+        }
+        return status < 400;
+    }
+
+    private HttpURLConnection open(String method, String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Accept", "application/json");
+        return connection;
+    }
+
+    void report() {
+        double seconds = (double) durationNanos / TimeUnit.SECONDS.toNanos(1);
+        System.out.println(String.format(Locale.ROOT, "mode=%s rate=%d connections=%d accounts=%d distribution=%s read-ratio=%.2f duration=%.0fs",
+                mode, rate, connections, numberOfAccounts, distribution, readRatio, seconds));
+        report("read", readLatencies, seconds);
+        report("transfer", transferLatencies, seconds);
+        System.out.println("errors=" + errors.get());
+    }
+
+    private static void report(String name, LatencyHistogram histogram, double seconds) {
+        System.out.println(String.format(Locale.ROOT,
+                "%-8s count=%d throughput=%.1f/s p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus",
+                name, histogram.getTotalCount(), histogram.getTotalCount() / seconds,
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9), histogram.getMax()));
+    }
+}
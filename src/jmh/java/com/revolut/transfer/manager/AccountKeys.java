@@ -0,0 +1,63 @@
+package com.revolut.transfer.manager;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>Distribution of the accounts used by the benchmarks and the load generator. UNIFORM picks any account with the
+ * same probability, ZIPFIAN picks the account of rank k with a probability proportional to 1/k, so a few hot accounts
+ * take most of the transfers like in a real system (merchants, top-up accounts...).</p>
+ * <p>The keys are sampled when it's created, so getting an account only reads an array</p>
+ */
+public class AccountKeys {
+
+    public static final String UNIFORM = "UNIFORM";
+    public static final String ZIPFIAN = "ZIPFIAN";
+
+    private static final int SAMPLES = 1 << 16;
+
+    private final long[] keys = new long[SAMPLES];
+    private final int numberOfAccounts;
+
+    /**
+     * @param distribution {@link #UNIFORM} or {@link #ZIPFIAN}
+     * @param numberOfAccounts accounts from 0 to numberOfAccounts - 1, at least 2
+     */
+    public AccountKeys(String distribution, int numberOfAccounts) {
+        this.numberOfAccounts = numberOfAccounts;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (UNIFORM.equals(distribution)) {
+            for (int i = 0; i < SAMPLES; i++) {
+                keys[i] = random.nextInt(numberOfAccounts);
+            }
+        } else if (ZIPFIAN.equals(distribution)) {
+            double[] cumulative = new double[numberOfAccounts];
+            double sum = 0;
+            for (int rank = 0; rank < numberOfAccounts; rank++) {
+                sum += 1.0 / (rank + 1);
+                cumulative[rank] = sum;
+            }
+            for (int i = 0; i < SAMPLES; i++) {
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                keys[i] = Math.min(rank < 0 ? -rank - 1 : rank, numberOfAccounts - 1);
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown distribution " + distribution);
+        }
+    }
+
+    /**
+     * @return a random account
+     */
+    public long next() {
+        return keys[ThreadLocalRandom.current().nextInt(SAMPLES)];
+    }
+
+    /**
+     * @return a random account different from the given one
+     */
+    public long nextOtherThan(long accountId) {
+        long other = next();
+        return other != accountId ? other : (accountId + 1) % numberOfAccounts;
+    }
+}
@@ -0,0 +1,76 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.model.AccountLockingSession;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Contention benchmark of the account lock registry. Every operation takes the locks of a random pair of accounts,
+ * locks them and releases them, like a transfer without the DB work.</p>
+ * <p>The same operation is measured with an increasing number of threads, so the throughput scaling with the number
+ * of cores can be read directly from the report. With 2 accounts all the threads fight for the same pair, with a
+ * large number of accounts they mostly work on unrelated accounts. With the ZIPFIAN distribution a few hot accounts
+ * take most of the operations, whatever the number of accounts</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountLockManagerBenchmark {
+
+    @Param({"2", "1024", "1048576"})
+    private int numberOfAccounts;
+
+    @Param({AccountKeys.UNIFORM, AccountKeys.ZIPFIAN})
+    private String distribution;
+
+    private AccountLockManager accountLockManager;
+    private AccountKeys accountKeys;
+
+    @Setup
+    public void setUp() {
+        accountLockManager = new AccountLockManager();
+        accountKeys = new AccountKeys(distribution, numberOfAccounts);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads01() {
+        lockAndRelease();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void threads02() {
+        lockAndRelease();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void threads04() {
+        lockAndRelease();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void threads08() {
+        lockAndRelease();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void threads16() {
+        lockAndRelease();
+    }
+
+    private void lockAndRelease() {
+        long originAccountId = accountKeys.next();
+        long destinationAccountId = accountKeys.nextOtherThan(originAccountId);
+        AccountLockingSession session = accountLockManager.getOrCreateAccountLocks(originAccountId, destinationAccountId);
+        session.lock();
+        accountLockManager.releaseLocks(session, originAccountId, destinationAccountId);
+    }
+}
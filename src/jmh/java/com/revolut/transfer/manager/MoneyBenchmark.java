@@ -0,0 +1,90 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.model.Money;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Compares the balance arithmetic of a transfer with BigDecimal amounts, as it was done before, and with long
+ * minor units ({@link Money}). Every operation validates the amount, checks the funds of the origin account and moves
+ * the amount between both accounts, without the locks and the DB work.</p>
+ * <p>The benchmarks profile runs with the GC profiler, so gc.alloc.rate.norm reports the bytes allocated by every
+ * operation</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoneyBenchmark {
+
+    private BigDecimal amount;
+    private BigDecimal originAmount;
+    private BigDecimal destinationAmount;
+
+    private long originBalance;
+    private long destinationBalance;
+
+    @Setup
+    public void setUp() {
+        amount = new BigDecimal("12.34");
+        originAmount = new BigDecimal("1000000000.00");
+        destinationAmount = new BigDecimal("1000000000.00");
+        originBalance = Money.toMinorUnits(originAmount);
+        destinationBalance = Money.toMinorUnits(destinationAmount);
+    }
+
+    @Benchmark
+    public BigDecimal bigDecimal() {
+        if (amount.compareTo(new BigDecimal(0)) < 0 || amount.compareTo(new BigDecimal(0)) == 0) {
+            throw new IllegalArgumentException();
+        }
+        if (originAmount.compareTo(amount) < 0) {
+            // Move the money back, so the benchmark can run forever
+            BigDecimal swap = originAmount;
+            originAmount = destinationAmount;
+            destinationAmount = swap;
+        }
+        originAmount = originAmount.subtract(amount);
+        destinationAmount = destinationAmount.add(amount);
+        return originAmount;
+    }
+
+    /**
+     * The amount arrives as a BigDecimal from the REST API, so it's converted to minor units once, in the validation
+     */
+    @Benchmark
+    public long minorUnits() {
+        if (amount.signum() <= 0) {
+            throw new IllegalArgumentException();
+        }
+        long minorUnits = Money.toMinorUnits(amount);
+        if (originBalance < minorUnits) {
+            long swap = originBalance;
+            originBalance = destinationBalance;
+            destinationBalance = swap;
+        }
+        originBalance = Money.subtract(originBalance, minorUnits);
+        destinationBalance = Money.add(destinationBalance, minorUnits);
+        return originBalance;
+    }
+
+    /**
+     * Only the arithmetic of the engines, that receive the amount already converted to minor units
+     */
+    @Benchmark
+    public long minorUnitsArithmetic() {
+        long minorUnits = 1234;
+        if (originBalance < minorUnits) {
+            long swap = originBalance;
+            originBalance = destinationBalance;
+            destinationBalance = swap;
+        }
+        originBalance = Money.subtract(originBalance, minorUnits);
+        destinationBalance = Money.add(destinationBalance, minorUnits);
+        return originBalance;
+    }
+}
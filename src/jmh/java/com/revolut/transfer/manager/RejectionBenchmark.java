@@ -0,0 +1,96 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.InsufficientFundsException;
+import com.revolut.transfer.exceptions.RevolutException;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.ApplicationError;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Throughput of the rejection of a transfer, from the business rule that rejects it to the error to be sent to the
+ * client, without the locks and the DB work.</p>
+ * <p>stackTrace is the cost of a rejection as it was before: the exception fills its stack trace and the trace is
+ * joined into the error. stackless is a business error created for every rejection, i.e. insufficient funds.
+ * frozen is a validation error created once and thrown every time, with its error already rendered</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RejectionBenchmark {
+
+    private AccountManager accountManager;
+    private TransferOperations transferOperations;
+    private Account emptyAccount;
+    private BigDecimal amount;
+
+    @Setup
+    public void setUp() {
+        accountManager = AccountManager.getInstance();
+        transferOperations = new TransferOperations(null, null, new AccountCache(0));
+        emptyAccount = new Account();
+        emptyAccount.setId(1L);
+        emptyAccount.setBalance(0);
+        amount = new BigDecimal("10.00");
+    }
+
+    @Benchmark
+    public ApplicationError stackTrace() {
+        try {
+            throw new StackTraceInsufficientFundsException()
+                    .withProperties(
+                            InsufficientFundsException.ACCOUNT_ID, emptyAccount.getId(),
+                            InsufficientFundsException.CURRENT_FUNDS, emptyAccount.getAmount());
+        } catch (StackTraceInsufficientFundsException e) {
+            return e.getErrorWithStackTrace();
+        }
+    }
+
+    @Benchmark
+    public ApplicationError stackless() {
+        try {
+            transferOperations.checkFunds(emptyAccount, 1000);
+            throw new IllegalStateException("The transfer was not rejected");
+        } catch (InsufficientFundsException e) {
+            return e.getError();
+        }
+    }
+
+    @Benchmark
+    public ApplicationError frozen() {
+        try {
+            accountManager.validateTransfer(1L, 1L, amount);
+            throw new IllegalStateException("The transfer was not rejected");
+        } catch (RevolutException e) {
+            return e.getError();
+        }
+    }
+
+    /**
+     * Business error with the behaviour of the exceptions before they were stackless
+     */
+    static class StackTraceInsufficientFundsException extends RevolutException {
+
+        StackTraceInsufficientFundsException() {
+            super(null, null, true, true);
+        }
+
+        @Override
+        public String getErrorCode() {
+            return "revolut.error.insufficient_funds";
+        }
+
+        ApplicationError getErrorWithStackTrace() {
+            ApplicationError error = getError();
+            error.setClassName(getClass().getName() + ": " + Arrays.stream(getStackTrace()).map(ste -> ste.toString()).collect(Collectors.joining(",")));
+            return error;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.config.ApplicationProperties;
+import com.revolut.transfer.model.Account;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>End to end benchmark of {@link AccountManager#transfer(Long, Long, BigDecimal)} against the in-memory H2 of the
+ * persistence unit: validation, account locks, transaction, history and account cache, in every transfer mode.
+ * Every combination of parameters runs in its own fork, so the mode is set before the AccountManager is created</p>
+ * <p>The accounts are created with enough money for all the transfers of the run, so no transfer is rejected. Every
+ * operation is one transfer between a random pair of accounts, picked with the given distribution</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000000.00");
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"locking", "sharded", "group-commit", "optimistic", "atomic", "lease", "ledger", "wal"})
+    private String transferMode;
+
+    @Param({"2", "1024"})
+    private int numberOfAccounts;
+
+    @Param({AccountKeys.UNIFORM, AccountKeys.ZIPFIAN})
+    private String distribution;
+
+    private AccountManager accountManager;
+    private AccountKeys accountKeys;
+    private long[] accountIds;
+
+    @Setup
+    public void setUp() {
+        System.setProperty(ApplicationProperties.TRANSFER_MODE, transferMode);
+        accountManager = AccountManager.getInstance();
+        accountManager.cleanAll();
+        accountIds = new long[numberOfAccounts];
+        for (int i = 0; i < numberOfAccounts; i++) {
+            Account account = new Account();
+            account.setAccountReference("benchmark-" + i);
+            account.setAmount(INITIAL_BALANCE);
+            accountIds[i] = accountManager.createAccount(account).getId();
+        }
+        accountKeys = new AccountKeys(distribution, numberOfAccounts);
+    }
+
+    @TearDown
+    public void tearDown() {
+        accountManager.cleanAll();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads01() {
+        transfer();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void threads04() {
+        transfer();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void threads16() {
+        transfer();
+    }
+
+    private void transfer() {
+        long origin = accountKeys.next();
+        long destination = accountKeys.nextOtherThan(origin);
+        accountManager.transfer(accountIds[(int) origin], accountIds[(int) destination], AMOUNT);
+    }
+}
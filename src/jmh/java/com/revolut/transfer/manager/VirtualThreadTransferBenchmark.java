@@ -0,0 +1,93 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.config.BoundedThreadPerTaskExecutor;
+import com.revolut.transfer.config.VirtualThreads;
+import com.revolut.transfer.model.AccountLockingSession;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Compares the platform thread mode with the virtual thread mode when many transfers are in flight at the same
+ * time. Every transfer waits for its request to be read, takes the locks of a random pair of accounts and then waits
+ * for one of the connections of the pool to do its DB work, like a transfer of the locking mode.</p>
+ * <p>The platform threads are a pool of 200 threads, the default maximum of Jetty. The virtual threads are one per
+ * transfer, with the DB connections limited by a semaphore like {@link com.revolut.transfer.persistence.EntityManagerContext}
+ * does in the virtual thread mode. The virtual variant needs Java 21 or newer</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VirtualThreadTransferBenchmark {
+
+    private static final int PLATFORM_THREADS = 200;
+    private static final int CONNECTIONS = 20;
+    private static final int NUMBER_OF_ACCOUNTS = 1024;
+    private static final long REQUEST_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long DB_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    @Param({"platform", "virtual"})
+    private String threads;
+
+    @Param({"200", "2000", "10000"})
+    private int transfersInFlight;
+
+    private AccountLockManager accountLockManager;
+    private Semaphore connections;
+    private ExecutorService executor;
+
+    @Setup
+    public void setUp() {
+        accountLockManager = new AccountLockManager();
+        connections = new Semaphore(CONNECTIONS, true);
+        if ("virtual".equals(threads)) {
+            ThreadFactory threadFactory = VirtualThreads.newVirtualThreadFactory("benchmark-virtual-");
+            executor = new BoundedThreadPerTaskExecutor(threadFactory, Integer.MAX_VALUE);
+        } else {
+            executor = Executors.newFixedThreadPool(PLATFORM_THREADS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Time to complete all the transfers in flight
+     */
+    @Benchmark
+    public void transfers() throws Exception {
+        CountDownLatch finished = new CountDownLatch(transfersInFlight);
+        for (int i = 0; i < transfersInFlight; i++) {
+            executor.execute(() -> {
+                transfer();
+                finished.countDown();
+            });
+        }
+        finished.await();
+    }
+
+    private void transfer() {
+        LockSupport.parkNanos(REQUEST_WAIT_NANOS);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long originAccountId = random.nextInt(NUMBER_OF_ACCOUNTS);
+        long destinationAccountId = (originAccountId + 1 + random.nextInt(NUMBER_OF_ACCOUNTS - 1)) % NUMBER_OF_ACCOUNTS;
+        AccountLockingSession session = accountLockManager.getOrCreateAccountLocks(originAccountId, destinationAccountId);
+        try {
+            session.lock();
+            connections.acquireUninterruptibly();
+            try {
+                LockSupport.parkNanos(DB_WAIT_NANOS);
+            } finally {
+                connections.release();
+            }
+        } finally {
+            accountLockManager.releaseLocks(session, originAccountId, destinationAccountId);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.revolut.transfer.rest;
+
+import com.revolut.transfer.exceptions.BadParameterException;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.ApplicationError;
+import org.eclipse.persistence.jaxb.JAXBContextFactory;
+import org.eclipse.persistence.jaxb.MarshallerProperties;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.core.MediaType;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Cost of writing the JSON of the responses. moxy* use MOXy, the JSON provider of Jersey, like the responses of
+ * the resources. accountStreaming uses the {@link AccountJsonWriter} of the streamed list of accounts.</p>
+ * <p>Run it with the GC profiler (the default of the benchmarks profile), the bytes allocated by every response are
+ * usually more relevant than the time</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    private Marshaller marshaller;
+    private Account account;
+    private ApplicationError error;
+
+    @Setup
+    public void setUp() throws JAXBException {
+        marshaller = JAXBContextFactory.createContext(new Class[]{Account.class, ApplicationError.class}, Collections.emptyMap())
+                .createMarshaller();
+        marshaller.setProperty(MarshallerProperties.MEDIA_TYPE, MediaType.APPLICATION_JSON);
+        marshaller.setProperty(MarshallerProperties.JSON_INCLUDE_ROOT, false);
+        account = new Account();
+        account.setId(12345L);
+        account.setAccountReference("ES91 2100 0418 4502 0005 1332");
+        account.setAmount(new BigDecimal("1234.56"));
+        error = new BadParameterException()
+                .withProperty(BadParameterException.PARAMETER_NAME, "amount")
+                .withProperty(BadParameterException.EXPECTED_CONDITION, "POSITIVE")
+                .getError();
+    }
+
+    @Benchmark
+    public String moxyAccount() throws JAXBException {
+        StringWriter writer = new StringWriter();
+        marshaller.marshal(account, writer);
+        return writer.toString();
+    }
+
+    @Benchmark
+    public String moxyError() throws JAXBException {
+        StringWriter writer = new StringWriter();
+        marshaller.marshal(error, writer);
+        return writer.toString();
+    }
+
+    @Benchmark
+    public String accountStreaming() throws IOException {
+        StringWriter writer = new StringWriter();
+        AccountJsonWriter accountJsonWriter = new AccountJsonWriter(writer);
+        accountJsonWriter.start();
+        accountJsonWriter.write(account);
+        accountJsonWriter.end();
+        return writer.toString();
+    }
+}
@@ -1,8 +1,18 @@
 package com.revolut.transfer;
 
+import com.revolut.transfer.config.ApplicationProperties;
+import com.revolut.transfer.config.StartupTimer;
+import com.revolut.transfer.config.VirtualThreadPool;
+import com.revolut.transfer.config.VirtualThreads;
+import com.revolut.transfer.manager.AccountManager;
+import com.revolut.transfer.manager.AsyncTransferManager;
+import com.revolut.transfer.manager.TransferEventLog;
 import com.revolut.transfer.rest.AccountResource;
+import com.revolut.transfer.rest.MetricsResource;
+import org.apache.log4j.Logger;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
@@ -12,33 +22,120 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.file.Paths;
 
 public class Main {
 
+    private final static Logger logger = Logger.getLogger(Main.class);
+
    public static void main( String[] args ) throws Exception
     {
+        Server jettyServer = start(8080);
+        try {
+            jettyServer.join();
+        } finally {
+            jettyServer.destroy();
+        }
+    }
+
+    /**
+     * Starts the application in the given port, without waiting for it to be stopped. Used by the load generator to
+     * run the application in its own process.
+     * The persistence is bootstrapped, the account cache filled from the snapshot of the previous shutdown and the
+     * transfers warmed up before Jetty is started, so the connector only accepts requests once the application is
+     * ready. The duration of every phase is logged (see {@link StartupTimer})
+     */
+    public static Server start(int port) throws Exception {
+        StartupTimer startupTimer = StartupTimer.getInstance();
+        long startupNanos = System.nanoTime();
+        AccountManager accountManager = AccountManager.getInstance();
+        String snapshotFile = getSnapshotFile(accountManager);
+        long phaseNanos = System.nanoTime();
+        if (snapshotFile != null) {
+            accountManager.loadSnapshot(Paths.get(snapshotFile));
+            startupTimer.record("account_snapshot", phaseNanos);
+        }
+        int warmUpIterations = ApplicationProperties.getInt(ApplicationProperties.STARTUP_WARM_UP_ITERATIONS, 0);
+        phaseNanos = System.nanoTime();
+        if (warmUpIterations > 0) {
+            accountManager.warmUp(warmUpIterations);
+            startupTimer.record("warm_up", phaseNanos);
+        }
+        phaseNanos = System.nanoTime();
         ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
         context.setContextPath("/");
 
-        Server jettyServer = new Server(8080);
+        Server jettyServer = createServer(port);
         jettyServer.setHandler(context);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // No more requests are accepted before the transfers are stopped and the snapshot is written
+            try {
+                jettyServer.stop();
+            } catch (Exception e) {
+                logger.warn("Jetty could not be stopped", e);
+            }
+            // The accepted asynchronous transfers are executed before the transfer engine is stopped
+            AsyncTransferManager.getInstance().shutdown();
+            accountManager.shutdown();
+            // After the transfers, so the records of the last ones are written too
+            TransferEventLog.getInstance().shutdown();
+            if (snapshotFile != null) {
+                accountManager.writeSnapshot(Paths.get(snapshotFile));
+            }
+            accountManager.closePersistence();
+        }, "application-shutdown"));
 
         ServletHolder jerseyServlet = context.addServlet(
                 org.glassfish.jersey.servlet.ServletContainer.class, "/*");
         jerseyServlet.setInitParameter("javax.ws.rs.Application", "com.revolut.transfer.config.ApplicationResourceConfig");
 
         jerseyServlet.setInitOrder(0);
+        // Needed by the long polling of the asynchronous transfers
+        jerseyServlet.setAsyncSupported(true);
 
         // Tells the Jersey Servlet which REST service/class to load.
         jerseyServlet.setInitParameter(
                 "jersey.config.server.provider.classnames",
-                AccountResource.class.getCanonicalName());
+                AccountResource.class.getCanonicalName() + "," + MetricsResource.class.getCanonicalName());
 
         try {
             jettyServer.start();
-            jettyServer.join();
-        } finally {
+        } catch (Exception e) {
             jettyServer.destroy();
+            throw e;
+        }
+        startupTimer.record("jetty_start", phaseNanos);
+        startupTimer.record("total", startupNanos);
+        logger.info("Application started: " + startupTimer.report());
+        return jettyServer;
+    }
+
+    /**
+     * With {@link com.revolut.transfer.config.ApplicationProperties#VIRTUAL_THREADS} enabled, every request is
+     * handled in its own virtual thread instead of a thread of the default bounded pool
+     */
+    private static Server createServer(int port) {
+        if (!VirtualThreads.isEnabled()) {
+            return new Server(port);
+        }
+        Server server = new Server(new VirtualThreadPool());
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(port);
+        server.addConnector(connector);
+        return server;
+    }
+
+    /**
+     * @return the file of the startup snapshot, null if it's not configured or the DB is in memory: its accounts never
+     * match the snapshot of the previous execution
+     */
+    private static String getSnapshotFile(AccountManager accountManager) {
+        String snapshotFile = ApplicationProperties.getString(ApplicationProperties.STARTUP_SNAPSHOT_FILE, null);
+        if (snapshotFile != null && accountManager.isInMemoryDatabase()) {
+            logger.warn("Startup snapshot " + snapshotFile + " disabled, the in-memory DB does not survive a restart. "
+                    + "It needs a file DB (" + ApplicationProperties.JDBC_URL + ")");
+            return null;
         }
+        return snapshotFile;
     }
 }
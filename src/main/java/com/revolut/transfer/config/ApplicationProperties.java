@@ -0,0 +1,220 @@
+package com.revolut.transfer.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Configuration of the application. The values are read from the system properties
+ * (i.e. -Drevolut.transfer.mode=sharded), so the different execution modes can be selected and benchmarked without
+ * rebuilding the application.</p>
+ * <p>The name of each property is defined as a constant in this class</p>
+ */
+public final class ApplicationProperties {
+
+    /**
+     * How the transfers are executed. See {@link com.revolut.transfer.manager.TransferMode}
+     */
+    public static final String TRANSFER_MODE = "revolut.transfer.mode";
+
+    /**
+     * Number of single threaded shards used by the sharded transfer mode
+     */
+    public static final String TRANSFER_SHARDS = "revolut.transfer.shards";
+
+    /**
+     * Maximum number of transfers committed together by the group commit mode
+     */
+    public static final String GROUP_COMMIT_MAX_SIZE = "revolut.transfer.group-commit.max-size";
+
+    /**
+     * Time, in microseconds, the group commit mode waits for more transfers once the first transfer of a group arrives
+     */
+    public static final String GROUP_COMMIT_WINDOW_MICROS = "revolut.transfer.group-commit.window-micros";
+
+    /**
+     * Maximum number of transfers waiting to be committed by the group commit mode. Callers block when it's full
+     */
+    public static final String GROUP_COMMIT_QUEUE_CAPACITY = "revolut.transfer.group-commit.queue-capacity";
+
+    /**
+     * Number of transfers appended to the history by the ledger mode between two checkpoints of the balances
+     */
+    public static final String LEDGER_CHECKPOINT_EVERY = "revolut.transfer.ledger.checkpoint-every";
+
+    /**
+     * Directory of the files of the write-ahead log mode
+     */
+    public static final String WAL_DIRECTORY = "revolut.transfer.wal.directory";
+
+    /**
+     * Size, in megabytes, of every file of the write-ahead log
+     */
+    public static final String WAL_SEGMENT_SIZE_MB = "revolut.transfer.wal.segment-size-mb";
+
+    /**
+     * Number of transfers appended to the write-ahead log between two checkpoints of the balances
+     */
+    public static final String WAL_CHECKPOINT_EVERY = "revolut.transfer.wal.checkpoint-every";
+
+    /**
+     * Maximum number of transfers of a bulk request executed in the same transaction
+     */
+    public static final String BULK_TRANSFER_CHUNK_SIZE = "revolut.transfer.bulk.chunk-size";
+
+    /**
+     * Number of threads executing the asynchronous transfers
+     */
+    public static final String ASYNC_TRANSFER_THREADS = "revolut.transfer.async.threads";
+
+    /**
+     * Maximum number of asynchronous transfers waiting to be executed. New transfers are rejected when it's full
+     */
+    public static final String ASYNC_TRANSFER_QUEUE_CAPACITY = "revolut.transfer.async.queue-capacity";
+
+    /**
+     * Seconds the result of a finished asynchronous transfer is kept to be polled
+     */
+    public static final String ASYNC_TRANSFER_RETENTION_SECONDS = "revolut.transfer.async.retention-seconds";
+
+    /**
+     * ISO 4217 code of the currency of all the accounts. It defines the number of decimals of the amounts
+     */
+    public static final String CURRENCY = "revolut.transfer.currency";
+
+    /**
+     * Maximum number of accounts kept in the account cache, 0 disables the cache
+     */
+    public static final String ACCOUNT_CACHE_MAX_SIZE = "revolut.transfer.account-cache.max-size";
+
+    /**
+     * Runs the requests and the asynchronous transfers in virtual threads. It needs Java 21 or newer
+     */
+    public static final String VIRTUAL_THREADS = "revolut.transfer.virtual-threads";
+
+    /**
+     * Maximum number of times a transfer of the optimistic mode is executed before it's rejected as a conflict
+     */
+    public static final String OPTIMISTIC_MAX_ATTEMPTS = "revolut.transfer.optimistic.max-attempts";
+
+    /**
+     * Base of the random exponential backoff between the attempts of a transfer of the optimistic mode
+     */
+    public static final String OPTIMISTIC_BACKOFF_MICROS = "revolut.transfer.optimistic.backoff-micros";
+
+    /**
+     * Maximum backoff between the attempts of a transfer of the optimistic mode
+     */
+    public static final String OPTIMISTIC_MAX_BACKOFF_MICROS = "revolut.transfer.optimistic.max-backoff-micros";
+
+    /**
+     * Maximum time a transfer waits for the locks of its accounts before it's rejected, 0 to wait without limit
+     */
+    public static final String LOCK_TIMEOUT_MILLIS = "revolut.transfer.lock-timeout-millis";
+
+    /**
+     * Applies the transfers of the locking mode waiting for the same pair of accounts together, in one transaction
+     */
+    public static final String NETTING_ENABLED = "revolut.transfer.netting.enabled";
+
+    /**
+     * Maximum number of transfers applied together by the netting of the locking mode
+     */
+    public static final String NETTING_MAX_SIZE = "revolut.transfer.netting.max-size";
+
+    /**
+     * Time the netting of the locking mode keeps collecting transfers once the locks of the accounts are taken
+     */
+    public static final String NETTING_WINDOW_MICROS = "revolut.transfer.netting.window-micros";
+
+    /**
+     * Time after which the lease of an account taken by the lease transfer mode expires and can be taken by another
+     * instance of the application
+     */
+    public static final String LEASE_DURATION_MILLIS = "revolut.transfer.lease.duration-millis";
+
+    /**
+     * Name of this instance of the application in the leases of the accounts, unique among the instances sharing the DB
+     */
+    public static final String LEASE_OWNER = "revolut.transfer.lease.owner";
+
+    /**
+     * JDBC URL of the DB, i.e. a file or server H2 DB shared by several instances of the application
+     */
+    public static final String JDBC_URL = "revolut.transfer.jdbc-url";
+
+    /**
+     * Comma separated ids of the accounts whose balance is split into sub-balances in the locking mode
+     */
+    public static final String SUB_BALANCE_ACCOUNTS = "revolut.transfer.sub-balances.accounts";
+
+    /**
+     * Number of sub-balances of every split account
+     */
+    public static final String SUB_BALANCE_SLOTS = "revolut.transfer.sub-balances.slots";
+
+    /**
+     * Transfers waiting for the lock of an account that make the account split, 0 to only split the configured accounts
+     */
+    public static final String SUB_BALANCE_AUTO_SPLIT_WAITERS = "revolut.transfer.sub-balances.auto-split-waiters";
+
+    /**
+     * File the transfer events are appended to
+     */
+    public static final String EVENT_LOG_FILE = "revolut.transfer.event-log.file";
+
+    /**
+     * Number of transfer events buffered in memory before they are written, 0 disables the transfer event log
+     */
+    public static final String EVENT_LOG_CAPACITY = "revolut.transfer.event-log.capacity";
+
+    /**
+     * File of the binary snapshot of the accounts, written on shutdown and loaded into the account cache on startup
+     */
+    public static final String STARTUP_SNAPSHOT_FILE = "revolut.startup.snapshot-file";
+
+    /**
+     * Number of transfers of the hot path executed, and rolled back, on startup before the requests are accepted
+     */
+    public static final String STARTUP_WARM_UP_ITERATIONS = "revolut.startup.warm-up-iterations";
+
+    private ApplicationProperties() {
+    }
+
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    /**
+     * @return the comma separated numbers of the property, empty if it's not defined
+     */
+    public static List<Long> getLongs(String key) {
+        String value = getString(key, null);
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        List<Long> values = new ArrayList<>();
+        for (String number : value.split(",")) {
+            if (!number.trim().isEmpty()) {
+                values.add(Long.parseLong(number.trim()));
+            }
+        }
+        return values;
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
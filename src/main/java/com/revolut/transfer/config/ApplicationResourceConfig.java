@@ -10,7 +10,8 @@ public class ApplicationResourceConfig extends ResourceConfig {
     public ApplicationResourceConfig() {
         packages("com.revolut.transfer");
         register(new AccountLockManager());
-        register(new AccountManager());
+        // The singleton, so the persistence is only bootstrapped once
+        register(AccountManager.getInstance());
         register(new AccountRepository());
         register(new TransferTransactionRepository());
     }
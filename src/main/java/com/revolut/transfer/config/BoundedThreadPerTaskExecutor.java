@@ -0,0 +1,96 @@
+package com.revolut.transfer.config;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Executor starting a new thread for every task, used with virtual threads: they are cheap to create, so they are
+ * never pooled.</p>
+ * <p>The number of tasks running at the same time is bounded by a semaphore. A task submitted when all the permits
+ * are taken is rejected instead of queued</p>
+ */
+public class BoundedThreadPerTaskExecutor extends AbstractExecutorService {
+
+    private final ThreadFactory threadFactory;
+    private final int maxTasks;
+    private final Semaphore permits;
+    private volatile boolean shutdown;
+
+    /**
+     * @param maxTasks maximum number of tasks running at the same time
+     */
+    public BoundedThreadPerTaskExecutor(ThreadFactory threadFactory, int maxTasks) {
+        if (maxTasks <= 0) {
+            throw new IllegalArgumentException("The maximum number of tasks must be positive");
+        }
+        this.threadFactory = threadFactory;
+        this.maxTasks = maxTasks;
+        this.permits = new Semaphore(maxTasks);
+    }
+
+    /**
+     * @throws RejectedExecutionException if the executor is shut down or the maximum number of tasks are running
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (shutdown || !permits.tryAcquire()) {
+            throw new RejectedExecutionException(shutdown ? "Executor is shut down" : "Too many tasks running");
+        }
+        try {
+            threadFactory.newThread(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            }).start();
+        } catch (RuntimeException | Error e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * New tasks are rejected, the running ones are completed
+     */
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * The running tasks are not interrupted, there are no queued tasks
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && permits.availablePermits() == maxTasks;
+    }
+
+    /**
+     * Waits for the running tasks by taking all the permits
+     */
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!permits.tryAcquire(maxTasks, timeout, unit)) {
+            return false;
+        }
+        permits.release(maxTasks);
+        return true;
+    }
+}
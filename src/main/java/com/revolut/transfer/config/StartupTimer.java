@@ -0,0 +1,63 @@
+package com.revolut.transfer.config;
+
+import com.revolut.transfer.metrics.MetricsRegistry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Duration of the phases of the startup of the application, in the order they finished. They are logged once the
+ * application is started and exposed as the gauge startup_phase_seconds, so a slow restart can be traced to its
+ * phase.</p>
+ * <p>It must be used as a singleton</p>
+ */
+public final class StartupTimer {
+
+    private static final StartupTimer instance = new StartupTimer();
+
+    static {
+        MetricsRegistry.getInstance().gauge("startup_phase_seconds", "Duration of the phases of the last startup",
+                instance::getPhaseSeconds);
+    }
+
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+
+    private StartupTimer() {
+    }
+
+    public static StartupTimer getInstance() {
+        return instance;
+    }
+
+    /**
+     * Records a phase finishing now. A phase recorded again replaces the previous duration
+     * @param startNanos when the phase started, in {@link System#nanoTime()}
+     */
+    public synchronized void record(String phase, long startNanos) {
+        phaseNanos.remove(phase);
+        phaseNanos.put(phase, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the phases and their durations in milliseconds, i.e. "persistence_bootstrap=812 ms, warm_up=95 ms"
+     */
+    public synchronized String report() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+            if (report.length() > 0) {
+                report.append(", ");
+            }
+            report.append(phase.getKey()).append('=').append(TimeUnit.NANOSECONDS.toMillis(phase.getValue())).append(" ms");
+        }
+        return report.toString();
+    }
+
+    private synchronized Map<String, Number> getPhaseSeconds() {
+        Map<String, Number> samples = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+            samples.put("phase=\"" + phase.getKey() + "\"", (double) phase.getValue() / TimeUnit.SECONDS.toNanos(1));
+        }
+        return samples;
+    }
+}
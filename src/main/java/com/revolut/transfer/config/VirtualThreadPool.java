@@ -0,0 +1,61 @@
+package com.revolut.transfer.config;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>Jetty thread pool starting a new virtual thread for every task, used when
+ * {@link ApplicationProperties#VIRTUAL_THREADS} is enabled.</p>
+ * <p>There is no maximum number of threads: a request blocked on the account locks or waiting for a DB connection only
+ * parks its virtual thread, so the number of concurrent requests is not capped by the number of OS threads</p>
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+    private final ThreadFactory threadFactory = VirtualThreads.newVirtualThreadFactory("jetty-virtual-");
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * Virtual threads are cheap to create, so they are never reused
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (isStopped()) {
+            throw new RejectedExecutionException("Thread pool is stopped");
+        }
+        threadFactory.newThread(task).start();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        stopped.countDown();
+        super.doStop();
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Virtual threads are not pooled, so there is no meaningful number of threads
+     */
+    @Override
+    public int getThreads() {
+        return 0;
+    }
+
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+}
@@ -0,0 +1,69 @@
+package com.revolut.transfer.config;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Creation of the threads of the application when the virtual thread mode is enabled with the property
+ * {@link ApplicationProperties#VIRTUAL_THREADS}.</p>
+ * <p>The application is compiled for Java 8, so the virtual thread API of the JDK is looked up at runtime. Enabling the
+ * mode in a JDK without virtual threads (before Java 21) fails on startup instead of silently using platform
+ * threads</p>
+ */
+public final class VirtualThreads {
+
+    private static final boolean ENABLED = ApplicationProperties.getBoolean(ApplicationProperties.VIRTUAL_THREADS, false);
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if the requests and the transfers must be executed in virtual threads
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * @return a factory of virtual threads if the mode is enabled, otherwise a factory of daemon platform threads.
+     * Threads are named with the prefix followed by a counter
+     */
+    public static ThreadFactory newThreadFactory(String prefix) {
+        return ENABLED ? newVirtualThreadFactory(prefix) : newPlatformThreadFactory(prefix);
+    }
+
+    /**
+     * @return a factory of virtual threads, regardless of the configured mode
+     * @throws IllegalStateException if the JDK does not support virtual threads
+     */
+    public static ThreadFactory newVirtualThreadFactory(String prefix) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Class<?> virtualBuilderClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            MethodHandle ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(virtualBuilderClass));
+            MethodHandle name = lookup.findVirtual(virtualBuilderClass, "name", MethodType.methodType(virtualBuilderClass, String.class, long.class));
+            MethodHandle factory = lookup.findVirtual(builderClass, "factory", MethodType.methodType(ThreadFactory.class));
+            Object builder = name.invoke(ofVirtual.invoke(), prefix, 1L);
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Virtual threads are not supported by this JDK (" + System.getProperty("java.version") + "), Java 21 or newer is needed", e);
+        }
+    }
+
+    /**
+     * @return a factory of daemon platform threads, regardless of the configured mode. Threads are named with the
+     * prefix followed by a counter
+     */
+    public static ThreadFactory newPlatformThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -7,6 +7,19 @@ public class BadParameterException extends RevolutException {
 
     public final static String PARAMETER_NAME = "PARAMETER_NAME";
     public final static String EXPECTED_CONDITION = "EXPECTED_CONDITION";
+
+    /**
+     * @return a frozen exception for a parameter that does not meet a fixed condition, to be created once and thrown
+     * every time the condition is not met
+     */
+    public static BadParameterException frozen(String parameterName, String expectedCondition) {
+        BadParameterException exception = new BadParameterException();
+        exception.withProperty(PARAMETER_NAME, parameterName)
+                .withProperty(EXPECTED_CONDITION, expectedCondition)
+                .freeze();
+        return exception;
+    }
+
     @Override
     public String getErrorCode() {
         return "revolut.error.bad_parameter";
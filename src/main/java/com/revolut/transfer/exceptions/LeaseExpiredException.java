@@ -0,0 +1,13 @@
+package com.revolut.transfer.exceptions;
+
+/**
+ * The lease of an account of a transfer expired and was taken by another instance of the application before the
+ * transfer was committed. The transfer has been rolled back, so it can be retried
+ */
+public class LeaseExpiredException extends ServiceUnavailableException {
+
+    @Override
+    public String getErrorCode() {
+        return "revolut.error.lease_expired";
+    }
+}
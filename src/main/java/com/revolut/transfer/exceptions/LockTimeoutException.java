@@ -0,0 +1,15 @@
+package com.revolut.transfer.exceptions;
+
+/**
+ * The locks of the accounts of a transfer could not be taken in time, because other transfers of the same accounts
+ * are taking too long. The transfer has not been executed, so it can be retried
+ */
+public class LockTimeoutException extends ServiceUnavailableException {
+
+    public static final String TIMEOUT_MILLIS = "TIMEOUT_MILLIS";
+
+    @Override
+    public String getErrorCode() {
+        return "revolut.error.lock_timeout";
+    }
+}
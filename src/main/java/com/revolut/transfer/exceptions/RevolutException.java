@@ -2,45 +2,59 @@ package com.revolut.transfer.exceptions;
 
 import com.revolut.transfer.model.ApplicationError;
 
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
 
+/**
+ * <p>Base class of the expected business errors (i.e. a transfer rejected because of insufficient funds).</p>
+ * <p>Business errors are part of the normal flow and can be triggered at a high rate by a misbehaving client, so they
+ * are stackless unless they are created with a cause: filling the stack trace is the most expensive part of creating
+ * an exception and it does not give any useful information for an expected error. The stack traces of unexpected
+ * failures are only written to the server logs, they are never sent to the clients.</p>
+ * <p>An error whose properties never change can be created once and {@link #freeze() frozen}, then the same instance
+ * is thrown every time with its response already rendered</p>
+ */
 public abstract class RevolutException extends RuntimeException {
 
     private Map<String, Object> properties = new HashMap<>();
 
+    /**
+     * Error rendered when the exception was frozen, null if it's not frozen
+     */
+    private ApplicationError frozenError;
+
     public RevolutException() {
-        this.properties = properties;
+        super(null, null, false, false);
     }
 
     public RevolutException(String message) {
-        super(message);
-        this.properties = properties;
+        super(message, null, false, false);
     }
 
     public RevolutException(String message, Throwable cause) {
         super(message, cause);
-        this.properties = properties;
     }
 
     public RevolutException(Throwable cause) {
         super(cause);
-        this.properties = properties;
     }
 
     public RevolutException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
         super(message, cause, enableSuppression, writableStackTrace);
-        this.properties = properties;
     }
 
+    /**
+     * @throws UnsupportedOperationException if the exception is frozen
+     */
     public RevolutException withProperty(String key, Object value) {
         properties.put(key, value);
         return this;
     }
 
+    /**
+     * @throws UnsupportedOperationException if the exception is frozen
+     */
     public RevolutException withProperties(Object... data) {
         for (int i = 0; i < data.length; i += 2) {
             properties.put(((String) data[i]), data[i + 1]);
@@ -48,18 +62,34 @@ public abstract class RevolutException extends RuntimeException {
         return this;
     }
 
+    /**
+     * Makes the properties of the exception immutable and renders its error once, so the exception can be shared and
+     * thrown many times. It must only be used with stackless exceptions
+     */
+    public RevolutException freeze() {
+        properties = Collections.unmodifiableMap(new HashMap<>(properties));
+        frozenError = renderError();
+        return this;
+    }
+
     public Map<String, Object> getProperties() {
         return Collections.unmodifiableMap(properties);
     }
 
     public abstract String getErrorCode();
 
+    /**
+     * @return the error to be sent to the client. The error of a frozen exception is shared, so it must not be modified
+     */
     public ApplicationError getError() {
+        return frozenError != null ? frozenError : renderError();
+    }
+
+    private ApplicationError renderError() {
         ApplicationError error = new ApplicationError();
 
         error.setCode(getErrorCode());
         error.setClassName(getClass().getName());
-        error.setStacktrace(Arrays.stream(getStackTrace()).map(ste -> ste.toString()).collect(Collectors.joining(",")));
         error.setProperties(getProperties());
 
         return error;
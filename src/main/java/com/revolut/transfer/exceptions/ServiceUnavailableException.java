@@ -0,0 +1,20 @@
+package com.revolut.transfer.exceptions;
+
+/**
+ * <p>Any child of this exception will be transformed in a 503 Service Unavailable by the REST layer, with a
+ * Retry-After header.</p>
+ * <p>It should be used as the base class when a request cannot be executed because of a temporary lack of resources,
+ * so the client can safely retry it later</p>
+ */
+public abstract class ServiceUnavailableException extends RevolutException {
+
+    public static final String RETRY_AFTER_SECONDS = "RETRY_AFTER_SECONDS";
+
+    /**
+     * @return seconds the client should wait before retrying the request
+     */
+    public long getRetryAfterSeconds() {
+        Object retryAfter = getProperties().get(RETRY_AFTER_SECONDS);
+        return retryAfter instanceof Number ? ((Number) retryAfter).longValue() : 1;
+    }
+}
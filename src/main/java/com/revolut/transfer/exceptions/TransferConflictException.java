@@ -0,0 +1,15 @@
+package com.revolut.transfer.exceptions;
+
+/**
+ * The accounts of a transfer kept being modified by other transfers, so it could not be executed in the configured
+ * number of attempts. The transfer has not been executed, so it can be retried
+ */
+public class TransferConflictException extends ServiceUnavailableException {
+
+    public static final String ATTEMPTS = "ATTEMPTS";
+
+    @Override
+    public String getErrorCode() {
+        return "revolut.error.transfer_conflict";
+    }
+}
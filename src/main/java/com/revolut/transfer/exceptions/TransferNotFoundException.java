@@ -0,0 +1,11 @@
+package com.revolut.transfer.exceptions;
+
+public class TransferNotFoundException extends ResourceNotFoundException {
+
+    public static final String TRANSFER_ID = "TRANSFER_ID";
+
+    @Override
+    public String getErrorCode() {
+        return "revolut.error.transfer_not_found";
+    }
+}
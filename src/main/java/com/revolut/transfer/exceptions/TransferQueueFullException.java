@@ -0,0 +1,9 @@
+package com.revolut.transfer.exceptions;
+
+public class TransferQueueFullException extends ServiceUnavailableException {
+
+    @Override
+    public String getErrorCode() {
+        return "revolut.error.transfer_queue_full";
+    }
+}
@@ -0,0 +1,426 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.AccountCacheStatistics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>Bounded write-through cache of the accounts, with an approximation of least recently used eviction (the CLOCK
+ * algorithm: a read only marks the account as referenced, and the eviction skips, once, the referenced accounts).
+ * It keeps immutable copies of the accounts, so the callers can never modify a cached account.</p>
+ * <p>Reads do not take any lock, the accounts are kept in a concurrent map. Only adding or removing an account takes
+ * the lock of the eviction; replacing a cached account does not.</p>
+ * <p>The cache is updated by the writers once the transaction is committed and before the account locks (or the
+ * single writer thread) are released. A cached account is only replaced by a newer version of it, so writers
+ * updating the cache out of order never leave an old version. The list of all the accounts is never taken while a
+ * writer is updating the cache, so it has either all the accounts of a commit before the transfer or all of them
+ * after it, never a half-applied transfer.</p>
+ * <p>A reader missing the cache loads the account from the DB and then adds it to the cache. To avoid adding a value
+ * that was read before a concurrent commit, the account is only added if no writer has updated an account of its
+ * stripe since the read started (see {@link #getWriteSequence(Long)}). The accounts are spread across many stripes,
+ * so writes of other accounts do not prevent a miss from being cached</p>
+ * <p>When all the accounts of the system fit in the cache and have been loaded, the cache is complete and can also
+ * serve the list of all the accounts. Any eviction makes it incomplete again</p>
+ */
+public class AccountCache {
+
+    /**
+     * Number of stripes of the write sequences, a power of two
+     */
+    private static final int WRITE_STRIPES = 1024;
+
+    private final int maxSize;
+
+    private final ConcurrentHashMap<Long, Entry> accounts;
+
+    /**
+     * Writes of the accounts of every stripe
+     */
+    private final AtomicLongArray writeSequences = new AtomicLongArray(WRITE_STRIPES);
+
+    /**
+     * Taken to add or remove accounts. The slots of the accounts are only read and changed with it. Always taken
+     * after the snapshot lock
+     */
+    private final Lock evictionLock = new ReentrantLock();
+
+    /**
+     * Shared by the writers updating the cache, exclusive to take or replace all the accounts at once
+     */
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    /**
+     * Id of the account of every slot of the clock, null if the slot is free
+     */
+    private final Long[] slots;
+    private final int[] freeSlots;
+    private int freeSlotCount;
+    private int clockHand;
+
+    private volatile boolean complete;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxSize maximum number of cached accounts, 0 disables the cache
+     */
+    public AccountCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("The maximum size of the cache cannot be negative");
+        }
+        this.maxSize = maxSize;
+        this.accounts = new ConcurrentHashMap<>(Math.max(16, maxSize * 4 / 3 + 1));
+        this.slots = new Long[maxSize];
+        this.freeSlots = new int[maxSize];
+        freeAllSlots();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * @return a copy of the cached account or null if it is not cached
+     */
+    public Account get(Long accountId) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Entry entry = accounts.get(accountId);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        // Only written once per pass of the clock, so the hot accounts are not written by every read
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        hits.increment();
+        return copy(entry.account.get());
+    }
+
+    /**
+     * @return copies of all the accounts of the system ordered by id, or null if the cache is not complete
+     */
+    public List<Account> getAll() {
+        if (!isEnabled()) {
+            return null;
+        }
+        List<Account> all;
+        snapshotLock.writeLock().lock();
+        try {
+            if (!complete) {
+                misses.increment();
+                return null;
+            }
+            all = new ArrayList<>(accounts.size());
+            for (Entry entry : accounts.values()) {
+                all.add(copy(entry.account.get()));
+            }
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        hits.increment();
+        all.sort(Comparator.comparing(Account::getId));
+        return all;
+    }
+
+    /**
+     * @return the number of updates done by the writers to the accounts of the stripe of the given one, to be read
+     * before loading the account from the DB
+     */
+    public long getWriteSequence(Long accountId) {
+        return writeSequences.get(stripeOf(accountId));
+    }
+
+    /**
+     * @return the number of updates done by the writers to all the accounts, to be read before loading all of them
+     * from the DB
+     */
+    public long getWriteSequence() {
+        long sequence = 0;
+        for (int i = 0; i < WRITE_STRIPES; i++) {
+            sequence += writeSequences.get(i);
+        }
+        return sequence;
+    }
+
+    /**
+     * Adds an account read from the DB, only if no writer has updated an account of its stripe since the given
+     * sequence (see {@link #getWriteSequence(Long)})
+     */
+    public void putIfUnchanged(Account account, long sequence) {
+        if (!isEnabled()) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            if (writeSequences.get(stripeOf(account.getId())) == sequence && !accounts.containsKey(account.getId())) {
+                add(account);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the cache with all the accounts of the system read from the DB, only if no writer has updated the cache
+     * since the given sequence (see {@link #getWriteSequence()}) and all of them fit in the cache. Then the cache is
+     * complete
+     */
+    public void putAllIfUnchanged(List<Account> allAccounts, long sequence) {
+        if (!isEnabled() || allAccounts.size() > maxSize) {
+            return;
+        }
+        snapshotLock.writeLock().lock();
+        evictionLock.lock();
+        try {
+            if (getWriteSequence() != sequence) {
+                return;
+            }
+            accounts.clear();
+            freeAllSlots();
+            for (Account account : allAccounts) {
+                add(account);
+            }
+            complete = true;
+        } finally {
+            evictionLock.unlock();
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds some of the accounts of the system read from the DB, only if no writer has updated the cache since the
+     * given sequence (see {@link #getWriteSequence()}). Accounts that do not fit in the cache evict others
+     */
+    public void putSomeIfUnchanged(List<Account> someAccounts, long sequence) {
+        if (!isEnabled()) {
+            return;
+        }
+        snapshotLock.writeLock().lock();
+        evictionLock.lock();
+        try {
+            if (getWriteSequence() != sequence) {
+                return;
+            }
+            for (Account account : someAccounts) {
+                if (!accounts.containsKey(account.getId())) {
+                    add(account);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Updates all the accounts modified by a committed transaction. To be called by the writers after the commit and
+     * before releasing the accounts
+     */
+    public void update(Collection<Account> committedAccounts) {
+        if (!isEnabled()) {
+            return;
+        }
+        snapshotLock.readLock().lock();
+        try {
+            for (Account account : committedAccounts) {
+                // Before the account is replaced, so a reader that loaded it before the commit does not add it
+                writeSequences.incrementAndGet(stripeOf(account.getId()));
+                Entry entry = accounts.get(account.getId());
+                if (entry == null) {
+                    addOrReplace(account);
+                } else {
+                    // If the entry is evicted meanwhile the account is not cached, the next read loads it again
+                    entry.replace(copy(account));
+                }
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the accounts modified by a committed transaction whose new state is not known, i.e. updated with SQL
+     * statements without loading them. To be called by the writers after the commit
+     */
+    public void invalidate(Collection<Long> accountIds) {
+        if (!isEnabled()) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            for (Long accountId : accountIds) {
+                writeSequences.incrementAndGet(stripeOf(accountId));
+                if (remove(accountId)) {
+                    complete = false;
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the accounts, i.e. when the DB is cleaned
+     */
+    public void invalidateAll() {
+        snapshotLock.writeLock().lock();
+        evictionLock.lock();
+        try {
+            for (int i = 0; i < WRITE_STRIPES; i++) {
+                writeSequences.incrementAndGet(i);
+            }
+            accounts.clear();
+            freeAllSlots();
+            complete = false;
+        } finally {
+            evictionLock.unlock();
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    public AccountCacheStatistics getStatistics() {
+        AccountCacheStatistics statistics = new AccountCacheStatistics();
+        statistics.setMaxSize(maxSize);
+        statistics.setSize(accounts.size());
+        statistics.setHits(hits.sum());
+        statistics.setMisses(misses.sum());
+        statistics.setEvictions(evictions.sum());
+        return statistics;
+    }
+
+    /**
+     * Adds the account or, if it was added by another thread meanwhile, replaces it if it's newer
+     */
+    private void addOrReplace(Account account) {
+        evictionLock.lock();
+        try {
+            Entry entry = accounts.get(account.getId());
+            if (entry == null) {
+                add(account);
+            } else {
+                entry.replace(copy(account));
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Adds an account that is not cached, evicting another one if the cache is full. Called with the eviction lock
+     */
+    private void add(Account account) {
+        if (freeSlotCount == 0) {
+            evict();
+        }
+        int slot = freeSlots[--freeSlotCount];
+        slots[slot] = account.getId();
+        accounts.put(account.getId(), new Entry(slot, copy(account)));
+    }
+
+    /**
+     * Evicts the first account not referenced since the last pass of the clock. Called with the eviction lock
+     */
+    private void evict() {
+        while (true) {
+            Long accountId = slots[clockHand];
+            Entry entry = accountId == null ? null : accounts.get(accountId);
+            if (entry != null && entry.referenced) {
+                entry.referenced = false;
+                clockHand = (clockHand + 1) % maxSize;
+            } else if (accountId != null) {
+                remove(accountId);
+                evictions.increment();
+                complete = false;
+                return;
+            } else {
+                clockHand = (clockHand + 1) % maxSize;
+            }
+        }
+    }
+
+    /**
+     * @return true if the account was cached. Called with the eviction lock
+     */
+    private boolean remove(Long accountId) {
+        Entry entry = accounts.remove(accountId);
+        if (entry == null) {
+            return false;
+        }
+        slots[entry.slot] = null;
+        freeSlots[freeSlotCount++] = entry.slot;
+        return true;
+    }
+
+    /**
+     * Called with the eviction lock, or from the constructor
+     */
+    private void freeAllSlots() {
+        Arrays.fill(slots, null);
+        // The first slots are used first
+        for (int i = 0; i < maxSize; i++) {
+            freeSlots[i] = maxSize - 1 - i;
+        }
+        freeSlotCount = maxSize;
+        clockHand = 0;
+    }
+
+    private static int stripeOf(Long accountId) {
+        long hash = accountId * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 54) & (WRITE_STRIPES - 1);
+    }
+
+    private static Account copy(Account account) {
+        Account copy = new Account();
+        copy.setId(account.getId());
+        copy.setAccountReference(account.getAccountReference());
+        copy.setBalance(account.getBalance());
+        copy.setVersion(account.getVersion());
+        return copy;
+    }
+
+    private static class Entry {
+
+        private final int slot;
+        private final AtomicReference<Account> account;
+
+        /**
+         * Read since the last pass of the clock
+         */
+        private volatile boolean referenced;
+
+        Entry(int slot, Account account) {
+            this.slot = slot;
+            this.account = new AtomicReference<>(account);
+        }
+
+        /**
+         * Replaces the account unless the cached one is newer
+         */
+        void replace(Account newer) {
+            while (true) {
+                Account current = account.get();
+                if (current.getVersion() > newer.getVersion() || account.compareAndSet(current, newer)) {
+                    return;
+                }
+            }
+        }
+    }
+}
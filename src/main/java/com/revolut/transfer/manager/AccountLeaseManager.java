@@ -0,0 +1,185 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.LeaseExpiredException;
+import com.revolut.transfer.exceptions.LockTimeoutException;
+import com.revolut.transfer.exceptions.ServiceUnavailableException;
+import com.revolut.transfer.metrics.Counter;
+import com.revolut.transfer.metrics.MetricsRegistry;
+import com.revolut.transfer.persistence.AccountLeaseRepository;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>Account level locking shared by several instances of the application, through leases kept in the DB. Unlike
+ * the {@link AccountLockManager}, it does not need a single instance of the application.</p>
+ * <p>All the accounts of a transfer are leased in one short transaction, in the order of their ids. If any of them is
+ * leased by another instance, the transaction is rolled back, so nothing is held while waiting, and it's tried again
+ * after a random backoff until the timeout.</p>
+ * <p>A lease expires after a fixed time, so the accounts of an instance that crashed are not locked forever. A slow
+ * transfer may outlive its lease, so the leases are released in the transaction of the transfer checking their tokens
+ * (fencing): if any lease has been taken by another instance, the transfer is rolled back</p>
+ * <p>The clocks of the instances should be synchronized well within the duration of the leases. The fencing keeps the
+ * accounts consistent anyway, but a fast clock takes over leases that are still in use</p>
+ */
+public class AccountLeaseManager {
+
+    private final static Logger logger = Logger.getLogger(AccountLeaseManager.class);
+
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final AccountLeaseRepository accountLeaseRepository;
+    private final String owner;
+    private final long leaseMillis;
+    private final long timeoutMillis;
+    private final LongSupplier clock;
+
+    private final Counter retries = MetricsRegistry.getInstance().counter("account_lease_retries_total",
+            "Attempts to lease the accounts of a transfer that found an account leased by another instance");
+    private final Counter timeouts = MetricsRegistry.getInstance().counter("account_lease_timeouts_total",
+            "Transfers that gave up waiting for the leases of their accounts");
+    private final Counter expired = MetricsRegistry.getInstance().counter("account_lease_expired_total",
+            "Transfers rolled back because a lease expired and was taken by another instance before the commit");
+
+    public AccountLeaseManager(AccountLeaseRepository accountLeaseRepository, String owner, long leaseMillis, long timeoutMillis) {
+        this(accountLeaseRepository, owner, leaseMillis, timeoutMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * @param owner identifier of this instance of the application, unique among the instances sharing the DB
+     * @param leaseMillis time after which a lease is expired and can be taken by another instance
+     * @param timeoutMillis maximum time to wait for the leases, 0 to wait without limit
+     * @param clock current time, in milliseconds since the epoch
+     */
+    AccountLeaseManager(AccountLeaseRepository accountLeaseRepository, String owner, long leaseMillis, long timeoutMillis, LongSupplier clock) {
+        this.accountLeaseRepository = accountLeaseRepository;
+        this.owner = owner;
+        this.leaseMillis = leaseMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.clock = clock;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Leases all the given accounts. Repeated ids are only leased once
+     * @return the leases, to be released with {@link #releaseOnCommit(Leases)} or {@link #release(Leases)}
+     * @throws LockTimeoutException if the accounts could not be leased before the timeout. None of them is leased
+     * then
+     */
+    public Leases acquire(Collection<Long> accountIds) {
+        List<Long> orderedAccountIds = new ArrayList<>(new TreeSet<>(accountIds));
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (int attempt = 1; ; attempt++) {
+            long[] tokens = tryAcquire(orderedAccountIds);
+            if (tokens != null) {
+                return new Leases(orderedAccountIds, tokens);
+            }
+            long remainingNanos = deadline - System.nanoTime();
+            if (timeoutMillis > 0 && remainingNanos <= 0) {
+                timeouts.increment();
+                throw new LockTimeoutException()
+                        .withProperty(LockTimeoutException.TIMEOUT_MILLIS, timeoutMillis)
+                        .withProperty(ServiceUnavailableException.RETRY_AFTER_SECONDS, 1);
+            }
+            retries.increment();
+            long maxBackoffNanos = Math.min(MAX_BACKOFF_NANOS, MIN_BACKOFF_NANOS << Math.min(attempt - 1, 30));
+            if (timeoutMillis > 0) {
+                maxBackoffNanos = Math.min(maxBackoffNanos, remainingNanos);
+            }
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(maxBackoffNanos + 1));
+        }
+    }
+
+    /**
+     * Releases the leases in the transaction of the current thread, to be called right before committing the
+     * transfer. The leases are released if, and only if, the transfer is committed
+     * @throws LeaseExpiredException if any of the leases has been taken by another instance. The transfer must be
+     * rolled back
+     */
+    public void releaseOnCommit(Leases leases) {
+        for (int i = 0; i < leases.accountIds.size(); i++) {
+            if (!accountLeaseRepository.release(leases.accountIds.get(i), owner, leases.tokens[i])) {
+                expired.increment();
+                throw new LeaseExpiredException()
+                        .withProperty(ServiceUnavailableException.RETRY_AFTER_SECONDS, 1);
+            }
+        }
+    }
+
+    /**
+     * Releases the leases of a transfer that was not committed, in its own transaction. If it fails, the leases are
+     * freed once they expire
+     */
+    public void release(Leases leases) {
+        try {
+            accountLeaseRepository.startTransaction();
+            for (int i = 0; i < leases.accountIds.size(); i++) {
+                accountLeaseRepository.release(leases.accountIds.get(i), owner, leases.tokens[i]);
+            }
+            accountLeaseRepository.commitTransaction();
+        } catch (RuntimeException e) {
+            logger.warn("Leases of the accounts " + leases.accountIds + " could not be released, they will expire", e);
+            accountLeaseRepository.rollbackTransaction();
+        }
+    }
+
+    /**
+     * @return the tokens of the leases, in the same order as the accounts, or null if any account is leased by
+     * another instance
+     */
+    private long[] tryAcquire(List<Long> orderedAccountIds) {
+        long now = clock.getAsLong();
+        long[] tokens = new long[orderedAccountIds.size()];
+        try {
+            accountLeaseRepository.startTransaction();
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = accountLeaseRepository.tryAcquire(orderedAccountIds.get(i), owner, now, now + leaseMillis);
+                if (tokens[i] == 0) {
+                    accountLeaseRepository.rollbackTransaction();
+                    return null;
+                }
+            }
+            accountLeaseRepository.commitTransaction();
+            return tokens;
+        } catch (RuntimeException e) {
+            accountLeaseRepository.rollbackTransaction();
+            throw e;
+        }
+    }
+
+    /**
+     * Leases of the accounts of a transfer, ordered by account id
+     */
+    public static class Leases {
+
+        private final List<Long> accountIds;
+        private final long[] tokens;
+
+        Leases(List<Long> accountIds, long[] tokens) {
+            this.accountIds = accountIds;
+            this.tokens = tokens;
+        }
+
+        public List<Long> getAccountIds() {
+            return accountIds;
+        }
+
+        /**
+         * @return the fencing token of the lease of the account at the same position
+         */
+        public long getToken(int index) {
+            return tokens[index];
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package com.revolut.transfer.manager;
 
+import com.revolut.transfer.config.ApplicationProperties;
+import com.revolut.transfer.model.AccountLockStatistics;
 import com.revolut.transfer.model.AccountLockingSession;
 import org.apache.log4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -15,27 +21,38 @@ import java.util.concurrent.locks.ReentrantLock;
  * is involved in more than one transfer (being executed and pending for execution), the manager will keep a counter
  * of the transactions in which the account is involved. Once all the transactions has finished. The lock will be removed
  * from memory to avoid memory leaks</p>
+ * <p>The lock and its counter are kept together in a single entry of a concurrent map and are only modified through
+ * the atomic per-key operations of the map, so transfers on unrelated accounts never contend with each other</p>
+ * <p>The sessions wait at most {@link ApplicationProperties#LOCK_TIMEOUT_MILLIS} for their locks</p>
+ * <p>It's not used in the {@link TransferMode#OPTIMISTIC} and {@link TransferMode#ATOMIC} modes, that can run in
+ * several instances. In the {@link TransferMode#LEASE} mode it only orders the transfers of the same instance, the
+ * {@link AccountLeaseManager} locks the accounts across instances</p>
  */
 public class AccountLockManager {
 
     private final static Logger logger = Logger.getLogger(AccountLockManager.class);
 
-    /**
-     * Lock used to let only one thread at the same time to modify the account locks data structures
-     */
-    private Lock mapLock = new ReentrantLock();
+    private static final long DEFAULT_LOCK_TIMEOUT_MILLIS = 5000;
 
     /**
-     * Map containing the account locks
+     * Map containing the account locks together with the counter of the transactions that already have a lock on
+     * the account
      */
     // Open for testing, do not access directly from production code
-    protected Map<Long, Lock> accountLocks = new HashMap<>();
+    protected ConcurrentMap<Long, AccountLock> accountLocks = new ConcurrentHashMap<>();
+
+    private final long lockTimeoutMillis;
+
+    public AccountLockManager() {
+        this(ApplicationProperties.getLong(ApplicationProperties.LOCK_TIMEOUT_MILLIS, DEFAULT_LOCK_TIMEOUT_MILLIS));
+    }
 
     /**
-     * Map containing the counters of the transactions that already have a lock on the accounts
+     * @param lockTimeoutMillis maximum time a session waits for its locks, 0 to wait without limit
      */
-    // Open for testing, do not access directly from production code
-    protected Map<Long, Integer> lockCounter = new HashMap<>();
+    public AccountLockManager(long lockTimeoutMillis) {
+        this.lockTimeoutMillis = lockTimeoutMillis;
+    }
 
     /**
      * <p>Creates or returns already created locks for the given accounts.
@@ -46,70 +63,203 @@ public class AccountLockManager {
      * @return
      */
     public AccountLockingSession getOrCreateAccountLocks(Long originAccountId, Long destinationAccountId) {
-        List<Long> orderedAccountIds = orderAccounts(originAccountId, destinationAccountId);
-        mapLock.lock();
-        Lock lock1 = getOrCreateLock(orderedAccountIds.get(0));
-        Lock lock2 = getOrCreateLock(orderedAccountIds.get(1));
-        mapLock.unlock();
+        return getOrCreateAccountLocks(Arrays.asList(originAccountId, destinationAccountId));
+    }
+
+    /**
+     * <p>Creates or returns already created locks for all the given accounts, i.e. all the accounts involved in
+     * a batch of transfers. Repeated ids are only locked once</p>
+     * <p>Locks are returned in the natural order of the account ids, so they are taken in one globally ordered pass
+     * and there cannot be deadlocks with any other session</p>
+     * @param accountIds
+     * @return
+     */
+    public AccountLockingSession getOrCreateAccountLocks(Collection<Long> accountIds) {
+        List<Lock> locks = new ArrayList<>(accountIds.size());
+        for (Long accountId : orderAccounts(accountIds)) {
+            locks.add(getOrCreateLock(accountId));
+        }
+        return new AccountLockingSession(locks, lockTimeoutMillis);
+    }
+
+    /**
+     * To be called when the transaction of a session created with {@link #getOrCreateAccountLocks(Long, Long)} has been
+     * completed (successfully or unsuccessfully). If not, there is risk of memory leaks. Only the locks taken by the
+     * session are released, so it can be called whether or not the session could take them
+     * @param session
+     * @param originAccountId
+     * @param destinationAccountId
+     */
+    public void releaseLocks(AccountLockingSession session, Long originAccountId, Long destinationAccountId) {
+        releaseLocks(session, Arrays.asList(originAccountId, destinationAccountId));
+    }
 
-        return new AccountLockingSession(lock1, lock2);
+    /**
+     * To be called when all the transactions of a session created with {@link #getOrCreateAccountLocks(Collection)}
+     * have been completed (successfully or unsuccessfully). If not, there is risk of memory leaks. Only the locks taken
+     * by the session are released, so it can be called whether or not the session could take them
+     * @param session
+     * @param accountIds the same ids used to create the session
+     */
+    public void releaseLocks(AccountLockingSession session, Collection<Long> accountIds) {
+        session.unlock();
+        List<Long> orderedAccountIds = orderAccounts(accountIds);
+        for (int i = orderedAccountIds.size() - 1; i >= 0; i--) {
+            releaseEntry(orderedAccountIds.get(i));
+        }
     }
 
     /**
-     * To be called when the transaction has been completed (successfully or unsuccessfully). If not, there
-     * is risk of memory leaks
+     * To be called when the transaction has been completed (successfully or unsuccessfully), with the locks held by the
+     * current thread. If not, there is risk of memory leaks
      * @param originAccountId
      * @param destinationAccountId
      */
     public void releaseLocks(Long originAccountId, Long destinationAccountId) {
-        List<Long> orderedAccountIds = orderAccounts(originAccountId, destinationAccountId);
-        mapLock.lock();
-        releaseLock(orderedAccountIds.get(1));
-        releaseLock(orderedAccountIds.get(0));
-        mapLock.unlock();
+        releaseLocks(Arrays.asList(originAccountId, destinationAccountId));
+    }
+
+    /**
+     * To be called when all the transactions of a session created with {@link #getOrCreateAccountLocks(Collection)}
+     * have been completed (successfully or unsuccessfully), with the locks held by the current thread. If not, there is
+     * risk of memory leaks
+     * @param accountIds the same ids used to create the session
+     */
+    public void releaseLocks(Collection<Long> accountIds) {
+        List<Long> orderedAccountIds = orderAccounts(accountIds);
+        for (int i = orderedAccountIds.size() - 1; i >= 0; i--) {
+            releaseLock(orderedAccountIds.get(i));
+        }
+    }
 
+    /**
+     * @return number of accounts with a lock in memory, that is, involved in a transfer being executed or waiting
+     */
+    public int getLiveLocks() {
+        return accountLocks.size();
     }
 
-    private List<Long> orderAccounts(Long originAccountId, Long destinationAccountId) {
-        List<Long> orderedAccountIds = Arrays.asList(originAccountId, destinationAccountId);
-        orderedAccountIds.sort(Comparator.naturalOrder());
-        return orderedAccountIds;
+    /**
+     * @return number of transfers waiting for the lock of the account, an estimation as it keeps changing
+     */
+    public int getWaiters(Long accountId) {
+        AccountLock accountLock = accountLocks.get(accountId);
+        return accountLock == null ? 0 : accountLock.getLock().getQueueLength();
     }
 
-    private Lock getOrCreateLock(Long accountId) {
-        Lock result = accountLocks.get(accountId);
-        if (result == null) {
-            result = new ReentrantLock();
-            accountLocks.put(accountId, result);
-            lockCounter.put(accountId, 1);
-        } else {
-            lockCounter.put(accountId, lockCounter.get(accountId) + 1);
+    /**
+     * Returns the statistics of the accounts with more transfers waiting for their lock, the hot accounts of the
+     * moment. The numbers are estimations, the locks keep changing while they are read
+     * @param maxAccounts maximum number of accounts to be returned
+     * @return statistics of the accounts with at least one waiting transfer, the ones with more waiters first
+     */
+    public List<AccountLockStatistics> getHotAccounts(int maxAccounts) {
+        Comparator<AccountLockStatistics> byWaiters = Comparator.comparingInt(AccountLockStatistics::getWaiters);
+        PriorityQueue<AccountLockStatistics> hottest = new PriorityQueue<>(byWaiters);
+        for (Map.Entry<Long, AccountLock> entry : accountLocks.entrySet()) {
+            MeasuredLock lock = entry.getValue().getLock();
+            int waiters = lock.getQueueLength();
+            if (waiters > 0) {
+                hottest.add(new AccountLockStatistics(entry.getKey(), waiters, lock.acquisitions, lock.waitNanos, lock.timeouts));
+                if (hottest.size() > maxAccounts) {
+                    hottest.poll();
+                }
+            }
         }
-        return result;
+        List<AccountLockStatistics> hotAccounts = new ArrayList<>(hottest);
+        hotAccounts.sort(byWaiters.reversed());
+        return hotAccounts;
+    }
+
+    private List<Long> orderAccounts(Collection<Long> accountIds) {
+        return new ArrayList<>(new TreeSet<>(accountIds));
+    }
+
+    private Lock getOrCreateLock(Long accountId) {
+        return accountLocks.compute(accountId, (id, accountLock) -> accountLock == null ? new AccountLock() : accountLock.retain()).getLock();
     }
 
     private void releaseLock(Long accountId) {
-        Lock lock = accountLocks.get(accountId);
-        Integer count = lockCounter.get(accountId);
-        if (count == null) {
-            accountLocks.remove(accountId);
-        } else {
-            count = count - 1;
-        }
-        if (lock == null) {
-            lockCounter.remove(accountId);
+        AccountLock accountLock = accountLocks.get(accountId);
+        if (accountLock == null) {
             return;
         }
-        if (count == 0) {
-            lockCounter.remove(accountId);
-            accountLocks.remove(accountId);
-        } else {
-            lockCounter.put(accountId, count);
-        }
         try {
-            lock.unlock();
+            accountLock.getLock().unlock();
         } catch (IllegalMonitorStateException e) {
             logger.error("Trying to unlock a not locked Lock", e);
         }
+        releaseEntry(accountId);
+    }
+
+    private void releaseEntry(Long accountId) {
+        // The entry is removed only when the last transaction using it has finished, so every thread still waiting
+        // for the lock keeps using the same instance
+        accountLocks.computeIfPresent(accountId, (id, entry) -> entry.release() == 0 ? null : entry);
+    }
+
+    /**
+     * Lock of an account and the number of transactions that are using it. The counter is only modified inside the
+     * atomic operations of the map holding the entry
+     */
+    static class AccountLock {
+
+        private final MeasuredLock lock = new MeasuredLock();
+
+        private volatile int count = 1;
+
+        MeasuredLock getLock() {
+            return lock;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        AccountLock retain() {
+            count++;
+            return this;
+        }
+
+        int release() {
+            return --count;
+        }
+    }
+
+    /**
+     * Lock that keeps the number of times it has been taken, the total time waited for it and the number of
+     * timeouts. The acquisitions and the wait time are only updated by the thread holding the lock, so they do not
+     * need to be atomic
+     */
+    static class MeasuredLock extends ReentrantLock {
+
+        private static final AtomicLongFieldUpdater<MeasuredLock> TIMEOUTS = AtomicLongFieldUpdater.newUpdater(MeasuredLock.class, "timeouts");
+
+        private volatile long acquisitions;
+        private volatile long waitNanos;
+        private volatile long timeouts;
+
+        @Override
+        public void lock() {
+            long startNanos = System.nanoTime();
+            super.lock();
+            acquired(startNanos);
+        }
+
+        @Override
+        public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+            long startNanos = System.nanoTime();
+            if (super.tryLock(timeout, unit)) {
+                acquired(startNanos);
+                return true;
+            }
+            TIMEOUTS.incrementAndGet(this);
+            return false;
+        }
+
+        private void acquired(long startNanos) {
+            acquisitions++;
+            waitNanos += System.nanoTime() - startNanos;
+        }
     }
 }
@@ -1,21 +1,60 @@
 package com.revolut.transfer.manager;
 
+import com.revolut.transfer.config.ApplicationProperties;
+import com.revolut.transfer.config.StartupTimer;
+import com.revolut.transfer.config.VirtualThreads;
 import com.revolut.transfer.exceptions.AccountNotFoundException;
 import com.revolut.transfer.exceptions.BadParameterException;
 import com.revolut.transfer.exceptions.InsufficientFundsException;
+import com.revolut.transfer.exceptions.LockTimeoutException;
+import com.revolut.transfer.exceptions.RevolutException;
+import com.revolut.transfer.metrics.Counter;
+import com.revolut.transfer.metrics.Histogram;
+import com.revolut.transfer.metrics.MetricsRegistry;
 import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.AccountCacheStatistics;
+import com.revolut.transfer.model.AccountLockStatistics;
 import com.revolut.transfer.model.AccountLockingSession;
+import com.revolut.transfer.model.ApplicationError;
+import com.revolut.transfer.model.Money;
+import com.revolut.transfer.model.TransferHistoryEntry;
+import com.revolut.transfer.model.TransferRequest;
+import com.revolut.transfer.model.TransferResult;
 import com.revolut.transfer.model.TransferTransaction;
+import com.revolut.transfer.persistence.AccountLeaseRepository;
 import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.AccountSnapshotFile;
+import com.revolut.transfer.persistence.AccountSubBalanceRepository;
+import com.revolut.transfer.persistence.EntityManagerContext;
+import com.revolut.transfer.persistence.LedgerCheckpointRepository;
+import com.revolut.transfer.persistence.PendingDepositRepository;
 import com.revolut.transfer.persistence.TransferTransactionRepository;
 import org.apache.log4j.Logger;
 
-import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static com.revolut.transfer.exceptions.AccountNotFoundException.ACCOUNT_ID;
 
@@ -27,13 +66,92 @@ import static com.revolut.transfer.exceptions.AccountNotFoundException.ACCOUNT_I
 public class AccountManager {
 
     private final static Logger logger = Logger.getLogger(AccountManager.class);
+    private static final int DEFAULT_CONNECTION_POOL_SIZE = 20;
+
+    /**
+     * Number of accounts with waiting transfers exposed in the metrics
+     */
+    private static final int HOT_ACCOUNTS = 10;
+
+    /*
+     * Errors of the validation of the transfers. They are rejected at a high rate if a client misbehaves, so they are
+     * created once, with their response already rendered
+     */
+    private static final BadParameterException ORIGIN_ACCOUNT_ID_NULL = BadParameterException.frozen("originAccountId", "NOT_NULL");
+    private static final BadParameterException DESTINATION_ACCOUNT_ID_NULL = BadParameterException.frozen("destinationAccountId", "NOT_NULL");
+    private static final BadParameterException SAME_ACCOUNTS = BadParameterException.frozen("originAccountId, destinationAccountId", "DIFFERENT");
+    private static final BadParameterException AMOUNT_NULL = BadParameterException.frozen("amount", "NOT_NULL");
+    private static final BadParameterException AMOUNT_NEGATIVE = BadParameterException.frozen("amount", "POSITIVE");
+    private static final BadParameterException AMOUNT_ZERO = BadParameterException.frozen("amount", "NOT_EQUAL_TO_ZERO");
+    private static final BadParameterException AMOUNT_NOT_REPRESENTABLE = BadParameterException.frozen("amount", "AT_MOST_" + Money.getScale() + "_DECIMALS_AND_IN_RANGE");
+
+    /**
+     * Maximum number of accounts of a page of {@link #getAccounts(Long, int)}, and of transfers of a page of
+     * {@link #getTransactions(Long, LocalDateTime, LocalDateTime, Long, int)}
+     */
+    public static final int MAX_PAGE_SIZE = 1000;
     private static AccountManager instance = new AccountManager();
+
+    static {
+        instance.registerGauges(MetricsRegistry.getInstance());
+    }
+
     private AccountLockManager accountLockManager = new AccountLockManager();
     private AccountRepository accountRepository = new AccountRepository();
     private TransferTransactionRepository transferTransactionRepository = new TransferTransactionRepository();
+    private AccountLeaseRepository accountLeaseRepository = new AccountLeaseRepository();
+    private AccountSubBalanceRepository accountSubBalanceRepository = new AccountSubBalanceRepository();
+    private LedgerCheckpointRepository ledgerCheckpointRepository = new LedgerCheckpointRepository();
+    private PendingDepositRepository pendingDepositRepository = new PendingDepositRepository();
+    private TransferOperations transferOperations;
+    private AccountSubBalanceManager accountSubBalanceManager;
+
+    /**
+     * Netting of the transfers between the same accounts in the locking mode, null if it's disabled
+     */
+    private TransferNetting transferNetting;
+    private TransferEventLog transferEventLog = TransferEventLog.getInstance();
+
+    /*
+     * Durations of the phases of a transfer in the locking mode
+     */
+    private final Histogram lockWaitTime = transferPhase("lock_wait");
+    private final Histogram accountLoadTime = transferPhase("account_load");
+    private final Histogram flushTime = transferPhase("flush");
+    private final Histogram commitTime = transferPhase("commit");
+    private final Counter completedTransfers = transferOutcome("COMPLETED");
+
+    /**
+     * Counters of the rejected transfers by the class of the exception, so a rejection does not build the labels and
+     * look the counter up in the registry
+     */
+    private final ConcurrentMap<Class<?>, Counter> rejectedTransfersByType = new ConcurrentHashMap<>();
+
+    /**
+     * Write-through cache of the accounts, updated by every committed transfer before the accounts are released
+     */
+    private AccountCache accountCache = new AccountCache(ApplicationProperties.getInt(ApplicationProperties.ACCOUNT_CACHE_MAX_SIZE, 10000));
+
+    /**
+     * Engine executing the transfers when the configured mode is not {@link TransferMode#LOCKING}
+     */
+    private TransferEngine transferEngine;
+
+    /**
+     * Maximum number of transfers of a bulk request executed in the same transaction
+     */
+    private int bulkTransferChunkSize;
+
+    private EntityManagerFactory entityManagerFactory;
+
+    /**
+     * True if the DB is an H2 in-memory DB, that does not survive a restart of the application
+     */
+    private boolean inMemoryDatabase;
 
     public AccountManager() {
         initEntityManager();
+        initTransferEngine();
     }
 
 
@@ -42,6 +160,7 @@ public class AccountManager {
         this.accountRepository = accountRepository;
         this.transferTransactionRepository = transferTransactionRepository;
         initEntityManager();
+        initTransferEngine();
     }
 
     public static AccountManager getInstance() {
@@ -53,7 +172,13 @@ public class AccountManager {
      * destinationAccountId</p>
      *
      * <p>It's guaranteed that only one thread can work with an specific account. So code is race condition free.
-     * To achieve that, it's mandatory that only one instance of AccountLockManager is running in all the system.</p>
+     * To achieve that, it's mandatory that only one instance of AccountLockManager is running in all the system.
+     * The {@link TransferMode#OPTIMISTIC} and {@link TransferMode#ATOMIC} modes do not have this restriction, they
+     * rely on the version of the accounts and on the row locks of the DB instead of in-memory locks. Neither does the
+     * {@link TransferMode#LEASE} mode, that also takes a lease of the accounts in the DB</p>
+     *
+     * <p>If the configured mode is not {@link TransferMode#LOCKING}, the transfer is executed by the configured
+     * {@link TransferEngine} once the parameters are validated</p>
      *
      * @param originAccountId id of the account to take the money from
      * @param destinationAccountId id of the account to send the money to
@@ -63,83 +188,294 @@ public class AccountManager {
      * same origin account and destination account or amount is less or equal to 0
      * @throws AccountNotFoundException if originAccountId or destinationAccountId are not ids of existing accounts
      * @throws InsufficientFundsException if origin account does not have at least the given amount to be transferred
+     * @throws LockTimeoutException if the accounts are used by other transfers for too long, the transfer can be
+     * retried
+     * @throws com.revolut.transfer.exceptions.TransferConflictException in optimistic mode, if the accounts kept being
+     * modified by other transfers in all the attempts, the transfer can be retried
+     * @throws com.revolut.transfer.exceptions.LeaseExpiredException in lease mode, if a lease expired and was taken by
+     * another instance before the commit, the transfer can be retried
      *
      */
     public void transfer(Long originAccountId, Long destinationAccountId, BigDecimal amount) {
-        logger.info(String.format("Transfer called: originAccountId: %d, destinationAccountId: %d, amount: %s", originAccountId, destinationAccountId, amount));
-        if (originAccountId == null) {
-            throw new BadParameterException()
-                    .withProperty(BadParameterException.PARAMETER_NAME, "originAccountId")
-                    .withProperty(BadParameterException.EXPECTED_CONDITION, "NOT_NULL");
-        }
-        if (destinationAccountId == null) {
-            throw new BadParameterException()
-                    .withProperty(BadParameterException.PARAMETER_NAME, "destinationAccountId")
-                    .withProperty(BadParameterException.EXPECTED_CONDITION, "NOT_NULL");
-        }
-        if (originAccountId.equals(destinationAccountId)) {
-            throw new BadParameterException()
-                    .withProperty(BadParameterException.PARAMETER_NAME, "originAccountId, destinationAccountId")
-                    .withProperty(BadParameterException.EXPECTED_CONDITION, "DIFFERENT");
-        }
-        if (amount == null) {
-            throw new BadParameterException()
-                    .withProperty(BadParameterException.PARAMETER_NAME, "amount")
-                    .withProperty(BadParameterException.EXPECTED_CONDITION, "NOT_NULL");
+        long startNanos = System.nanoTime();
+        long lockedNanos = TransferEventLog.NOT_MEASURED;
+        long minorUnits = 0;
+        try {
+            minorUnits = validateTransfer(originAccountId, destinationAccountId, amount);
+            if (transferEngine != null) {
+                transferEngine.transfer(originAccountId, destinationAccountId, minorUnits);
+            } else {
+                lockedNanos = transferWithLocks(originAccountId, destinationAccountId, minorUnits);
+            }
+            transferEventLog.record(originAccountId, destinationAccountId, minorUnits, null, startNanos, lockedNanos, System.nanoTime());
+            completedTransfers.increment();
+        } catch (RuntimeException e) {
+            transferEventLog.record(originAccountId, destinationAccountId, minorUnits, errorCode(e), startNanos, lockedNanos, System.nanoTime());
+            rejectedTransfers(e).increment();
+            throw e;
         }
-        if (amount.compareTo(new BigDecimal(0)) < 0) {
-            throw new BadParameterException()
-                    .withProperty(BadParameterException.PARAMETER_NAME, "amount")
-                    .withProperty(BadParameterException.EXPECTED_CONDITION, "POSITIVE");
+    }
+
+    /**
+     * @return when the account locks were taken, in {@link System#nanoTime()}, or {@link TransferEventLog#NOT_MEASURED}
+     * if the transfer was netted in a batch led by another transfer
+     */
+    private long transferWithLocks(Long originAccountId, Long destinationAccountId, long minorUnits) {
+        int destinationWaiters = accountSubBalanceManager.isAutoSplitEnabled() ? accountLockManager.getWaiters(destinationAccountId) : 0;
+        if (accountSubBalanceManager.splitIfHot(destinationAccountId, destinationWaiters)) {
+            return transferToSplitAccount(originAccountId, destinationAccountId, minorUnits);
         }
-        if (amount.compareTo(new BigDecimal(0)) == 0) {
-            throw new BadParameterException()
-                    .withProperty(BadParameterException.PARAMETER_NAME, "amount")
-                    .withProperty(BadParameterException.EXPECTED_CONDITION, "NOT_EQUAL_TO_ZERO");
+        if (transferNetting != null) {
+            return transferNetting.transfer(originAccountId, destinationAccountId, minorUnits);
         }
         AccountLockingSession accountLockingSession = accountLockManager.getOrCreateAccountLocks(originAccountId, destinationAccountId);
 
         try {
+            long lockingNanos = System.nanoTime();
             accountLockingSession.lock();
+            long lockedNanos = System.nanoTime();
+            lockWaitTime.record(lockedNanos - lockingNanos);
             accountRepository.startTransaction();
-            Account originAccount = accountRepository.findById(originAccountId);
-            if (originAccount == null) {
-                throw new AccountNotFoundException().withProperty(ACCOUNT_ID, originAccountId);
-            }
-            if (originAccount.getAmount().compareTo(amount) < 0) {
-                throw new InsufficientFundsException()
-                        .withProperties(
-                                InsufficientFundsException.ACCOUNT_ID, originAccountId,
-                                InsufficientFundsException.CURRENT_FUNDS, originAccount.getAmount());
-            }
-            Account destinationAccount = accountRepository.findById(destinationAccountId);
-            if (destinationAccount == null) {
-                throw new AccountNotFoundException().withProperty(ACCOUNT_ID, destinationAccountId);
+            Account originAccount = transferOperations.loadAccount(originAccountId);
+            transferOperations.checkFunds(originAccount, minorUnits);
+            Account destinationAccount = transferOperations.loadAccount(destinationAccountId);
+            long loadedNanos = System.nanoTime();
+            accountLoadTime.record(loadedNanos - lockedNanos);
+            transferOperations.move(originAccount, destinationAccount, minorUnits);
+            accountRepository.flush();
+            long flushedNanos = System.nanoTime();
+            flushTime.record(flushedNanos - loadedNanos);
+            accountRepository.commitTransaction();
+            commitTime.record(System.nanoTime() - flushedNanos);
+            transferOperations.cacheCommitted(originAccount, destinationAccount);
+            return lockedNanos;
+        } catch (Throwable e) {
+            if (!(e instanceof RevolutException)) {
+                logger.error("Transfer rolled back", e);
             }
-            logger.info("Transfer: All data is validated, performing transfer");
-            originAccount.setAmount(originAccount.getAmount().subtract(amount));
-            destinationAccount.setAmount(destinationAccount.getAmount().add(amount));
-            TransferTransaction transferTransaction = new TransferTransaction();
-            transferTransaction.setOriginAccount(originAccount);
-            transferTransaction.setDestinationAccount(destinationAccount);
-            transferTransaction.setAmount(amount);
-            transferTransaction.setTime(LocalDateTime.now());
-            transferTransactionRepository.save(transferTransaction);
+            accountRepository.rollbackTransaction();
+            throw e;
+        } finally {
+            accountLockManager.releaseLocks(accountLockingSession, originAccountId, destinationAccountId);
+        }
+
+    }
+
+    /**
+     * Transfer to an account split in sub-balances. Only the origin account is locked, the money goes to a sub-balance
+     * of the destination account with a single SQL update
+     * @return when the account lock was taken, in {@link System#nanoTime()}
+     */
+    private long transferToSplitAccount(Long originAccountId, Long destinationAccountId, long minorUnits) {
+        List<Long> lockedAccountIds = Collections.singletonList(originAccountId);
+        AccountLockingSession accountLockingSession = accountLockManager.getOrCreateAccountLocks(lockedAccountIds);
+        try {
+            long lockingNanos = System.nanoTime();
+            accountLockingSession.lock();
+            long lockedNanos = System.nanoTime();
+            lockWaitTime.record(lockedNanos - lockingNanos);
+            accountRepository.startTransaction();
+            Account originAccount = transferOperations.loadAccount(originAccountId);
+            transferOperations.checkFunds(originAccount, minorUnits);
+            long loadedNanos = System.nanoTime();
+            accountLoadTime.record(loadedNanos - lockedNanos);
+            transferOperations.moveToSubBalance(originAccount, destinationAccountId, minorUnits);
             accountRepository.flush();
+            long flushedNanos = System.nanoTime();
+            flushTime.record(flushedNanos - loadedNanos);
             accountRepository.commitTransaction();
-            logger.info("Transfer finished successfully");
+            commitTime.record(System.nanoTime() - flushedNanos);
+            transferOperations.cacheCommitted(originAccount);
+            return lockedNanos;
         } catch (Throwable e) {
-            logger.error("Transfer rolled back", e);
+            if (!(e instanceof RevolutException)) {
+                logger.error("Transfer rolled back", e);
+            }
             accountRepository.rollbackTransaction();
             throw e;
         } finally {
-            accountLockManager.releaseLocks(originAccountId, destinationAccountId);
+            accountLockManager.releaseLocks(accountLockingSession, lockedAccountIds);
+        }
+    }
+
+    /**
+     * <p>Executes a batch of transfers. Every transfer is validated and executed on its own, so a rejected transfer
+     * does not affect the rest of the batch.</p>
+     *
+     * <p>The batch is split in chunks. In {@link TransferMode#LOCKING} mode, the locks of all the accounts involved
+     * in a chunk are taken in one ordered pass and the whole chunk is executed in a single transaction, loading all its
+     * accounts with one query. In other modes every transfer is executed by the configured {@link TransferEngine}</p>
+     *
+     * @param transferRequests transfers to be executed, in order
+     * @return the result of every transfer, in the same order as the requests
+     * @throws BadParameterException if the list of transfers or any of its elements is null
+     */
+    public List<TransferResult> transferAll(List<TransferRequest> transferRequests) {
+        if (transferRequests == null) {
+            throw new BadParameterException()
+                    .withProperty(BadParameterException.PARAMETER_NAME, "transfers")
+                    .withProperty(BadParameterException.EXPECTED_CONDITION, "NOT_NULL");
+        }
+        if (transferRequests.contains(null)) {
+            throw new BadParameterException()
+                    .withProperty(BadParameterException.PARAMETER_NAME, "transfers")
+                    .withProperty(BadParameterException.EXPECTED_CONDITION, "NOT_NULL_ELEMENTS");
+        }
+        List<TransferResult> results = new ArrayList<>(transferRequests.size());
+        for (int start = 0; start < transferRequests.size(); start += bulkTransferChunkSize) {
+            List<TransferRequest> chunk = transferRequests.subList(start, Math.min(start + bulkTransferChunkSize, transferRequests.size()));
+            if (transferEngine != null) {
+                for (TransferRequest transferRequest : chunk) {
+                    results.add(transferWithEngine(transferRequest));
+                }
+            } else {
+                results.addAll(transferChunkWithLocks(chunk));
+            }
+        }
+        return results;
+    }
+
+    private TransferResult transferWithEngine(TransferRequest transferRequest) {
+        TransferResult result = new TransferResult(transferRequest);
+        try {
+            transfer(transferRequest.getOriginAccountId(), transferRequest.getDestinationAccountId(), transferRequest.getAmount());
+            setOutcome(result, null);
+        } catch (RuntimeException e) {
+            setOutcome(result, e);
+        }
+        return result;
+    }
+
+    private List<TransferResult> transferChunkWithLocks(List<TransferRequest> chunk) {
+        long startNanos = System.nanoTime();
+        List<TransferResult> results = new ArrayList<>(chunk.size());
+        List<TransferRequest> validTransfers = new ArrayList<>(chunk.size());
+        List<TransferResult> validResults = new ArrayList<>(chunk.size());
+        long[] validAmounts = new long[chunk.size()];
+        Set<Long> accountIds = new HashSet<>();
+        for (TransferRequest transferRequest : chunk) {
+            TransferResult result = new TransferResult(transferRequest);
+            results.add(result);
+            try {
+                validAmounts[validTransfers.size()] = validateTransfer(transferRequest.getOriginAccountId(), transferRequest.getDestinationAccountId(), transferRequest.getAmount());
+            } catch (RevolutException e) {
+                setOutcome(result, e);
+                rejectedTransfers(e).increment();
+                transferEventLog.record(transferRequest.getOriginAccountId(), transferRequest.getDestinationAccountId(), 0,
+                        e.getErrorCode(), startNanos, TransferEventLog.NOT_MEASURED, System.nanoTime());
+                continue;
+            }
+            validTransfers.add(transferRequest);
+            validResults.add(result);
+            accountIds.add(transferRequest.getOriginAccountId());
+            accountIds.add(transferRequest.getDestinationAccountId());
+        }
+        if (validTransfers.isEmpty()) {
+            return results;
+        }
+        AccountLockingSession accountLockingSession = accountLockManager.getOrCreateAccountLocks(accountIds);
+        try {
+            long lockedNanos;
+            Throwable[] errors;
+            try {
+                accountLockingSession.lock();
+                lockedNanos = System.nanoTime();
+                errors = transferOperations.applyInOneTransaction(validTransfers);
+            } catch (LockTimeoutException e) {
+                // None of the transfers of the chunk has been executed, all of them can be retried
+                lockedNanos = TransferEventLog.NOT_MEASURED;
+                errors = new Throwable[validTransfers.size()];
+                Arrays.fill(errors, e);
+            }
+            long endNanos = System.nanoTime();
+            for (int i = 0; i < errors.length; i++) {
+                setOutcome(validResults.get(i), errors[i]);
+                (errors[i] == null ? completedTransfers : rejectedTransfers(errors[i])).increment();
+                TransferRequest transferRequest = validTransfers.get(i);
+                transferEventLog.record(transferRequest.getOriginAccountId(), transferRequest.getDestinationAccountId(), validAmounts[i],
+                        errors[i] == null ? null : errorCode(errors[i]), startNanos, lockedNanos, endNanos);
+            }
+        } finally {
+            accountLockManager.releaseLocks(accountLockingSession, accountIds);
         }
+        return results;
+    }
 
+    private static Histogram transferPhase(String phase) {
+        return MetricsRegistry.getInstance().histogram("transfer_phase_seconds",
+                "Duration of the phases of the transfers of the locking mode", "phase", phase);
+    }
+
+    private Counter rejectedTransfers(Throwable e) {
+        Counter counter = rejectedTransfersByType.get(e.getClass());
+        if (counter == null) {
+            counter = rejectedTransfersByType.computeIfAbsent(e.getClass(), type -> transferOutcome(type.getSimpleName()));
+        }
+        return counter;
     }
 
     /**
-     * Returns the account identified by the id
+     * @param outcome COMPLETED or the simple name of the exception that rejected the transfer
+     */
+    private static Counter transferOutcome(String outcome) {
+        return MetricsRegistry.getInstance().counter("transfer_outcomes_total",
+                "Transfers by outcome, COMPLETED or the exception that rejected them", "outcome", outcome);
+    }
+
+    /**
+     * Live locks of the accounts and transfers waiting for the locks of the hottest accounts
+     */
+    private void registerGauges(MetricsRegistry metricsRegistry) {
+        metricsRegistry.gauge("account_locks", "Accounts with a lock in memory",
+                () -> Collections.singletonMap("", accountLockManager.getLiveLocks()));
+        metricsRegistry.gauge("account_lock_waiters", "Transfers waiting for the lock of the hottest accounts",
+                () -> hotAccountSamples(AccountLockStatistics::getWaiters));
+        metricsRegistry.gauge("account_lock_wait_seconds_average", "Average wait for the lock of the hottest accounts",
+                () -> hotAccountSamples(statistics -> statistics.getAcquisitions() == 0 ? 0
+                        : (double) statistics.getWaitNanos() / statistics.getAcquisitions() / TimeUnit.SECONDS.toNanos(1)));
+        metricsRegistry.gauge("account_lock_timeouts", "Transfers that gave up waiting for the lock of the hottest accounts",
+                () -> hotAccountSamples(AccountLockStatistics::getTimeouts));
+    }
+
+    private Map<String, Number> hotAccountSamples(Function<AccountLockStatistics, Number> value) {
+        Map<String, Number> samples = new HashMap<>();
+        for (AccountLockStatistics statistics : accountLockManager.getHotAccounts(HOT_ACCOUNTS)) {
+            samples.put("account=\"" + statistics.getAccountId() + "\"", value.apply(statistics));
+        }
+        return samples;
+    }
+
+    /**
+     * @return code of the error for the {@link TransferEventLog}
+     */
+    private static String errorCode(Throwable error) {
+        return error instanceof RevolutException ? ((RevolutException) error).getErrorCode() : "revolut.error.generic";
+    }
+
+    /**
+     * Sets the status of the result, and its error if the transfer failed
+     */
+    static void setOutcome(TransferResult result, Throwable error) {
+        if (error == null) {
+            result.setStatus(TransferResult.Status.COMPLETED);
+            return;
+        }
+        result.setStatus(TransferResult.Status.REJECTED);
+        if (error instanceof RevolutException) {
+            result.setError(((RevolutException) error).getError());
+        } else {
+            logger.error("Transfer of a bulk request failed", error);
+            ApplicationError applicationError = new ApplicationError();
+            applicationError.setCode("revolut.error.generic");
+            applicationError.setClassName(error.getClass().getName());
+            result.setError(applicationError);
+        }
+    }
+
+    /**
+     * Returns the account identified by the id, from the account cache if it's cached. The balance of a split account
+     * includes its sub-balances, that are always read from the DB. In ledger and write-ahead log modes the balance is
+     * the one kept in memory
      * @param id of the account to be retrieved.
      * @return Account identified by id
      */
@@ -149,11 +485,26 @@ public class AccountManager {
                     .withProperty(BadParameterException.PARAMETER_NAME, "accountId")
                     .withProperty(BadParameterException.EXPECTED_CONDITION, "NOT_NULL");
         }
-        Account account = accountRepository.findById(id);
+        Account account = accountCache.get(id);
+        if (account != null) {
+            return withCurrentBalance(account);
+        }
+        long writeSequence = accountCache.getWriteSequence(id);
+        account = accountRepository.findById(id);
         if (account == null) {
             throw new AccountNotFoundException().withProperty(ACCOUNT_ID, id);
         }
-        return account;
+        accountCache.putIfUnchanged(account, writeSequence);
+        return withCurrentBalance(account);
+    }
+
+    /**
+     * @return the account with its sub-balances, if it's split, or with the balance kept in memory by the
+     * {@link LedgerTransferEngine} and the {@link WalTransferEngine}
+     */
+    private Account withCurrentBalance(Account account) {
+        Account current = accountSubBalanceManager.withSubBalances(account);
+        return transferEngine == null ? current : transferEngine.withCurrentBalance(current);
     }
 
     /**
@@ -168,6 +519,7 @@ public class AccountManager {
         try {
             account = accountRepository.save(account);
             accountRepository.commitTransaction();
+            accountCache.update(Collections.singletonList(account));
             return account;
         } catch (Exception e) {
             accountRepository.rollbackTransaction();
@@ -177,11 +529,201 @@ public class AccountManager {
     }
 
     /**
-     *
-     * @return all the accounts known by the system
+     * <p>Passes all the accounts known by the system to the consumer, ordered by id, without loading all of them in
+     * memory. They come from the account cache if all of them are cached, otherwise they are read from the DB through
+     * a cursor.</p>
+     * <p>If all the accounts read from the DB fit in the account cache, they are added to it, so next calls do not
+     * go to the DB</p>
+     */
+    public void forEachAccount(Consumer<Account> consumer) {
+        List<Account> cachedAccounts = accountCache.getAll();
+        if (cachedAccounts != null) {
+            cachedAccounts.forEach(account -> consumer.accept(withCurrentBalance(account)));
+            return;
+        }
+        long writeSequence = accountCache.getWriteSequence();
+        List<Account> accountsToCache = new ArrayList<>();
+        accountRepository.forEach(account -> {
+            if (accountsToCache.size() <= accountCache.getMaxSize()) {
+                accountsToCache.add(account);
+            }
+            consumer.accept(withCurrentBalance(account));
+        });
+        accountCache.putAllIfUnchanged(accountsToCache, writeSequence);
+    }
+
+    /**
+     * Returns a page of the accounts ordered by id, always read from the DB
+     * @param afterId id of the last account of the previous page, null for the first page
+     * @param limit maximum number of accounts of the page, between 1 and {@link #MAX_PAGE_SIZE}
+     * @throws BadParameterException if the limit is out of range
+     */
+    public List<Account> getAccounts(Long afterId, int limit) {
+        checkPageSize(limit);
+        List<Account> accounts = new ArrayList<>();
+        for (Account account : accountRepository.findPage(afterId, limit)) {
+            accounts.add(withCurrentBalance(account));
+        }
+        return accounts;
+    }
+
+    /**
+     * Returns a page of the transfers from and to the account, newest first, always read from the DB. The transfers
+     * from the account and the transfers to it are read from their own index, and the two pages merged
+     * @param from first time included, null for no lower limit
+     * @param to first time excluded, null for no upper limit
+     * @param beforeTransactionId id of the last transfer of the previous page, null for the first page
+     * @param limit maximum number of transfers of the page, between 1 and {@link #MAX_PAGE_SIZE}
+     * @throws AccountNotFoundException if there is no account with the given id
+     * @throws BadParameterException if the limit is out of range or the last transfer of the previous page does not
+     * exist
      */
-    public List<Account> getAllAccounts() {
-        return accountRepository.findAll();
+    public List<TransferHistoryEntry> getTransactions(Long accountId, LocalDateTime from, LocalDateTime to,
+                                                      Long beforeTransactionId, int limit) {
+        checkPageSize(limit);
+        getAccountById(accountId);
+        TransferTransaction before = null;
+        if (beforeTransactionId != null) {
+            before = transferTransactionRepository.findById(beforeTransactionId);
+            if (before == null) {
+                throw new BadParameterException()
+                        .withProperty(BadParameterException.PARAMETER_NAME, "before")
+                        .withProperty(BadParameterException.EXPECTED_CONDITION, "EXISTING_TRANSACTION");
+            }
+        }
+        List<TransferHistoryEntry> transactions = new ArrayList<>(2 * limit);
+        transactions.addAll(transferTransactionRepository.findOutgoingPage(accountId, from, to, before, limit));
+        transactions.addAll(transferTransactionRepository.findIncomingPage(accountId, from, to, before, limit));
+        transactions.sort(Comparator.comparing(TransferHistoryEntry::getLocalTime)
+                .thenComparing(TransferHistoryEntry::getId)
+                .reversed());
+        return transactions.size() > limit ? new ArrayList<>(transactions.subList(0, limit)) : transactions;
+    }
+
+    private void checkPageSize(int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new BadParameterException()
+                    .withProperty(BadParameterException.PARAMETER_NAME, "limit")
+                    .withProperty(BadParameterException.EXPECTED_CONDITION, "BETWEEN_1_AND_" + MAX_PAGE_SIZE);
+        }
+    }
+
+    /**
+     * @return true if the DB does not survive a restart of the application, so a snapshot of its accounts can never
+     * be loaded
+     */
+    public boolean isInMemoryDatabase() {
+        return inMemoryDatabase;
+    }
+
+    /**
+     * @return hits, misses and evictions of the account cache
+     */
+    public AccountCacheStatistics getAccountCacheStatistics() {
+        return accountCache.getStatistics();
+    }
+
+    /**
+     * Fills the account cache from a snapshot written by {@link #writeSnapshot(Path)} on the previous shutdown, if
+     * the accounts of the DB have not changed since then (see {@link AccountSnapshotFile.Fingerprint}), so the
+     * accounts are not loaded from the DB by the first requests
+     * @return true if the snapshot was loaded
+     */
+    public boolean loadSnapshot(Path file) {
+        if (!accountCache.isEnabled() || !Files.exists(file)) {
+            return false;
+        }
+        try {
+            long writeSequence = accountCache.getWriteSequence();
+            AccountSnapshotFile.Fingerprint snapshotFingerprint = AccountSnapshotFile.readFingerprint(file);
+            AccountSnapshotFile.Fingerprint fingerprint = accountRepository.findFingerprint();
+            if (!snapshotFingerprint.equals(fingerprint)) {
+                logger.warn("Snapshot " + file + " ignored, the accounts have changed since it was written: " + snapshotFingerprint
+                        + " in the snapshot, " + fingerprint + " in the DB");
+                return false;
+            }
+            List<Account> accounts = AccountSnapshotFile.read(file, accountCache.getMaxSize() + 1);
+            if (accounts.size() <= accountCache.getMaxSize()) {
+                accountCache.putAllIfUnchanged(accounts, writeSequence);
+            } else {
+                accountCache.putSomeIfUnchanged(accounts.subList(0, accountCache.getMaxSize()), writeSequence);
+            }
+            logger.info("Account cache filled with " + Math.min(accounts.size(), accountCache.getMaxSize()) + " accounts of the snapshot " + file);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Snapshot " + file + " could not be loaded, the accounts are loaded from the DB", e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes all the accounts of the DB to a binary snapshot, to be loaded by {@link #loadSnapshot(Path)} on the next
+     * startup. To be called on shutdown, once no more transfers are executed
+     */
+    public void writeSnapshot(Path file) {
+        try {
+            AccountSnapshotFile.Fingerprint fingerprint = AccountSnapshotFile.write(file, accountRepository::forEach);
+            logger.info("Snapshot of the accounts written to " + file + ": " + fingerprint);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Snapshot of the accounts could not be written to " + file, e);
+        }
+    }
+
+    /**
+     * <p>Executes the hot path of the transfers of the locking mode between the first two accounts, rolling back every
+     * transfer, so the JIT compiles it and the connection pool and its statement caches are filled before the first
+     * request. No account or transfer is written. It does nothing if there are less than two accounts.</p>
+     * <p>It's skipped in the other modes: their transfers are applied by the threads of their engine, in memory or in
+     * transactions that cannot be rolled back by the caller, so they cannot be warmed up without writing transfers.</p>
+     * <p>To be called on startup, before the application receives requests</p>
+     */
+    public void warmUp(int iterations) {
+        if (transferEngine != null) {
+            logger.info("Warm-up skipped, it only applies to the locking mode, not to " + transferEngine.getClass().getSimpleName());
+            return;
+        }
+        List<Account> accounts = accountRepository.findPage(null, 2);
+        if (accounts.size() < 2) {
+            return;
+        }
+        Long originAccountId = accounts.get(0).getId();
+        Long destinationAccountId = accounts.get(1).getId();
+        BigDecimal amount = Money.toDecimal(Math.min(1, accounts.get(0).getBalance()));
+        for (int i = 0; i < iterations; i++) {
+            long minorUnits = amount.signum() == 0 ? 0 : validateTransfer(originAccountId, destinationAccountId, amount);
+            AccountLockingSession accountLockingSession = accountLockManager.getOrCreateAccountLocks(originAccountId, destinationAccountId);
+            try {
+                accountLockingSession.lock();
+                accountRepository.startTransaction();
+                Account originAccount = transferOperations.loadAccount(originAccountId);
+                transferOperations.checkFunds(originAccount, minorUnits);
+                Account destinationAccount = transferOperations.loadAccount(destinationAccountId);
+                transferOperations.move(originAccount, destinationAccount, minorUnits);
+                accountRepository.flush();
+            } finally {
+                accountRepository.rollbackTransaction();
+                accountLockManager.releaseLocks(accountLockingSession, originAccountId, destinationAccountId);
+            }
+            getAccountById(originAccountId);
+        }
+    }
+
+    /**
+     * Stops the threads of the transfer engine, that write the state they keep in memory to the DB. To be called on
+     * shutdown, once no more transfers are received
+     */
+    public void shutdown() {
+        if (transferEngine != null) {
+            transferEngine.shutdown();
+        }
+    }
+
+    /**
+     * Closes the connections to the DB, so H2 stores the last committed changes of a file DB. To be called last on
+     * shutdown, once nothing reads or writes the accounts
+     */
+    public void closePersistence() {
+        entityManagerFactory.close();
     }
 
     /**
@@ -190,9 +732,15 @@ public class AccountManager {
     public void cleanAll() {
         accountRepository.startTransaction();
         try {
+            pendingDepositRepository.deleteAll();
             transferTransactionRepository.deleteAll();
+            accountSubBalanceManager.deleteAll();
             accountRepository.deleteAll();
             accountRepository.commitTransaction();
+            accountCache.invalidateAll();
+            if (transferEngine != null) {
+                transferEngine.accountsDeleted();
+            }
         } catch (Exception e) {
             accountRepository.rollbackTransaction();
             throw e;
@@ -200,13 +748,156 @@ public class AccountManager {
     }
 
     /**
-     * To share the same entity manager (and same transactions), we create and set to all repositories here.
-     * With dependency injection it should be use something like @ResourceContext at the level of the repositories
+     * All repositories share the same context, so they work with the same entity manager (and same transaction) in
+     * a given thread, while every unit of work gets its own entity manager from the shared factory.
+     * In the virtual thread mode, the number of open entity managers is limited to the size of the connection pool,
+     * so the transfers waiting for a connection do not pin their carrier threads inside the pool.
+     * With dependency injection it should be use something like @PersistenceContext at the level of the repositories
      */
     private void initEntityManager() {
-        EntityManagerFactory factory = Persistence.createEntityManagerFactory("revolut-ds");
-        EntityManager entityManager = factory.createEntityManager();
-        this.accountRepository.setEntityManager(entityManager);
-        this.transferTransactionRepository.setEntityManager(entityManager);
+        long startNanos = System.nanoTime();
+        Map<String, String> overriddenProperties = new HashMap<>();
+        String jdbcUrl = ApplicationProperties.getString(ApplicationProperties.JDBC_URL, null);
+        if (jdbcUrl != null) {
+            overriddenProperties.put("javax.persistence.jdbc.url", jdbcUrl);
+        }
+        EntityManagerFactory factory = Persistence.createEntityManagerFactory("revolut-ds", overriddenProperties);
+        this.entityManagerFactory = factory;
+        Object effectiveJdbcUrl = factory.getProperties().get("javax.persistence.jdbc.url");
+        this.inMemoryDatabase = effectiveJdbcUrl != null && effectiveJdbcUrl.toString().startsWith("jdbc:h2:mem:");
+        int maxOpenEntityManagers = VirtualThreads.isEnabled() ? getConnectionPoolSize(factory) : 0;
+        EntityManagerContext entityManagerContext = new EntityManagerContext(factory, maxOpenEntityManagers);
+        this.accountRepository.setEntityManagerContext(entityManagerContext);
+        this.transferTransactionRepository.setEntityManagerContext(entityManagerContext);
+        this.accountLeaseRepository.setEntityManagerContext(entityManagerContext);
+        this.accountSubBalanceRepository.setEntityManagerContext(entityManagerContext);
+        this.ledgerCheckpointRepository.setEntityManagerContext(entityManagerContext);
+        this.pendingDepositRepository.setEntityManagerContext(entityManagerContext);
+        this.accountSubBalanceManager = new AccountSubBalanceManager(accountRepository, accountSubBalanceRepository,
+                ApplicationProperties.getLongs(ApplicationProperties.SUB_BALANCE_ACCOUNTS),
+                ApplicationProperties.getInt(ApplicationProperties.SUB_BALANCE_SLOTS, 16),
+                ApplicationProperties.getInt(ApplicationProperties.SUB_BALANCE_AUTO_SPLIT_WAITERS, 0));
+        // Sub-balances left by a previous execution are moved back, every account starts as not split
+        this.accountSubBalanceManager.mergeAll();
+        this.transferOperations = new TransferOperations(accountRepository, transferTransactionRepository, accountCache, accountSubBalanceManager);
+        StartupTimer.getInstance().record("persistence_bootstrap", startNanos);
+    }
+
+    private int getConnectionPoolSize(EntityManagerFactory factory) {
+        Object poolSize = factory.getProperties().get("hibernate.c3p0.max_size");
+        return poolSize == null ? DEFAULT_CONNECTION_POOL_SIZE : Integer.parseInt(poolSize.toString());
+    }
+
+    /**
+     * @return the amount in minor units of the currency
+     * @throws BadParameterException if the parameters of the transfer are incorrect
+     */
+    long validateTransfer(Long originAccountId, Long destinationAccountId, BigDecimal amount) {
+        if (originAccountId == null) {
+            throw ORIGIN_ACCOUNT_ID_NULL;
+        }
+        if (destinationAccountId == null) {
+            throw DESTINATION_ACCOUNT_ID_NULL;
+        }
+        if (originAccountId.equals(destinationAccountId)) {
+            throw SAME_ACCOUNTS;
+        }
+        if (amount == null) {
+            throw AMOUNT_NULL;
+        }
+        if (amount.signum() < 0) {
+            throw AMOUNT_NEGATIVE;
+        }
+        if (amount.signum() == 0) {
+            throw AMOUNT_ZERO;
+        }
+        try {
+            return Money.toMinorUnits(amount);
+        } catch (ArithmeticException e) {
+            throw AMOUNT_NOT_REPRESENTABLE;
+        }
+    }
+
+    private void initTransferEngine() {
+        long startNanos = System.nanoTime();
+        bulkTransferChunkSize = ApplicationProperties.getInt(ApplicationProperties.BULK_TRANSFER_CHUNK_SIZE, 1000);
+        TransferMode transferMode = TransferMode.fromConfiguration();
+        Path walDirectory = Paths.get(ApplicationProperties.getString(ApplicationProperties.WAL_DIRECTORY, "wal"));
+        long walSegmentSize = ApplicationProperties.getLong(ApplicationProperties.WAL_SEGMENT_SIZE_MB, 64) * 1024 * 1024;
+        // The balances of a ledger or a write-ahead log that was not shut down cleanly are written before the accounts are used
+        if (transferMode != TransferMode.LEDGER) {
+            LedgerTransferEngine.recoverAccounts(accountRepository, transferTransactionRepository, ledgerCheckpointRepository);
+        }
+        if (transferMode != TransferMode.WAL) {
+            try {
+                WalTransferEngine.recoverAccounts(accountRepository, transferTransactionRepository, ledgerCheckpointRepository,
+                        walDirectory, walSegmentSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Write-ahead log in " + walDirectory + " could not be recovered", e);
+            }
+        }
+        // The transfers between shards interrupted by a crash of the sharded mode are completed
+        ShardedTransferEngine.recoverDeposits(accountRepository, transferTransactionRepository, pendingDepositRepository);
+        switch (transferMode) {
+            case SHARDED:
+                int numberOfShards = ApplicationProperties.getInt(ApplicationProperties.TRANSFER_SHARDS, Runtime.getRuntime().availableProcessors());
+                transferEngine = new ShardedTransferEngine(accountRepository, transferTransactionRepository, pendingDepositRepository,
+                        numberOfShards, accountCache);
+                break;
+            case GROUP_COMMIT:
+                transferEngine = new GroupCommitTransferEngine(accountRepository, transferTransactionRepository,
+                        ApplicationProperties.getInt(ApplicationProperties.GROUP_COMMIT_MAX_SIZE, 256),
+                        ApplicationProperties.getLong(ApplicationProperties.GROUP_COMMIT_WINDOW_MICROS, 1000),
+                        ApplicationProperties.getInt(ApplicationProperties.GROUP_COMMIT_QUEUE_CAPACITY, 10000),
+                        accountCache);
+                break;
+            case OPTIMISTIC:
+                transferEngine = new OptimisticTransferEngine(accountRepository, transferTransactionRepository,
+                        ApplicationProperties.getInt(ApplicationProperties.OPTIMISTIC_MAX_ATTEMPTS, 10),
+                        ApplicationProperties.getLong(ApplicationProperties.OPTIMISTIC_BACKOFF_MICROS, 100),
+                        ApplicationProperties.getLong(ApplicationProperties.OPTIMISTIC_MAX_BACKOFF_MICROS, 50000),
+                        accountCache);
+                break;
+            case ATOMIC:
+                transferEngine = new AtomicTransferEngine(accountRepository, transferTransactionRepository, accountCache);
+                break;
+            case LEASE:
+                AccountLeaseManager accountLeaseManager = new AccountLeaseManager(accountLeaseRepository,
+                        ApplicationProperties.getString(ApplicationProperties.LEASE_OWNER, UUID.randomUUID().toString()),
+                        ApplicationProperties.getLong(ApplicationProperties.LEASE_DURATION_MILLIS, 10000),
+                        ApplicationProperties.getLong(ApplicationProperties.LOCK_TIMEOUT_MILLIS, 5000));
+                transferEngine = new LeaseTransferEngine(accountLockManager, accountLeaseManager, accountRepository,
+                        transferTransactionRepository, accountCache);
+                logger.info("Accounts leased as " + accountLeaseManager.getOwner());
+                break;
+            case LEDGER:
+                transferEngine = new LedgerTransferEngine(accountRepository, transferTransactionRepository, ledgerCheckpointRepository,
+                        ApplicationProperties.getInt(ApplicationProperties.GROUP_COMMIT_MAX_SIZE, 256),
+                        ApplicationProperties.getLong(ApplicationProperties.GROUP_COMMIT_WINDOW_MICROS, 1000),
+                        ApplicationProperties.getInt(ApplicationProperties.GROUP_COMMIT_QUEUE_CAPACITY, 10000),
+                        ApplicationProperties.getInt(ApplicationProperties.LEDGER_CHECKPOINT_EVERY, 10000));
+                break;
+            case WAL:
+                try {
+                    transferEngine = new WalTransferEngine(accountRepository, transferTransactionRepository, ledgerCheckpointRepository,
+                            walDirectory, walSegmentSize,
+                            ApplicationProperties.getInt(ApplicationProperties.GROUP_COMMIT_MAX_SIZE, 256),
+                            ApplicationProperties.getLong(ApplicationProperties.GROUP_COMMIT_WINDOW_MICROS, 1000),
+                            ApplicationProperties.getInt(ApplicationProperties.GROUP_COMMIT_QUEUE_CAPACITY, 10000),
+                            ApplicationProperties.getInt(ApplicationProperties.WAL_CHECKPOINT_EVERY, 100000));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Write-ahead log in " + walDirectory + " could not be opened", e);
+                }
+                break;
+            default:
+                transferEngine = null;
+                if (ApplicationProperties.getBoolean(ApplicationProperties.NETTING_ENABLED, false)) {
+                    transferNetting = new TransferNetting(accountLockManager, transferOperations,
+                            ApplicationProperties.getInt(ApplicationProperties.NETTING_MAX_SIZE, 256),
+                            ApplicationProperties.getLong(ApplicationProperties.NETTING_WINDOW_MICROS, 0));
+                }
+        }
+        StartupTimer.getInstance().record("transfer_engine", startNanos);
+        logger.info("Transfers executed in mode " + transferMode);
     }
 }
@@ -0,0 +1,188 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.metrics.Counter;
+import com.revolut.transfer.metrics.MetricsRegistry;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.Money;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.AccountSubBalanceRepository;
+import org.apache.log4j.Logger;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>Splits the balance of hot accounts into sub-balances, so the transfers to a hot account do not wait for its lock.
+ * A credit to a split account goes to a random sub-balance with a single SQL update, and only transfers that pick the
+ * same sub-balance wait for each other in the DB. The balance of the account itself only changes holding its lock, so
+ * it can still be cached.</p>
+ * <p>A debit of a split account that cannot be paid with the balance of the account sweeps all the sub-balances into
+ * it first, in the same transaction.</p>
+ * <p>Accounts are split the first time they receive a transfer, if they are configured as split or, when the automatic
+ * detection is enabled, if too many transfers are waiting for their lock. They stay split until the application is
+ * restarted: on start, all the sub-balances are moved back to their accounts. It's used by the
+ * {@link TransferMode#LOCKING} mode only</p>
+ */
+public class AccountSubBalanceManager {
+
+    private final static Logger logger = Logger.getLogger(AccountSubBalanceManager.class);
+
+    private final AccountRepository accountRepository;
+    private final AccountSubBalanceRepository accountSubBalanceRepository;
+    private final Set<Long> configuredAccountIds;
+    private final int slots;
+    private final int autoSplitWaiters;
+
+    /**
+     * Accounts whose credits go to the sub-balances
+     */
+    private final Set<Long> splitAccountIds = ConcurrentHashMap.newKeySet();
+
+    private final Counter credits = MetricsRegistry.getInstance().counter("account_sub_balance_credits_total",
+            "Credits of split accounts applied to a sub-balance");
+    private final Counter sweeps = MetricsRegistry.getInstance().counter("account_sub_balance_sweeps_total",
+            "Debits of split accounts that moved the sub-balances back to the account");
+
+    /**
+     * @param configuredAccountIds accounts to be split
+     * @param slots number of sub-balances of every split account
+     * @param autoSplitWaiters transfers waiting for the lock of an account that make it split, 0 to only split the
+     *                         configured accounts
+     */
+    public AccountSubBalanceManager(AccountRepository accountRepository, AccountSubBalanceRepository accountSubBalanceRepository,
+                                    Collection<Long> configuredAccountIds, int slots, int autoSplitWaiters) {
+        if (slots < 1) {
+            throw new IllegalArgumentException("The number of sub-balances must be positive");
+        }
+        this.accountRepository = accountRepository;
+        this.accountSubBalanceRepository = accountSubBalanceRepository;
+        this.configuredAccountIds = Collections.unmodifiableSet(new HashSet<>(configuredAccountIds));
+        this.slots = slots;
+        this.autoSplitWaiters = autoSplitWaiters;
+    }
+
+    /**
+     * @return true if the automatic detection of hot accounts is enabled
+     */
+    public boolean isAutoSplitEnabled() {
+        return autoSplitWaiters > 0;
+    }
+
+    /**
+     * @return true if the credits of the account go to its sub-balances
+     */
+    public boolean isSplit(Long accountId) {
+        return splitAccountIds.contains(accountId);
+    }
+
+    /**
+     * Splits the account if it's configured as split or if it has too many waiting transfers. To be called out of
+     * any transaction
+     * @param waiters transfers waiting for the lock of the account
+     * @return true if the account is split
+     */
+    public boolean splitIfHot(Long accountId, int waiters) {
+        if (isSplit(accountId)) {
+            return true;
+        }
+        if (!configuredAccountIds.contains(accountId) && (!isAutoSplitEnabled() || waiters < autoSplitWaiters)) {
+            return false;
+        }
+        return split(accountId);
+    }
+
+    /**
+     * Adds the amount to a random sub-balance of a split account, in the transaction of the current thread
+     * @param amount in minor units of the currency
+     */
+    public void credit(Long accountId, long amount) {
+        int slot = ThreadLocalRandom.current().nextInt(slots);
+        if (!accountSubBalanceRepository.credit(accountId, slot, amount)) {
+            throw new IllegalStateException("Sub-balance " + slot + " of the account " + accountId + " does not exist");
+        }
+        credits.increment();
+    }
+
+    /**
+     * Moves all the sub-balances of a split account to the account, in the transaction of the current thread. The
+     * account must be locked and loaded in the transaction
+     * @throws ArithmeticException if the balance of the account overflows
+     */
+    public void sweep(Account account) {
+        if (!isSplit(account.getId())) {
+            return;
+        }
+        long swept = accountSubBalanceRepository.sweep(account.getId());
+        if (swept != 0) {
+            account.setBalance(Money.add(account.getBalance(), swept));
+            sweeps.increment();
+        }
+    }
+
+    /**
+     * @return the balance of the account plus its sub-balances, as a new account that is not cached. The same account
+     * if it's not split
+     */
+    public Account withSubBalances(Account account) {
+        if (!isSplit(account.getId())) {
+            return account;
+        }
+        return account.withBalance(Money.add(account.getBalance(), accountSubBalanceRepository.sum(account.getId())));
+    }
+
+    /**
+     * Moves the sub-balances of every account back to the account, one transaction per account. To be called on
+     * start, before any transfer is executed
+     */
+    public void mergeAll() {
+        for (Long accountId : accountSubBalanceRepository.findNotEmptyAccountIds()) {
+            try {
+                accountRepository.startTransaction();
+                Account account = accountRepository.findById(accountId);
+                long swept = accountSubBalanceRepository.sweep(accountId);
+                if (account != null) {
+                    account.setBalance(Money.add(account.getBalance(), swept));
+                    accountRepository.flush();
+                }
+                accountRepository.commitTransaction();
+            } catch (RuntimeException e) {
+                accountRepository.rollbackTransaction();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Forgets the split accounts and deletes all the sub-balances, in the transaction of the current thread. To be
+     * used on testing, when all the accounts are deleted
+     */
+    public void deleteAll() {
+        accountSubBalanceRepository.deleteAll();
+        splitAccountIds.clear();
+    }
+
+    private synchronized boolean split(Long accountId) {
+        if (isSplit(accountId)) {
+            return true;
+        }
+        try {
+            accountRepository.startTransaction();
+            if (accountRepository.findById(accountId) == null) {
+                accountRepository.rollbackTransaction();
+                return false;
+            }
+            accountSubBalanceRepository.createSlots(accountId, slots);
+            accountRepository.commitTransaction();
+        } catch (RuntimeException e) {
+            accountRepository.rollbackTransaction();
+            throw e;
+        }
+        splitAccountIds.add(accountId);
+        logger.info("Account " + accountId + " split into " + slots + " sub-balances");
+        return true;
+    }
+}
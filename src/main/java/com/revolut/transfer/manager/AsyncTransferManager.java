@@ -0,0 +1,169 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.config.ApplicationProperties;
+import com.revolut.transfer.config.BoundedThreadPerTaskExecutor;
+import com.revolut.transfer.config.VirtualThreads;
+import com.revolut.transfer.exceptions.BadParameterException;
+import com.revolut.transfer.exceptions.ServiceUnavailableException;
+import com.revolut.transfer.exceptions.TransferNotFoundException;
+import com.revolut.transfer.exceptions.TransferQueueFullException;
+import com.revolut.transfer.model.TransferRequest;
+import com.revolut.transfer.model.TransferResult;
+import org.apache.log4j.Logger;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * <p>Asynchronous execution of transfers. Transfers are validated in the calling thread and queued for a dedicated
+ * bounded executor, so the calling thread (i.e. a Jetty worker) is freed immediately instead of waiting for the
+ * account locks and the DB commit.</p>
+ * <p>Every submitted transfer gets an id that can be used to poll its result. Results of finished transfers are kept
+ * for a retention time and then removed, to avoid memory leaks</p>
+ * <p>When the virtual thread mode is enabled, every transfer is executed in its own virtual thread instead of a pool.
+ * A transfer waiting for the account locks or for a DB connection then only parks its virtual thread. The transfers in
+ * flight are bounded by the number of threads plus the capacity of the queue, like with platform threads, and new
+ * transfers are rejected beyond that</p>
+ *
+ * It must be used as a singleton.
+ */
+public class AsyncTransferManager {
+
+    private final static Logger logger = Logger.getLogger(AsyncTransferManager.class);
+
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
+    private static AsyncTransferManager instance = new AsyncTransferManager(AccountManager.getInstance(),
+            ApplicationProperties.getInt(ApplicationProperties.ASYNC_TRANSFER_THREADS, Runtime.getRuntime().availableProcessors() * 2),
+            ApplicationProperties.getInt(ApplicationProperties.ASYNC_TRANSFER_QUEUE_CAPACITY, 10000),
+            ApplicationProperties.getLong(ApplicationProperties.ASYNC_TRANSFER_RETENTION_SECONDS, 300));
+
+    private final AccountManager accountManager;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService cleaner;
+    private final long retentionNanos;
+    private final ConcurrentMap<String, SubmittedTransfer> submittedTransfers = new ConcurrentHashMap<>();
+
+    public AsyncTransferManager(AccountManager accountManager, int threads, int queueCapacity, long retentionSeconds) {
+        this.accountManager = accountManager;
+        this.retentionNanos = TimeUnit.SECONDS.toNanos(retentionSeconds);
+        if (VirtualThreads.isEnabled()) {
+            this.executor = new BoundedThreadPerTaskExecutor(VirtualThreads.newVirtualThreadFactory("async-transfer-"), threads + queueCapacity);
+        } else {
+            this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), VirtualThreads.newThreadFactory("async-transfer-"));
+        }
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(VirtualThreads.newPlatformThreadFactory("async-transfer-cleaner-"));
+        long cleanUpPeriod = Math.max(1, retentionSeconds / 2);
+        this.cleaner.scheduleWithFixedDelay(this::removeExpiredTransfers, cleanUpPeriod, cleanUpPeriod, TimeUnit.SECONDS);
+    }
+
+    public static AsyncTransferManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * Validates the transfer and queues it to be executed asynchronously
+     *
+     * @return the pending result of the transfer, with the id to poll its status
+     * @throws BadParameterException if the parameters are incorrect
+     * @throws TransferQueueFullException if there are too many transfers waiting to be executed
+     */
+    public TransferResult submit(Long originAccountId, Long destinationAccountId, BigDecimal amount) {
+        accountManager.validateTransfer(originAccountId, destinationAccountId, amount);
+        TransferResult pending = new TransferResult(new TransferRequest(originAccountId, destinationAccountId, amount));
+        pending.setId(UUID.randomUUID().toString());
+        pending.setStatus(TransferResult.Status.PENDING);
+        SubmittedTransfer submittedTransfer = new SubmittedTransfer(pending);
+        submittedTransfers.put(pending.getId(), submittedTransfer);
+        try {
+            executor.execute(() -> execute(submittedTransfer));
+        } catch (RejectedExecutionException e) {
+            submittedTransfers.remove(pending.getId());
+            throw new TransferQueueFullException().withProperty(ServiceUnavailableException.RETRY_AFTER_SECONDS, 1);
+        }
+        return pending;
+    }
+
+    /**
+     * @return the current result of the transfer
+     * @throws TransferNotFoundException if there is no transfer with the given id or it was removed after its
+     * retention time
+     */
+    public TransferResult getTransfer(String transferId) {
+        return getSubmittedTransfer(transferId).result;
+    }
+
+    /**
+     * @return a future completed with the final result of the transfer, to wait for it without blocking any thread
+     * @throws TransferNotFoundException if there is no transfer with the given id or it was removed after its
+     * retention time
+     */
+    public CompletableFuture<TransferResult> getCompletion(String transferId) {
+        return getSubmittedTransfer(transferId).completion;
+    }
+
+    /**
+     * Stops the threads of the manager. New transfers are rejected and the ones already queued are executed, waiting
+     * for them for at most {@link #SHUTDOWN_TIMEOUT_MILLIS}. To be called before the transfer engine is stopped
+     */
+    public void shutdown() {
+        executor.shutdown();
+        cleaner.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                logger.warn("Asynchronous transfers stopped before all the queued transfers were executed");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private SubmittedTransfer getSubmittedTransfer(String transferId) {
+        SubmittedTransfer submittedTransfer = transferId == null ? null : submittedTransfers.get(transferId);
+        if (submittedTransfer == null) {
+            throw new TransferNotFoundException().withProperty(TransferNotFoundException.TRANSFER_ID, transferId);
+        }
+        return submittedTransfer;
+    }
+
+    private void execute(SubmittedTransfer submittedTransfer) {
+        TransferResult pending = submittedTransfer.result;
+        TransferResult result = new TransferResult(new TransferRequest(pending.getOriginAccountId(), pending.getDestinationAccountId(), pending.getAmount()));
+        result.setId(pending.getId());
+        try {
+            accountManager.transfer(pending.getOriginAccountId(), pending.getDestinationAccountId(), pending.getAmount());
+            AccountManager.setOutcome(result, null);
+        } catch (RuntimeException e) {
+            AccountManager.setOutcome(result, e);
+        }
+        submittedTransfer.complete(result);
+    }
+
+    void removeExpiredTransfers() {
+        long now = System.nanoTime();
+        submittedTransfers.values().removeIf(submittedTransfer -> submittedTransfer.isExpired(now, retentionNanos));
+    }
+
+    private static class SubmittedTransfer {
+
+        private volatile TransferResult result;
+        private volatile long completedAt;
+        private final CompletableFuture<TransferResult> completion = new CompletableFuture<>();
+
+        SubmittedTransfer(TransferResult result) {
+            this.result = result;
+        }
+
+        void complete(TransferResult finalResult) {
+            result = finalResult;
+            completedAt = System.nanoTime();
+            completion.complete(finalResult);
+        }
+
+        boolean isExpired(long now, long retentionNanos) {
+            return completion.isDone() && now - completedAt > retentionNanos;
+        }
+    }
+}
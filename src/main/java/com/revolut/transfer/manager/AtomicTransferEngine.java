@@ -0,0 +1,80 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.AccountNotFoundException;
+import com.revolut.transfer.exceptions.InsufficientFundsException;
+import com.revolut.transfer.model.Money;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static com.revolut.transfer.exceptions.AccountNotFoundException.ACCOUNT_ID;
+
+/**
+ * <p>Executes every transfer with three SQL statements in one transaction, without loading the accounts: a
+ * conditional debit that only succeeds if the origin account has enough money, a credit of the destination account
+ * and the insert of the history. Missing accounts and insufficient funds are detected from the update counts, the
+ * balance is only read to report an insufficient funds error.</p>
+ * <p>The rows updated are locked by the DB until the commit, so no in-memory locks are needed and several instances
+ * of the application can work with the same DB. Both accounts are updated in the order of their ids, so two transfers
+ * in opposite directions cannot deadlock in the DB</p>
+ */
+public class AtomicTransferEngine implements TransferEngine {
+
+    private final AccountRepository accountRepository;
+    private final TransferTransactionRepository transferTransactionRepository;
+    private final AccountCache accountCache;
+
+    public AtomicTransferEngine(AccountRepository accountRepository, TransferTransactionRepository transferTransactionRepository, AccountCache accountCache) {
+        this.accountRepository = accountRepository;
+        this.transferTransactionRepository = transferTransactionRepository;
+        this.accountCache = accountCache;
+    }
+
+    @Override
+    public void transfer(Long originAccountId, Long destinationAccountId, long amount) {
+        try {
+            accountRepository.startTransaction();
+            if (originAccountId < destinationAccountId) {
+                debit(originAccountId, amount);
+                credit(destinationAccountId, amount);
+            } else {
+                credit(destinationAccountId, amount);
+                debit(originAccountId, amount);
+            }
+            transferTransactionRepository.insert(originAccountId, destinationAccountId, amount, LocalDateTime.now());
+            accountRepository.commitTransaction();
+        } catch (RuntimeException e) {
+            accountRepository.rollbackTransaction();
+            throw e;
+        }
+        // The new balances are not known without reading them, the accounts are read again on demand
+        accountCache.invalidate(Arrays.asList(originAccountId, destinationAccountId));
+    }
+
+    @Override
+    public void shutdown() {
+        // No threads are owned by this engine
+    }
+
+    private void debit(Long accountId, long amount) {
+        if (accountRepository.debit(accountId, amount)) {
+            return;
+        }
+        Long balance = accountRepository.findBalance(accountId);
+        if (balance == null) {
+            throw new AccountNotFoundException().withProperty(ACCOUNT_ID, accountId);
+        }
+        throw new InsufficientFundsException()
+                .withProperties(
+                        InsufficientFundsException.ACCOUNT_ID, accountId,
+                        InsufficientFundsException.CURRENT_FUNDS, Money.toDecimal(balance));
+    }
+
+    private void credit(Long accountId, long amount) {
+        if (!accountRepository.credit(accountId, amount)) {
+            throw new AccountNotFoundException().withProperty(ACCOUNT_ID, accountId);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.model.Money;
+import com.revolut.transfer.model.TransferRequest;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Group commit of the transfers. The calling threads enqueue their transfers and a single committer thread
+ * collects the transfers arriving within a time window (or until the maximum group size is reached) and applies all
+ * of them in one DB transaction, so the cost of the commit is paid once per group instead of once per transfer.
+ * The history of the group is inserted with JDBC batches (see hibernate.jdbc.batch_size) and its ids come from the
+ * pooled sequence, so there is no round trip per transfer.</p>
+ * <p>Transfers rejected by a business rule (i.e. insufficient funds) are rejected individually without affecting the
+ * rest of the group. If the group fails for any other reason, it's rolled back and its transfers are executed again
+ * one by one, each one with its own commit (see {@link TransferOperations#applyInOneTransaction(List)}).</p>
+ * <p>There is only one committer thread, so the accounts are only modified by it and no locks are needed</p>
+ */
+public class GroupCommitTransferEngine implements TransferEngine {
+
+    /**
+     * Queued on shutdown to wake up the committer thread waiting for transfers, so it's never interrupted while it
+     * commits a group
+     */
+    private static final PendingTransfer STOP = new PendingTransfer(0L, 0L, 0);
+
+    private final TransferOperations transferOperations;
+    private final BlockingQueue<PendingTransfer> pendingTransfers;
+    private final int maxGroupSize;
+    private final long windowNanos;
+    private final Thread committer;
+    private volatile boolean running = true;
+
+    public GroupCommitTransferEngine(AccountRepository accountRepository, TransferTransactionRepository transferTransactionRepository, int maxGroupSize, long windowMicros, int queueCapacity) {
+        this(accountRepository, transferTransactionRepository, maxGroupSize, windowMicros, queueCapacity, new AccountCache(0));
+    }
+
+    public GroupCommitTransferEngine(AccountRepository accountRepository, TransferTransactionRepository transferTransactionRepository, int maxGroupSize, long windowMicros, int queueCapacity, AccountCache accountCache) {
+        if (maxGroupSize < 1) {
+            throw new IllegalArgumentException("The maximum size of the group must be positive");
+        }
+        this.transferOperations = new TransferOperations(accountRepository, transferTransactionRepository, accountCache);
+        this.pendingTransfers = new LinkedBlockingQueue<>(queueCapacity);
+        this.maxGroupSize = maxGroupSize;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.committer = new Thread(this::commitGroups, "transfer-group-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    @Override
+    public void transfer(Long originAccountId, Long destinationAccountId, long amount) {
+        if (!running) {
+            throw new IllegalStateException("Transfer engine stopped");
+        }
+        PendingTransfer pendingTransfer = new PendingTransfer(originAccountId, destinationAccountId, amount);
+        try {
+            pendingTransfers.put(pendingTransfer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing the transfer", e);
+        }
+        // The committer may have stopped after the check and drained the queue before the put, nobody would complete it
+        if (!running && pendingTransfers.remove(pendingTransfer)) {
+            throw new IllegalStateException("Transfer engine stopped");
+        }
+        TransferEngine.await(pendingTransfer.result);
+    }
+
+    /**
+     * Stops the committer thread once the group being committed is finished. The transfers still queued are rejected
+     */
+    @Override
+    public void shutdown() {
+        running = false;
+        // If the queue is full the committer is not waiting, it sees the flag after the current group
+        pendingTransfers.offer(STOP);
+        try {
+            committer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void commitGroups() {
+        List<PendingTransfer> group = new ArrayList<>(maxGroupSize);
+        while (running) {
+            try {
+                collectGroup(group);
+            } catch (InterruptedException e) {
+                break;
+            }
+            group.remove(STOP);
+            if (!running) {
+                break;
+            }
+            commitGroup(group);
+            group.clear();
+        }
+        List<PendingTransfer> notExecuted = new ArrayList<>(group);
+        pendingTransfers.drainTo(notExecuted);
+        for (PendingTransfer pendingTransfer : notExecuted) {
+            pendingTransfer.result.completeExceptionally(new IllegalStateException("Transfer engine stopped"));
+        }
+    }
+
+    /**
+     * Waits for the first transfer and then collects the transfers arriving until the window expires or the group is
+     * full. It stops as soon as the engine is stopped
+     */
+    private void collectGroup(List<PendingTransfer> group) throws InterruptedException {
+        group.add(pendingTransfers.take());
+        if (!running) {
+            return;
+        }
+        long deadline = System.nanoTime() + windowNanos;
+        while (group.size() < maxGroupSize) {
+            if (pendingTransfers.drainTo(group, maxGroupSize - group.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            PendingTransfer pendingTransfer = pendingTransfers.poll(remaining, TimeUnit.NANOSECONDS);
+            if (pendingTransfer == null) {
+                return;
+            }
+            group.add(pendingTransfer);
+            if (pendingTransfer == STOP) {
+                return;
+            }
+        }
+    }
+
+    void commitGroup(List<PendingTransfer> group) {
+        List<TransferRequest> transfers = new ArrayList<>(group.size());
+        for (PendingTransfer pendingTransfer : group) {
+            transfers.add(pendingTransfer.toTransferRequest());
+        }
+        Throwable[] errors = transferOperations.applyInOneTransaction(transfers);
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).complete(errors[i]);
+        }
+    }
+
+    /**
+     * Transfer waiting for its group. The amount is kept in minor units, so the engines applying it in memory never
+     * convert it to a decimal
+     */
+    static class PendingTransfer {
+
+        private final Long originAccountId;
+        private final Long destinationAccountId;
+        private final long amount;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        PendingTransfer(Long originAccountId, Long destinationAccountId, long amount) {
+            this.originAccountId = originAccountId;
+            this.destinationAccountId = destinationAccountId;
+            this.amount = amount;
+        }
+
+        Long getOriginAccountId() {
+            return originAccountId;
+        }
+
+        Long getDestinationAccountId() {
+            return destinationAccountId;
+        }
+
+        /**
+         * @return amount in minor units of the currency
+         */
+        long getAmount() {
+            return amount;
+        }
+
+        /**
+         * @return the transfer to be applied with {@link TransferOperations#applyInOneTransaction(List)}
+         */
+        TransferRequest toTransferRequest() {
+            return new TransferRequest(originAccountId, destinationAccountId, Money.toDecimal(amount));
+        }
+
+        CompletableFuture<Void> getResult() {
+            return result;
+        }
+
+        void complete(Throwable error) {
+            if (error == null) {
+                result.complete(null);
+            } else {
+                result.completeExceptionally(error);
+            }
+        }
+    }
+}
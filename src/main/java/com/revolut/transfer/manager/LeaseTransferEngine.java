@@ -0,0 +1,67 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.AccountLockingSession;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+
+import java.util.Arrays;
+
+/**
+ * <p>Executes the transfers in the calling thread holding both the in-memory locks and the DB leases of the accounts,
+ * so several instances of the application can work with the same DB.</p>
+ * <p>The in-memory locks queue the transfers of the same instance, so only one transfer per account and instance
+ * competes for the lease in the DB. The leases are released in the same transaction as the transfer, checking that
+ * they have not expired and been taken by another instance meanwhile</p>
+ */
+public class LeaseTransferEngine implements TransferEngine {
+
+    private final AccountLockManager accountLockManager;
+    private final AccountLeaseManager accountLeaseManager;
+    private final AccountRepository accountRepository;
+    private final TransferOperations transferOperations;
+
+    public LeaseTransferEngine(AccountLockManager accountLockManager, AccountLeaseManager accountLeaseManager, AccountRepository accountRepository,
+                               TransferTransactionRepository transferTransactionRepository, AccountCache accountCache) {
+        this.accountLockManager = accountLockManager;
+        this.accountLeaseManager = accountLeaseManager;
+        this.accountRepository = accountRepository;
+        this.transferOperations = new TransferOperations(accountRepository, transferTransactionRepository, accountCache);
+    }
+
+    @Override
+    public void transfer(Long originAccountId, Long destinationAccountId, long amount) {
+        AccountLockingSession accountLockingSession = accountLockManager.getOrCreateAccountLocks(originAccountId, destinationAccountId);
+        try {
+            accountLockingSession.lock();
+            AccountLeaseManager.Leases leases = accountLeaseManager.acquire(Arrays.asList(originAccountId, destinationAccountId));
+            boolean committed = false;
+            try {
+                accountRepository.startTransaction();
+                Account originAccount = transferOperations.loadAccount(originAccountId);
+                transferOperations.checkFunds(originAccount, amount);
+                Account destinationAccount = transferOperations.loadAccount(destinationAccountId);
+                transferOperations.move(originAccount, destinationAccount, amount);
+                accountRepository.flush();
+                accountLeaseManager.releaseOnCommit(leases);
+                accountRepository.commitTransaction();
+                committed = true;
+                transferOperations.cacheCommitted(originAccount, destinationAccount);
+            } catch (RuntimeException e) {
+                accountRepository.rollbackTransaction();
+                throw e;
+            } finally {
+                if (!committed) {
+                    accountLeaseManager.release(leases);
+                }
+            }
+        } finally {
+            accountLockManager.releaseLocks(accountLockingSession, originAccountId, destinationAccountId);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        // No threads are owned by this engine
+    }
+}
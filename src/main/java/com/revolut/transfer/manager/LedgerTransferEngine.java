@@ -0,0 +1,367 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.AccountNotFoundException;
+import com.revolut.transfer.exceptions.InsufficientFundsException;
+import com.revolut.transfer.exceptions.RevolutException;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.LedgerCheckpoint;
+import com.revolut.transfer.model.Money;
+import com.revolut.transfer.model.TransferTransaction;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.LedgerCheckpointRepository;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+import org.apache.log4j.Logger;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.revolut.transfer.exceptions.AccountNotFoundException.ACCOUNT_ID;
+
+/**
+ * <p>Append-only ledger. A transfer only inserts its row in the history, the accounts are not updated: the balances
+ * are kept in memory, projected from the history, and written to the accounts from time to time by a checkpoint. The
+ * balance stored in an account is a snapshot, and the history after the last transfer of the snapshot (see
+ * {@link LedgerCheckpoint}) is the journal replayed on top of it at startup.</p>
+ * <p>Like {@link GroupCommitTransferEngine}, a single committer thread collects the transfers and commits them in
+ * groups, so the projection is only modified by it and no locks are needed. The funds are checked against the
+ * projection in arrival order, and the projection is only updated once the history of the group is committed. If the
+ * commit of the group fails, its transfers are committed again one by one.</p>
+ * <p>The ids of the history come from the pooled sequence through a single thread, so they grow with the commit
+ * order. Only one instance of the application can use this mode on the same DB</p>
+ */
+public class LedgerTransferEngine implements TransferEngine {
+
+    private final static Logger logger = Logger.getLogger(LedgerTransferEngine.class);
+
+    private final AccountRepository accountRepository;
+    private final TransferTransactionRepository transferTransactionRepository;
+    private final LedgerCheckpointRepository ledgerCheckpointRepository;
+    private final BlockingQueue<GroupCommitTransferEngine.PendingTransfer> pendingTransfers;
+    private final int maxGroupSize;
+    private final long windowNanos;
+    private final int checkpointEvery;
+
+    /**
+     * Balance of the accounts, in minor units of the currency, by account id. Written only by the committer thread
+     */
+    private final Map<Long, Long> balances = new ConcurrentHashMap<>();
+
+    /*
+     * State of the committer thread
+     */
+    private final Set<Long> changedAccountIds = new HashSet<>();
+    private long lastTransferId;
+    private int transfersSinceCheckpoint;
+
+    private final Thread committer;
+    private volatile boolean running = true;
+
+    /**
+     * Recovers the balances from the last checkpoint and the history after it, and starts the committer thread
+     * @param checkpointEvery number of transfers between checkpoints
+     */
+    public LedgerTransferEngine(AccountRepository accountRepository, TransferTransactionRepository transferTransactionRepository,
+                                LedgerCheckpointRepository ledgerCheckpointRepository, int maxGroupSize, long windowMicros,
+                                int queueCapacity, int checkpointEvery) {
+        if (maxGroupSize < 1) {
+            throw new IllegalArgumentException("The maximum size of the group must be positive");
+        }
+        if (checkpointEvery < 1) {
+            throw new IllegalArgumentException("The number of transfers between checkpoints must be positive");
+        }
+        this.accountRepository = accountRepository;
+        this.transferTransactionRepository = transferTransactionRepository;
+        this.ledgerCheckpointRepository = ledgerCheckpointRepository;
+        this.pendingTransfers = new LinkedBlockingQueue<>(queueCapacity);
+        this.maxGroupSize = maxGroupSize;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.checkpointEvery = checkpointEvery;
+        recover();
+        this.committer = new Thread(this::commitGroups, "ledger-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * Writes to the accounts the transfers left in the history by a ledger that was not shut down cleanly, so the
+     * accounts can be used by the other modes
+     */
+    public static void recoverAccounts(AccountRepository accountRepository, TransferTransactionRepository transferTransactionRepository,
+                                       LedgerCheckpointRepository ledgerCheckpointRepository) {
+        if (ledgerCheckpointRepository.findLastTransferId(LedgerCheckpoint.LEDGER) != null) {
+            new LedgerTransferEngine(accountRepository, transferTransactionRepository, ledgerCheckpointRepository, 1, 0, 1, 1).shutdown();
+        }
+    }
+
+    @Override
+    public void transfer(Long originAccountId, Long destinationAccountId, long amount) {
+        if (!running) {
+            throw new IllegalStateException("Transfer engine stopped");
+        }
+        GroupCommitTransferEngine.PendingTransfer pendingTransfer = new GroupCommitTransferEngine.PendingTransfer(originAccountId, destinationAccountId, amount);
+        try {
+            pendingTransfers.put(pendingTransfer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing the transfer", e);
+        }
+        // The committer may have stopped after the check and drained the queue before the put, nobody would complete it
+        if (!running && pendingTransfers.remove(pendingTransfer)) {
+            throw new IllegalStateException("Transfer engine stopped");
+        }
+        TransferEngine.await(pendingTransfer.getResult());
+    }
+
+    /**
+     * Stops the committer thread, that writes the balances of all the changed accounts, so the next startup has
+     * nothing to replay and the accounts can be used by other modes
+     */
+    @Override
+    public void shutdown() {
+        running = false;
+        committer.interrupt();
+        try {
+            committer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return a copy of the account with the balance projected from the history, or the account itself if no transfer
+     * has touched it since it was loaded
+     */
+    @Override
+    public Account withCurrentBalance(Account account) {
+        Long balance = balances.get(account.getId());
+        if (balance == null || balance == account.getBalance()) {
+            return account;
+        }
+        return account.withBalance(balance);
+    }
+
+    @Override
+    public void accountsDeleted() {
+        balances.clear();
+    }
+
+    /**
+     * Loads the snapshot of every account and applies the history after the last checkpoint. If there is no
+     * checkpoint, the accounts are up to date with the whole history (the ledger was shut down cleanly, or the history
+     * was written by other modes) and the checkpoint is created
+     */
+    private void recover() {
+        long startNanos = System.nanoTime();
+        accountRepository.forEach(account -> balances.put(account.getId(), account.getBalance()));
+        Long checkpointTransferId = ledgerCheckpointRepository.findLastTransferId(LedgerCheckpoint.LEDGER);
+        if (checkpointTransferId == null) {
+            lastTransferId = transferTransactionRepository.findMaxId();
+            saveCheckpoint(Collections.emptyMap(), false);
+            logger.info("Ledger started with " + balances.size() + " accounts, new checkpoint at transfer " + lastTransferId);
+            return;
+        }
+        lastTransferId = checkpointTransferId;
+        int[] replayed = new int[1];
+        accountRepository.startTransaction();
+        try {
+            transferTransactionRepository.forEachAfter(checkpointTransferId, (id, originAccountId, destinationAccountId, amount) -> {
+                replay(originAccountId, -amount);
+                replay(destinationAccountId, amount);
+                lastTransferId = id;
+                replayed[0]++;
+            });
+            accountRepository.commitTransaction();
+        } catch (RuntimeException e) {
+            accountRepository.rollbackTransaction();
+            throw e;
+        }
+        transfersSinceCheckpoint = replayed[0];
+        logger.info("Ledger started with " + balances.size() + " accounts, " + replayed[0] + " transfers replayed after checkpoint "
+                + checkpointTransferId + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms");
+    }
+
+    private void replay(Long accountId, long change) {
+        Long balance = balances.get(accountId);
+        if (balance != null) {
+            balances.put(accountId, balance + change);
+            changedAccountIds.add(accountId);
+        }
+    }
+
+    private void commitGroups() {
+        List<GroupCommitTransferEngine.PendingTransfer> group = new ArrayList<>(maxGroupSize);
+        while (running) {
+            try {
+                collectGroup(group);
+            } catch (InterruptedException e) {
+                break;
+            }
+            commitGroup(group);
+            group.clear();
+            if (transfersSinceCheckpoint >= checkpointEvery) {
+                checkpoint(false);
+            }
+        }
+        List<GroupCommitTransferEngine.PendingTransfer> notExecuted = new ArrayList<>(group);
+        pendingTransfers.drainTo(notExecuted);
+        for (GroupCommitTransferEngine.PendingTransfer pendingTransfer : notExecuted) {
+            pendingTransfer.complete(new IllegalStateException("Transfer engine stopped"));
+        }
+        checkpoint(true);
+    }
+
+    /**
+     * Waits for the first transfer and then collects the transfers arriving until the window expires or the group is
+     * full
+     */
+    private void collectGroup(List<GroupCommitTransferEngine.PendingTransfer> group) throws InterruptedException {
+        group.add(pendingTransfers.take());
+        long deadline = System.nanoTime() + windowNanos;
+        while (group.size() < maxGroupSize) {
+            if (pendingTransfers.drainTo(group, maxGroupSize - group.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            GroupCommitTransferEngine.PendingTransfer pendingTransfer = pendingTransfers.poll(remaining, TimeUnit.NANOSECONDS);
+            if (pendingTransfer == null) {
+                return;
+            }
+            group.add(pendingTransfer);
+        }
+    }
+
+    /**
+     * Appends the accepted transfers of the group to the history in one transaction and, once committed, applies them
+     * to the projection
+     */
+    void commitGroup(List<GroupCommitTransferEngine.PendingTransfer> group) {
+        Throwable[] errors = new Throwable[group.size()];
+        Map<Long, Long> groupBalances = new HashMap<>();
+        long groupLastTransferId = lastTransferId;
+        int accepted = 0;
+        try {
+            accountRepository.startTransaction();
+            LocalDateTime time = LocalDateTime.now();
+            for (int i = 0; i < group.size(); i++) {
+                GroupCommitTransferEngine.PendingTransfer transfer = group.get(i);
+                long amount = transfer.getAmount();
+                try {
+                    long originBalance = getBalance(groupBalances, transfer.getOriginAccountId());
+                    if (originBalance < amount) {
+                        throw new InsufficientFundsException()
+                                .withProperties(
+                                        InsufficientFundsException.ACCOUNT_ID, transfer.getOriginAccountId(),
+                                        InsufficientFundsException.CURRENT_FUNDS, Money.toDecimal(originBalance));
+                    }
+                    long destinationBalance = Money.add(getBalance(groupBalances, transfer.getDestinationAccountId()), amount);
+                    groupBalances.put(transfer.getOriginAccountId(), Money.subtract(originBalance, amount));
+                    groupBalances.put(transfer.getDestinationAccountId(), destinationBalance);
+                } catch (RevolutException | ArithmeticException e) {
+                    errors[i] = e;
+                    continue;
+                }
+                TransferTransaction transferTransaction = new TransferTransaction();
+                transferTransaction.setOriginAccount(accountRepository.getReference(transfer.getOriginAccountId()));
+                transferTransaction.setDestinationAccount(accountRepository.getReference(transfer.getDestinationAccountId()));
+                transferTransaction.setAmount(amount);
+                transferTransaction.setTime(time);
+                transferTransactionRepository.persist(transferTransaction);
+                groupLastTransferId = Math.max(groupLastTransferId, transferTransaction.getId());
+                accepted++;
+            }
+            accountRepository.flush();
+            accountRepository.commitTransaction();
+        } catch (Throwable e) {
+            accountRepository.rollbackTransaction();
+            if (group.size() == 1) {
+                group.get(0).complete(e);
+                return;
+            }
+            logger.warn("Commit of " + group.size() + " transfers failed, committing them one by one", e);
+            for (GroupCommitTransferEngine.PendingTransfer pendingTransfer : group) {
+                commitGroup(Collections.singletonList(pendingTransfer));
+            }
+            return;
+        }
+        balances.putAll(groupBalances);
+        changedAccountIds.addAll(groupBalances.keySet());
+        lastTransferId = groupLastTransferId;
+        transfersSinceCheckpoint += accepted;
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).complete(errors[i]);
+        }
+    }
+
+    /**
+     * @return the balance of the account including the previous transfers of the group. Accounts created after the
+     * startup are loaded from the DB the first time they are used
+     * @throws AccountNotFoundException if there is no account with the given id
+     */
+    private long getBalance(Map<Long, Long> groupBalances, Long accountId) {
+        Long balance = groupBalances.get(accountId);
+        if (balance == null) {
+            balance = balances.get(accountId);
+        }
+        if (balance == null) {
+            balance = accountRepository.findBalance(accountId);
+            if (balance == null) {
+                throw new AccountNotFoundException().withProperty(ACCOUNT_ID, accountId);
+            }
+            balances.put(accountId, balance);
+        }
+        return balance;
+    }
+
+    /**
+     * Writes the balances of the accounts changed since the last checkpoint. If it fails, they are written by the next
+     * one
+     * @param last true on shutdown: the checkpoint is removed once the balances are written, as the accounts are up
+     * to date with the whole history and there is nothing to replay
+     */
+    void checkpoint(boolean last) {
+        Map<Long, Long> changedBalances = new HashMap<>();
+        for (Long accountId : changedAccountIds) {
+            Long balance = balances.get(accountId);
+            if (balance != null) {
+                changedBalances.put(accountId, balance);
+            }
+        }
+        try {
+            saveCheckpoint(changedBalances, last);
+        } catch (RuntimeException e) {
+            logger.warn("Checkpoint of " + changedBalances.size() + " accounts failed", e);
+            return;
+        }
+        changedAccountIds.clear();
+        transfersSinceCheckpoint = 0;
+    }
+
+    private void saveCheckpoint(Map<Long, Long> changedBalances, boolean last) {
+        accountRepository.startTransaction();
+        try {
+            accountRepository.updateBalances(changedBalances);
+            if (last) {
+                ledgerCheckpointRepository.delete(LedgerCheckpoint.LEDGER);
+            } else {
+                ledgerCheckpointRepository.save(LedgerCheckpoint.LEDGER, lastTransferId);
+            }
+            accountRepository.commitTransaction();
+        } catch (RuntimeException e) {
+            accountRepository.rollbackTransaction();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.ServiceUnavailableException;
+import com.revolut.transfer.exceptions.TransferConflictException;
+import com.revolut.transfer.metrics.Counter;
+import com.revolut.transfer.metrics.MetricsRegistry;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+import org.hibernate.StaleStateException;
+
+import javax.persistence.OptimisticLockException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Optimistic execution of the transfers. The transfer runs in the calling thread without any in-memory lock: the
+ * accounts are read, modified and written back checking their version, so a transfer that read an account modified
+ * meanwhile by another transfer fails on flush or commit and is rolled back.</p>
+ * <p>Failed attempts are retried after a random backoff that grows exponentially with the attempts (full jitter),
+ * so competing transfers spread out instead of colliding again. After the maximum number of attempts the transfer is
+ * rejected with a {@link TransferConflictException}, that can be retried by the client.</p>
+ * <p>As nothing is kept in memory, several instances of the application can work with the same DB. It's cheaper than
+ * the locking mode when most transfers touch cold accounts, the retry rate in the metrics shows when the contention
+ * makes it more expensive</p>
+ */
+public class OptimisticTransferEngine implements TransferEngine {
+
+    private final AccountRepository accountRepository;
+    private final TransferOperations transferOperations;
+    private final int maxAttempts;
+    private final long backoffNanos;
+    private final long maxBackoffNanos;
+
+    private final Counter transfers = MetricsRegistry.getInstance().counter("optimistic_transfers_total",
+            "Transfers executed in the optimistic mode, successfully or not");
+    private final Counter retries = MetricsRegistry.getInstance().counter("optimistic_transfer_retries_total",
+            "Attempts of the optimistic mode repeated because an account was modified by another transfer");
+    private final Counter conflicts = MetricsRegistry.getInstance().counter("optimistic_transfer_conflicts_total",
+            "Transfers of the optimistic mode rejected after all their attempts failed");
+
+    /**
+     * @param maxAttempts maximum number of executions of a transfer, at least 1
+     * @param backoffMicros base of the backoff, the backoff before the attempt n is random between 0 and
+     *                      backoffMicros * 2^(n-2), up to maxBackoffMicros
+     */
+    public OptimisticTransferEngine(AccountRepository accountRepository, TransferTransactionRepository transferTransactionRepository,
+                                    int maxAttempts, long backoffMicros, long maxBackoffMicros, AccountCache accountCache) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("The number of attempts must be positive");
+        }
+        this.accountRepository = accountRepository;
+        this.transferOperations = new TransferOperations(accountRepository, transferTransactionRepository, accountCache);
+        this.maxAttempts = maxAttempts;
+        this.backoffNanos = TimeUnit.MICROSECONDS.toNanos(backoffMicros);
+        this.maxBackoffNanos = TimeUnit.MICROSECONDS.toNanos(maxBackoffMicros);
+    }
+
+    @Override
+    public void transfer(Long originAccountId, Long destinationAccountId, long amount) {
+        transfers.increment();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                accountRepository.startTransaction();
+                Account originAccount = transferOperations.loadAccount(originAccountId);
+                transferOperations.checkFunds(originAccount, amount);
+                Account destinationAccount = transferOperations.loadAccount(destinationAccountId);
+                transferOperations.move(originAccount, destinationAccount, amount);
+                accountRepository.flush();
+                accountRepository.commitTransaction();
+                transferOperations.cacheCommitted(originAccount, destinationAccount);
+                return;
+            } catch (RuntimeException e) {
+                accountRepository.rollbackTransaction();
+                if (!isConflict(e)) {
+                    throw e;
+                }
+                if (attempt == maxAttempts) {
+                    conflicts.increment();
+                    throw new TransferConflictException()
+                            .withProperty(TransferConflictException.ATTEMPTS, attempt)
+                            .withProperty(ServiceUnavailableException.RETRY_AFTER_SECONDS, 1);
+                }
+            }
+            retries.increment();
+            backoff(attempt);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        // No threads are owned by this engine
+    }
+
+    /**
+     * @return true if the transfer failed because an account was modified by another transfer
+     */
+    static boolean isConflict(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OptimisticLockException || cause instanceof StaleStateException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void backoff(int failedAttempts) {
+        long maxNanos = Math.min(maxBackoffNanos, backoffNanos << Math.min(failedAttempts - 1, 30));
+        if (maxNanos > 0) {
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(maxNanos + 1));
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.PendingDeposit;
+import com.revolut.transfer.model.TransferTransaction;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.PendingDepositRepository;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Single writer execution of the transfers. Accounts are partitioned by id across N single threaded shards and an
+ * account is only modified by the thread of its shard, so no locks are needed at all.</p>
+ * <p>A transfer between two accounts of the same shard is executed by the shard in a single transaction.
+ * A transfer between accounts of different shards is executed in two deterministic steps: the shard of the origin
+ * account validates the transfer, withdraws the money and records the transfer and its {@link PendingDeposit}. Then it
+ * hands the transfer off to the shard of the destination account that deposits the money and removes the pending
+ * deposit. If the deposit fails, the shard of the origin account gives the money back and removes the transfer from
+ * the history. The deposits still pending after a crash are completed at the next startup (see
+ * {@link #recoverDeposits(AccountRepository, TransferTransactionRepository, PendingDepositRepository)}).</p>
+ * <p>Shards process their transfers in arrival order, so a hot account delays only the transfers of its own shard</p>
+ */
+public class ShardedTransferEngine implements TransferEngine {
+
+    private final static Logger logger = Logger.getLogger(ShardedTransferEngine.class);
+
+    /**
+     * Maximum time the shutdown waits for the transfers in progress, and then for the shards to stop
+     */
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
+    private final AccountRepository accountRepository;
+    private final PendingDepositRepository pendingDepositRepository;
+    private final TransferOperations transferOperations;
+    private final ExecutorService[] shards;
+
+    /**
+     * Transfers accepted and not completed yet, the shutdown waits for them before stopping the shards
+     */
+    private final AtomicInteger transfersInProgress = new AtomicInteger();
+    private volatile boolean running = true;
+
+    public ShardedTransferEngine(AccountRepository accountRepository, TransferTransactionRepository transferTransactionRepository,
+                                 PendingDepositRepository pendingDepositRepository, int numberOfShards) {
+        this(accountRepository, transferTransactionRepository, pendingDepositRepository, numberOfShards, new AccountCache(0));
+    }
+
+    public ShardedTransferEngine(AccountRepository accountRepository, TransferTransactionRepository transferTransactionRepository,
+                                 PendingDepositRepository pendingDepositRepository, int numberOfShards, AccountCache accountCache) {
+        if (numberOfShards < 1) {
+            throw new IllegalArgumentException("The number of shards must be positive");
+        }
+        this.accountRepository = accountRepository;
+        this.pendingDepositRepository = pendingDepositRepository;
+        this.transferOperations = new TransferOperations(accountRepository, transferTransactionRepository, accountCache);
+        this.shards = new ExecutorService[numberOfShards];
+        for (int i = 0; i < numberOfShards; i++) {
+            final String threadName = "transfer-shard-" + i;
+            shards[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @Override
+    public void transfer(Long originAccountId, Long destinationAccountId, long amount) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        transfersInProgress.incrementAndGet();
+        result.whenComplete((ignored, error) -> transfersInProgress.decrementAndGet());
+        int originShard = shardOf(originAccountId);
+        int destinationShard = shardOf(destinationAccountId);
+        if (!running) {
+            result.completeExceptionally(new IllegalStateException("Transfer engine stopped"));
+        } else if (originShard == destinationShard) {
+            execute(originShard, () -> transferInShard(originAccountId, destinationAccountId, amount, result), result);
+        } else {
+            execute(originShard, () -> withdraw(originAccountId, destinationAccountId, amount, destinationShard, result), result);
+        }
+        TransferEngine.await(result);
+    }
+
+    /**
+     * Rejects new transfers, waits for the ones in progress, hand-offs between shards included, and stops the shards
+     */
+    @Override
+    public void shutdown() {
+        running = false;
+        long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MILLIS;
+        try {
+            while (transfersInProgress.get() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            for (ExecutorService shard : shards) {
+                shard.shutdown();
+            }
+            for (ExecutorService shard : shards) {
+                if (!shard.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    logger.warn("Shards stopped with transfers in progress, their pending deposits are completed at the next startup");
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Completes the deposits of the transfers between shards interrupted by a crash, or refunds them if the deposit is
+     * not possible. To be called at startup, before the accounts are used, whatever the transfer mode
+     */
+    public static void recoverDeposits(AccountRepository accountRepository, TransferTransactionRepository transferTransactionRepository,
+                                       PendingDepositRepository pendingDepositRepository) {
+        List<PendingDeposit> pendingDeposits = pendingDepositRepository.findAll();
+        if (pendingDeposits.isEmpty()) {
+            return;
+        }
+        TransferOperations transferOperations = new TransferOperations(accountRepository, transferTransactionRepository, new AccountCache(0));
+        for (PendingDeposit pendingDeposit : pendingDeposits) {
+            try {
+                accountRepository.startTransaction();
+                transferOperations.deposit(transferOperations.loadAccount(pendingDeposit.getDestinationAccountId()), pendingDeposit.getAmount());
+                pendingDepositRepository.remove(pendingDeposit.getId());
+                accountRepository.flush();
+                accountRepository.commitTransaction();
+                continue;
+            } catch (RuntimeException e) {
+                accountRepository.rollbackTransaction();
+                logger.warn("Pending deposit of the transfer " + pendingDeposit.getId() + " failed, refunding it", e);
+            }
+            try {
+                accountRepository.startTransaction();
+                transferOperations.deposit(transferOperations.loadAccount(pendingDeposit.getOriginAccountId()), pendingDeposit.getAmount());
+                transferOperations.deleteHistory(pendingDeposit.getId());
+                pendingDepositRepository.remove(pendingDeposit.getId());
+                accountRepository.flush();
+                accountRepository.commitTransaction();
+            } catch (RuntimeException e) {
+                accountRepository.rollbackTransaction();
+                logger.error("Refund of the pending deposit of the transfer " + pendingDeposit.getId() + " failed, it is retried at the next startup", e);
+            }
+        }
+        logger.info(pendingDeposits.size() + " pending deposits between shards recovered");
+    }
+
+    int shardOf(Long accountId) {
+        return (int) Math.floorMod(accountId, (long) shards.length);
+    }
+
+    /**
+     * Executes the step in the given shard. If the shard is stopped, the transfer fails instead of waiting forever;
+     * a withdrawal already committed keeps its pending deposit for the next startup
+     */
+    private void execute(int shard, Runnable step, CompletableFuture<Void> result) {
+        try {
+            shards[shard].execute(step);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new IllegalStateException("Transfer engine stopped", e));
+        }
+    }
+
+    private void transferInShard(Long originAccountId, Long destinationAccountId, long amount, CompletableFuture<Void> result) {
+        try {
+            accountRepository.startTransaction();
+            Account originAccount = transferOperations.loadAccount(originAccountId);
+            transferOperations.checkFunds(originAccount, amount);
+            Account destinationAccount = transferOperations.loadAccount(destinationAccountId);
+            transferOperations.move(originAccount, destinationAccount, amount);
+            accountRepository.flush();
+            accountRepository.commitTransaction();
+            transferOperations.cacheCommitted(originAccount, destinationAccount);
+            result.complete(null);
+        } catch (Throwable e) {
+            accountRepository.rollbackTransaction();
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * First step of a transfer between shards, executed by the shard of the origin account
+     */
+    private void withdraw(Long originAccountId, Long destinationAccountId, long amount, int destinationShard, CompletableFuture<Void> result) {
+        TransferTransaction transferTransaction;
+        try {
+            accountRepository.startTransaction();
+            Account originAccount = transferOperations.loadAccount(originAccountId);
+            transferOperations.checkFunds(originAccount, amount);
+            // The destination account is only read to validate it and to reference it from the history,
+            // it is modified by its own shard
+            Account destinationAccount = transferOperations.loadAccount(destinationAccountId);
+            transferOperations.withdraw(originAccount, amount);
+            transferTransaction = transferOperations.saveHistory(originAccount, destinationAccount, amount);
+            pendingDepositRepository.record(transferTransaction.getId(), originAccountId, destinationAccountId, amount);
+            accountRepository.flush();
+            accountRepository.commitTransaction();
+            transferOperations.cacheCommitted(originAccount);
+        } catch (Throwable e) {
+            accountRepository.rollbackTransaction();
+            result.completeExceptionally(e);
+            return;
+        }
+        Long transferTransactionId = transferTransaction.getId();
+        int originShard = shardOf(originAccountId);
+        execute(destinationShard, () -> deposit(originAccountId, destinationAccountId, amount, transferTransactionId, originShard, result), result);
+    }
+
+    /**
+     * Second step of a transfer between shards, executed by the shard of the destination account
+     */
+    private void deposit(Long originAccountId, Long destinationAccountId, long amount, Long transferTransactionId, int originShard, CompletableFuture<Void> result) {
+        try {
+            accountRepository.startTransaction();
+            Account destinationAccount = transferOperations.loadAccount(destinationAccountId);
+            transferOperations.deposit(destinationAccount, amount);
+            pendingDepositRepository.remove(transferTransactionId);
+            accountRepository.flush();
+            accountRepository.commitTransaction();
+            transferOperations.cacheCommitted(destinationAccount);
+            result.complete(null);
+        } catch (Throwable e) {
+            accountRepository.rollbackTransaction();
+            logger.error("Deposit failed, returning the money to the origin account", e);
+            execute(originShard, () -> refund(originAccountId, amount, transferTransactionId, e, result), result);
+        }
+    }
+
+    /**
+     * Compensation of a failed deposit, executed by the shard of the origin account
+     */
+    private void refund(Long originAccountId, long amount, Long transferTransactionId, Throwable depositError, CompletableFuture<Void> result) {
+        try {
+            accountRepository.startTransaction();
+            Account originAccount = transferOperations.loadAccount(originAccountId);
+            transferOperations.deposit(originAccount, amount);
+            if (transferTransactionId != null) {
+                transferOperations.deleteHistory(transferTransactionId);
+                pendingDepositRepository.remove(transferTransactionId);
+            }
+            accountRepository.flush();
+            accountRepository.commitTransaction();
+            transferOperations.cacheCommitted(originAccount);
+        } catch (Throwable e) {
+            accountRepository.rollbackTransaction();
+            logger.error("Refund of the account " + originAccountId + " failed, the transfer " + transferTransactionId
+                    + " is kept as a pending deposit, completed at the next startup", e);
+        }
+        result.completeExceptionally(depositError);
+    }
+}
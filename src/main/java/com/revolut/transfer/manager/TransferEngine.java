@@ -0,0 +1,58 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.model.Account;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Alternative way of executing the transfers already validated by the {@link AccountManager}. It must throw the same
+ * exceptions as {@link AccountManager#transfer(Long, Long, java.math.BigDecimal)}
+ */
+public interface TransferEngine {
+
+    /**
+     * @param amount in minor units of the currency, see {@link com.revolut.transfer.model.Money}
+     */
+    void transfer(Long originAccountId, Long destinationAccountId, long amount);
+
+    /**
+     * Stops the threads owned by the engine
+     */
+    void shutdown();
+
+    /**
+     * @return the account with its current balance, for engines that do not keep the balance of the accounts up to
+     * date in the DB
+     */
+    default Account withCurrentBalance(Account account) {
+        return account;
+    }
+
+    /**
+     * Notifies that all the accounts have been deleted, for engines that keep state of the accounts
+     */
+    default void accountsDeleted() {
+    }
+
+    /**
+     * Waits for a transfer executed in other thread, throwing in the calling thread the exception of the transfer
+     */
+    static void await(CompletableFuture<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the transfer", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
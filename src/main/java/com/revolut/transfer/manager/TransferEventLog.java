@@ -0,0 +1,267 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.config.ApplicationProperties;
+import com.revolut.transfer.metrics.MetricsRegistry;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Structured log of the transfers. Every transfer produces one record with a fixed schema: account ids, amount in
+ * minor units, outcome and the time spent waiting for the account locks, working with the DB and in total.</p>
+ * <p>Records are written by the transfer threads to a ring buffer preallocated on startup, with one array per field,
+ * and a background thread drains them to a file. Recording an event is a few array writes and one CAS, so it never
+ * blocks and never allocates, even if it's called while the account locks are held.</p>
+ * <p>When the ring buffer is full (the file cannot keep up with the transfers) the new records are dropped and counted,
+ * the transfers are never slowed down by the event log. A capacity of 0 disables the event log</p>
+ *
+ * It must be used as a singleton.
+ */
+public class TransferEventLog {
+
+    private final static Logger logger = Logger.getLogger(TransferEventLog.class);
+
+    private static final String COMPLETED = "COMPLETED";
+
+    /**
+     * Value of a phase timing that was not measured, i.e. the lock wait of a transfer rejected by the validation
+     */
+    public static final long NOT_MEASURED = -1;
+
+    private static TransferEventLog instance = new TransferEventLog(
+            ApplicationProperties.getInt(ApplicationProperties.EVENT_LOG_CAPACITY, 65536),
+            ApplicationProperties.getString(ApplicationProperties.EVENT_LOG_FILE, "transfer-events.log"));
+
+    static {
+        instance.registerGauges(MetricsRegistry.getInstance());
+    }
+
+    private final int capacity;
+    private final int mask;
+
+    /**
+     * For every slot, the sequence of the next record that can be read from it. A record is published when its slot
+     * has the sequence of the record plus one
+     */
+    private final AtomicLongArray published;
+    private final long[] times;
+    private final long[] originAccountIds;
+    private final long[] destinationAccountIds;
+    private final long[] amounts;
+    private final String[] outcomes;
+    private final long[] lockWaitNanos;
+    private final long[] dbNanos;
+    private final long[] totalNanos;
+
+    /**
+     * Sequence of the next record to be claimed by a transfer thread
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Sequence of the next record to be drained
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long written;
+
+    private final Writer writer;
+    private final Thread drainer;
+    private volatile boolean running = true;
+
+    /**
+     * @param capacity number of records of the ring buffer, rounded up to a power of two. 0 disables the log
+     * @param fileName file the records are appended to
+     */
+    public TransferEventLog(int capacity, String fileName) {
+        this(capacity, capacity > 0 ? openFile(fileName) : null);
+    }
+
+    TransferEventLog(int capacity, Writer writer) {
+        this.capacity = capacity > 0 ? Integer.highestOneBit(Math.max(1, capacity - 1)) << 1 : 0;
+        this.mask = this.capacity - 1;
+        this.published = new AtomicLongArray(this.capacity);
+        this.times = new long[this.capacity];
+        this.originAccountIds = new long[this.capacity];
+        this.destinationAccountIds = new long[this.capacity];
+        this.amounts = new long[this.capacity];
+        this.outcomes = new String[this.capacity];
+        this.lockWaitNanos = new long[this.capacity];
+        this.dbNanos = new long[this.capacity];
+        this.totalNanos = new long[this.capacity];
+        for (int i = 0; i < this.capacity; i++) {
+            published.set(i, i);
+        }
+        this.writer = writer;
+        if (this.capacity > 0) {
+            this.drainer = new Thread(this::drain, "transfer-event-log");
+            this.drainer.setDaemon(true);
+            this.drainer.start();
+        } else {
+            this.drainer = null;
+        }
+    }
+
+    public static TransferEventLog getInstance() {
+        return instance;
+    }
+
+    /**
+     * Records the outcome of a transfer. Timings are measured with {@link System#nanoTime()}
+     *
+     * @param amount in minor units of the currency, 0 if the amount was not valid
+     * @param errorCode code of the error that rejected the transfer, null if it was completed. It must be a constant
+     *                  (i.e. {@link com.revolut.transfer.exceptions.RevolutException#getErrorCode()}) so no string is
+     *                  built for the record
+     * @param startNanos when the transfer started
+     * @param lockedNanos when the account locks were taken, {@link #NOT_MEASURED} if they were not taken
+     * @param endNanos when the transfer finished
+     */
+    public void record(Long originAccountId, Long destinationAccountId, long amount, String errorCode,
+                       long startNanos, long lockedNanos, long endNanos) {
+        if (capacity == 0) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head.get() >= capacity) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+        int slot = (int) (sequence & mask);
+        times[slot] = System.currentTimeMillis();
+        originAccountIds[slot] = originAccountId == null ? -1 : originAccountId;
+        destinationAccountIds[slot] = destinationAccountId == null ? -1 : destinationAccountId;
+        amounts[slot] = amount;
+        outcomes[slot] = errorCode == null ? COMPLETED : errorCode;
+        lockWaitNanos[slot] = lockedNanos == NOT_MEASURED ? NOT_MEASURED : lockedNanos - startNanos;
+        dbNanos[slot] = lockedNanos == NOT_MEASURED ? NOT_MEASURED : endNanos - lockedNanos;
+        totalNanos[slot] = endNanos - startNanos;
+        published.lazySet(slot, sequence + 1);
+    }
+
+    /**
+     * @return number of records accepted in the ring buffer
+     */
+    public long getRecorded() {
+        return tail.get();
+    }
+
+    /**
+     * @return number of records written to the file
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return number of records dropped because the ring buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops the background thread once all the records in the ring buffer have been written. To be called when the
+     * application is stopped, otherwise the records not written yet are lost
+     */
+    public void shutdown() {
+        running = false;
+        if (drainer != null) {
+            try {
+                drainer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Records written and dropped, so a file that cannot keep up with the transfers is noticed
+     */
+    private void registerGauges(MetricsRegistry metricsRegistry) {
+        metricsRegistry.gauge("transfer_events_written", "Transfer events written to the event log file",
+                () -> Collections.singletonMap("", getWritten()));
+        metricsRegistry.gauge("transfer_events_dropped", "Transfer events dropped because the buffer of the event log was full",
+                () -> Collections.singletonMap("", getDropped()));
+    }
+
+    private void drain() {
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            long sequence = head.get();
+            int slot = (int) (sequence & mask);
+            if (published.get(slot) != sequence + 1) {
+                if (!running && sequence == tail.get()) {
+                    break;
+                }
+                flush();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                continue;
+            }
+            line.setLength(0);
+            format(slot, line);
+            // The slot can be reused once its record has been copied
+            published.lazySet(slot, sequence + capacity);
+            head.lazySet(sequence + 1);
+            try {
+                writer.append(line);
+                written++;
+            } catch (IOException e) {
+                logger.error("Transfer event could not be written", e);
+            }
+        }
+        flush();
+    }
+
+    private void format(int slot, StringBuilder line) {
+        line.append(Instant.ofEpochMilli(times[slot]))
+                .append(" origin=").append(originAccountIds[slot])
+                .append(" destination=").append(destinationAccountIds[slot])
+                .append(" amount=").append(amounts[slot])
+                .append(" outcome=").append(outcomes[slot]);
+        appendMicros(line, " lockWaitMicros=", lockWaitNanos[slot]);
+        appendMicros(line, " dbMicros=", dbNanos[slot]);
+        appendMicros(line, " totalMicros=", totalNanos[slot]);
+        line.append('\n');
+    }
+
+    private void appendMicros(StringBuilder line, String name, long nanos) {
+        line.append(name);
+        if (nanos == NOT_MEASURED) {
+            line.append('-');
+        } else {
+            line.append(TimeUnit.NANOSECONDS.toMicros(nanos));
+        }
+    }
+
+    private void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            logger.error("Transfer events could not be flushed", e);
+        }
+    }
+
+    private static Writer openFile(String fileName) {
+        try {
+            return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName, true), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException("Transfer event log " + fileName + " cannot be opened", e);
+        }
+    }
+}
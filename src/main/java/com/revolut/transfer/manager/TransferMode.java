@@ -0,0 +1,60 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.config.ApplicationProperties;
+
+/**
+ * Available ways of executing the transfers, selected with the property
+ * {@link ApplicationProperties#TRANSFER_MODE}
+ */
+public enum TransferMode {
+
+    /**
+     * The transfer is executed in the calling thread, holding the in-memory locks of both accounts
+     */
+    LOCKING,
+
+    /**
+     * Accounts are partitioned across single threaded shards and every account is only modified by its shard
+     */
+    SHARDED,
+
+    /**
+     * Transfers are collected by a single committer thread and committed in groups, in one DB transaction per group
+     */
+    GROUP_COMMIT,
+
+    /**
+     * The transfer is executed in the calling thread without locks, relying on the version of the accounts. Transfers
+     * that find their accounts modified by another transfer are retried
+     */
+    OPTIMISTIC,
+
+    /**
+     * The transfer is executed in the calling thread with one conditional SQL update per account and one insert, without
+     * loading the accounts. The row locks of the DB keep the accounts consistent
+     */
+    ATOMIC,
+
+    /**
+     * The transfer is executed in the calling thread holding the in-memory locks and the leases in the DB of both
+     * accounts, so several instances of the application can share the same DB
+     */
+    LEASE,
+
+    /**
+     * Transfers are collected by a single committer thread and only appended to the history, the balances are kept in
+     * memory and written to the accounts by periodic checkpoints
+     */
+    LEDGER,
+
+    /**
+     * Transfers are collected by a single writer thread and appended to a write-ahead log in memory-mapped files, with
+     * one fsync per group. The balances are kept in memory and written to the DB by periodic checkpoints
+     */
+    WAL;
+
+    public static TransferMode fromConfiguration() {
+        return valueOf(ApplicationProperties.getString(ApplicationProperties.TRANSFER_MODE, LOCKING.name())
+                .toUpperCase().replace('-', '_'));
+    }
+}
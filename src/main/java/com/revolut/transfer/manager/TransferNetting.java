@@ -0,0 +1,167 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.LockTimeoutException;
+import com.revolut.transfer.manager.GroupCommitTransferEngine.PendingTransfer;
+import com.revolut.transfer.metrics.Counter;
+import com.revolut.transfer.metrics.MetricsRegistry;
+import com.revolut.transfer.model.AccountLockingSession;
+import com.revolut.transfer.model.TransferRequest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Netting of the transfers of the locking mode between the same pair of accounts. The first transfer of a pair
+ * leads a batch: while it waits for the locks of both accounts, and during an optional window once it has them, the
+ * transfers arriving for the same pair, in any direction, join its batch instead of waiting for the locks themselves.</p>
+ * <p>The leader applies the whole batch in one transaction (see
+ * {@link TransferOperations#applyInOneTransaction(List)}): both accounts are loaded once and updated once with the net
+ * change of the batch, the funds are checked in arrival order and every transfer gets its own history row. A transfer
+ * rejected by a business rule is rejected alone.</p>
+ * <p>A transfer that finds the accounts free does not wait for anything, it leads a batch of one</p>
+ */
+class TransferNetting {
+
+    private final AccountLockManager accountLockManager;
+    private final TransferOperations transferOperations;
+    private final int maxBatchSize;
+    private final long windowNanos;
+
+    /**
+     * Batches still accepting transfers, by the ordered ids of their accounts
+     */
+    private final ConcurrentMap<List<Long>, Batch> openBatches = new ConcurrentHashMap<>();
+
+    private final Counter batches = MetricsRegistry.getInstance().counter("transfer_netting_batches_total",
+            "Batches of transfers between the same accounts applied together by the locking mode");
+    private final Counter nettedTransfers = MetricsRegistry.getInstance().counter("transfer_netting_joined_transfers_total",
+            "Transfers applied in a batch led by another transfer, without taking the locks themselves");
+
+    /**
+     * @param maxBatchSize maximum number of transfers of a batch, a full batch is applied while the next transfers
+     *                     start a new one
+     * @param windowMicros time the leader keeps collecting transfers once it has the locks, 0 to only collect the
+     *                     transfers arriving while it waits for the locks
+     */
+    TransferNetting(AccountLockManager accountLockManager, TransferOperations transferOperations, int maxBatchSize, long windowMicros) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("The maximum size of the batch must be positive");
+        }
+        this.accountLockManager = accountLockManager;
+        this.transferOperations = transferOperations;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    }
+
+    /**
+     * Executes the transfer, in a batch with the other transfers between the same accounts
+     * @param amount in minor units of the currency
+     * @return when the locks of the batch were taken, in {@link System#nanoTime()}, or
+     * {@link TransferEventLog#NOT_MEASURED} if the transfer was applied by the leader of its batch
+     */
+    long transfer(Long originAccountId, Long destinationAccountId, long amount) {
+        PendingTransfer pendingTransfer = new PendingTransfer(originAccountId, destinationAccountId, amount);
+        List<Long> accountIds = pair(originAccountId, destinationAccountId);
+        Batch batch = openBatches.compute(accountIds, (ids, openBatch) -> {
+            if (openBatch == null || openBatch.transfers.size() >= maxBatchSize) {
+                return new Batch(pendingTransfer);
+            }
+            openBatch.transfers.add(pendingTransfer);
+            return openBatch;
+        });
+        if (batch.transfers.get(0) != pendingTransfer) {
+            TransferEngine.await(pendingTransfer.getResult());
+            return TransferEventLog.NOT_MEASURED;
+        }
+        return lead(accountIds, batch);
+    }
+
+    /**
+     * For testing
+     * @return number of transfers of the open batch of the accounts
+     */
+    int getOpenBatchSize(Long accountId, Long otherAccountId) {
+        int[] size = new int[1];
+        openBatches.computeIfPresent(pair(accountId, otherAccountId), (ids, batch) -> {
+            size[0] = batch.transfers.size();
+            return batch;
+        });
+        return size[0];
+    }
+
+    private long lead(List<Long> accountIds, Batch batch) {
+        AccountLockingSession accountLockingSession = accountLockManager.getOrCreateAccountLocks(accountIds);
+        try {
+            long lockedNanos;
+            Throwable[] errors;
+            try {
+                accountLockingSession.lock();
+                lockedNanos = System.nanoTime();
+                if (windowNanos > 0) {
+                    LockSupport.parkNanos(windowNanos);
+                }
+                // Once removed, no more transfers join the batch
+                openBatches.remove(accountIds, batch);
+                List<TransferRequest> transfers = new ArrayList<>(batch.transfers.size());
+                for (PendingTransfer pendingTransfer : batch.transfers) {
+                    transfers.add(pendingTransfer.toTransferRequest());
+                }
+                errors = transferOperations.applyInOneTransaction(transfers);
+            } catch (LockTimeoutException e) {
+                openBatches.remove(accountIds, batch);
+                lockedNanos = TransferEventLog.NOT_MEASURED;
+                errors = new Throwable[batch.transfers.size()];
+                Arrays.fill(errors, e);
+            }
+            batches.increment();
+            nettedTransfers.add(errors.length - 1);
+            for (int i = 1; i < errors.length; i++) {
+                batch.transfers.get(i).complete(errors[i]);
+            }
+            rethrow(errors[0]);
+            return lockedNanos;
+        } finally {
+            openBatches.remove(accountIds, batch);
+            // Nobody keeps waiting if the batch failed unexpectedly, completing an already completed transfer does nothing
+            for (PendingTransfer pendingTransfer : batch.transfers) {
+                pendingTransfer.getResult().completeExceptionally(new IllegalStateException("Transfer not applied by its batch"));
+            }
+            accountLockManager.releaseLocks(accountLockingSession, accountIds);
+        }
+    }
+
+    private static void rethrow(Throwable error) {
+        if (error == null) {
+            return;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        throw new IllegalStateException(error);
+    }
+
+    private static List<Long> pair(Long accountId, Long otherAccountId) {
+        return accountId < otherAccountId ? Arrays.asList(accountId, otherAccountId) : Arrays.asList(otherAccountId, accountId);
+    }
+
+    /**
+     * Transfers between the same accounts, in arrival order. The first one is the leader. The list is only modified
+     * while the batch is open, inside the atomic operations of the map of open batches
+     */
+    private static class Batch {
+
+        private final List<PendingTransfer> transfers = new ArrayList<>();
+
+        Batch(PendingTransfer leader) {
+            transfers.add(leader);
+        }
+    }
+}
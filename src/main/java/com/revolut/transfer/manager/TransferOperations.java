@@ -0,0 +1,212 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.AccountNotFoundException;
+import com.revolut.transfer.exceptions.InsufficientFundsException;
+import com.revolut.transfer.exceptions.RevolutException;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.Money;
+import com.revolut.transfer.model.TransferRequest;
+import com.revolut.transfer.model.TransferTransaction;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+import org.apache.log4j.Logger;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.revolut.transfer.exceptions.AccountNotFoundException.ACCOUNT_ID;
+
+/**
+ * Steps of a transfer shared by the different ways of executing it. They must be called inside a transaction
+ * and the caller is responsible of guaranteeing that no other thread is modifying the same accounts.
+ * Once committed, the modified accounts must be written to the {@link AccountCache} before the accounts are released
+ */
+class TransferOperations {
+
+    private final static Logger logger = Logger.getLogger(TransferOperations.class);
+
+    private final AccountRepository accountRepository;
+    private final TransferTransactionRepository transferTransactionRepository;
+    private final AccountCache accountCache;
+
+    /**
+     * Sub-balances of the split accounts, null if the accounts are never split
+     */
+    private final AccountSubBalanceManager accountSubBalanceManager;
+
+    TransferOperations(AccountRepository accountRepository, TransferTransactionRepository transferTransactionRepository, AccountCache accountCache) {
+        this(accountRepository, transferTransactionRepository, accountCache, null);
+    }
+
+    TransferOperations(AccountRepository accountRepository, TransferTransactionRepository transferTransactionRepository, AccountCache accountCache,
+                       AccountSubBalanceManager accountSubBalanceManager) {
+        this.accountRepository = accountRepository;
+        this.transferTransactionRepository = transferTransactionRepository;
+        this.accountCache = accountCache;
+        this.accountSubBalanceManager = accountSubBalanceManager;
+    }
+
+    /**
+     * Writes the committed accounts to the cache, all of them at once
+     */
+    void cacheCommitted(Account... committedAccounts) {
+        accountCache.update(Arrays.asList(committedAccounts));
+    }
+
+    /**
+     * @throws AccountNotFoundException if there is no account with the given id
+     */
+    Account loadAccount(Long accountId) {
+        Account account = accountRepository.findById(accountId);
+        if (account == null) {
+            throw new AccountNotFoundException().withProperty(ACCOUNT_ID, accountId);
+        }
+        return account;
+    }
+
+    /**
+     * If the account is split and its balance is not enough, its sub-balances are moved to it first
+     * @param amount in minor units of the currency
+     * @throws InsufficientFundsException if the account does not have at least the given amount
+     */
+    void checkFunds(Account account, long amount) {
+        if (account.getBalance() < amount && accountSubBalanceManager != null) {
+            accountSubBalanceManager.sweep(account);
+        }
+        if (account.getBalance() < amount) {
+            throw new InsufficientFundsException()
+                    .withProperties(
+                            InsufficientFundsException.ACCOUNT_ID, account.getId(),
+                            InsufficientFundsException.CURRENT_FUNDS, account.getAmount());
+        }
+    }
+
+    /**
+     * Moves the amount, in minor units of the currency, between the accounts and saves the transfer in the history
+     * @throws ArithmeticException if the balance of the destination account overflows
+     */
+    TransferTransaction move(Account originAccount, Account destinationAccount, long amount) {
+        withdraw(originAccount, amount);
+        deposit(destinationAccount, amount);
+        return saveHistory(originAccount, destinationAccount, amount);
+    }
+
+    void withdraw(Account account, long amount) {
+        account.setBalance(Money.subtract(account.getBalance(), amount));
+    }
+
+    void deposit(Account account, long amount) {
+        account.setBalance(Money.add(account.getBalance(), amount));
+    }
+
+    /**
+     * Moves the amount from the account to a sub-balance of the split destination account, without loading the
+     * destination account, and saves the transfer in the history
+     */
+    TransferTransaction moveToSubBalance(Account originAccount, Long destinationAccountId, long amount) {
+        withdraw(originAccount, amount);
+        accountSubBalanceManager.credit(destinationAccountId, amount);
+        return saveHistory(originAccount, accountRepository.getReference(destinationAccountId), amount);
+    }
+
+    TransferTransaction saveHistory(Account originAccount, Account destinationAccount, long amount) {
+        TransferTransaction transferTransaction = newHistory(originAccount, destinationAccount, amount);
+        transferTransactionRepository.save(transferTransaction);
+        return transferTransaction;
+    }
+
+    /**
+     * Moves the amount between the accounts and adds the transfer to the history without flushing, so the history of
+     * many transfers can be inserted in a single JDBC batch
+     */
+    void moveWithoutFlush(Account originAccount, Account destinationAccount, long amount) {
+        withdraw(originAccount, amount);
+        deposit(destinationAccount, amount);
+        transferTransactionRepository.persist(newHistory(originAccount, destinationAccount, amount));
+    }
+
+    private TransferTransaction newHistory(Account originAccount, Account destinationAccount, long amount) {
+        TransferTransaction transferTransaction = new TransferTransaction();
+        transferTransaction.setOriginAccount(originAccount);
+        transferTransaction.setDestinationAccount(destinationAccount);
+        transferTransaction.setAmount(amount);
+        transferTransaction.setTime(LocalDateTime.now());
+        return transferTransaction;
+    }
+
+    void deleteHistory(Long transferTransactionId) {
+        transferTransactionRepository.deleteById(transferTransactionId);
+    }
+
+    /**
+     * <p>Applies all the transfers in a single transaction, loading all the involved accounts with one query and
+     * inserting the history in JDBC batches.</p>
+     * <p>A transfer rejected by a business rule is rejected alone, it's validated before modifying any account so the
+     * rest of transfers can still be committed. If the transaction fails for any other reason, it's rolled back and
+     * every transfer is applied again in its own transaction.</p>
+     * @return for every transfer, in the same order, null if it was applied or the reason of the failure
+     */
+    Throwable[] applyInOneTransaction(List<TransferRequest> transfers) {
+        Throwable[] errors = new Throwable[transfers.size()];
+        try {
+            accountRepository.startTransaction();
+            Set<Long> accountIds = new HashSet<>();
+            for (TransferRequest transfer : transfers) {
+                accountIds.add(transfer.getOriginAccountId());
+                accountIds.add(transfer.getDestinationAccountId());
+            }
+            accountRepository.findByIds(accountIds);
+            List<Account> modifiedAccounts = new ArrayList<>();
+            for (int i = 0; i < transfers.size(); i++) {
+                try {
+                    modifiedAccounts.addAll(apply(transfers.get(i)));
+                } catch (RevolutException e) {
+                    errors[i] = e;
+                }
+            }
+            accountRepository.flush();
+            accountRepository.commitTransaction();
+            accountCache.update(modifiedAccounts);
+        } catch (Throwable e) {
+            logger.warn("Commit of " + transfers.size() + " transfers failed, committing them one by one", e);
+            accountRepository.rollbackTransaction();
+            for (int i = 0; i < transfers.size(); i++) {
+                errors[i] = applyInOwnTransaction(transfers.get(i));
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * @return null if the transfer was committed or the reason of the failure
+     */
+    Throwable applyInOwnTransaction(TransferRequest transfer) {
+        try {
+            accountRepository.startTransaction();
+            List<Account> modifiedAccounts = apply(transfer);
+            accountRepository.flush();
+            accountRepository.commitTransaction();
+            accountCache.update(modifiedAccounts);
+            return null;
+        } catch (Throwable e) {
+            accountRepository.rollbackTransaction();
+            return e;
+        }
+    }
+
+    /**
+     * @return the modified accounts
+     */
+    private List<Account> apply(TransferRequest transfer) {
+        long amount = Money.toMinorUnits(transfer.getAmount());
+        Account originAccount = loadAccount(transfer.getOriginAccountId());
+        checkFunds(originAccount, amount);
+        Account destinationAccount = loadAccount(transfer.getDestinationAccountId());
+        moveWithoutFlush(originAccount, destinationAccount, amount);
+        return Arrays.asList(originAccount, destinationAccount);
+    }
+}
@@ -0,0 +1,393 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.AccountNotFoundException;
+import com.revolut.transfer.exceptions.InsufficientFundsException;
+import com.revolut.transfer.metrics.Counter;
+import com.revolut.transfer.metrics.Histogram;
+import com.revolut.transfer.metrics.MetricsRegistry;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.LedgerCheckpoint;
+import com.revolut.transfer.model.Money;
+import com.revolut.transfer.model.TransferTransaction;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.LedgerCheckpointRepository;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+import com.revolut.transfer.persistence.WriteAheadLog;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.revolut.transfer.exceptions.AccountNotFoundException.ACCOUNT_ID;
+
+/**
+ * <p>Balances in memory, made durable by a {@link WriteAheadLog} instead of the DB. A single writer thread collects
+ * the transfers like {@link GroupCommitTransferEngine}, checks the funds in arrival order, appends a record per
+ * accepted transfer and forces the log once per group before acknowledging the transfers, so the DB is out of the
+ * path of the transfers.</p>
+ * <p>Every so many transfers a checkpoint writes, in one DB transaction, the history of the logged transfers, the
+ * balances of the changed accounts and the sequence of the last logged transfer (see {@link LedgerCheckpoint}), and
+ * the segments of the log already included are deleted. At startup the log after the checkpoint is replayed on top of
+ * the balances of the accounts. A clean shutdown takes a last checkpoint and deletes the whole log, and the other
+ * modes replay a log left by a crash before using the accounts.</p>
+ * <p>Accounts are still created in the DB, and loaded the first time they are used. Only one instance of the
+ * application can use this mode on the same DB</p>
+ */
+public class WalTransferEngine implements TransferEngine {
+
+    private final static Logger logger = Logger.getLogger(WalTransferEngine.class);
+
+    private final AccountRepository accountRepository;
+    private final TransferTransactionRepository transferTransactionRepository;
+    private final LedgerCheckpointRepository ledgerCheckpointRepository;
+    private final WriteAheadLog writeAheadLog;
+    private final BlockingQueue<GroupCommitTransferEngine.PendingTransfer> pendingTransfers;
+    private final int maxGroupSize;
+    private final long windowNanos;
+    private final int checkpointEvery;
+
+    /**
+     * Balance of the accounts, in minor units of the currency, by account id. Written only by the writer thread
+     */
+    private final Map<Long, Long> balances = new ConcurrentHashMap<>();
+
+    /*
+     * State of the writer thread: transfers logged and accounts changed since the last checkpoint
+     */
+    private final List<LoggedTransfer> loggedTransfers = new ArrayList<>();
+    private final Set<Long> changedAccountIds = new HashSet<>();
+    private volatile boolean accountsDeleted;
+
+    private final Histogram fsyncTime = MetricsRegistry.getInstance().histogram("wal_fsync_seconds",
+            "Duration of the fsyncs of the write-ahead log, one per group of transfers");
+    private final Counter loggedRecords = MetricsRegistry.getInstance().counter("wal_records_total",
+            "Transfers appended to the write-ahead log");
+
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /**
+     * Replays the log after the last checkpoint and starts the writer thread
+     * @param segmentSize size in bytes of the files of the log
+     * @param checkpointEvery number of transfers between checkpoints
+     */
+    public WalTransferEngine(AccountRepository accountRepository, TransferTransactionRepository transferTransactionRepository,
+                             LedgerCheckpointRepository ledgerCheckpointRepository, Path directory, long segmentSize,
+                             int maxGroupSize, long windowMicros, int queueCapacity, int checkpointEvery) throws IOException {
+        if (maxGroupSize < 1) {
+            throw new IllegalArgumentException("The maximum size of the group must be positive");
+        }
+        if (checkpointEvery < 1) {
+            throw new IllegalArgumentException("The number of transfers between checkpoints must be positive");
+        }
+        this.accountRepository = accountRepository;
+        this.transferTransactionRepository = transferTransactionRepository;
+        this.ledgerCheckpointRepository = ledgerCheckpointRepository;
+        this.writeAheadLog = new WriteAheadLog(directory, segmentSize);
+        this.pendingTransfers = new LinkedBlockingQueue<>(queueCapacity);
+        this.maxGroupSize = maxGroupSize;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.checkpointEvery = checkpointEvery;
+        recover();
+        this.writer = new Thread(this::writeGroups, "wal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Writes to the DB the transfers left in the log by an engine that was not shut down cleanly, so the accounts can
+     * be used by the other modes
+     */
+    public static void recoverAccounts(AccountRepository accountRepository, TransferTransactionRepository transferTransactionRepository,
+                                       LedgerCheckpointRepository ledgerCheckpointRepository, Path directory, long segmentSize) throws IOException {
+        if (WriteAheadLog.hasSegments(directory)) {
+            new WalTransferEngine(accountRepository, transferTransactionRepository, ledgerCheckpointRepository, directory,
+                    segmentSize, 1, 0, 1, Integer.MAX_VALUE).shutdown();
+        }
+    }
+
+    @Override
+    public void transfer(Long originAccountId, Long destinationAccountId, long amount) {
+        if (!running) {
+            throw new IllegalStateException("Transfer engine stopped");
+        }
+        GroupCommitTransferEngine.PendingTransfer pendingTransfer = new GroupCommitTransferEngine.PendingTransfer(originAccountId, destinationAccountId, amount);
+        try {
+            pendingTransfers.put(pendingTransfer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing the transfer", e);
+        }
+        // The writer may have stopped after the check and drained the queue before the put, nobody would complete it
+        if (!running && pendingTransfers.remove(pendingTransfer)) {
+            throw new IllegalStateException("Transfer engine stopped");
+        }
+        TransferEngine.await(pendingTransfer.getResult());
+    }
+
+    /**
+     * Stops the writer thread, that takes a last checkpoint and deletes the log, so the next startup has nothing to
+     * replay and the accounts can be used by other modes
+     */
+    @Override
+    public void shutdown() {
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return a copy of the account with the balance kept in memory, or the account itself if no transfer has
+     * touched it since it was loaded
+     */
+    @Override
+    public Account withCurrentBalance(Account account) {
+        Long balance = balances.get(account.getId());
+        if (balance == null || balance == account.getBalance()) {
+            return account;
+        }
+        return account.withBalance(balance);
+    }
+
+    /**
+     * The transfers logged since the last checkpoint are discarded by the next group, their accounts do not exist
+     * anymore
+     */
+    @Override
+    public void accountsDeleted() {
+        balances.clear();
+        accountsDeleted = true;
+    }
+
+    /**
+     * Loads the balance of every account from the DB and applies the records of the log after the checkpoint
+     */
+    private void recover() throws IOException {
+        long startNanos = System.nanoTime();
+        accountRepository.forEach(account -> balances.put(account.getId(), account.getBalance()));
+        Long checkpointSequence = ledgerCheckpointRepository.findLastTransferId(LedgerCheckpoint.WRITE_AHEAD_LOG);
+        writeAheadLog.replay(checkpointSequence == null ? 0 : checkpointSequence, (sequence, originAccountId, destinationAccountId, amount, timeMillis) -> {
+            LoggedTransfer loggedTransfer = new LoggedTransfer(originAccountId, destinationAccountId, amount, timeMillis);
+            if (balances.containsKey(originAccountId) && balances.containsKey(destinationAccountId)) {
+                balances.put(originAccountId, balances.get(originAccountId) - amount);
+                balances.put(destinationAccountId, balances.get(destinationAccountId) + amount);
+                changedAccountIds.add(originAccountId);
+                changedAccountIds.add(destinationAccountId);
+                loggedTransfers.add(loggedTransfer);
+            }
+        });
+        logger.info("Write-ahead log started with " + balances.size() + " accounts, " + loggedTransfers.size()
+                + " transfers replayed up to " + writeAheadLog.getLastSequence() + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms");
+    }
+
+    private void writeGroups() {
+        List<GroupCommitTransferEngine.PendingTransfer> group = new ArrayList<>(maxGroupSize);
+        while (running) {
+            try {
+                collectGroup(group);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (accountsDeleted) {
+                accountsDeleted = false;
+                loggedTransfers.clear();
+                changedAccountIds.clear();
+            }
+            try {
+                writeGroup(group);
+            } catch (IOException | RuntimeException e) {
+                // Records of the group may be forced with the next one, so no more transfers are accepted. The last
+                // checkpoint includes them in its sequence without applying them, so they are never replayed
+                logger.error("Write-ahead log failed, stopping the transfers", e);
+                for (GroupCommitTransferEngine.PendingTransfer pendingTransfer : group) {
+                    pendingTransfer.complete(e);
+                }
+                group.clear();
+                running = false;
+                break;
+            }
+            group.clear();
+            if (loggedTransfers.size() >= checkpointEvery) {
+                checkpoint(false);
+            }
+        }
+        List<GroupCommitTransferEngine.PendingTransfer> notExecuted = new ArrayList<>(group);
+        pendingTransfers.drainTo(notExecuted);
+        for (GroupCommitTransferEngine.PendingTransfer pendingTransfer : notExecuted) {
+            pendingTransfer.complete(new IllegalStateException("Transfer engine stopped"));
+        }
+        checkpoint(true);
+    }
+
+    /**
+     * Waits for the first transfer and then collects the transfers arriving until the window expires or the group is
+     * full
+     */
+    private void collectGroup(List<GroupCommitTransferEngine.PendingTransfer> group) throws InterruptedException {
+        group.add(pendingTransfers.take());
+        long deadline = System.nanoTime() + windowNanos;
+        while (group.size() < maxGroupSize) {
+            if (pendingTransfers.drainTo(group, maxGroupSize - group.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            GroupCommitTransferEngine.PendingTransfer pendingTransfer = pendingTransfers.poll(remaining, TimeUnit.NANOSECONDS);
+            if (pendingTransfer == null) {
+                return;
+            }
+            group.add(pendingTransfer);
+        }
+    }
+
+    /**
+     * Logs the accepted transfers of the group with a single fsync and, once durable, applies them to the balances
+     */
+    void writeGroup(List<GroupCommitTransferEngine.PendingTransfer> group) throws IOException {
+        Throwable[] errors = new Throwable[group.size()];
+        Map<Long, Long> groupBalances = new HashMap<>();
+        List<LoggedTransfer> groupTransfers = new ArrayList<>(group.size());
+        long timeMillis = System.currentTimeMillis();
+        for (int i = 0; i < group.size(); i++) {
+            GroupCommitTransferEngine.PendingTransfer transfer = group.get(i);
+            long amount = transfer.getAmount();
+            try {
+                long originBalance = getBalance(groupBalances, transfer.getOriginAccountId());
+                if (originBalance < amount) {
+                    throw new InsufficientFundsException()
+                            .withProperties(
+                                    InsufficientFundsException.ACCOUNT_ID, transfer.getOriginAccountId(),
+                                    InsufficientFundsException.CURRENT_FUNDS, Money.toDecimal(originBalance));
+                }
+                long destinationBalance = Money.add(getBalance(groupBalances, transfer.getDestinationAccountId()), amount);
+                groupBalances.put(transfer.getOriginAccountId(), Money.subtract(originBalance, amount));
+                groupBalances.put(transfer.getDestinationAccountId(), destinationBalance);
+            } catch (RuntimeException e) {
+                // Rejected, or its account could not be loaded from the DB, the log is not affected
+                errors[i] = e;
+                continue;
+            }
+            writeAheadLog.append(transfer.getOriginAccountId(), transfer.getDestinationAccountId(), amount, timeMillis);
+            groupTransfers.add(new LoggedTransfer(transfer.getOriginAccountId(), transfer.getDestinationAccountId(), amount, timeMillis));
+        }
+        long forcingNanos = System.nanoTime();
+        writeAheadLog.force();
+        fsyncTime.record(System.nanoTime() - forcingNanos);
+        loggedRecords.add(groupTransfers.size());
+        balances.putAll(groupBalances);
+        changedAccountIds.addAll(groupBalances.keySet());
+        loggedTransfers.addAll(groupTransfers);
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).complete(errors[i]);
+        }
+    }
+
+    /**
+     * @return the balance of the account including the previous transfers of the group. Accounts created after the
+     * startup are loaded from the DB the first time they are used
+     * @throws AccountNotFoundException if there is no account with the given id
+     */
+    private long getBalance(Map<Long, Long> groupBalances, Long accountId) {
+        Long balance = groupBalances.get(accountId);
+        if (balance == null) {
+            balance = balances.get(accountId);
+        }
+        if (balance == null) {
+            accountRepository.startTransaction();
+            try {
+                balance = accountRepository.findBalance(accountId);
+                accountRepository.commitTransaction();
+            } catch (RuntimeException e) {
+                accountRepository.rollbackTransaction();
+                throw e;
+            }
+            if (balance == null) {
+                throw new AccountNotFoundException().withProperty(ACCOUNT_ID, accountId);
+            }
+            balances.put(accountId, balance);
+        }
+        return balance;
+    }
+
+    /**
+     * Writes to the DB the history of the transfers logged since the last checkpoint and the balances of the changed
+     * accounts, and deletes the segments of the log already included. If it fails, they are written by the next one
+     * @param last true on shutdown: the whole log is deleted once written, there is nothing to replay
+     */
+    void checkpoint(boolean last) {
+        long lastSequence = writeAheadLog.getLastSequence();
+        Map<Long, Long> changedBalances = new HashMap<>();
+        for (Long accountId : changedAccountIds) {
+            Long balance = balances.get(accountId);
+            if (balance != null) {
+                changedBalances.put(accountId, balance);
+            }
+        }
+        accountRepository.startTransaction();
+        try {
+            for (LoggedTransfer loggedTransfer : loggedTransfers) {
+                TransferTransaction transferTransaction = new TransferTransaction();
+                transferTransaction.setOriginAccount(accountRepository.getReference(loggedTransfer.originAccountId));
+                transferTransaction.setDestinationAccount(accountRepository.getReference(loggedTransfer.destinationAccountId));
+                transferTransaction.setAmount(loggedTransfer.amount);
+                transferTransaction.setTime(new Timestamp(loggedTransfer.timeMillis).toLocalDateTime());
+                transferTransactionRepository.persist(transferTransaction);
+            }
+            accountRepository.updateBalances(changedBalances);
+            ledgerCheckpointRepository.save(LedgerCheckpoint.WRITE_AHEAD_LOG, lastSequence);
+            accountRepository.flush();
+            accountRepository.commitTransaction();
+        } catch (RuntimeException e) {
+            accountRepository.rollbackTransaction();
+            logger.warn("Checkpoint of " + loggedTransfers.size() + " transfers failed", e);
+            return;
+        }
+        loggedTransfers.clear();
+        changedAccountIds.clear();
+        try {
+            if (last) {
+                writeAheadLog.deleteAll();
+            } else {
+                writeAheadLog.deleteSegmentsUpTo(lastSequence);
+            }
+        } catch (IOException e) {
+            logger.warn("Segments of the write-ahead log up to " + lastSequence + " could not be deleted", e);
+        }
+    }
+
+    /**
+     * Transfer logged and not yet included in a checkpoint
+     */
+    private static class LoggedTransfer {
+
+        private final long originAccountId;
+        private final long destinationAccountId;
+        private final long amount;
+        private final long timeMillis;
+
+        LoggedTransfer(long originAccountId, long destinationAccountId, long amount, long timeMillis) {
+            this.originAccountId = originAccountId;
+            this.destinationAccountId = destinationAccountId;
+            this.amount = amount;
+            this.timeMillis = timeMillis;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.revolut.transfer.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Histogram of durations with fixed buckets, from 50 microseconds to 10 seconds. Recording a duration finds its
+ * bucket in a small array and increments two cells, without locks.</p>
+ * <p>The buckets are exposed as seconds, cumulative like the histograms of the Prometheus text format</p>
+ */
+public class Histogram {
+
+    static final double[] BUCKET_SECONDS = {
+            0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKET_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Counts of every bucket, not cumulative. The last one counts the durations longer than the last bucket
+     */
+    private final LongAdder[] counts = new LongAdder[BUCKET_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+            bucket++;
+        }
+        counts[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * @return cumulative count of the bucket, the last bucket (+Inf) is the total count
+     */
+    long getCumulativeCount(int bucket) {
+        long count = 0;
+        for (int i = 0; i <= bucket; i++) {
+            count += counts[i].sum();
+        }
+        return count;
+    }
+
+    public long getCount() {
+        return getCumulativeCount(BUCKET_NANOS.length);
+    }
+
+    double getSumSeconds() {
+        return (double) sumNanos.sum() / TimeUnit.SECONDS.toNanos(1);
+    }
+}
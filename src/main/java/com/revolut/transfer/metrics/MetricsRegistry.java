@@ -0,0 +1,170 @@
+package com.revolut.transfer.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * <p>Registry of the metrics of the application, exposed in the Prometheus text format by GET /metrics.</p>
+ * <p>Metrics are identified by name and labels, i.e. {@code counter("transfer_outcomes_total", "...", "outcome",
+ * "COMPLETED")}. Once created, a metric is found with a lock-free read of a concurrent map, and its recording is
+ * lock-free too. The code in hot paths should keep the returned metric instead of looking it up every time.</p>
+ * <p>Gauges are read when the metrics are written, so they cost nothing between scrapes</p>
+ *
+ * It must be used as a singleton.
+ */
+public class MetricsRegistry {
+
+    private static final String COUNTER = "counter";
+    private static final String GAUGE = "gauge";
+    private static final String HISTOGRAM = "histogram";
+
+    private static MetricsRegistry instance = new MetricsRegistry();
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    public static MetricsRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param labels names and values of the labels, alternated
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return family(name, help, COUNTER).metric(labels, key -> new Counter());
+    }
+
+    /**
+     * @param labels names and values of the labels, alternated
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return family(name, help, HISTOGRAM).metric(labels, key -> new Histogram());
+    }
+
+    /**
+     * Registers a gauge read when the metrics are written. A gauge registered again with the same name replaces the
+     * previous one
+     *
+     * @param samples returns the value of every sample of the gauge, by its labels in the format of the exposition
+     *                (i.e. {@code account="12"}, or an empty string for a gauge without labels)
+     */
+    public void gauge(String name, String help, Supplier<Map<String, ? extends Number>> samples) {
+        Family family = family(name, help, GAUGE);
+        family.metrics.clear();
+        family.metrics.put("", samples);
+    }
+
+    /**
+     * Writes all the metrics in the Prometheus text exposition format
+     */
+    public void write(Writer writer) throws IOException {
+        for (Family family : families.values()) {
+            family.write(writer);
+        }
+        writer.flush();
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        }
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    private static String labels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be pairs of name and value");
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return result.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static class Family {
+
+        private final String name;
+        private final String help;
+        private final String type;
+
+        /**
+         * Metrics of the family by their labels in the exposition format
+         */
+        private final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> T metric(String[] labels, Function<String, T> factory) {
+            String key = labels(labels);
+            Object metric = metrics.get(key);
+            if (metric == null) {
+                metric = metrics.computeIfAbsent(key, factory);
+            }
+            return (T) metric;
+        }
+
+        @SuppressWarnings("unchecked")
+        void write(Writer writer) throws IOException {
+            writer.write("# HELP " + name + " " + help + "\n");
+            writer.write("# TYPE " + name + " " + type + "\n");
+            for (Map.Entry<String, Object> entry : new ConcurrentSkipListMap<>(metrics).entrySet()) {
+                String labels = entry.getKey();
+                Object metric = entry.getValue();
+                if (metric instanceof Counter) {
+                    writeSample(writer, name, labels, ((Counter) metric).get());
+                } else if (metric instanceof Histogram) {
+                    writeHistogram(writer, labels, (Histogram) metric);
+                } else {
+                    for (Map.Entry<String, ? extends Number> sample : ((Supplier<Map<String, ? extends Number>>) metric).get().entrySet()) {
+                        writeSample(writer, name, sample.getKey(), sample.getValue());
+                    }
+                }
+            }
+        }
+
+        private void writeHistogram(Writer writer, String labels, Histogram histogram) throws IOException {
+            String separator = labels.isEmpty() ? "" : ",";
+            for (int i = 0; i < Histogram.BUCKET_SECONDS.length; i++) {
+                writeSample(writer, name + "_bucket", labels + separator + "le=\"" + Histogram.BUCKET_SECONDS[i] + "\"", histogram.getCumulativeCount(i));
+            }
+            long count = histogram.getCumulativeCount(Histogram.BUCKET_SECONDS.length);
+            writeSample(writer, name + "_bucket", labels + separator + "le=\"+Inf\"", count);
+            writeSample(writer, name + "_sum", labels, histogram.getSumSeconds());
+            writeSample(writer, name + "_count", labels, count);
+        }
+
+        private static void writeSample(Writer writer, String name, String labels, Number value) throws IOException {
+            writer.write(name);
+            if (!labels.isEmpty()) {
+                writer.write('{');
+                writer.write(labels);
+                writer.write('}');
+            }
+            writer.write(' ');
+            writer.write(value.toString());
+            writer.write('\n');
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.revolut.transfer.model;
 
 import javax.persistence.*;
+import javax.xml.bind.annotation.XmlTransient;
 import java.math.BigDecimal;
 
 @Entity
@@ -15,8 +16,19 @@ public class Account {
     @Column(name = "ACCOUNT_REFERENCE")
     private String accountReference;
 
+    /**
+     * Balance in minor units of the currency, see {@link Money}
+     */
     @Column(name = "AMOUNT")
-    private BigDecimal amount;
+    private long balance;
+
+    /**
+     * Incremented by every update of the account. An update of a stale account fails, which is what the optimistic
+     * transfer mode relies on
+     */
+    @Version
+    @Column(name = "VERSION")
+    private long version;
 
     public Long getId() {
         return id;
@@ -34,12 +46,52 @@ public class Account {
         this.accountReference = accountReference;
     }
 
+    /**
+     * @return the balance in minor units of the currency
+     */
+    @XmlTransient
+    public long getBalance() {
+        return balance;
+    }
+
+    public void setBalance(long balance) {
+        this.balance = balance;
+    }
+
+    @XmlTransient
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * @return the balance as a decimal amount, used by the REST API
+     */
     public BigDecimal getAmount() {
-        return amount;
+        return Money.toDecimal(balance);
     }
 
+    /**
+     * @throws ArithmeticException if the amount has more decimals than the currency or is out of range
+     */
     public void setAmount(BigDecimal amount) {
-        this.amount = amount;
+        this.balance = amount == null ? 0 : Money.toMinorUnits(amount);
+    }
+
+    /**
+     * @return a copy of the account, out of any persistence context, with the given balance in minor units of the
+     * currency
+     */
+    public Account withBalance(long balance) {
+        Account copy = new Account();
+        copy.setId(id);
+        copy.setAccountReference(accountReference);
+        copy.setVersion(version);
+        copy.setBalance(balance);
+        return copy;
     }
 
 }
@@ -0,0 +1,67 @@
+package com.revolut.transfer.model;
+
+import javax.persistence.*;
+
+/**
+ * <p>Lease of an account, used by the lease transfer mode to lock the accounts across several instances of the
+ * application working with the same DB. An account is leased while it has an owner and the lease has not expired,
+ * so the accounts of an instance that crashed are free again once their leases expire.</p>
+ * <p>The token is incremented every time the account is leased and never goes back, so it identifies a lease. It's
+ * checked when the transfer is committed (fencing), so a transfer whose lease expired and was taken by another
+ * instance is rolled back instead of overwriting the accounts</p>
+ */
+@Entity
+@Table(name = "ACCOUNT_LEASE")
+public class AccountLease {
+
+    @Id
+    @Column(name = "ACCOUNT_ID")
+    private Long accountId;
+
+    /**
+     * Instance holding the lease, null if the account is free
+     */
+    @Column(name = "OWNER")
+    private String owner;
+
+    /**
+     * Time the lease expires, in milliseconds since the epoch
+     */
+    @Column(name = "EXPIRES_AT")
+    private long expiresAt;
+
+    @Column(name = "TOKEN")
+    private long token;
+
+    public Long getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(Long accountId) {
+        this.accountId = accountId;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public long getToken() {
+        return token;
+    }
+
+    public void setToken(long token) {
+        this.token = token;
+    }
+}
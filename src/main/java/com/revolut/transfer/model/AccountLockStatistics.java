@@ -0,0 +1,77 @@
+package com.revolut.transfer.model;
+
+/**
+ * Usage of the lock of an account since it was created in memory, that is, since the account has had transfers
+ * in progress without interruption
+ */
+public class AccountLockStatistics {
+
+    private Long accountId;
+    private int waiters;
+    private long acquisitions;
+    private long waitNanos;
+    private long timeouts;
+
+    public AccountLockStatistics() {
+    }
+
+    public AccountLockStatistics(Long accountId, int waiters, long acquisitions, long waitNanos, long timeouts) {
+        this.accountId = accountId;
+        this.waiters = waiters;
+        this.acquisitions = acquisitions;
+        this.waitNanos = waitNanos;
+        this.timeouts = timeouts;
+    }
+
+    public Long getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(Long accountId) {
+        this.accountId = accountId;
+    }
+
+    /**
+     * @return estimated number of transfers waiting for the lock
+     */
+    public int getWaiters() {
+        return waiters;
+    }
+
+    public void setWaiters(int waiters) {
+        this.waiters = waiters;
+    }
+
+    /**
+     * @return number of times the lock has been taken
+     */
+    public long getAcquisitions() {
+        return acquisitions;
+    }
+
+    public void setAcquisitions(long acquisitions) {
+        this.acquisitions = acquisitions;
+    }
+
+    /**
+     * @return total time waited for the lock by the transfers that took it
+     */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    public void setWaitNanos(long waitNanos) {
+        this.waitNanos = waitNanos;
+    }
+
+    /**
+     * @return number of transfers that gave up waiting for the lock
+     */
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public void setTimeouts(long timeouts) {
+        this.timeouts = timeouts;
+    }
+}
@@ -1,21 +1,99 @@
 package com.revolut.transfer.model;
 
+import com.revolut.transfer.exceptions.LockTimeoutException;
+import com.revolut.transfer.exceptions.ServiceUnavailableException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 
+/**
+ * <p>Locks of the accounts involved in one or more transfers. The locks are always taken in the given order, so the
+ * creator of the session is responsible of ordering them to avoid deadlocks</p>
+ * <p>With a timeout, all the locks must be taken before the deadline. Otherwise the locks already taken are released
+ * and the transfer fails fast, so a slow transfer of a hot account cannot pile up an unbounded queue of waiting
+ * threads behind it</p>
+ * <p>The session keeps how many of its locks it holds, so {@link #unlock()} releases exactly those. A session is used
+ * by a single thread</p>
+ */
 public class AccountLockingSession {
 
-    private Lock firstLock;
-    private Lock secondLock;
+    private List<Lock> locks;
+
+    /**
+     * Maximum time to take all the locks, 0 to wait without limit
+     */
+    private long timeoutMillis;
+
+    /**
+     * Number of locks held by the session, the first ones of the list
+     */
+    private int lockedCount;
 
     public AccountLockingSession(Lock firstLock, Lock secondLock) {
-        this.firstLock = firstLock;
-        this.secondLock = secondLock;
+        this(Arrays.asList(firstLock, secondLock));
     }
 
+    public AccountLockingSession(List<Lock> locks) {
+        this(locks, 0);
+    }
+
+    public AccountLockingSession(List<Lock> locks, long timeoutMillis) {
+        this.locks = Collections.unmodifiableList(locks);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Takes all the locks in order
+     * @throws LockTimeoutException if the locks could not be taken before the timeout (or the thread was interrupted
+     * while waiting). None of the locks is held then
+     */
     public void lock() {
-        firstLock.lock();
-        secondLock.lock();
+        lockedCount = 0;
+        if (timeoutMillis <= 0) {
+            for (Lock lock : locks) {
+                lock.lock();
+                lockedCount++;
+            }
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (int i = 0; i < locks.size(); i++) {
+            boolean acquired;
+            try {
+                acquired = locks.get(i).tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+            if (!acquired) {
+                unlock();
+                throw new LockTimeoutException()
+                        .withProperty(LockTimeoutException.TIMEOUT_MILLIS, timeoutMillis)
+                        .withProperty(ServiceUnavailableException.RETRY_AFTER_SECONDS, 1);
+            }
+            lockedCount++;
+        }
+    }
+
+    /**
+     * Releases, in reverse order, the locks taken by {@link #lock()}. Nothing is released if they were not taken, i.e.
+     * the session timed out or failed before locking
+     */
+    public void unlock() {
+        while (lockedCount > 0) {
+            locks.get(--lockedCount).unlock();
+        }
+    }
+
+    /**
+     * @return true if the session holds all its locks
+     */
+    public boolean isLocked() {
+        return lockedCount > 0 && lockedCount == locks.size();
     }
 
     @Override
@@ -23,13 +101,12 @@ public class AccountLockingSession {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         AccountLockingSession that = (AccountLockingSession) o;
-        return Objects.equals(firstLock, that.firstLock) &&
-                Objects.equals(secondLock, that.secondLock);
+        return Objects.equals(locks, that.locks);
     }
 
     @Override
     public int hashCode() {
 
-        return Objects.hash(firstLock, secondLock);
+        return Objects.hash(locks);
     }
 }
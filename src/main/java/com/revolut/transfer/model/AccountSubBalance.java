@@ -0,0 +1,82 @@
+package com.revolut.transfer.model;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * <p>Part of the balance of a hot account. The credits of a split account are spread across several sub-balances, so
+ * concurrent transfers to the account do not wait for each other, and the sub-balances are moved back to the account
+ * when a debit needs them.</p>
+ * <p>The balance of a split account is the balance of the {@link Account} plus all its sub-balances</p>
+ */
+@Entity
+@Table(name = "ACCOUNT_SUB_BALANCE")
+@IdClass(AccountSubBalance.Key.class)
+public class AccountSubBalance {
+
+    @Id
+    @Column(name = "ACCOUNT_ID")
+    private Long accountId;
+
+    @Id
+    @Column(name = "SLOT")
+    private int slot;
+
+    /**
+     * Amount in minor units of the currency, see {@link Money}
+     */
+    @Column(name = "AMOUNT")
+    private long amount;
+
+    public Long getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(Long accountId) {
+        this.accountId = accountId;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public void setAmount(long amount) {
+        this.amount = amount;
+    }
+
+    public static class Key implements Serializable {
+
+        private Long accountId;
+        private int slot;
+
+        public Key() {
+        }
+
+        public Key(Long accountId, int slot) {
+            this.accountId = accountId;
+            this.slot = slot;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return slot == key.slot && Objects.equals(accountId, key.accountId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(accountId, slot);
+        }
+    }
+}
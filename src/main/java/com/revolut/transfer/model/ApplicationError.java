@@ -6,7 +6,6 @@ public class ApplicationError {
 
     private String code;
     private Map<String, Object> properties;
-    private String stacktrace;
     private String className;
 
     public String getCode() {
@@ -25,14 +24,6 @@ public class ApplicationError {
         this.properties = parameters;
     }
 
-    public String getStacktrace() {
-        return stacktrace;
-    }
-
-    public void setStacktrace(String stacktrace) {
-        this.stacktrace = stacktrace;
-    }
-
     public String getClassName() {
         return className;
     }
@@ -0,0 +1,63 @@
+package com.revolut.transfer.model;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * <p>Last snapshot of the balances taken by a transfer mode that journals the transfers instead of updating the
+ * accounts. The balances of the accounts are written from time to time: the balance of every account is the one
+ * written by the last snapshot plus the transfers of the journal after the last transfer of the snapshot.</p>
+ * <p>There is a row per journal, only while the journal has transfers not included in the balances of the
+ * accounts</p>
+ */
+@Entity
+@Table(name = "LEDGER_CHECKPOINT")
+public class LedgerCheckpoint {
+
+    /**
+     * Journal of the ledger mode, the history of the transfers
+     */
+    public static final int LEDGER = 1;
+
+    /**
+     * Journal of the write-ahead log mode, the files of the log
+     */
+    public static final int WRITE_AHEAD_LOG = 2;
+
+    @Id
+    @Column(name = "ID")
+    private Integer id;
+
+    /**
+     * Id of the last transfer of the journal included in the balances of the accounts
+     */
+    @Column(name = "LAST_TRANSFER_ID")
+    private long lastTransferId;
+
+    @Column(name = "TIME")
+    private LocalDateTime time;
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public long getLastTransferId() {
+        return lastTransferId;
+    }
+
+    public void setLastTransferId(long lastTransferId) {
+        this.lastTransferId = lastTransferId;
+    }
+
+    public LocalDateTime getTime() {
+        return time;
+    }
+
+    public void setTime(LocalDateTime time) {
+        this.time = time;
+    }
+}
@@ -0,0 +1,61 @@
+package com.revolut.transfer.model;
+
+import com.revolut.transfer.config.ApplicationProperties;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+/**
+ * <p>Money is represented as a primitive long with the number of minor units of the currency (i.e. cents), so the
+ * balance arithmetic of a transfer does not allocate any object. The scale (number of decimals) is the one of the
+ * currency configured with {@link ApplicationProperties#CURRENCY}, all the accounts use the same currency.</p>
+ * <p>{@link BigDecimal} is only used at the boundaries of the system (REST API and errors). The arithmetic is overflow
+ * checked, an {@link ArithmeticException} is thrown instead of silently wrapping around</p>
+ */
+public final class Money {
+
+    private static final int SCALE = scaleOf(ApplicationProperties.getString(ApplicationProperties.CURRENCY, "EUR"));
+
+    private Money() {
+    }
+
+    /**
+     * @return number of decimals of the minor units of the given ISO 4217 currency
+     */
+    public static int scaleOf(String currencyCode) {
+        int scale = Currency.getInstance(currencyCode).getDefaultFractionDigits();
+        return Math.max(scale, 0);
+    }
+
+    /**
+     * @return number of decimals of the configured currency
+     */
+    public static int getScale() {
+        return SCALE;
+    }
+
+    /**
+     * @throws ArithmeticException if the amount has more decimals than the currency or does not fit in a long
+     */
+    public static long toMinorUnits(BigDecimal amount) {
+        return amount.setScale(SCALE).scaleByPowerOfTen(SCALE).longValueExact();
+    }
+
+    public static BigDecimal toDecimal(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    /**
+     * @throws ArithmeticException if the result overflows
+     */
+    public static long add(long minorUnits, long otherMinorUnits) {
+        return Math.addExact(minorUnits, otherMinorUnits);
+    }
+
+    /**
+     * @throws ArithmeticException if the result overflows
+     */
+    public static long subtract(long minorUnits, long otherMinorUnits) {
+        return Math.subtractExact(minorUnits, otherMinorUnits);
+    }
+}
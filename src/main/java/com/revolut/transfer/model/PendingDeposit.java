@@ -0,0 +1,66 @@
+package com.revolut.transfer.model;
+
+import javax.persistence.*;
+
+/**
+ * <p>Deposit of a transfer between shards of the sharded mode, recorded by the shard of the origin account in the
+ * transaction of the withdrawal and removed by the shard of the destination account in the transaction of the
+ * deposit.</p>
+ * <p>A row that is still there at startup is a transfer whose money left the origin account but never arrived, it is
+ * completed (or refunded if the deposit is not possible) before the accounts are used</p>
+ */
+@Entity
+@Table(name = "PENDING_DEPOSIT")
+public class PendingDeposit {
+
+    /**
+     * Id of the transfer in the history
+     */
+    @Id
+    @Column(name = "ID")
+    private Long id;
+
+    @Column(name = "ORIGIN_ACCOUNT_ID")
+    private Long originAccountId;
+
+    @Column(name = "DESTINATION_ACCOUNT_ID")
+    private Long destinationAccountId;
+
+    /**
+     * Amount in minor units of the currency, see {@link Money}
+     */
+    @Column(name = "AMOUNT")
+    private long amount;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getOriginAccountId() {
+        return originAccountId;
+    }
+
+    public void setOriginAccountId(Long originAccountId) {
+        this.originAccountId = originAccountId;
+    }
+
+    public Long getDestinationAccountId() {
+        return destinationAccountId;
+    }
+
+    public void setDestinationAccountId(Long destinationAccountId) {
+        this.destinationAccountId = destinationAccountId;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public void setAmount(long amount) {
+        this.amount = amount;
+    }
+}
@@ -0,0 +1,101 @@
+package com.revolut.transfer.model;
+
+import javax.xml.bind.annotation.XmlTransient;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Transfer of the history of an account, read with a projection of the columns of {@link TransferTransaction}, so
+ * neither the entity nor its accounts are loaded
+ */
+public class TransferHistoryEntry {
+
+    private Long id;
+    private Long originAccountId;
+    private Long destinationAccountId;
+
+    /**
+     * Amount in minor units of the currency, see {@link Money}
+     */
+    private long minorUnits;
+
+    private LocalDateTime localTime;
+
+    public TransferHistoryEntry() {
+    }
+
+    /**
+     * Used by the JPQL projection
+     */
+    public TransferHistoryEntry(Long id, Long originAccountId, Long destinationAccountId, long minorUnits, LocalDateTime localTime) {
+        this.id = id;
+        this.originAccountId = originAccountId;
+        this.destinationAccountId = destinationAccountId;
+        this.minorUnits = minorUnits;
+        this.localTime = localTime;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getOriginAccountId() {
+        return originAccountId;
+    }
+
+    public void setOriginAccountId(Long originAccountId) {
+        this.originAccountId = originAccountId;
+    }
+
+    public Long getDestinationAccountId() {
+        return destinationAccountId;
+    }
+
+    public void setDestinationAccountId(Long destinationAccountId) {
+        this.destinationAccountId = destinationAccountId;
+    }
+
+    @XmlTransient
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    public void setMinorUnits(long minorUnits) {
+        this.minorUnits = minorUnits;
+    }
+
+    /**
+     * @return the amount as a decimal amount, used by the REST API
+     */
+    public BigDecimal getAmount() {
+        return Money.toDecimal(minorUnits);
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.minorUnits = amount == null ? 0 : Money.toMinorUnits(amount);
+    }
+
+    @XmlTransient
+    public LocalDateTime getLocalTime() {
+        return localTime;
+    }
+
+    public void setLocalTime(LocalDateTime localTime) {
+        this.localTime = localTime;
+    }
+
+    /**
+     * @return the time in ISO-8601 (i.e. 2018-01-31T10:15:30.123), used by the REST API
+     */
+    public String getTime() {
+        return localTime == null ? null : localTime.toString();
+    }
+
+    public void setTime(String time) {
+        this.localTime = time == null ? null : LocalDateTime.parse(time);
+    }
+}
@@ -0,0 +1,46 @@
+package com.revolut.transfer.model;
+
+import java.math.BigDecimal;
+
+/**
+ * One of the transfers of a bulk transfer request
+ */
+public class TransferRequest {
+
+    private Long originAccountId;
+    private Long destinationAccountId;
+    private BigDecimal amount;
+
+    public TransferRequest() {
+    }
+
+    public TransferRequest(Long originAccountId, Long destinationAccountId, BigDecimal amount) {
+        this.originAccountId = originAccountId;
+        this.destinationAccountId = destinationAccountId;
+        this.amount = amount;
+    }
+
+    public Long getOriginAccountId() {
+        return originAccountId;
+    }
+
+    public void setOriginAccountId(Long originAccountId) {
+        this.originAccountId = originAccountId;
+    }
+
+    public Long getDestinationAccountId() {
+        return destinationAccountId;
+    }
+
+    public void setDestinationAccountId(Long destinationAccountId) {
+        this.destinationAccountId = destinationAccountId;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+}
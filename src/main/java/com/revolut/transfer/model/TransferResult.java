@@ -0,0 +1,80 @@
+package com.revolut.transfer.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Result of a transfer. For a bulk transfer request, results are returned in the same order as the requests. For an
+ * asynchronous transfer, the result has the id to poll its status until it's no longer pending
+ */
+public class TransferResult {
+
+    public enum Status {
+        PENDING,
+        COMPLETED,
+        REJECTED
+    }
+
+    private String id;
+    private Long originAccountId;
+    private Long destinationAccountId;
+    private BigDecimal amount;
+    private Status status;
+    private ApplicationError error;
+
+    public TransferResult() {
+    }
+
+    public TransferResult(TransferRequest transferRequest) {
+        this.originAccountId = transferRequest.getOriginAccountId();
+        this.destinationAccountId = transferRequest.getDestinationAccountId();
+        this.amount = transferRequest.getAmount();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Long getOriginAccountId() {
+        return originAccountId;
+    }
+
+    public void setOriginAccountId(Long originAccountId) {
+        this.originAccountId = originAccountId;
+    }
+
+    public Long getDestinationAccountId() {
+        return destinationAccountId;
+    }
+
+    public void setDestinationAccountId(Long destinationAccountId) {
+        this.destinationAccountId = destinationAccountId;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public ApplicationError getError() {
+        return error;
+    }
+
+    public void setError(ApplicationError error) {
+        this.error = error;
+    }
+}
@@ -1,16 +1,23 @@
 package com.revolut.transfer.model;
 
 import javax.persistence.*;
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
+/**
+ * Transfer of the history. The history of an account is read through the indexes by origin and by destination
+ * account, newest first (see {@link TransferHistoryEntry})
+ */
 @Entity
-@Table(name = "TRANSFER_TRANSACTION")
+@Table(name = "TRANSFER_TRANSACTION", indexes = {
+        @Index(name = "IDX_TR_TR_ORIGIN_TIME", columnList = "ORIGIN_ACCOUNT_ID, TIME DESC, ID DESC"),
+        @Index(name = "IDX_TR_TR_DESTINATION_TIME", columnList = "DESTINATION_ACCOUNT_ID, TIME DESC, ID DESC")
+})
 public class TransferTransaction {
 
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "TR_TR_SEQ")
-    @SequenceGenerator(name = "TR_TR_SEQ", sequenceName = "TR_TR_SEQ")
+    // Ids are allocated in blocks by the pooled optimizer, only one of every 50 inserts goes to the sequence
+    @SequenceGenerator(name = "TR_TR_SEQ", sequenceName = "TR_TR_SEQ", allocationSize = 50)
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -21,8 +28,11 @@ public class TransferTransaction {
     @JoinColumn(name = "DESTINATION_ACCOUNT_ID")
     private Account destinationAccount;
 
+    /**
+     * Amount in minor units of the currency, see {@link Money}
+     */
     @Column(name = "AMOUNT")
-    private BigDecimal amount;
+    private long amount;
 
     @Column(name = "TIME")
     private LocalDateTime time;
@@ -51,11 +61,11 @@ public class TransferTransaction {
         this.destinationAccount = destinationAccount;
     }
 
-    public BigDecimal getAmount() {
+    public long getAmount() {
         return amount;
     }
 
-    public void setAmount(BigDecimal amount) {
+    public void setAmount(long amount) {
         this.amount = amount;
     }
 
@@ -0,0 +1,97 @@
+package com.revolut.transfer.persistence;
+
+import com.revolut.transfer.model.AccountLease;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class AccountLeaseRepository extends GenericJpaRepository<AccountLease, Long> {
+
+    /**
+     * Class of the SQL states of the integrity constraint violations
+     */
+    private static final String INTEGRITY_CONSTRAINT_VIOLATION = "23";
+
+    private static final String TAKE = "UPDATE ACCOUNT_LEASE SET OWNER = ?, EXPIRES_AT = ?, TOKEN = TOKEN + 1 "
+            + "WHERE ACCOUNT_ID = ? AND (OWNER IS NULL OR EXPIRES_AT <= ?)";
+    private static final String FIND_TOKEN = "SELECT TOKEN FROM ACCOUNT_LEASE WHERE ACCOUNT_ID = ?";
+    private static final String CREATE = "INSERT INTO ACCOUNT_LEASE (ACCOUNT_ID, OWNER, EXPIRES_AT, TOKEN) VALUES (?, ?, ?, 1)";
+    private static final String EXISTS = "SELECT 1 FROM ACCOUNT_LEASE WHERE ACCOUNT_ID = ?";
+    private static final String RELEASE = "UPDATE ACCOUNT_LEASE SET OWNER = NULL, EXPIRES_AT = 0 "
+            + "WHERE ACCOUNT_ID = ? AND OWNER = ? AND TOKEN = ?";
+
+    public AccountLeaseRepository() {
+        super(AccountLease.class);
+    }
+
+    /**
+     * Leases the account, in the transaction of the current thread, if it's free or its lease has expired. The row of
+     * the lease stays locked by the DB until the end of the transaction
+     * @param now current time, in milliseconds since the epoch
+     * @param expiresAt time the new lease expires, in milliseconds since the epoch
+     * @return the token of the new lease, or 0 if the account is leased by another owner
+     */
+    public long tryAcquire(Long accountId, String owner, long now, long expiresAt) {
+        return executeJdbc(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(TAKE)) {
+                statement.setString(1, owner);
+                statement.setLong(2, expiresAt);
+                statement.setLong(3, accountId);
+                statement.setLong(4, now);
+                if (statement.executeUpdate() == 1) {
+                    return findToken(connection, accountId);
+                }
+            }
+            try (PreparedStatement statement = connection.prepareStatement(EXISTS)) {
+                statement.setLong(1, accountId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        return 0L;
+                    }
+                }
+            }
+            // First lease of the account. Another instance creating the same lease at the same time wins
+            try (PreparedStatement statement = connection.prepareStatement(CREATE)) {
+                statement.setLong(1, accountId);
+                statement.setString(2, owner);
+                statement.setLong(3, expiresAt);
+                statement.executeUpdate();
+                return 1L;
+            } catch (SQLException e) {
+                if (e.getSQLState() != null && e.getSQLState().startsWith(INTEGRITY_CONSTRAINT_VIOLATION)) {
+                    return 0L;
+                }
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Frees the account, in the transaction of the current thread, only if the given lease is still the current
+     * lease of the account. Once released, the row of the lease stays locked by the DB until the end of the
+     * transaction, so the lease cannot be taken by another owner before the transaction has finished
+     * @return false if the lease has been taken by another owner
+     */
+    public boolean release(Long accountId, String owner, long token) {
+        return executeJdbc(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(RELEASE)) {
+                statement.setLong(1, accountId);
+                statement.setString(2, owner);
+                statement.setLong(3, token);
+                return statement.executeUpdate() == 1;
+            }
+        });
+    }
+
+    private long findToken(Connection connection, Long accountId) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(FIND_TOKEN)) {
+            statement.setLong(1, accountId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+}
@@ -1,10 +1,173 @@
 package com.revolut.transfer.persistence;
 
 import com.revolut.transfer.model.Account;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class AccountRepository extends GenericJpaRepository<Account, Long> {
 
+    /**
+     * Rows fetched from the DB in every round trip of a cursor
+     */
+    private static final int CURSOR_FETCH_SIZE = 500;
+
+    /**
+     * Statements sent to the DB in every round trip of a JDBC batch
+     */
+    private static final int JDBC_BATCH_SIZE = 500;
+
+    private static final String DEBIT = "UPDATE ACCOUNT SET AMOUNT = AMOUNT - ?, VERSION = VERSION + 1 WHERE ID = ? AND AMOUNT >= ?";
+    private static final String CREDIT = "UPDATE ACCOUNT SET AMOUNT = AMOUNT + ?, VERSION = VERSION + 1 WHERE ID = ?";
+    private static final String FIND_BALANCE = "SELECT AMOUNT FROM ACCOUNT WHERE ID = ?";
+    private static final String UPDATE_BALANCE = "UPDATE ACCOUNT SET AMOUNT = ?, VERSION = VERSION + 1 WHERE ID = ?";
+    private static final String FIND_FINGERPRINT = "SELECT COUNT(*), COALESCE(SUM(ID), 0), COALESCE(SUM(VERSION), 0) FROM ACCOUNT";
+
     public AccountRepository() {
         super(Account.class);
     }
+
+    /**
+     * Takes the amount from the account in a single statement, in the transaction of the current thread, only if the
+     * account has enough money. The row stays locked by the DB until the end of the transaction
+     * @param amount in minor units of the currency
+     * @return false if the account does not exist or does not have enough money
+     */
+    public boolean debit(Long accountId, long amount) {
+        return executeJdbc(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(DEBIT)) {
+                statement.setLong(1, amount);
+                statement.setLong(2, accountId);
+                statement.setLong(3, amount);
+                return statement.executeUpdate() == 1;
+            }
+        });
+    }
+
+    /**
+     * Adds the amount to the account in a single statement, in the transaction of the current thread
+     * @param amount in minor units of the currency
+     * @return false if the account does not exist
+     */
+    public boolean credit(Long accountId, long amount) {
+        return executeJdbc(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(CREDIT)) {
+                statement.setLong(1, amount);
+                statement.setLong(2, accountId);
+                return statement.executeUpdate() == 1;
+            }
+        });
+    }
+
+    /**
+     * @return the balance of the account in minor units read in the transaction of the current thread, null if the
+     * account does not exist
+     */
+    public Long findBalance(Long accountId) {
+        return executeJdbc(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(FIND_BALANCE)) {
+                statement.setLong(1, accountId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getLong(1) : null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Overwrites the balances of the accounts with JDBC batches, in the transaction of the current thread. Accounts
+     * that do not exist are ignored
+     * @param balances in minor units of the currency, by account id
+     */
+    public void updateBalances(Map<Long, Long> balances) {
+        if (balances.isEmpty()) {
+            return;
+        }
+        executeJdbc(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(UPDATE_BALANCE)) {
+                int batched = 0;
+                for (Map.Entry<Long, Long> balance : balances.entrySet()) {
+                    statement.setLong(1, balance.getValue());
+                    statement.setLong(2, balance.getKey());
+                    statement.addBatch();
+                    if (++batched % JDBC_BATCH_SIZE == 0) {
+                        statement.executeBatch();
+                    }
+                }
+                statement.executeBatch();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @return the fingerprint of all the accounts, computed by the DB without loading them
+     */
+    public AccountSnapshotFile.Fingerprint findFingerprint() {
+        return getEntityManagerContext().execute(entityManager -> {
+            Object[] row = (Object[]) entityManager.createNativeQuery(FIND_FINGERPRINT).getSingleResult();
+            return new AccountSnapshotFile.Fingerprint(((Number) row[0]).longValue(), ((Number) row[1]).longValue(),
+                    ((Number) row[2]).longValue());
+        });
+    }
+
+    /**
+     * Loads all the given accounts with a single query. Once loaded, they are in the persistence context of the
+     * current transaction, so next calls to {@link #findById(java.io.Serializable)} do not go to the DB
+     */
+    public List<Account> findByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return getEntityManagerContext().execute(entityManager -> entityManager
+                .createQuery("SELECT a FROM Account a WHERE a.id IN :ids", Account.class)
+                .setParameter("ids", ids)
+                .getResultList());
+    }
+
+    /**
+     * Keyset pagination of the accounts ordered by id. The page starts right after the given id, so the cost of a
+     * page does not depend on how far it is from the first one
+     * @param afterId id of the last account of the previous page, null for the first page
+     * @param limit maximum number of accounts of the page
+     */
+    public List<Account> findPage(Long afterId, int limit) {
+        return getEntityManagerContext().execute(entityManager -> entityManager
+                .createQuery("SELECT a FROM Account a WHERE a.id > :afterId ORDER BY a.id", Account.class)
+                .setParameter("afterId", afterId == null ? Long.MIN_VALUE : afterId)
+                .setMaxResults(limit)
+                .getResultList());
+    }
+
+    /**
+     * Reads all the accounts ordered by id through a forward only cursor. Every account is detached as soon as it has
+     * been consumed, so the memory used does not depend on the number of accounts
+     */
+    public void forEach(Consumer<Account> consumer) {
+        getEntityManagerContext().execute(entityManager -> {
+            Session session = entityManager.unwrap(Session.class);
+            ScrollableResults results = session.createQuery("SELECT a FROM Account a ORDER BY a.id")
+                    .setReadOnly(true)
+                    .setFetchSize(CURSOR_FETCH_SIZE)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (results.next()) {
+                    Account account = (Account) results.get(0);
+                    consumer.accept(account);
+                    session.evict(account);
+                }
+            } finally {
+                results.close();
+            }
+            return null;
+        });
+    }
 }
@@ -0,0 +1,167 @@
+package com.revolut.transfer.persistence;
+
+import com.revolut.transfer.model.Account;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * <p>Binary snapshot of the accounts written on shutdown, so the next startup can fill the account cache without
+ * loading the accounts through Hibernate. Every account is its id, balance, version and reference; the header has the
+ * {@link Fingerprint} of all the accounts, to be compared with the one of the DB before the snapshot is trusted.</p>
+ * <p>The file is written next to its final name and moved once complete, so a crash while writing it never leaves a
+ * truncated snapshot</p>
+ */
+public final class AccountSnapshotFile {
+
+    private static final int MAGIC = 0x52564153;
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Offset of the fingerprint in the header, written once all the accounts are written
+     */
+    private static final int FINGERPRINT_OFFSET = 8;
+
+    private AccountSnapshotFile() {
+    }
+
+    /**
+     * @param forEach passes all the accounts to the given consumer
+     * @return the fingerprint of the written accounts
+     */
+    public static Fingerprint write(Path file, Consumer<Consumer<Account>> forEach) throws IOException {
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        long[] fingerprint = new long[3];
+        try (FileOutputStream fileOutput = new FileOutputStream(temporaryFile.toFile());
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput))) {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.write(new byte[24]);
+            IOException[] error = new IOException[1];
+            forEach.accept(account -> {
+                if (error[0] != null) {
+                    return;
+                }
+                try {
+                    output.writeLong(account.getId());
+                    output.writeLong(account.getBalance());
+                    output.writeLong(account.getVersion());
+                    output.writeBoolean(account.getAccountReference() != null);
+                    if (account.getAccountReference() != null) {
+                        output.writeUTF(account.getAccountReference());
+                    }
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+                fingerprint[0]++;
+                fingerprint[1] += account.getId();
+                fingerprint[2] += account.getVersion();
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+            output.flush();
+            fileOutput.getFD().sync();
+        }
+        try (RandomAccessFile header = new RandomAccessFile(temporaryFile.toFile(), "rw")) {
+            header.seek(FINGERPRINT_OFFSET);
+            header.writeLong(fingerprint[0]);
+            header.writeLong(fingerprint[1]);
+            header.writeLong(fingerprint[2]);
+            header.getFD().sync();
+        }
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new Fingerprint(fingerprint[0], fingerprint[1], fingerprint[2]);
+    }
+
+    /**
+     * @return the fingerprint of the accounts of the snapshot
+     * @throws IOException if the file is not a snapshot of a known format
+     */
+    public static Fingerprint readFingerprint(Path file) throws IOException {
+        try (DataInputStream input = open(file)) {
+            return new Fingerprint(input.readLong(), input.readLong(), input.readLong());
+        }
+    }
+
+    /**
+     * @return the first accounts of the snapshot, up to the given number
+     * @throws IOException if the file is not a snapshot of a known format
+     */
+    public static List<Account> read(Path file, int maxAccounts) throws IOException {
+        try (DataInputStream input = open(file)) {
+            long count = input.readLong();
+            // Sums of the ids and of the versions
+            input.readLong();
+            input.readLong();
+            List<Account> accounts = new ArrayList<>((int) Math.min(count, maxAccounts));
+            for (long i = 0; i < count && accounts.size() < maxAccounts; i++) {
+                Account account = new Account();
+                account.setId(input.readLong());
+                account.setBalance(input.readLong());
+                account.setVersion(input.readLong());
+                if (input.readBoolean()) {
+                    account.setAccountReference(input.readUTF());
+                }
+                accounts.add(account);
+            }
+            return accounts;
+        }
+    }
+
+    private static DataInputStream open(Path file) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+            input.close();
+            throw new IOException(file + " is not an account snapshot of version " + FORMAT_VERSION);
+        }
+        return input;
+    }
+
+    /**
+     * Number of accounts, sum of their ids and sum of their versions. Every update of an account increments its
+     * version, so the fingerprint changes when any account is created, deleted or updated
+     */
+    public static final class Fingerprint {
+
+        private final long count;
+        private final long idSum;
+        private final long versionSum;
+
+        public Fingerprint(long count, long idSum, long versionSum) {
+            this.count = count;
+            this.idSum = idSum;
+            this.versionSum = versionSum;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint fingerprint = (Fingerprint) other;
+            return count == fingerprint.count && idSum == fingerprint.idSum && versionSum == fingerprint.versionSum;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(count) * 31 * 31 + Long.hashCode(idSum) * 31 + Long.hashCode(versionSum);
+        }
+
+        @Override
+        public String toString() {
+            return "accounts=" + count + ", idSum=" + idSum + ", versionSum=" + versionSum;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.revolut.transfer.persistence;
+
+import com.revolut.transfer.model.AccountSubBalance;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AccountSubBalanceRepository extends GenericJpaRepository<AccountSubBalance, AccountSubBalance.Key> {
+
+    private static final String CREATE = "INSERT INTO ACCOUNT_SUB_BALANCE (ACCOUNT_ID, SLOT, AMOUNT) "
+            + "SELECT ?, ?, 0 FROM DUAL WHERE NOT EXISTS (SELECT 1 FROM ACCOUNT_SUB_BALANCE WHERE ACCOUNT_ID = ? AND SLOT = ?)";
+    private static final String CREDIT = "UPDATE ACCOUNT_SUB_BALANCE SET AMOUNT = AMOUNT + ? WHERE ACCOUNT_ID = ? AND SLOT = ?";
+    private static final String FIND_FOR_UPDATE = "SELECT SLOT, AMOUNT FROM ACCOUNT_SUB_BALANCE WHERE ACCOUNT_ID = ? AND AMOUNT <> 0 FOR UPDATE";
+    private static final String DEBIT = "UPDATE ACCOUNT_SUB_BALANCE SET AMOUNT = AMOUNT - ? WHERE ACCOUNT_ID = ? AND SLOT = ?";
+    private static final String SUM = "SELECT COALESCE(SUM(AMOUNT), 0) FROM ACCOUNT_SUB_BALANCE WHERE ACCOUNT_ID = ?";
+    private static final String FIND_NOT_EMPTY_ACCOUNTS = "SELECT DISTINCT ACCOUNT_ID FROM ACCOUNT_SUB_BALANCE WHERE AMOUNT <> 0";
+
+    public AccountSubBalanceRepository() {
+        super(AccountSubBalance.class);
+    }
+
+    /**
+     * Creates, in the transaction of the current thread, the empty sub-balances of the account that do not exist yet
+     * @param slots number of sub-balances of the account
+     */
+    public void createSlots(Long accountId, int slots) {
+        executeJdbc(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(CREATE)) {
+                for (int slot = 0; slot < slots; slot++) {
+                    statement.setLong(1, accountId);
+                    statement.setInt(2, slot);
+                    statement.setLong(3, accountId);
+                    statement.setInt(4, slot);
+                    statement.addBatch();
+                }
+                return statement.executeBatch();
+            }
+        });
+    }
+
+    /**
+     * Adds the amount to a sub-balance in a single statement, in the transaction of the current thread. The row stays
+     * locked by the DB until the end of the transaction
+     * @param amount in minor units of the currency
+     * @return false if the sub-balance does not exist
+     */
+    public boolean credit(Long accountId, int slot, long amount) {
+        return executeJdbc(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(CREDIT)) {
+                statement.setLong(1, amount);
+                statement.setLong(2, accountId);
+                statement.setInt(3, slot);
+                return statement.executeUpdate() == 1;
+            }
+        });
+    }
+
+    /**
+     * Empties all the sub-balances of the account, in the transaction of the current thread. They stay locked by the
+     * DB until the end of the transaction, so credits arriving meanwhile wait for it
+     * @return the amount taken from the sub-balances, in minor units of the currency
+     */
+    public long sweep(Long accountId) {
+        return executeJdbc(connection -> {
+            List<long[]> subBalances = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(FIND_FOR_UPDATE)) {
+                statement.setLong(1, accountId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        subBalances.add(new long[]{resultSet.getInt(1), resultSet.getLong(2)});
+                    }
+                }
+            }
+            long total = 0;
+            if (subBalances.isEmpty()) {
+                return total;
+            }
+            try (PreparedStatement statement = connection.prepareStatement(DEBIT)) {
+                for (long[] subBalance : subBalances) {
+                    statement.setLong(1, subBalance[1]);
+                    statement.setLong(2, accountId);
+                    statement.setInt(3, (int) subBalance[0]);
+                    statement.addBatch();
+                    total = Math.addExact(total, subBalance[1]);
+                }
+                statement.executeBatch();
+            }
+            return total;
+        });
+    }
+
+    /**
+     * @return the sum of the sub-balances of the account, 0 if it has none
+     */
+    public long sum(Long accountId) {
+        return getEntityManagerContext().execute(entityManager -> ((Number) entityManager
+                .createNativeQuery(SUM)
+                .setParameter(1, accountId)
+                .getSingleResult()).longValue());
+    }
+
+    /**
+     * @return the ids of the accounts with money in their sub-balances
+     */
+    public List<Long> findNotEmptyAccountIds() {
+        List<?> ids = getEntityManagerContext().execute(entityManager -> entityManager
+                .createNativeQuery(FIND_NOT_EMPTY_ACCOUNTS)
+                .getResultList());
+        List<Long> accountIds = new ArrayList<>(ids.size());
+        for (Object id : ids) {
+            accountIds.add(((Number) id).longValue());
+        }
+        return accountIds;
+    }
+}
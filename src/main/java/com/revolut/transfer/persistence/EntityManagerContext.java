@@ -0,0 +1,156 @@
+package com.revolut.transfer.persistence;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * <p>Provides the EntityManager to be used by the repositories. An EntityManager is not thread safe, so every
+ * unit of work (a transaction) gets its own EntityManager, created from the shared EntityManagerFactory and bound to
+ * the current thread, so all the repositories sharing this context work in the same transaction.</p>
+ * <p>The EntityManager is closed when the transaction is committed or rolled back, so the persistence context does
+ * not grow beyond the entities loaded by a single unit of work. Reads executed out of a transaction use a short lived
+ * EntityManager that is closed as soon as the read has finished</p>
+ * <p>Optionally, the number of EntityManagers open at the same time can be limited to the size of the connection pool.
+ * Threads exceeding the limit wait on a {@link Semaphore} instead of inside the connection pool, whose monitor waits
+ * would pin a virtual thread to its carrier thread</p>
+ */
+public class EntityManagerContext {
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final ThreadLocal<EntityManager> currentEntityManager = new ThreadLocal<>();
+
+    /**
+     * Limit of EntityManagers open at the same time, null if there is no limit
+     */
+    private final Semaphore permits;
+
+    public EntityManagerContext(EntityManagerFactory entityManagerFactory) {
+        this(entityManagerFactory, 0);
+    }
+
+    /**
+     * @param maxOpenEntityManagers maximum number of EntityManagers open at the same time, or 0 for no limit
+     */
+    public EntityManagerContext(EntityManagerFactory entityManagerFactory, int maxOpenEntityManagers) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.permits = maxOpenEntityManagers > 0 ? new Semaphore(maxOpenEntityManagers, true) : null;
+    }
+
+    public EntityManagerFactory getEntityManagerFactory() {
+        return entityManagerFactory;
+    }
+
+    /**
+     * Creates a new EntityManager, binds it to the current thread and starts a transaction on it
+     */
+    public void begin() {
+        if (currentEntityManager.get() != null) {
+            throw new IllegalStateException("There is already a transaction in progress in the current thread");
+        }
+        EntityManager entityManager = open();
+        try {
+            entityManager.getTransaction().begin();
+        } catch (RuntimeException e) {
+            release(entityManager);
+            throw e;
+        }
+        currentEntityManager.set(entityManager);
+    }
+
+    /**
+     * Commits the transaction of the current thread. The EntityManager is closed even if the commit fails
+     */
+    public void commit() {
+        EntityManager entityManager = getEntityManager();
+        try {
+            entityManager.getTransaction().commit();
+        } finally {
+            close(entityManager);
+        }
+    }
+
+    /**
+     * Rolls back the transaction of the current thread, if any. The EntityManager is always closed
+     */
+    public void rollback() {
+        EntityManager entityManager = currentEntityManager.get();
+        if (entityManager == null) {
+            return;
+        }
+        try {
+            if (entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+        } finally {
+            close(entityManager);
+        }
+    }
+
+    /**
+     * @return true if the current thread has a transaction in progress
+     */
+    public boolean isTransactionActive() {
+        return currentEntityManager.get() != null;
+    }
+
+    /**
+     * @return the EntityManager of the transaction of the current thread
+     * @throws IllegalStateException if there is no transaction in progress
+     */
+    public EntityManager getEntityManager() {
+        EntityManager entityManager = currentEntityManager.get();
+        if (entityManager == null) {
+            throw new IllegalStateException("There is no transaction in progress in the current thread");
+        }
+        return entityManager;
+    }
+
+    /**
+     * Executes the work with the EntityManager of the current transaction or, if there is none, with a new
+     * EntityManager that is closed once the work has finished
+     */
+    public <T> T execute(Function<EntityManager, T> work) {
+        EntityManager entityManager = currentEntityManager.get();
+        if (entityManager != null) {
+            return work.apply(entityManager);
+        }
+        entityManager = open();
+        try {
+            return work.apply(entityManager);
+        } finally {
+            release(entityManager);
+        }
+    }
+
+    private EntityManager open() {
+        if (permits != null) {
+            permits.acquireUninterruptibly();
+        }
+        try {
+            return entityManagerFactory.createEntityManager();
+        } catch (RuntimeException e) {
+            if (permits != null) {
+                permits.release();
+            }
+            throw e;
+        }
+    }
+
+    private void close(EntityManager entityManager) {
+        currentEntityManager.remove();
+        release(entityManager);
+    }
+
+    private void release(EntityManager entityManager) {
+        try {
+            entityManager.close();
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+}
@@ -1,95 +1,138 @@
 package com.revolut.transfer.persistence;
 
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+
 import javax.persistence.*;
 import java.io.Serializable;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 public abstract class GenericJpaRepository<E, ID extends Serializable> {
 
-    private EntityManager entityManager;
+    private EntityManagerContext entityManagerContext;
 
     private Class<E> entityClass;
 
     public GenericJpaRepository(Class<E> entityClass) {
         this.entityClass = entityClass;
-        /*EntityManagerFactory factory = Persistence.createEntityManagerFactory("revolut-ds");
-        entityManager = factory.createEntityManager();*/
     }
 
-    public void setEntityManager(EntityManager entityManager) {
-        this.entityManager = entityManager;
+    public void setEntityManagerContext(EntityManagerContext entityManagerContext) {
+        this.entityManagerContext = entityManagerContext;
     }
 
     protected Class<E> getEntityClass() {
         return entityClass;
     }
 
+    protected EntityManagerContext getEntityManagerContext() {
+        return entityManagerContext;
+    }
+
+    /**
+     * @return the EntityManager of the transaction in progress in the current thread
+     */
     public EntityManager getEntityManager() {
-        return entityManager;
+        return entityManagerContext.getEntityManager();
     }
 
     public E findById(ID id) {
-        return entityManager.find(getEntityClass(), id);
+        return entityManagerContext.execute(entityManager -> entityManager.find(getEntityClass(), id));
     }
 
     public List<E> findAll() {
-        Query query = entityManager.createQuery("SELECT e FROM " + getEntityClass().getSimpleName() + " e");
-        return query.getResultList();
+        return entityManagerContext.execute(entityManager -> {
+            Query query = entityManager.createQuery("SELECT e FROM " + getEntityClass().getSimpleName() + " e");
+            return query.getResultList();
+        });
     }
 
     public void deleteAll() {
-        Query query = entityManager.createQuery("DELETE FROM " + getEntityClass().getSimpleName() + " e");
+        Query query = getEntityManager().createQuery("DELETE FROM " + getEntityClass().getSimpleName() + " e");
         query.executeUpdate();
     }
 
     public  E save(E t) {
-        this.entityManager.persist(t);
-        this.entityManager.flush();
-        this.entityManager.refresh(t);
+        EntityManager entityManager = getEntityManager();
+        entityManager.persist(t);
+        entityManager.flush();
+        entityManager.refresh(t);
         return t;
     }
 
+    /**
+     * Makes the entity persistent without flushing, so the insert can be sent to the DB in a JDBC batch together with
+     * the rest of inserts of the transaction
+     */
+    public void persist(E t) {
+        getEntityManager().persist(t);
+    }
+
+    /**
+     * @return a proxy of the entity that is not loaded unless its state is accessed, i.e. to be referenced by another
+     * entity
+     */
+    public E getReference(ID id) {
+        return getEntityManager().getReference(getEntityClass(), id);
+    }
+
     public void deleteById(Object id) {
-        E ref = this.entityManager.getReference(getEntityClass(), id);
+        E ref = getEntityManager().getReference(getEntityClass(), id);
         delete(ref);
     }
 
     public void delete(E entity) {
-        this.entityManager.remove(entity);
+        getEntityManager().remove(entity);
     }
 
     public  E update(E t) {
-        return this.entityManager.merge(t);
+        return getEntityManager().merge(t);
     }
 
     public void flush() {
-        this.entityManager.flush();
+        getEntityManager().flush();
+    }
+
+    /**
+     * Detaches all the entities loaded in the current transaction. To be used by long units of work to keep
+     * the persistence context bounded
+     */
+    public void clear() {
+        getEntityManager().clear();
     }
 
     public void startTransaction() {
-        entityManager.getTransaction().begin();
+        entityManagerContext.begin();
     }
 
     public void commitTransaction() {
-        entityManager.getTransaction().commit();
+        entityManagerContext.commit();
     }
 
     public void rollbackTransaction() {
-        entityManager.getTransaction().rollback();
+        entityManagerContext.rollback();
+    }
+
+    /**
+     * Executes plain JDBC in the connection of the transaction in progress in the current thread. The statements are
+     * cached by the connection pool, so preparing the same SQL again is cheap
+     */
+    protected <T> T executeJdbc(ReturningWork<T> work) {
+        return getEntityManager().unwrap(Session.class).doReturningWork(work);
     }
 
     protected List<E> findWithNamedQuery(String namedQueryName){
-        return this.entityManager.createNamedQuery(namedQueryName).getResultList();
+        return entityManagerContext.execute(entityManager -> entityManager.createNamedQuery(namedQueryName).getResultList());
     }
 
     protected List findWithNamedQuery(String namedQueryName, Object... parameters){
-        Query query = this.entityManager.createNamedQuery(namedQueryName);
-        for (int i = 0; i < parameters.length; i += 2) {
-            query.setParameter(((String) parameters[i]), parameters[i + 1]);
-        }
-        return query.getResultList();
+        return entityManagerContext.execute(entityManager -> {
+            Query query = entityManager.createNamedQuery(namedQueryName);
+            for (int i = 0; i < parameters.length; i += 2) {
+                query.setParameter(((String) parameters[i]), parameters[i + 1]);
+            }
+            return query.getResultList();
+        });
     }
 
 
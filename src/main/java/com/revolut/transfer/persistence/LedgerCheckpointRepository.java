@@ -0,0 +1,43 @@
+package com.revolut.transfer.persistence;
+
+import com.revolut.transfer.model.LedgerCheckpoint;
+
+import java.time.LocalDateTime;
+
+public class LedgerCheckpointRepository extends GenericJpaRepository<LedgerCheckpoint, Integer> {
+
+    public LedgerCheckpointRepository() {
+        super(LedgerCheckpoint.class);
+    }
+
+    /**
+     * @param journal {@link LedgerCheckpoint#LEDGER} or {@link LedgerCheckpoint#WRITE_AHEAD_LOG}
+     * @return the id of the last transfer of the journal included in the balances of the accounts, null if the
+     * balances include the whole journal
+     */
+    public Long findLastTransferId(int journal) {
+        LedgerCheckpoint checkpoint = findById(journal);
+        return checkpoint == null ? null : checkpoint.getLastTransferId();
+    }
+
+    /**
+     * Records, in the transaction of the current thread, that the balances of the accounts include all the transfers
+     * of the journal up to the given one
+     */
+    public void save(int journal, long lastTransferId) {
+        LedgerCheckpoint checkpoint = new LedgerCheckpoint();
+        checkpoint.setId(journal);
+        checkpoint.setLastTransferId(lastTransferId);
+        checkpoint.setTime(LocalDateTime.now());
+        update(checkpoint);
+    }
+
+    /**
+     * Records, in the transaction of the current thread, that the balances of the accounts include the whole journal
+     */
+    public void delete(int journal) {
+        getEntityManager().createQuery("DELETE FROM LedgerCheckpoint c WHERE c.id = :journal")
+                .setParameter("journal", journal)
+                .executeUpdate();
+    }
+}
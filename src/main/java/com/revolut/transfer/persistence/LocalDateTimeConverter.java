@@ -0,0 +1,24 @@
+package com.revolut.transfer.persistence;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Maps the {@link LocalDateTime} attributes to TIMESTAMP columns. Without it, Hibernate 5.0 stores them serialized in
+ * binary columns, that can not be compared or indexed by time
+ */
+@Converter(autoApply = true)
+public class LocalDateTimeConverter implements AttributeConverter<LocalDateTime, Timestamp> {
+
+    @Override
+    public Timestamp convertToDatabaseColumn(LocalDateTime time) {
+        return time == null ? null : Timestamp.valueOf(time);
+    }
+
+    @Override
+    public LocalDateTime convertToEntityAttribute(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toLocalDateTime();
+    }
+}
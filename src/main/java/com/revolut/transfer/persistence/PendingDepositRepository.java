@@ -0,0 +1,33 @@
+package com.revolut.transfer.persistence;
+
+import com.revolut.transfer.model.PendingDeposit;
+
+public class PendingDepositRepository extends GenericJpaRepository<PendingDeposit, Long> {
+
+    public PendingDepositRepository() {
+        super(PendingDeposit.class);
+    }
+
+    /**
+     * Records, in the transaction of the current thread, the deposit of a transfer that has been withdrawn from the
+     * origin account
+     * @param amount in minor units of the currency
+     */
+    public void record(Long transferTransactionId, Long originAccountId, Long destinationAccountId, long amount) {
+        PendingDeposit pendingDeposit = new PendingDeposit();
+        pendingDeposit.setId(transferTransactionId);
+        pendingDeposit.setOriginAccountId(originAccountId);
+        pendingDeposit.setDestinationAccountId(destinationAccountId);
+        pendingDeposit.setAmount(amount);
+        persist(pendingDeposit);
+    }
+
+    /**
+     * Removes, in the transaction of the current thread, the deposit of the transfer once it is done or refunded
+     */
+    public void remove(Long transferTransactionId) {
+        getEntityManager().createQuery("DELETE FROM PendingDeposit d WHERE d.id = :id")
+                .setParameter("id", transferTransactionId)
+                .executeUpdate();
+    }
+}
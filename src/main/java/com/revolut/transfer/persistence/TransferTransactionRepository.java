@@ -1,10 +1,151 @@
 package com.revolut.transfer.persistence;
 
+import com.revolut.transfer.model.TransferHistoryEntry;
 import com.revolut.transfer.model.TransferTransaction;
 
+import javax.persistence.TypedQuery;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
 public class TransferTransactionRepository extends GenericJpaRepository<TransferTransaction, Long> {
 
+    /**
+     * Every id is taken directly from the sequence. They never collide with the ids allocated in blocks by Hibernate,
+     * whose blocks only contain one value of the sequence
+     */
+    private static final String INSERT = "INSERT INTO TRANSFER_TRANSACTION (ID, ORIGIN_ACCOUNT_ID, DESTINATION_ACCOUNT_ID, AMOUNT, TIME) "
+            + "VALUES (NEXT VALUE FOR TR_TR_SEQ, ?, ?, ?, ?)";
+
+    private static final String FIND_MAX_ID = "SELECT COALESCE(MAX(ID), 0) FROM TRANSFER_TRANSACTION";
+    private static final String FIND_AFTER = "SELECT ID, ORIGIN_ACCOUNT_ID, DESTINATION_ACCOUNT_ID, AMOUNT FROM TRANSFER_TRANSACTION "
+            + "WHERE ID > ? ORDER BY ID";
+
+    private static final String SELECT_HISTORY_ENTRY = "SELECT NEW com.revolut.transfer.model.TransferHistoryEntry("
+            + "t.id, t.originAccount.id, t.destinationAccount.id, t.amount, t.time) FROM TransferTransaction t ";
+
+    /**
+     * Rows fetched from the DB in every round trip of a cursor
+     */
+    private static final int CURSOR_FETCH_SIZE = 500;
+
     public TransferTransactionRepository() {
         super(TransferTransaction.class);
     }
+
+    /**
+     * @return the id of the last transfer of the history, 0 if it's empty
+     */
+    public long findMaxId() {
+        return getEntityManagerContext().execute(entityManager -> ((Number) entityManager
+                .createNativeQuery(FIND_MAX_ID)
+                .getSingleResult()).longValue());
+    }
+
+    /**
+     * Passes the transfers of the history after the given one to the consumer, ordered by id, through a forward only
+     * cursor in the transaction of the current thread, without creating the entities
+     */
+    public void forEachAfter(long afterId, TransferConsumer consumer) {
+        executeJdbc(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(FIND_AFTER)) {
+                statement.setLong(1, afterId);
+                statement.setFetchSize(CURSOR_FETCH_SIZE);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        consumer.accept(resultSet.getLong(1), resultSet.getLong(2), resultSet.getLong(3), resultSet.getLong(4));
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Keyset pagination of the transfers from the given account, newest first. The page is read from the index by
+     * origin account and time, starting right before the given transfer, so its cost depends neither on the size of
+     * the history nor on how far the page is from the first one
+     * @param from first time included, null for no lower limit
+     * @param to first time excluded, null for no upper limit
+     * @param before last transfer of the previous page, null for the first page
+     * @param limit maximum number of transfers of the page
+     */
+    public List<TransferHistoryEntry> findOutgoingPage(Long accountId, LocalDateTime from, LocalDateTime to,
+                                                       TransferTransaction before, int limit) {
+        return findHistoryPage("t.originAccount.id = :accountId", accountId, from, to, before, limit);
+    }
+
+    /**
+     * Like {@link #findOutgoingPage(Long, LocalDateTime, LocalDateTime, TransferTransaction, int)}, with the
+     * transfers to the given account, read from the index by destination account and time
+     */
+    public List<TransferHistoryEntry> findIncomingPage(Long accountId, LocalDateTime from, LocalDateTime to,
+                                                       TransferTransaction before, int limit) {
+        return findHistoryPage("t.destinationAccount.id = :accountId", accountId, from, to, before, limit);
+    }
+
+    private List<TransferHistoryEntry> findHistoryPage(String accountCondition, Long accountId, LocalDateTime from,
+                                                       LocalDateTime to, TransferTransaction before, int limit) {
+        StringBuilder jpql = new StringBuilder(SELECT_HISTORY_ENTRY).append("WHERE ").append(accountCondition);
+        if (from != null) {
+            jpql.append(" AND t.time >= :from");
+        }
+        if (to != null) {
+            jpql.append(" AND t.time < :to");
+        }
+        if (before != null) {
+            // The first condition bounds the range scan of the index, the second one skips the transfers of the
+            // previous pages with the same time
+            jpql.append(" AND t.time <= :beforeTime AND (t.time < :beforeTime OR t.id < :beforeId)");
+        }
+        jpql.append(" ORDER BY t.time DESC, t.id DESC");
+        return getEntityManagerContext().execute(entityManager -> {
+            TypedQuery<TransferHistoryEntry> query = entityManager.createQuery(jpql.toString(), TransferHistoryEntry.class)
+                    .setParameter("accountId", accountId)
+                    .setMaxResults(limit);
+            if (from != null) {
+                query.setParameter("from", from);
+            }
+            if (to != null) {
+                query.setParameter("to", to);
+            }
+            if (before != null) {
+                query.setParameter("beforeTime", before.getTime());
+                query.setParameter("beforeId", before.getId());
+            }
+            return query.getResultList();
+        });
+    }
+
+    /**
+     * Adds a transfer to the history with a single statement, in the transaction of the current thread, without
+     * creating the entity
+     * @param amount in minor units of the currency
+     */
+    public void insert(Long originAccountId, Long destinationAccountId, long amount, LocalDateTime time) {
+        executeJdbc(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+                statement.setLong(1, originAccountId);
+                statement.setLong(2, destinationAccountId);
+                statement.setLong(3, amount);
+                statement.setTimestamp(4, Timestamp.valueOf(time));
+                return statement.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Receives the transfers of the history read without creating the entities
+     */
+    @FunctionalInterface
+    public interface TransferConsumer {
+
+        /**
+         * @param amount in minor units of the currency
+         */
+        void accept(long id, long originAccountId, long destinationAccountId, long amount);
+    }
 }
@@ -0,0 +1,285 @@
+package com.revolut.transfer.persistence;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Log of transfers in memory-mapped files. Every transfer is a fixed size binary record with a sequence number and
+ * a checksum, appended to the last segment of the log. Segments are files of the same size named after the sequence
+ * of their first record, a new one is created when the last one is full.</p>
+ * <p>Appended records are not durable until {@link #force()} is called, that writes all of them to the disk at once,
+ * so the cost of the fsync is shared by all the transfers appended since the previous one. Java 8 can only force a
+ * whole mapping, but only its dirty pages are written.</p>
+ * <p>A record whose checksum does not match (i.e. a record torn by a crash in the middle of a write) ends the log.
+ * It is not thread safe, it must be used by a single thread</p>
+ */
+public class WriteAheadLog implements Closeable {
+
+    private final static Logger logger = Logger.getLogger(WriteAheadLog.class);
+
+    /**
+     * Sequence, origin account id, destination account id, amount, time in millis, checksum of the previous fields
+     * and padding to 8 bytes
+     */
+    public static final int RECORD_SIZE = 48;
+    private static final int CHECKSUMMED_SIZE = 40;
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private final Path directory;
+    private final int recordsPerSegment;
+
+    /**
+     * First sequence of every segment, in order. The last one is the segment records are appended to
+     */
+    private final List<Long> segmentStarts = new ArrayList<>();
+    private MappedByteBuffer segment;
+    private int position;
+    private long nextSequence;
+    private boolean dirty;
+
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 checksum = new CRC32();
+
+    /**
+     * @param segmentSize size in bytes of every segment, rounded down to a multiple of the record size
+     */
+    public WriteAheadLog(Path directory, long segmentSize) throws IOException {
+        if (segmentSize < RECORD_SIZE || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The size of the segments must be between " + RECORD_SIZE + " and " + Integer.MAX_VALUE + " bytes");
+        }
+        this.directory = directory;
+        this.recordsPerSegment = (int) (segmentSize / RECORD_SIZE);
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * @return true if the directory has segments, that is, records not included in the last checkpoint
+     */
+    public static boolean hasSegments(Path directory) throws IOException {
+        return Files.isDirectory(directory) && !listSegments(directory).isEmpty();
+    }
+
+    /**
+     * Passes the records after the given sequence to the consumer, in order, and leaves the log ready to append after
+     * the last valid record. The records after a torn record are cleared and the segments after it deleted. It must be
+     * called once, before appending
+     * @param afterSequence last sequence included in the checkpoint, 0 if there is no checkpoint
+     */
+    public void replay(long afterSequence, RecordConsumer consumer) throws IOException {
+        nextSequence = afterSequence + 1;
+        List<Long> starts = listSegments(directory);
+        boolean ended = false;
+        for (Long start : starts) {
+            if (ended || (!segmentStarts.isEmpty() && start != nextSequence)) {
+                logger.warn("Deleting segment " + start + " of the write-ahead log found after its end");
+                Files.delete(segmentPath(start));
+                ended = true;
+                continue;
+            }
+            segmentStarts.add(start);
+            segment = map(start);
+            nextSequence = start;
+            for (position = 0; position < recordsPerSegment * RECORD_SIZE; position += RECORD_SIZE) {
+                if (!readRecord(afterSequence, consumer)) {
+                    clearRemainingRecords();
+                    ended = true;
+                    break;
+                }
+                nextSequence++;
+            }
+        }
+        if (nextSequence <= afterSequence) {
+            // All the records are included in the checkpoint, appending after them would leave a gap in the sequence
+            deleteAll();
+            nextSequence = afterSequence + 1;
+        }
+    }
+
+    /**
+     * @return false if there is not a valid record with the next sequence in the current position
+     */
+    private boolean readRecord(long afterSequence, RecordConsumer consumer) {
+        segment.position(position);
+        segment.get(record.array(), 0, RECORD_SIZE);
+        long sequence = record.getLong(0);
+        if (sequence != nextSequence) {
+            return false;
+        }
+        checksum.reset();
+        checksum.update(record.array(), 0, CHECKSUMMED_SIZE);
+        if ((int) checksum.getValue() != record.getInt(CHECKSUMMED_SIZE)) {
+            logger.warn("Torn record " + sequence + " ends the write-ahead log");
+            return false;
+        }
+        if (sequence > afterSequence) {
+            consumer.accept(sequence, record.getLong(8), record.getLong(16), record.getLong(24), record.getLong(32));
+        }
+        return true;
+    }
+
+    /**
+     * Clears the records of the segment from the current position, so the records left after a torn one, whose
+     * sequences are the next ones, can not be replayed after the records appended over the torn one
+     */
+    private void clearRemainingRecords() {
+        boolean cleared = false;
+        for (int recordPosition = position; recordPosition < recordsPerSegment * RECORD_SIZE; recordPosition += RECORD_SIZE) {
+            segment.position(recordPosition);
+            segment.get(record.array(), 0, RECORD_SIZE);
+            if (isEmpty(record.array())) {
+                continue;
+            }
+            Arrays.fill(record.array(), (byte) 0);
+            segment.position(recordPosition);
+            segment.put(record.array(), 0, RECORD_SIZE);
+            cleared = true;
+        }
+        if (cleared) {
+            segment.force();
+        }
+    }
+
+    private static boolean isEmpty(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends a transfer, not durable until the next {@link #force()}
+     * @return the sequence of the record
+     */
+    public long append(long originAccountId, long destinationAccountId, long amount, long timeMillis) throws IOException {
+        if (segment == null || position == recordsPerSegment * RECORD_SIZE) {
+            nextSegment();
+        }
+        long sequence = nextSequence++;
+        record.clear();
+        record.putLong(sequence).putLong(originAccountId).putLong(destinationAccountId).putLong(amount).putLong(timeMillis);
+        checksum.reset();
+        checksum.update(record.array(), 0, CHECKSUMMED_SIZE);
+        record.putInt((int) checksum.getValue()).putInt(0);
+        record.flip();
+        segment.position(position);
+        segment.put(record);
+        position += RECORD_SIZE;
+        dirty = true;
+        return sequence;
+    }
+
+    /**
+     * Writes to the disk all the records appended since the last call
+     */
+    public void force() {
+        if (dirty) {
+            segment.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * @return the sequence of the last record, appended or replayed
+     */
+    public long getLastSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * Deletes the segments whose records are all up to the given sequence, but the one records are appended to
+     */
+    public void deleteSegmentsUpTo(long sequence) throws IOException {
+        while (segmentStarts.size() > 1 && segmentStarts.get(1) <= sequence + 1) {
+            Files.deleteIfExists(segmentPath(segmentStarts.remove(0)));
+        }
+    }
+
+    /**
+     * Deletes all the segments, once all the records are included in a checkpoint. Next records go to a new segment
+     */
+    public void deleteAll() throws IOException {
+        segment = null;
+        dirty = false;
+        for (Long start : segmentStarts) {
+            Files.deleteIfExists(segmentPath(start));
+        }
+        segmentStarts.clear();
+    }
+
+    @Override
+    public void close() {
+        force();
+        segment = null;
+    }
+
+    private void nextSegment() throws IOException {
+        force();
+        segmentStarts.add(nextSequence);
+        segment = map(nextSequence);
+        position = 0;
+        syncDirectory();
+    }
+
+    private MappedByteBuffer map(long start) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(start),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) recordsPerSegment * RECORD_SIZE);
+        }
+    }
+
+    /**
+     * Makes the creation of a segment durable. Not supported by every file system, where it's skipped
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("Directory of the write-ahead log can not be synced", e);
+        }
+    }
+
+    private Path segmentPath(long start) {
+        return directory.resolve(String.format("%020d", start) + SEGMENT_SUFFIX);
+    }
+
+    private static List<Long> listSegments(Path directory) throws IOException {
+        List<Long> starts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                starts.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(starts);
+        return starts;
+    }
+
+    /**
+     * Receives the records of the log
+     */
+    @FunctionalInterface
+    public interface RecordConsumer {
+
+        /**
+         * @param amount in minor units of the currency
+         * @param timeMillis time of the transfer, in {@link System#currentTimeMillis()}
+         */
+        void accept(long sequence, long originAccountId, long destinationAccountId, long amount, long timeMillis);
+    }
+}
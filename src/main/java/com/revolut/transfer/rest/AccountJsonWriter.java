@@ -0,0 +1,74 @@
+package com.revolut.transfer.rest;
+
+import com.revolut.transfer.model.Account;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes accounts as a JSON array one by one, so a response with any number of accounts can be streamed without
+ * building it in memory. The format is the same one used for a list of accounts by the JSON provider
+ */
+class AccountJsonWriter {
+
+    private final Writer writer;
+    private boolean first = true;
+
+    AccountJsonWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    void start() throws IOException {
+        writer.write('[');
+    }
+
+    void write(Account account) throws IOException {
+        if (!first) {
+            writer.write(',');
+        }
+        first = false;
+        // Same order of the keys as the JSON provider, alphabetical
+        writer.write('{');
+        if (account.getAccountReference() != null) {
+            writer.write("\"accountReference\":");
+            writeString(account.getAccountReference());
+            writer.write(',');
+        }
+        writer.write("\"amount\":");
+        writer.write(account.getAmount().toPlainString());
+        writer.write(",\"id\":");
+        writer.write(String.valueOf(account.getId()));
+        writer.write('}');
+    }
+
+    void end() throws IOException {
+        writer.write(']');
+        writer.flush();
+    }
+
+    private void writeString(String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c == '\b') {
+                writer.write("\\b");
+            } else if (c == '\f') {
+                writer.write("\\f");
+            } else if (c == '\n') {
+                writer.write("\\n");
+            } else if (c == '\r') {
+                writer.write("\\r");
+            } else if (c == '\t') {
+                writer.write("\\t");
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04X", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+}
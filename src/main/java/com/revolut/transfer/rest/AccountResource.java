@@ -1,25 +1,58 @@
 package com.revolut.transfer.rest;
 
+import com.revolut.transfer.exceptions.BadParameterException;
 import com.revolut.transfer.manager.AccountManager;
+import com.revolut.transfer.manager.AsyncTransferManager;
 import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.TransferHistoryEntry;
+import com.revolut.transfer.model.TransferRequest;
+import com.revolut.transfer.model.TransferResult;
 
 import javax.inject.Inject;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @Path("/account")
 public class AccountResource {
 
 
+    /**
+     * Maximum time a client can wait for the result of an asynchronous transfer in a single request
+     */
+    private static final long MAX_WAIT_MILLIS = 30000;
+
     private AccountManager accountManager = AccountManager.getInstance();
 
+    private AsyncTransferManager asyncTransferManager = AsyncTransferManager.getInstance();
+
     public void setAccountManager(AccountManager accountManager) {
         this.accountManager = accountManager;
     }
 
+    public void setAsyncTransferManager(AsyncTransferManager asyncTransferManager) {
+        this.asyncTransferManager = asyncTransferManager;
+    }
+
     @PUT
     @Path("/")
     @Consumes(MediaType.APPLICATION_JSON)
@@ -28,12 +61,30 @@ public class AccountResource {
         return Response.ok().entity(account).build();
     }
 
+    /**
+     * Without limit, all the accounts are streamed to the client while they are read, so the memory used does not
+     * depend on the number of accounts. With limit, it returns the page of accounts after the given id, with a Link
+     * header to the next page if there can be more accounts
+     */
     @GET
     @Path("/")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getAllAccounts() {
-        List<Account> accounts = accountManager.getAllAccounts();
-        return Response.ok().entity(accounts).build();
+    public Response getAllAccounts(@QueryParam("after") Long afterId, @QueryParam("limit") Integer limit,
+                                   @Context UriInfo uriInfo) {
+        if (limit == null && afterId == null) {
+            return Response.ok().entity(streamAllAccounts()).build();
+        }
+        int pageSize = limit == null ? AccountManager.MAX_PAGE_SIZE : limit;
+        List<Account> accounts = accountManager.getAccounts(afterId, pageSize);
+        Response.ResponseBuilder response = Response.ok().entity(new GenericEntity<List<Account>>(accounts) {});
+        if (!accounts.isEmpty() && accounts.size() == pageSize) {
+            Long lastId = accounts.get(accounts.size() - 1).getId();
+            response.link(uriInfo.getAbsolutePathBuilder()
+                    .replaceQueryParam("after", lastId)
+                    .replaceQueryParam("limit", pageSize)
+                    .build(), "next");
+        }
+        return response.build();
     }
 
     @GET
@@ -44,6 +95,76 @@ public class AccountResource {
         return Response.ok().entity(account).build();
     }
 
+    /**
+     * Returns the page of transfers from and to the account before the given transfer, newest first, optionally
+     * between two times in ISO-8601 (i.e. 2018-01-31T10:15:30), with a Link header to the next page if there can be
+     * more transfers
+     */
+    @GET
+    @Path("/{accountId}/transactions")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getTransactions(@PathParam("accountId") Long accountId, @QueryParam("from") String from,
+                                    @QueryParam("to") String to, @QueryParam("before") Long beforeTransactionId,
+                                    @QueryParam("limit") Integer limit, @Context UriInfo uriInfo) {
+        int pageSize = limit == null ? AccountManager.MAX_PAGE_SIZE : limit;
+        List<TransferHistoryEntry> transactions = accountManager.getTransactions(accountId, parseTime("from", from),
+                parseTime("to", to), beforeTransactionId, pageSize);
+        Response.ResponseBuilder response = Response.ok().entity(new GenericEntity<List<TransferHistoryEntry>>(transactions) {});
+        if (!transactions.isEmpty() && transactions.size() == pageSize) {
+            Long lastId = transactions.get(transactions.size() - 1).getId();
+            UriBuilder next = uriInfo.getAbsolutePathBuilder()
+                    .replaceQueryParam("before", lastId)
+                    .replaceQueryParam("limit", pageSize);
+            if (from != null) {
+                next.replaceQueryParam("from", from);
+            }
+            if (to != null) {
+                next.replaceQueryParam("to", to);
+            }
+            response.link(next.build(), "next");
+        }
+        return response.build();
+    }
+
+    private static LocalDateTime parseTime(String parameterName, String time) {
+        if (time == null) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(time);
+        } catch (DateTimeParseException e) {
+            throw new BadParameterException()
+                    .withProperty(BadParameterException.PARAMETER_NAME, parameterName)
+                    .withProperty(BadParameterException.EXPECTED_CONDITION, "ISO_LOCAL_DATE_TIME");
+        }
+    }
+
+    private StreamingOutput streamAllAccounts() {
+        return output -> {
+            AccountJsonWriter writer = new AccountJsonWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+            writer.start();
+            try {
+                accountManager.forEachAccount(account -> {
+                    try {
+                        writer.write(account);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.end();
+        };
+    }
+
+    @GET
+    @Path("/cache")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getAccountCacheStatistics() {
+        return Response.ok().entity(accountManager.getAccountCacheStatistics()).build();
+    }
+
     @POST
     @Path("/{originAccountId}/transfer/{destinationAccountId}/{amount}")
     public Response transferMoney(@PathParam("originAccountId") Long originAccountId, @PathParam("destinationAccountId") Long destinationAccountId, @PathParam("amount") BigDecimal amount) {
@@ -51,6 +172,53 @@ public class AccountResource {
         return Response.ok().build();
     }
 
+    @POST
+    @Path("/{originAccountId}/transfer/{destinationAccountId}/{amount}/async")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response submitTransfer(@PathParam("originAccountId") Long originAccountId, @PathParam("destinationAccountId") Long destinationAccountId, @PathParam("amount") BigDecimal amount) {
+        TransferResult result = asyncTransferManager.submit(originAccountId, destinationAccountId, amount);
+        return Response.accepted().location(URI.create("account/transfers/" + result.getId())).entity(result).build();
+    }
+
+    /**
+     * Returns the result of an asynchronous transfer. If wait is given and the transfer is still pending, the response
+     * is sent as soon as the transfer finishes or the wait time expires, without blocking any thread meanwhile
+     */
+    @GET
+    @Path("/transfers/{transferId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void getTransfer(@PathParam("transferId") String transferId, @QueryParam("wait") @DefaultValue("0") long waitMillis, @Suspended AsyncResponse asyncResponse) {
+        CompletableFuture<TransferResult> completion;
+        try {
+            completion = asyncTransferManager.getCompletion(transferId);
+            if (waitMillis <= 0 || completion.isDone()) {
+                asyncResponse.resume(Response.ok().entity(asyncTransferManager.getTransfer(transferId)).build());
+                return;
+            }
+        } catch (RuntimeException e) {
+            asyncResponse.resume(e);
+            return;
+        }
+        asyncResponse.setTimeoutHandler(response -> {
+            try {
+                response.resume(Response.ok().entity(asyncTransferManager.getTransfer(transferId)).build());
+            } catch (RuntimeException e) {
+                response.resume(e);
+            }
+        });
+        asyncResponse.setTimeout(Math.min(waitMillis, MAX_WAIT_MILLIS), TimeUnit.MILLISECONDS);
+        completion.thenAccept(result -> asyncResponse.resume(Response.ok().entity(result).build()));
+    }
+
+    @POST
+    @Path("/transfers")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response transferAll(List<TransferRequest> transfers) {
+        List<TransferResult> results = accountManager.transferAll(transfers);
+        return Response.ok().entity(new GenericEntity<List<TransferResult>>(results) {}).build();
+    }
+
     @POST
     @Path("/clean/")
     public Response cleanAll() {
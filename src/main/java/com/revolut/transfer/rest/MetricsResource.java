@@ -0,0 +1,30 @@
+package com.revolut.transfer.rest;
+
+import com.revolut.transfer.metrics.MetricsRegistry;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Metrics of the application in the Prometheus text exposition format
+ */
+@Path("/metrics")
+public class MetricsResource {
+
+    private static final String TEXT_FORMAT = "text/plain; version=0.0.4; charset=utf-8";
+
+    private MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+
+    @GET
+    @Produces(TEXT_FORMAT)
+    public Response getMetrics() {
+        StreamingOutput metrics = output -> metricsRegistry.write(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+        return Response.ok(metrics, TEXT_FORMAT).build();
+    }
+}
@@ -0,0 +1,98 @@
+package com.revolut.transfer.rest;
+
+import com.revolut.transfer.metrics.Counter;
+import com.revolut.transfer.metrics.Histogram;
+import com.revolut.transfer.metrics.MetricsRegistry;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Counts the requests of every resource method by status, and records their latency until the response is ready to
+ * be written.</p>
+ * <p>The metrics of every resource method are kept by the filter, so a request does not build the labels and look the
+ * metrics up in the registry</p>
+ */
+@Provider
+public class RequestMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String START_NANOS = RequestMetricsFilter.class.getName() + ".startNanos";
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    private MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+
+    private final ConcurrentMap<Method, MethodMetrics> metricsByMethod = new ConcurrentHashMap<>();
+
+    /**
+     * Requests that did not match any resource method
+     */
+    private volatile MethodMetrics unmatchedMetrics;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        requestContext.setProperty(START_NANOS, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        Object startNanos = requestContext.getProperty(START_NANOS);
+        MethodMetrics methodMetrics = getMethodMetrics(resourceInfo.getResourceMethod());
+        methodMetrics.requests(responseContext.getStatus()).increment();
+        if (startNanos != null) {
+            methodMetrics.duration.record(System.nanoTime() - (Long) startNanos);
+        }
+    }
+
+    private MethodMetrics getMethodMetrics(Method method) {
+        if (method == null) {
+            MethodMetrics methodMetrics = unmatchedMetrics;
+            if (methodMetrics == null) {
+                methodMetrics = new MethodMetrics("unmatched");
+                unmatchedMetrics = methodMetrics;
+            }
+            return methodMetrics;
+        }
+        MethodMetrics methodMetrics = metricsByMethod.get(method);
+        if (methodMetrics == null) {
+            methodMetrics = metricsByMethod.computeIfAbsent(method,
+                    key -> new MethodMetrics(key.getDeclaringClass().getSimpleName() + "." + key.getName()));
+        }
+        return methodMetrics;
+    }
+
+    /**
+     * Metrics of a resource method. The registry returns the same metric for the same labels, so creating them twice
+     * in a race is harmless
+     */
+    private class MethodMetrics {
+
+        private final String resourceMethod;
+        private final Histogram duration;
+        private final ConcurrentMap<Integer, Counter> requestsByStatus = new ConcurrentHashMap<>();
+
+        MethodMetrics(String resourceMethod) {
+            this.resourceMethod = resourceMethod;
+            this.duration = metricsRegistry.histogram("http_request_duration_seconds", "Latency of the requests by resource method",
+                    "method", resourceMethod);
+        }
+
+        Counter requests(int status) {
+            Counter counter = requestsByStatus.get(status);
+            if (counter == null) {
+                counter = requestsByStatus.computeIfAbsent(status, key -> metricsRegistry.counter("http_requests_total",
+                        "Requests by resource method and status", "method", resourceMethod, "status", String.valueOf(key)));
+            }
+            return counter;
+        }
+    }
+}
@@ -1,23 +1,26 @@
 package com.revolut.transfer.rest.exception;
 
-import com.revolut.transfer.exceptions.ResourceNotFoundException;
 import com.revolut.transfer.model.ApplicationError;
+import org.apache.log4j.Logger;
 
 import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.ExceptionMapper;
 import javax.ws.rs.ext.Provider;
-import java.util.Arrays;
-import java.util.stream.Collectors;
 
+/**
+ * Unexpected errors are transformed in a 500 Internal Server Error. The stack trace is only written to the server log
+ */
 @Provider
 public class GenericExceptionHandler implements ExceptionMapper<Throwable> {
 
+    private final static Logger logger = Logger.getLogger(GenericExceptionHandler.class);
+
     @Override
     public Response toResponse(Throwable exception) {
+        logger.error("Unexpected error processing the request", exception);
 
         ApplicationError error = new ApplicationError();
         error.setCode("revolut.error.generic");
-        error.setStacktrace(Arrays.stream(exception.getStackTrace()).map(ste -> ste.toString()).collect(Collectors.joining(", ")));
         error.setClassName(exception.getClass().getName());
 
         return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(error).build();
@@ -0,0 +1,20 @@
+package com.revolut.transfer.rest.exception;
+
+import com.revolut.transfer.exceptions.ServiceUnavailableException;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+@Provider
+public class ServiceUnavailableExceptionHandler implements ExceptionMapper<ServiceUnavailableException> {
+
+    @Override
+    public Response toResponse(ServiceUnavailableException exception) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, exception.getRetryAfterSeconds())
+                .entity(exception.getError())
+                .build();
+    }
+}
@@ -0,0 +1,103 @@
+package com.revolut.transfer.config;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BoundedThreadPerTaskExecutorTest {
+
+    private BoundedThreadPerTaskExecutor executor;
+    private CountDownLatch release;
+
+    @Before
+    public void init() {
+        executor = new BoundedThreadPerTaskExecutor(Thread::new, 2);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void shutdown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testEveryTaskRunsInItsOwnThread() throws Exception {
+        CountDownLatch started = new CountDownLatch(2);
+        executor.execute(() -> blockUntilReleased(started));
+        executor.execute(() -> blockUntilReleased(started));
+
+        assertThat(started.await(5, TimeUnit.SECONDS), is(equalTo(true)));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testTaskIsRejectedWhenTooManyAreRunning() {
+        executor.execute(() -> blockUntilReleased(null));
+        executor.execute(() -> blockUntilReleased(null));
+
+        executor.execute(() -> { });
+    }
+
+    @Test
+    public void testTaskIsAcceptedOnceARunningOneFinishes() throws Exception {
+        executor.execute(() -> blockUntilReleased(null));
+        CountDownLatch finished = new CountDownLatch(1);
+        executor.execute(finished::countDown);
+        assertThat(finished.await(5, TimeUnit.SECONDS), is(equalTo(true)));
+
+        CountDownLatch executed = new CountDownLatch(1);
+        // The permit is released right after the task, wait for it
+        assertThat(executeEventually(executed::countDown), is(equalTo(true)));
+        assertThat(executed.await(5, TimeUnit.SECONDS), is(equalTo(true)));
+    }
+
+    @Test
+    public void testShutdownWaitsForTheRunningTasks() throws Exception {
+        executor.execute(() -> blockUntilReleased(null));
+        executor.shutdown();
+
+        assertThat(executor.awaitTermination(50, TimeUnit.MILLISECONDS), is(equalTo(false)));
+        release.countDown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), is(equalTo(true)));
+        assertThat(executor.isTerminated(), is(equalTo(true)));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testTaskIsRejectedAfterShutdown() {
+        executor.shutdown();
+
+        executor.execute(() -> { });
+    }
+
+    private boolean executeEventually(Runnable task) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            try {
+                executor.execute(task);
+                return true;
+            } catch (RejectedExecutionException e) {
+                Thread.sleep(1);
+            }
+        }
+        return false;
+    }
+
+    private void blockUntilReleased(CountDownLatch started) {
+        if (started != null) {
+            started.countDown();
+        }
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
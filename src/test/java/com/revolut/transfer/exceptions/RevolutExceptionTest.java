@@ -0,0 +1,43 @@
+package com.revolut.transfer.exceptions;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RevolutExceptionTest {
+
+    @Test
+    public void testBusinessErrorsAreStackless() {
+        InsufficientFundsException exception = new InsufficientFundsException();
+
+        assertThat(exception.getStackTrace().length, is(equalTo(0)));
+    }
+
+    @Test
+    public void testErrorsWithCauseKeepTheStackTrace() {
+        RevolutException exception = new RevolutException("Failure", new IllegalStateException()) {
+            @Override
+            public String getErrorCode() {
+                return "revolut.error.generic";
+            }
+        };
+
+        assertThat(exception.getStackTrace().length > 0, is(equalTo(true)));
+    }
+
+    @Test
+    public void testFrozenErrorIsRenderedOnce() {
+        BadParameterException exception = BadParameterException.frozen("amount", "POSITIVE");
+
+        assertThat(exception.getError(), is(sameInstance(exception.getError())));
+        assertThat(exception.getError().getProperties().get(BadParameterException.EXPECTED_CONDITION), is(equalTo("POSITIVE")));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testFrozenErrorCannotBeModified() {
+        BadParameterException.frozen("amount", "POSITIVE").withProperty(BadParameterException.PARAMETER_NAME, "other");
+    }
+}
@@ -0,0 +1,120 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.AccountCacheStatistics;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.revolut.transfer.manager.TestAccounts.account;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AccountCacheTest {
+
+    private AccountCache accountCache;
+
+    @Before
+    public void init() {
+        accountCache = new AccountCache(2);
+    }
+
+    @Test
+    public void testSimpleCase() {
+        Account account = account(1L, "100");
+        accountCache.putIfUnchanged(account, accountCache.getWriteSequence(1L));
+
+        Account cached = accountCache.get(1L);
+
+        assertThat(cached.getAmount(), is(equalTo(new BigDecimal("100.00"))));
+        assertThat(cached, is(not(sameInstance(account))));
+        assertThat(accountCache.get(2L), is(nullValue()));
+        AccountCacheStatistics statistics = accountCache.getStatistics();
+        assertThat(statistics.getHits(), is(equalTo(1L)));
+        assertThat(statistics.getMisses(), is(equalTo(1L)));
+        assertThat(statistics.getSize(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testReadIsNotCachedAfterConcurrentWrite() {
+        long writeSequence = accountCache.getWriteSequence(1L);
+        accountCache.update(Collections.singletonList(account(1L, "50")));
+        accountCache.invalidate(Collections.singletonList(1L));
+
+        accountCache.putIfUnchanged(account(1L, "100"), writeSequence);
+
+        assertThat(accountCache.get(1L), is(nullValue()));
+    }
+
+    @Test
+    public void testReadIsCachedAfterConcurrentWriteOfAnotherAccount() {
+        long writeSequence = accountCache.getWriteSequence(1L);
+        accountCache.update(Collections.singletonList(account(2L, "50")));
+
+        accountCache.putIfUnchanged(account(1L, "100"), writeSequence);
+
+        assertThat(accountCache.get(1L).getAmount(), is(equalTo(new BigDecimal("100.00"))));
+    }
+
+    @Test
+    public void testOlderVersionDoesNotReplaceTheCachedAccount() {
+        Account newer = account(1L, "50");
+        newer.setVersion(2);
+        Account older = account(1L, "100");
+        older.setVersion(1);
+        accountCache.update(Collections.singletonList(newer));
+
+        accountCache.update(Collections.singletonList(older));
+
+        assertThat(accountCache.get(1L).getAmount(), is(equalTo(new BigDecimal("50.00"))));
+        assertThat(accountCache.get(1L).getVersion(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testCommittedAccountsAreUpdatedTogether() {
+        accountCache.putAllIfUnchanged(Arrays.asList(account(1L, "100"), account(2L, "100")), accountCache.getWriteSequence());
+
+        accountCache.update(Arrays.asList(account(1L, "70"), account(2L, "130")));
+
+        List<Account> all = accountCache.getAll();
+        assertThat(all.get(0).getAmount(), is(equalTo(new BigDecimal("70.00"))));
+        assertThat(all.get(1).getAmount(), is(equalTo(new BigDecimal("130.00"))));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAccountIsEvicted() {
+        accountCache.putAllIfUnchanged(Arrays.asList(account(1L, "100"), account(2L, "100")), accountCache.getWriteSequence());
+        accountCache.get(1L);
+
+        accountCache.update(Collections.singletonList(account(3L, "100")));
+
+        assertThat(accountCache.get(2L), is(nullValue()));
+        assertThat(accountCache.get(1L).getId(), is(equalTo(1L)));
+        assertThat(accountCache.getAll(), is(nullValue()));
+        assertThat(accountCache.getStatistics().getEvictions(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testAllAccountsAreNotCachedIfTheyDoNotFit() {
+        accountCache.putAllIfUnchanged(Arrays.asList(account(1L, "100"), account(2L, "100"), account(3L, "100")), accountCache.getWriteSequence());
+
+        assertThat(accountCache.getAll(), is(nullValue()));
+        assertThat(accountCache.getStatistics().getSize(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testDisabledCache() {
+        accountCache = new AccountCache(0);
+        accountCache.update(Collections.singletonList(account(1L, "100")));
+
+        assertThat(accountCache.get(1L), is(nullValue()));
+    }
+}
@@ -1,9 +1,21 @@
 package com.revolut.transfer.manager;
 
+import com.revolut.transfer.exceptions.LockTimeoutException;
+import com.revolut.transfer.model.AccountLockStatistics;
 import com.revolut.transfer.model.AccountLockingSession;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -24,18 +36,15 @@ public class AccountLockManagerTest {
         final Long destinationAccountId = 2L;
 
         assertThat(accountLockManager.accountLocks.size(), is(equalTo(0)));
-        assertThat(accountLockManager.lockCounter.size(), is(equalTo(0)));
 
         AccountLockingSession session = accountLockManager.getOrCreateAccountLocks(originAccountId, destinationAccountId);
         session.lock();
 
         assertThat(accountLockManager.accountLocks.size(), is(equalTo(2)));
-        assertThat(accountLockManager.lockCounter.size(), is(equalTo(2)));
 
         accountLockManager.releaseLocks(originAccountId, destinationAccountId);
 
         assertThat(accountLockManager.accountLocks.size(), is(equalTo(0)));
-        assertThat(accountLockManager.lockCounter.size(), is(equalTo(0)));
     }
 
     @Test
@@ -44,38 +53,33 @@ public class AccountLockManagerTest {
         final Long destinationAccountId = 2L;
 
         assertThat(accountLockManager.accountLocks.size(), is(equalTo(0)));
-        assertThat(accountLockManager.lockCounter.size(), is(equalTo(0)));
 
         AccountLockingSession session1 = accountLockManager.getOrCreateAccountLocks(originAccountId, destinationAccountId);
         AccountLockingSession session2 = accountLockManager.getOrCreateAccountLocks(originAccountId, destinationAccountId);
         AccountLockingSession session3 = accountLockManager.getOrCreateAccountLocks(originAccountId, destinationAccountId);
 
         assertThat(accountLockManager.accountLocks.size(), is(equalTo(2)));
-        assertThat(accountLockManager.lockCounter.size(), is(equalTo(2)));
-        assertThat(accountLockManager.lockCounter.get(originAccountId), is(equalTo(3)));
-        assertThat(accountLockManager.lockCounter.get(destinationAccountId), is(equalTo(3)));
+        assertThat(accountLockManager.accountLocks.get(originAccountId).getCount(), is(equalTo(3)));
+        assertThat(accountLockManager.accountLocks.get(destinationAccountId).getCount(), is(equalTo(3)));
         session1.lock();
 
         accountLockManager.releaseLocks(originAccountId, destinationAccountId);
 
         assertThat(accountLockManager.accountLocks.size(), is(equalTo(2)));
-        assertThat(accountLockManager.lockCounter.size(), is(equalTo(2)));
-        assertThat(accountLockManager.lockCounter.get(originAccountId), is(equalTo(2)));
-        assertThat(accountLockManager.lockCounter.get(destinationAccountId), is(equalTo(2)));
+        assertThat(accountLockManager.accountLocks.get(originAccountId).getCount(), is(equalTo(2)));
+        assertThat(accountLockManager.accountLocks.get(destinationAccountId).getCount(), is(equalTo(2)));
         session1.lock();
 
         accountLockManager.releaseLocks(originAccountId, destinationAccountId);
 
         assertThat(accountLockManager.accountLocks.size(), is(equalTo(2)));
-        assertThat(accountLockManager.lockCounter.size(), is(equalTo(2)));
-        assertThat(accountLockManager.lockCounter.get(originAccountId), is(equalTo(1)));
-        assertThat(accountLockManager.lockCounter.get(destinationAccountId), is(equalTo(1)));
+        assertThat(accountLockManager.accountLocks.get(originAccountId).getCount(), is(equalTo(1)));
+        assertThat(accountLockManager.accountLocks.get(destinationAccountId).getCount(), is(equalTo(1)));
         session1.lock();
 
         accountLockManager.releaseLocks(originAccountId, destinationAccountId);
 
         assertThat(accountLockManager.accountLocks.size(), is(equalTo(0)));
-        assertThat(accountLockManager.lockCounter.size(), is(equalTo(0)));
 
     }
 
@@ -85,7 +89,6 @@ public class AccountLockManagerTest {
         final Long destinationAccountId = 2L;
 
         assertThat(accountLockManager.accountLocks.size(), is(equalTo(0)));
-        assertThat(accountLockManager.lockCounter.size(), is(equalTo(0)));
 
         try {
             accountLockManager.releaseLocks(originAccountId, destinationAccountId);
@@ -100,7 +103,6 @@ public class AccountLockManagerTest {
         final Long destinationAccountId = 2L;
 
         assertThat(accountLockManager.accountLocks.size(), is(equalTo(0)));
-        assertThat(accountLockManager.lockCounter.size(), is(equalTo(0)));
 
         accountLockManager.getOrCreateAccountLocks(originAccountId, destinationAccountId);
 
@@ -121,4 +123,164 @@ public class AccountLockManagerTest {
 
         assertThat(session1, is(equalTo(session2)));
     }
+
+    @Test
+    public void testBatchLockCleanUp() {
+        final List<Long> accountIds = Arrays.asList(3L, 1L, 2L, 1L);
+
+        AccountLockingSession session = accountLockManager.getOrCreateAccountLocks(accountIds);
+        AccountLockingSession orderedSession = accountLockManager.getOrCreateAccountLocks(Arrays.asList(1L, 2L, 3L));
+
+        assertThat(session, is(equalTo(orderedSession)));
+        assertThat(accountLockManager.accountLocks.size(), is(equalTo(3)));
+        assertThat(accountLockManager.accountLocks.get(1L).getCount(), is(equalTo(2)));
+        session.lock();
+
+        accountLockManager.releaseLocks(accountIds);
+        accountLockManager.releaseLocks(Arrays.asList(1L, 2L, 3L));
+
+        assertThat(accountLockManager.accountLocks.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testConcurrentTransfersLeaveNoLocksBehind() throws Exception {
+        final int numberOfAccounts = 8;
+        final int numberOfTransfers = 20000;
+        final int[] balances = new int[numberOfAccounts];
+        final AtomicInteger completedTransfers = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+
+        for (int i = 0; i < numberOfTransfers; i++) {
+            executorService.execute(() -> {
+                int origin = ThreadLocalRandom.current().nextInt(numberOfAccounts);
+                int destination = (origin + 1 + ThreadLocalRandom.current().nextInt(numberOfAccounts - 1)) % numberOfAccounts;
+                AccountLockingSession session = accountLockManager.getOrCreateAccountLocks((long) origin, (long) destination);
+                session.lock();
+                try {
+                    balances[origin]--;
+                    balances[destination]++;
+                    completedTransfers.incrementAndGet();
+                } finally {
+                    accountLockManager.releaseLocks((long) origin, (long) destination);
+                }
+            });
+        }
+        executorService.shutdown();
+        assertThat(executorService.awaitTermination(1, TimeUnit.MINUTES), is(equalTo(true)));
+
+        int total = 0;
+        for (int balance : balances) {
+            total += balance;
+        }
+        assertThat(completedTransfers.get(), is(equalTo(numberOfTransfers)));
+        assertThat(total, is(equalTo(0)));
+        assertThat(accountLockManager.accountLocks.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testLockTimeout() throws Exception {
+        accountLockManager = new AccountLockManager(50);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.execute(() -> {
+            accountLockManager.getOrCreateAccountLocks(Collections.singletonList(2L)).lock();
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            accountLockManager.releaseLocks(Collections.singletonList(2L));
+        });
+        locked.await();
+
+        AccountLockingSession session = accountLockManager.getOrCreateAccountLocks(1L, 2L);
+        try {
+            session.lock();
+            fail("The lock of the account 2 is held by another thread");
+        } catch (LockTimeoutException e) {
+            assertThat(e.getRetryAfterSeconds(), is(equalTo(1L)));
+        }
+        accountLockManager.releaseLocks(session, 1L, 2L);
+
+        // The lock of the account 1 was released when the session timed out
+        assertThat(accountLockManager.accountLocks.size(), is(equalTo(1)));
+        assertThat(accountLockManager.accountLocks.get(2L).getLock().isLocked(), is(true));
+        release.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.SECONDS), is(true));
+        assertThat(accountLockManager.accountLocks.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testSessionOnlyReleasesTheLocksItTook() throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.execute(() -> {
+            AccountLockingSession session = accountLockManager.getOrCreateAccountLocks(Collections.singletonList(1L));
+            session.lock();
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            accountLockManager.releaseLocks(session, Collections.singletonList(1L));
+        });
+        locked.await();
+
+        // Released without taking its locks, i.e. the transfer failed before locking
+        AccountLockingSession session = accountLockManager.getOrCreateAccountLocks(1L, 2L);
+        accountLockManager.releaseLocks(session, 1L, 2L);
+
+        assertThat(accountLockManager.accountLocks.get(1L).getLock().isLocked(), is(true));
+        assertThat(accountLockManager.accountLocks.containsKey(2L), is(false));
+        release.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.SECONDS), is(true));
+        assertThat(accountLockManager.accountLocks.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testSessionReleasesItsLocks() {
+        AccountLockingSession session = accountLockManager.getOrCreateAccountLocks(1L, 2L);
+        session.lock();
+        assertThat(session.isLocked(), is(true));
+        AccountLockManager.MeasuredLock lock = accountLockManager.accountLocks.get(1L).getLock();
+
+        accountLockManager.releaseLocks(session, 1L, 2L);
+
+        assertThat(session.isLocked(), is(false));
+        assertThat(lock.isLocked(), is(false));
+        assertThat(accountLockManager.accountLocks.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testHotAccounts() throws Exception {
+        AccountLockingSession session = accountLockManager.getOrCreateAccountLocks(1L, 2L);
+        session.lock();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        for (int i = 0; i < 2; i++) {
+            executor.execute(() -> {
+                accountLockManager.getOrCreateAccountLocks(Collections.singletonList(1L)).lock();
+                accountLockManager.releaseLocks(Collections.singletonList(1L));
+            });
+        }
+        while (accountLockManager.accountLocks.get(1L).getLock().getQueueLength() < 2) {
+            Thread.sleep(1);
+        }
+
+        List<AccountLockStatistics> hotAccounts = accountLockManager.getHotAccounts(10);
+
+        assertThat(hotAccounts.size(), is(equalTo(1)));
+        assertThat(hotAccounts.get(0).getAccountId(), is(equalTo(1L)));
+        assertThat(hotAccounts.get(0).getWaiters(), is(equalTo(2)));
+        assertThat(hotAccounts.get(0).getAcquisitions(), is(equalTo(1L)));
+        accountLockManager.releaseLocks(1L, 2L);
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.SECONDS), is(true));
+        assertThat(accountLockManager.accountLocks.size(), is(equalTo(0)));
+    }
 }
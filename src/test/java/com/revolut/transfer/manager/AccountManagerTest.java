@@ -5,6 +5,10 @@ import com.revolut.transfer.exceptions.BadParameterException;
 import com.revolut.transfer.exceptions.InsufficientFundsException;
 import com.revolut.transfer.model.Account;
 import com.revolut.transfer.model.AccountLockingSession;
+import com.revolut.transfer.model.Money;
+import com.revolut.transfer.model.TransferHistoryEntry;
+import com.revolut.transfer.model.TransferRequest;
+import com.revolut.transfer.model.TransferResult;
 import com.revolut.transfer.model.TransferTransaction;
 import com.revolut.transfer.persistence.AccountRepository;
 import com.revolut.transfer.persistence.TransferTransactionRepository;
@@ -16,6 +20,12 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -52,7 +62,7 @@ public class AccountManagerTest {
         final AccountLockingSession accountLockingSession = new AccountLockingSession(lock1, lock2);
         final Long originAccountId = 1L;
         final Long destinationAccountId = 2L;
-        final BigDecimal amount = new BigDecimal(123.15);
+        final BigDecimal amount = new BigDecimal("123.15");
         final BigDecimal originAccountAmount = new BigDecimal(1000.0);
         final BigDecimal destinationAccountAmount = new BigDecimal(1000.0);
         final Account originAccount = new Account();
@@ -80,7 +90,7 @@ public class AccountManagerTest {
 
         TransferTransaction transferTransaction = transferTransactionArgumentCaptor.getValue();
 
-        assertThat(transferTransaction.getAmount(), is(equalTo(amount)));
+        assertThat(transferTransaction.getAmount(), is(equalTo(Money.toMinorUnits(amount))));
         assertThat(transferTransaction.getDestinationAccount(), is(equalTo(destinationAccount)));
         assertThat(transferTransaction.getOriginAccount(), is(equalTo(originAccount)));
     }
@@ -122,7 +132,7 @@ public class AccountManagerTest {
         final AccountLockingSession accountLockingSession = new AccountLockingSession(lock1, lock2);
         final Long originAccountId = 1L;
         final Long destinationAccountId = 2L;
-        final BigDecimal amount = new BigDecimal(123.15);
+        final BigDecimal amount = new BigDecimal("123.15");
 
         when(accountLockManager.getOrCreateAccountLocks(eq(originAccountId), eq(destinationAccountId))).thenReturn(accountLockingSession);
         when(accountRepository.findById(eq(originAccountId))).thenReturn(null);
@@ -146,7 +156,7 @@ public class AccountManagerTest {
         final AccountLockingSession accountLockingSession = new AccountLockingSession(lock1, lock2);
         final Long originAccountId = 1L;
         final Long destinationAccountId = 2L;
-        final BigDecimal amount = new BigDecimal(123.15);
+        final BigDecimal amount = new BigDecimal("123.15");
         final BigDecimal originAccountAmount = new BigDecimal(1000.0);
         final Account originAccount = new Account();
         originAccount.setId(originAccountId);
@@ -175,7 +185,7 @@ public class AccountManagerTest {
         final AccountLockingSession accountLockingSession = new AccountLockingSession(lock1, lock2);
         final Long originAccountId = 1L;
         final Long destinationAccountId = 2L;
-        final BigDecimal amount = new BigDecimal(123.15);
+        final BigDecimal amount = new BigDecimal("123.15");
         final BigDecimal originAccountAmount = new BigDecimal(0.0);
         final Account originAccount = new Account();
         originAccount.setId(originAccountId);
@@ -222,5 +232,125 @@ public class AccountManagerTest {
         when(accountRepository.findById(eq(accountId))).thenReturn(null);
         accountManager.getAccountById(accountId);
     }
-}
 
+    @Test
+    public void testBulkTransferInOneTransaction() {
+        final Account firstAccount = new Account();
+        firstAccount.setId(1L);
+        firstAccount.setAmount(new BigDecimal("100"));
+        final Account secondAccount = new Account();
+        secondAccount.setId(2L);
+        secondAccount.setAmount(new BigDecimal("100"));
+        final Account thirdAccount = new Account();
+        thirdAccount.setId(3L);
+        thirdAccount.setAmount(new BigDecimal("100"));
+        final List<TransferRequest> transferRequests = Arrays.asList(
+                new TransferRequest(1L, 2L, new BigDecimal("60")),
+                new TransferRequest(1L, 3L, new BigDecimal("60")),
+                new TransferRequest(3L, 1L, new BigDecimal("10")),
+                new TransferRequest(2L, 2L, new BigDecimal("10")));
+
+        when(accountLockManager.getOrCreateAccountLocks(any(Collection.class))).thenReturn(new AccountLockingSession(Arrays.asList(new ReentrantLock(), new ReentrantLock(), new ReentrantLock())));
+        when(accountRepository.findById(eq(1L))).thenReturn(firstAccount);
+        when(accountRepository.findById(eq(2L))).thenReturn(secondAccount);
+        when(accountRepository.findById(eq(3L))).thenReturn(thirdAccount);
+
+        List<TransferResult> results = accountManager.transferAll(transferRequests);
+
+        assertThat(results.size(), is(equalTo(4)));
+        assertThat(results.get(0).getStatus(), is(equalTo(TransferResult.Status.COMPLETED)));
+        assertThat(results.get(1).getStatus(), is(equalTo(TransferResult.Status.REJECTED)));
+        assertThat(results.get(1).getError().getCode(), is(equalTo("revolut.error.insufficient_funds")));
+        assertThat(results.get(2).getStatus(), is(equalTo(TransferResult.Status.COMPLETED)));
+        assertThat(results.get(3).getStatus(), is(equalTo(TransferResult.Status.REJECTED)));
+        assertThat(results.get(3).getError().getCode(), is(equalTo("revolut.error.bad_parameter")));
+        assertThat(firstAccount.getAmount(), is(equalTo(new BigDecimal("50.00"))));
+        assertThat(secondAccount.getAmount(), is(equalTo(new BigDecimal("160.00"))));
+        assertThat(thirdAccount.getAmount(), is(equalTo(new BigDecimal("90.00"))));
+        verify(accountRepository, times(1)).startTransaction();
+        verify(accountRepository, times(1)).commitTransaction();
+        verify(accountLockManager, times(1)).releaseLocks(any(AccountLockingSession.class), any(Collection.class));
+    }
+
+    @Test(expected = BadParameterException.class)
+    public void testBulkTransferIsNull() {
+        accountManager.transferAll(null);
+    }
+
+    @Test(expected = BadParameterException.class)
+    public void testTransferAmountWithMoreDecimalsThanTheCurrency() {
+        accountManager.transfer(1L, 2L, new BigDecimal("10.001"));
+    }
+
+    @Test(expected = BadParameterException.class)
+    public void testGetAccountsLimitOutOfRange() {
+        accountManager.getAccounts(null, AccountManager.MAX_PAGE_SIZE + 1);
+    }
+
+    @Test
+    public void testTransactionsFromAndToTheAccountAreMergedNewestFirst() {
+        final Account account = new Account();
+        account.setId(1L);
+        final LocalDateTime time = LocalDateTime.of(2018, 1, 31, 10, 0);
+        final TransferTransaction before = new TransferTransaction();
+        before.setId(100L);
+        before.setTime(time.plusHours(1));
+        when(accountRepository.findById(eq(1L))).thenReturn(account);
+        when(transferTransactionRepository.findById(eq(100L))).thenReturn(before);
+        when(transferTransactionRepository.findOutgoingPage(1L, time, null, before, 3)).thenReturn(Arrays.asList(
+                new TransferHistoryEntry(12L, 1L, 2L, 100, time.plusMinutes(30)),
+                new TransferHistoryEntry(10L, 1L, 3L, 100, time.plusMinutes(10))));
+        when(transferTransactionRepository.findIncomingPage(1L, time, null, before, 3)).thenReturn(Arrays.asList(
+                new TransferHistoryEntry(13L, 2L, 1L, 100, time.plusMinutes(30)),
+                new TransferHistoryEntry(11L, 3L, 1L, 100, time.plusMinutes(20)),
+                new TransferHistoryEntry(9L, 3L, 1L, 100, time.plusMinutes(5))));
+
+        List<TransferHistoryEntry> transactions = accountManager.getTransactions(1L, time, null, 100L, 3);
+
+        assertThat(transactions.size(), is(equalTo(3)));
+        assertThat(transactions.get(0).getId(), is(equalTo(13L)));
+        assertThat(transactions.get(1).getId(), is(equalTo(12L)));
+        assertThat(transactions.get(2).getId(), is(equalTo(11L)));
+        assertThat(transactions.get(2).getAmount(), is(equalTo(new BigDecimal("1.00"))));
+    }
+
+    @Test(expected = BadParameterException.class)
+    public void testTransactionsBeforeAnUnknownTransaction() {
+        final Account account = new Account();
+        account.setId(1L);
+        when(accountRepository.findById(eq(1L))).thenReturn(account);
+
+        accountManager.getTransactions(1L, null, null, 100L, 10);
+    }
+
+    @Test(expected = AccountNotFoundException.class)
+    public void testTransactionsOfAnUnknownAccount() {
+        accountManager.getTransactions(1L, null, null, null, 10);
+    }
+
+    @Test
+    public void testForEachAccountIsServedFromTheCacheOnceAllAccountsAreRead() {
+        final Account firstAccount = new Account();
+        firstAccount.setId(1L);
+        firstAccount.setAmount(new BigDecimal("100"));
+        final Account secondAccount = new Account();
+        secondAccount.setId(2L);
+        secondAccount.setAmount(new BigDecimal("200"));
+        doAnswer(invocation -> {
+            Consumer<Account> consumer = (Consumer<Account>) invocation.getArguments()[0];
+            consumer.accept(firstAccount);
+            consumer.accept(secondAccount);
+            return null;
+        }).when(accountRepository).forEach(any(Consumer.class));
+
+        List<Account> firstRead = new ArrayList<>();
+        accountManager.forEachAccount(firstRead::add);
+        List<Account> secondRead = new ArrayList<>();
+        accountManager.forEachAccount(secondRead::add);
+
+        assertThat(firstRead.size(), is(equalTo(2)));
+        assertThat(secondRead.size(), is(equalTo(2)));
+        assertThat(secondRead.get(1).getAmount(), is(equalTo(new BigDecimal("200.00"))));
+        verify(accountRepository, times(1)).forEach(any(Consumer.class));
+    }
+}
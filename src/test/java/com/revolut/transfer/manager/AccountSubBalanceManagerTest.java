@@ -0,0 +1,137 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.AccountSubBalanceRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AccountSubBalanceManagerTest {
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private AccountSubBalanceRepository accountSubBalanceRepository;
+
+    private AccountSubBalanceManager accountSubBalanceManager;
+
+    @Before
+    public void init() {
+        accountSubBalanceManager = new AccountSubBalanceManager(accountRepository, accountSubBalanceRepository,
+                Collections.singletonList(1L), 4, 10);
+        when(accountRepository.findById(anyLong())).thenAnswer(invocation -> account((Long) invocation.getArguments()[0], 0));
+    }
+
+    @Test
+    public void testConfiguredAccountIsSplit() {
+        assertThat(accountSubBalanceManager.splitIfHot(1L, 0), is(equalTo(true)));
+        assertThat(accountSubBalanceManager.splitIfHot(1L, 0), is(equalTo(true)));
+
+        assertThat(accountSubBalanceManager.isSplit(1L), is(equalTo(true)));
+        verify(accountSubBalanceRepository, times(1)).createSlots(1L, 4);
+        verify(accountRepository, times(1)).commitTransaction();
+    }
+
+    @Test
+    public void testHotAccountIsSplit() {
+        assertThat(accountSubBalanceManager.splitIfHot(2L, 9), is(equalTo(false)));
+        assertThat(accountSubBalanceManager.isSplit(2L), is(equalTo(false)));
+
+        assertThat(accountSubBalanceManager.splitIfHot(2L, 10), is(equalTo(true)));
+        assertThat(accountSubBalanceManager.isSplit(2L), is(equalTo(true)));
+    }
+
+    @Test
+    public void testMissingAccountIsNotSplit() {
+        when(accountRepository.findById(1L)).thenReturn(null);
+
+        assertThat(accountSubBalanceManager.splitIfHot(1L, 0), is(equalTo(false)));
+
+        verify(accountSubBalanceRepository, never()).createSlots(anyLong(), anyInt());
+        verify(accountRepository, times(1)).rollbackTransaction();
+    }
+
+    @Test
+    public void testCreditGoesToASubBalance() {
+        when(accountSubBalanceRepository.credit(eq(1L), anyInt(), eq(500L))).thenReturn(true);
+        accountSubBalanceManager.splitIfHot(1L, 0);
+
+        accountSubBalanceManager.credit(1L, 500L);
+
+        ArgumentCaptor<Integer> slot = ArgumentCaptor.forClass(Integer.class);
+        verify(accountSubBalanceRepository, times(1)).credit(eq(1L), slot.capture(), eq(500L));
+        assertThat(slot.getValue() >= 0 && slot.getValue() < 4, is(equalTo(true)));
+    }
+
+    @Test
+    public void testSweepMovesTheSubBalancesToTheAccount() {
+        when(accountSubBalanceRepository.sweep(1L)).thenReturn(700L);
+        accountSubBalanceManager.splitIfHot(1L, 0);
+        Account account = account(1L, 300);
+
+        accountSubBalanceManager.sweep(account);
+
+        assertThat(account.getBalance(), is(equalTo(1000L)));
+    }
+
+    @Test
+    public void testSweepIgnoresAccountsNotSplit() {
+        Account account = account(2L, 300);
+
+        accountSubBalanceManager.sweep(account);
+
+        assertThat(account.getBalance(), is(equalTo(300L)));
+        verify(accountSubBalanceRepository, never()).sweep(anyLong());
+    }
+
+    @Test
+    public void testBalanceIncludesTheSubBalances() {
+        when(accountSubBalanceRepository.sum(1L)).thenReturn(700L);
+        accountSubBalanceManager.splitIfHot(1L, 0);
+        Account account = account(1L, 300);
+        Account notSplitAccount = account(2L, 300);
+
+        assertThat(accountSubBalanceManager.withSubBalances(account).getBalance(), is(equalTo(1000L)));
+        assertThat(account.getBalance(), is(equalTo(300L)));
+        assertThat(accountSubBalanceManager.withSubBalances(notSplitAccount), is(sameInstance(notSplitAccount)));
+    }
+
+    @Test
+    public void testMergeAll() {
+        Account account = account(3L, 300);
+        when(accountSubBalanceRepository.findNotEmptyAccountIds()).thenReturn(Arrays.asList(3L));
+        when(accountRepository.findById(3L)).thenReturn(account);
+        when(accountSubBalanceRepository.sweep(3L)).thenReturn(200L);
+
+        accountSubBalanceManager.mergeAll();
+
+        assertThat(account.getBalance(), is(equalTo(500L)));
+        verify(accountRepository, times(1)).flush();
+        verify(accountRepository, times(1)).commitTransaction();
+    }
+
+    private static Account account(Long id, long balance) {
+        Account account = new Account();
+        account.setId(id);
+        account.setBalance(balance);
+        return account;
+    }
+}
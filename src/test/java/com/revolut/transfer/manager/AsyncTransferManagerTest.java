@@ -0,0 +1,137 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.InsufficientFundsException;
+import com.revolut.transfer.exceptions.TransferNotFoundException;
+import com.revolut.transfer.exceptions.TransferQueueFullException;
+import com.revolut.transfer.model.TransferResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncTransferManagerTest {
+
+    @Mock
+    private AccountManager accountManager;
+
+    private AsyncTransferManager asyncTransferManager;
+
+    @Before
+    public void init() {
+        asyncTransferManager = new AsyncTransferManager(accountManager, 1, 1, 60);
+    }
+
+    @After
+    public void shutdown() {
+        asyncTransferManager.shutdown();
+    }
+
+    @Test
+    public void testSimpleCase() throws Exception {
+        TransferResult pending = asyncTransferManager.submit(1L, 2L, new BigDecimal("100"));
+
+        assertThat(pending.getId(), is(notNullValue()));
+        assertThat(pending.getStatus(), is(equalTo(TransferResult.Status.PENDING)));
+        TransferResult result = asyncTransferManager.getCompletion(pending.getId()).get(5, TimeUnit.SECONDS);
+        assertThat(result.getStatus(), is(equalTo(TransferResult.Status.COMPLETED)));
+        assertThat(asyncTransferManager.getTransfer(pending.getId()).getStatus(), is(equalTo(TransferResult.Status.COMPLETED)));
+        verify(accountManager, times(1)).transfer(1L, 2L, new BigDecimal("100"));
+    }
+
+    @Test
+    public void testRejectedTransfer() throws Exception {
+        doThrow(new InsufficientFundsException()).when(accountManager).transfer(anyLong(), anyLong(), any(BigDecimal.class));
+
+        TransferResult pending = asyncTransferManager.submit(1L, 2L, new BigDecimal("100"));
+
+        TransferResult result = asyncTransferManager.getCompletion(pending.getId()).get(5, TimeUnit.SECONDS);
+        assertThat(result.getStatus(), is(equalTo(TransferResult.Status.REJECTED)));
+        assertThat(result.getError().getCode(), is(equalTo(new InsufficientFundsException().getErrorCode())));
+    }
+
+    @Test
+    public void testTransferIsRejectedWhenTheQueueIsFull() throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            running.countDown();
+            release.await();
+            return null;
+        }).when(accountManager).transfer(anyLong(), anyLong(), any(BigDecimal.class));
+
+        try {
+            asyncTransferManager.submit(1L, 2L, new BigDecimal("100"));
+            running.await(5, TimeUnit.SECONDS);
+            asyncTransferManager.submit(1L, 2L, new BigDecimal("100"));
+            asyncTransferManager.submit(1L, 2L, new BigDecimal("100"));
+            fail();
+        } catch (TransferQueueFullException e) {
+            assertThat(e.getRetryAfterSeconds(), is(equalTo(1L)));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testShutdownWaitsForTheQueuedTransfers() throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            running.countDown();
+            release.await();
+            return null;
+        }).when(accountManager).transfer(anyLong(), anyLong(), any(BigDecimal.class));
+        TransferResult first = asyncTransferManager.submit(1L, 2L, new BigDecimal("100"));
+        running.await(5, TimeUnit.SECONDS);
+        TransferResult queued = asyncTransferManager.submit(1L, 2L, new BigDecimal("100"));
+
+        new Thread(() -> {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+            release.countDown();
+        }).start();
+        asyncTransferManager.shutdown();
+
+        assertThat(asyncTransferManager.getTransfer(first.getId()).getStatus(), is(equalTo(TransferResult.Status.COMPLETED)));
+        assertThat(asyncTransferManager.getTransfer(queued.getId()).getStatus(), is(equalTo(TransferResult.Status.COMPLETED)));
+    }
+
+    @Test(expected = TransferNotFoundException.class)
+    public void testUnknownTransfer() {
+        asyncTransferManager.getTransfer("unknown");
+    }
+
+    @Test
+    public void testFinishedTransferIsRemovedAfterRetention() throws Exception {
+        asyncTransferManager.shutdown();
+        asyncTransferManager = new AsyncTransferManager(accountManager, 1, 1, 0);
+        TransferResult pending = asyncTransferManager.submit(1L, 2L, new BigDecimal("100"));
+        asyncTransferManager.getCompletion(pending.getId()).get(5, TimeUnit.SECONDS);
+        Thread.sleep(1);
+
+        asyncTransferManager.removeExpiredTransfers();
+
+        try {
+            asyncTransferManager.getTransfer(pending.getId());
+            fail();
+        } catch (TransferNotFoundException e) {
+            assertThat(e.getProperties().get(TransferNotFoundException.TRANSFER_ID), is(equalTo(pending.getId())));
+        }
+    }
+}
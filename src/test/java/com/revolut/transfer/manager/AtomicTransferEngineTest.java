@@ -0,0 +1,124 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.AccountNotFoundException;
+import com.revolut.transfer.exceptions.InsufficientFundsException;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AtomicTransferEngineTest {
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private TransferTransactionRepository transferTransactionRepository;
+
+    private AccountCache accountCache;
+
+    private AtomicTransferEngine atomicTransferEngine;
+
+    @Before
+    public void init() {
+        accountCache = new AccountCache(10);
+        atomicTransferEngine = new AtomicTransferEngine(accountRepository, transferTransactionRepository, accountCache);
+    }
+
+    @Test
+    public void testSimpleCase() {
+        when(accountRepository.debit(1L, 10000L)).thenReturn(true);
+        when(accountRepository.credit(2L, 10000L)).thenReturn(true);
+        Account cached = new Account();
+        cached.setId(1L);
+        accountCache.update(Collections.singletonList(cached));
+
+        atomicTransferEngine.transfer(1L, 2L, 10000L);
+
+        InOrder inOrder = inOrder(accountRepository, transferTransactionRepository);
+        inOrder.verify(accountRepository).startTransaction();
+        inOrder.verify(accountRepository).debit(1L, 10000L);
+        inOrder.verify(accountRepository).credit(2L, 10000L);
+        inOrder.verify(transferTransactionRepository).insert(eq(1L), eq(2L), eq(10000L), any(LocalDateTime.class));
+        inOrder.verify(accountRepository).commitTransaction();
+        assertThat(accountCache.get(1L), is(nullValue()));
+    }
+
+    @Test
+    public void testAccountsAreUpdatedInOrderOfId() {
+        when(accountRepository.debit(2L, 10000L)).thenReturn(true);
+        when(accountRepository.credit(1L, 10000L)).thenReturn(true);
+
+        atomicTransferEngine.transfer(2L, 1L, 10000L);
+
+        InOrder inOrder = inOrder(accountRepository);
+        inOrder.verify(accountRepository).credit(1L, 10000L);
+        inOrder.verify(accountRepository).debit(2L, 10000L);
+        inOrder.verify(accountRepository).commitTransaction();
+    }
+
+    @Test
+    public void testInsufficientFunds() {
+        when(accountRepository.debit(1L, 10000L)).thenReturn(false);
+        when(accountRepository.findBalance(1L)).thenReturn(5000L);
+
+        try {
+            atomicTransferEngine.transfer(1L, 2L, 10000L);
+            fail();
+        } catch (InsufficientFundsException e) {
+            assertThat(e.getProperties().get(InsufficientFundsException.CURRENT_FUNDS), is(equalTo(new BigDecimal("50.00"))));
+        }
+        verify(accountRepository, never()).credit(anyLong(), anyLong());
+        verify(accountRepository, times(1)).rollbackTransaction();
+        verify(accountRepository, never()).commitTransaction();
+    }
+
+    @Test
+    public void testOriginAccountNotFound() {
+        when(accountRepository.debit(1L, 10000L)).thenReturn(false);
+        when(accountRepository.findBalance(1L)).thenReturn(null);
+
+        try {
+            atomicTransferEngine.transfer(1L, 2L, 10000L);
+            fail();
+        } catch (AccountNotFoundException e) {
+            assertThat(e.getProperties().get(AccountNotFoundException.ACCOUNT_ID), is(equalTo(1L)));
+        }
+        verify(accountRepository, times(1)).rollbackTransaction();
+    }
+
+    @Test
+    public void testDestinationAccountNotFound() {
+        when(accountRepository.debit(1L, 10000L)).thenReturn(true);
+        when(accountRepository.credit(2L, 10000L)).thenReturn(false);
+
+        try {
+            atomicTransferEngine.transfer(1L, 2L, 10000L);
+            fail();
+        } catch (AccountNotFoundException e) {
+            assertThat(e.getProperties().get(AccountNotFoundException.ACCOUNT_ID), is(equalTo(2L)));
+        }
+        verify(transferTransactionRepository, never()).insert(anyLong(), anyLong(), anyLong(), any(LocalDateTime.class));
+        verify(accountRepository, times(1)).rollbackTransaction();
+    }
+}
@@ -0,0 +1,213 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.InsufficientFundsException;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.Money;
+import com.revolut.transfer.model.TransferTransaction;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.revolut.transfer.manager.TestAccounts.account;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GroupCommitTransferEngineTest {
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private TransferTransactionRepository transferTransactionRepository;
+
+    private GroupCommitTransferEngine groupCommitTransferEngine;
+
+    @Before
+    public void init() {
+        groupCommitTransferEngine = new GroupCommitTransferEngine(accountRepository, transferTransactionRepository, 100, 1000, 1000);
+    }
+
+    @After
+    public void shutdown() {
+        groupCommitTransferEngine.shutdown();
+    }
+
+    @Test
+    public void testSimpleCase() {
+        final Account originAccount = account(accountRepository, 1L, "1000");
+        final Account destinationAccount = account(accountRepository, 2L, "1000");
+
+        groupCommitTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+
+        assertThat(originAccount.getAmount(), is(equalTo(new BigDecimal("900.00"))));
+        assertThat(destinationAccount.getAmount(), is(equalTo(new BigDecimal("1100.00"))));
+        verify(accountRepository, times(1)).commitTransaction();
+        verify(transferTransactionRepository, times(1)).persist(any(TransferTransaction.class));
+    }
+
+    @Test
+    public void testGroupIsCommittedInOneTransaction() {
+        final Account originAccount = account(accountRepository, 1L, "1000");
+        final Account destinationAccount = account(accountRepository, 2L, "1000");
+        List<GroupCommitTransferEngine.PendingTransfer> group = Arrays.asList(
+                new GroupCommitTransferEngine.PendingTransfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100"))),
+                new GroupCommitTransferEngine.PendingTransfer(2L, 1L, Money.toMinorUnits(new BigDecimal("50"))),
+                new GroupCommitTransferEngine.PendingTransfer(1L, 2L, Money.toMinorUnits(new BigDecimal("10"))));
+
+        groupCommitTransferEngine.commitGroup(group);
+
+        assertThat(originAccount.getAmount(), is(equalTo(new BigDecimal("940.00"))));
+        assertThat(destinationAccount.getAmount(), is(equalTo(new BigDecimal("1060.00"))));
+        verify(accountRepository, times(1)).startTransaction();
+        verify(accountRepository, times(1)).commitTransaction();
+        verify(transferTransactionRepository, times(3)).persist(any(TransferTransaction.class));
+        for (GroupCommitTransferEngine.PendingTransfer pendingTransfer : group) {
+            assertThat(pendingTransfer.getResult().isDone(), is(equalTo(true)));
+            assertThat(pendingTransfer.getResult().isCompletedExceptionally(), is(equalTo(false)));
+        }
+    }
+
+    @Test
+    public void testRejectedTransferDoesNotAffectTheGroup() {
+        final Account originAccount = account(accountRepository, 1L, "100");
+        final Account destinationAccount = account(accountRepository, 2L, "0");
+        List<GroupCommitTransferEngine.PendingTransfer> group = Arrays.asList(
+                new GroupCommitTransferEngine.PendingTransfer(1L, 2L, Money.toMinorUnits(new BigDecimal("80"))),
+                new GroupCommitTransferEngine.PendingTransfer(1L, 2L, Money.toMinorUnits(new BigDecimal("80"))),
+                new GroupCommitTransferEngine.PendingTransfer(2L, 1L, Money.toMinorUnits(new BigDecimal("30"))));
+
+        groupCommitTransferEngine.commitGroup(group);
+
+        assertThat(originAccount.getAmount(), is(equalTo(new BigDecimal("50.00"))));
+        assertThat(destinationAccount.getAmount(), is(equalTo(new BigDecimal("50.00"))));
+        verify(accountRepository, times(1)).commitTransaction();
+        assertThat(group.get(0).getResult().isCompletedExceptionally(), is(equalTo(false)));
+        assertThat(group.get(1).getResult().isCompletedExceptionally(), is(equalTo(true)));
+        assertThat(group.get(2).getResult().isCompletedExceptionally(), is(equalTo(false)));
+        try {
+            TransferEngine.await(group.get(1).getResult());
+            fail();
+        } catch (Exception e) {
+            assertThat(e.getClass(), is(equalTo(InsufficientFundsException.class)));
+        }
+    }
+
+    @Test
+    public void testFailedGroupIsCommittedOneByOne() {
+        account(accountRepository, 1L, "1000");
+        account(accountRepository, 2L, "1000");
+        doThrow(new IllegalStateException("DB down")).doNothing().when(accountRepository).commitTransaction();
+        List<GroupCommitTransferEngine.PendingTransfer> group = Arrays.asList(
+                new GroupCommitTransferEngine.PendingTransfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100"))),
+                new GroupCommitTransferEngine.PendingTransfer(2L, 1L, Money.toMinorUnits(new BigDecimal("50"))));
+
+        groupCommitTransferEngine.commitGroup(group);
+
+        verify(accountRepository, times(3)).startTransaction();
+        verify(accountRepository, times(3)).commitTransaction();
+        verify(accountRepository, times(1)).rollbackTransaction();
+        for (GroupCommitTransferEngine.PendingTransfer pendingTransfer : group) {
+            assertThat(pendingTransfer.getResult().isCompletedExceptionally(), is(equalTo(false)));
+        }
+    }
+
+    @Test
+    public void testConcurrentTransfers() {
+        final Account firstAccount = account(accountRepository, 1L, "1000");
+        final Account secondAccount = account(accountRepository, 2L, "1000");
+        final int numberOfTransfers = 200;
+        CompletableFuture[] parallelExecutions = new CompletableFuture[numberOfTransfers];
+
+        for (int i = 0; i < numberOfTransfers; i++) {
+            final boolean forward = i % 2 == 0;
+            parallelExecutions[i] = CompletableFuture.runAsync(() -> {
+                if (forward) {
+                    groupCommitTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("3")));
+                } else {
+                    groupCommitTransferEngine.transfer(2L, 1L, Money.toMinorUnits(new BigDecimal("1")));
+                }
+            });
+        }
+        CompletableFuture.allOf(parallelExecutions).join();
+
+        assertThat(firstAccount.getAmount(), is(equalTo(new BigDecimal("800.00"))));
+        assertThat(secondAccount.getAmount(), is(equalTo(new BigDecimal("1200.00"))));
+        verify(transferTransactionRepository, times(numberOfTransfers)).persist(any(TransferTransaction.class));
+    }
+
+    @Test
+    public void testShutdownWaitsForTheGroupBeingCommitted() throws Exception {
+        final Account originAccount = account(accountRepository, 1L, "1000");
+        account(accountRepository, 2L, "1000");
+        CountDownLatch committing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        doAnswer(invocation -> {
+            committing.countDown();
+            release.await();
+            interrupted.set(Thread.currentThread().isInterrupted());
+            return null;
+        }).when(accountRepository).commitTransaction();
+        CompletableFuture<Void> transfer = CompletableFuture.runAsync(() ->
+                groupCommitTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100"))));
+        committing.await(5, TimeUnit.SECONDS);
+
+        CompletableFuture<Void> shutdown = CompletableFuture.runAsync(groupCommitTransferEngine::shutdown);
+        Thread.sleep(50);
+        release.countDown();
+        shutdown.get(5, TimeUnit.SECONDS);
+
+        transfer.get(5, TimeUnit.SECONDS);
+        assertThat(interrupted.get(), is(equalTo(false)));
+        assertThat(originAccount.getAmount(), is(equalTo(new BigDecimal("900.00"))));
+    }
+
+    @Test
+    public void testTransfersQueuedWhileShuttingDownAreCompleted() throws Exception {
+        account(accountRepository, 1L, "1000");
+        account(accountRepository, 2L, "1000");
+        CompletableFuture[] callers = new CompletableFuture[4];
+        for (int i = 0; i < callers.length; i++) {
+            callers[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    while (true) {
+                        groupCommitTransferEngine.transfer(1L, 2L, 1);
+                    }
+                } catch (IllegalStateException e) {
+                    // Stopped
+                }
+            });
+        }
+        Thread.sleep(50);
+
+        groupCommitTransferEngine.shutdown();
+
+        // None of the callers is left waiting for a transfer queued after the committer stopped
+        CompletableFuture.allOf(callers).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTransferAfterShutdownIsRejected() {
+        groupCommitTransferEngine.shutdown();
+
+        groupCommitTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+    }
+}
@@ -0,0 +1,190 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.InsufficientFundsException;
+import com.revolut.transfer.exceptions.LeaseExpiredException;
+import com.revolut.transfer.exceptions.LockTimeoutException;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.AccountLease;
+import com.revolut.transfer.persistence.AccountLeaseRepository;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.EntityManagerContext;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Several instances of the application in the same JVM, each one with its own entity manager factory, locks and
+ * leases, working with the same file DB
+ */
+public class LeaseTransferEngineTest {
+
+    private static final long LEASE_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Instance> instances = new ArrayList<>();
+
+    private String jdbcUrl;
+
+    @Before
+    public void init() {
+        jdbcUrl = "jdbc:h2:file:" + folder.getRoot().getAbsolutePath() + "/transfers";
+    }
+
+    @After
+    public void close() {
+        instances.forEach(instance -> instance.entityManagerFactory.close());
+    }
+
+    @Test
+    public void testConcurrentTransfersOfSeveralInstances() throws Exception {
+        Instance first = newInstance("first", 10000, System::currentTimeMillis);
+        Instance second = newInstance("second", 10000, System::currentTimeMillis);
+        List<Long> accountIds = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            accountIds.add(first.createAccount(100000));
+        }
+        int transfersPerThread = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++) {
+            Instance instance = thread % 2 == 0 ? first : second;
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < transfersPerThread; i++) {
+                    int origin = ThreadLocalRandom.current().nextInt(accountIds.size());
+                    int destination = (origin + 1 + ThreadLocalRandom.current().nextInt(accountIds.size() - 1)) % accountIds.size();
+                    instance.transferEngine.transfer(accountIds.get(origin), accountIds.get(destination), 1);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        long total = 0;
+        for (Long accountId : accountIds) {
+            total += second.accountRepository.findById(accountId).getBalance();
+        }
+        assertThat(total, is(equalTo(400000L)));
+        assertThat(second.transferTransactionRepository.findAll().size(), is(equalTo(8 * transfersPerThread)));
+        for (AccountLease lease : second.accountLeaseRepository.findAll()) {
+            assertThat(lease.getOwner(), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void testExpiredLeaseIsTakenByAnotherInstance() {
+        AtomicLong now = new AtomicLong(1000000);
+        Instance first = newInstance("first", 100, now::get);
+        Instance second = newInstance("second", 100, now::get);
+        Long accountId = first.createAccount(100);
+
+        AccountLeaseManager.Leases firstLeases = first.accountLeaseManager.acquire(Collections.singletonList(accountId));
+        try {
+            second.accountLeaseManager.acquire(Collections.singletonList(accountId));
+            fail();
+        } catch (LockTimeoutException e) {
+            // The lease of the first instance has not expired yet
+        }
+
+        now.addAndGet(LEASE_MILLIS);
+        AccountLeaseManager.Leases secondLeases = second.accountLeaseManager.acquire(Collections.singletonList(accountId));
+
+        assertThat(firstLeases.getToken(0), is(equalTo(1L)));
+        assertThat(secondLeases.getToken(0), is(equalTo(2L)));
+
+        first.accountLeaseRepository.startTransaction();
+        try {
+            first.accountLeaseManager.releaseOnCommit(firstLeases);
+            fail();
+        } catch (LeaseExpiredException e) {
+            // The first instance cannot commit with a lease that has been taken over
+        } finally {
+            first.accountLeaseRepository.rollbackTransaction();
+        }
+        AccountLease lease = first.accountLeaseRepository.findById(accountId);
+        assertThat(lease.getOwner(), is(equalTo("second")));
+    }
+
+    @Test
+    public void testLeasesAreReleasedWhenTheTransferFails() {
+        Instance instance = newInstance("first", 10000, System::currentTimeMillis);
+        Long originAccountId = instance.createAccount(100);
+        Long destinationAccountId = instance.createAccount(100);
+
+        try {
+            instance.transferEngine.transfer(originAccountId, destinationAccountId, 1000);
+            fail();
+        } catch (InsufficientFundsException e) {
+            // The transfer is rolled back
+        }
+
+        assertThat(instance.accountLeaseRepository.findById(originAccountId).getOwner(), is(nullValue()));
+        assertThat(instance.accountLeaseRepository.findById(destinationAccountId).getOwner(), is(nullValue()));
+        assertThat(instance.accountRepository.findById(originAccountId).getBalance(), is(equalTo(100L)));
+    }
+
+    /**
+     * @param timeoutMillis maximum time to wait for the leases
+     */
+    private Instance newInstance(String owner, long timeoutMillis, LongSupplier clock) {
+        Instance instance = new Instance(jdbcUrl, owner, timeoutMillis, clock);
+        instances.add(instance);
+        return instance;
+    }
+
+    private static class Instance {
+
+        private final EntityManagerFactory entityManagerFactory;
+        private final AccountRepository accountRepository = new AccountRepository();
+        private final TransferTransactionRepository transferTransactionRepository = new TransferTransactionRepository();
+        private final AccountLeaseRepository accountLeaseRepository = new AccountLeaseRepository();
+        private final AccountLeaseManager accountLeaseManager;
+        private final LeaseTransferEngine transferEngine;
+
+        Instance(String jdbcUrl, String owner, long timeoutMillis, LongSupplier clock) {
+            entityManagerFactory = Persistence.createEntityManagerFactory("revolut-ds",
+                    Collections.singletonMap("javax.persistence.jdbc.url", jdbcUrl));
+            EntityManagerContext entityManagerContext = new EntityManagerContext(entityManagerFactory);
+            accountRepository.setEntityManagerContext(entityManagerContext);
+            transferTransactionRepository.setEntityManagerContext(entityManagerContext);
+            accountLeaseRepository.setEntityManagerContext(entityManagerContext);
+            accountLeaseManager = new AccountLeaseManager(accountLeaseRepository, owner, LEASE_MILLIS, timeoutMillis, clock);
+            transferEngine = new LeaseTransferEngine(new AccountLockManager(10000), accountLeaseManager,
+                    accountRepository, transferTransactionRepository, new AccountCache(0));
+        }
+
+        Long createAccount(long balance) {
+            Account account = new Account();
+            account.setBalance(balance);
+            accountRepository.startTransaction();
+            account = accountRepository.save(account);
+            accountRepository.commitTransaction();
+            return account.getId();
+        }
+    }
+}
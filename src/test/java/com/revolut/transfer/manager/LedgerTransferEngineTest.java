@@ -0,0 +1,189 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.InsufficientFundsException;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.LedgerCheckpoint;
+import com.revolut.transfer.model.Money;
+import com.revolut.transfer.model.TransferTransaction;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.LedgerCheckpointRepository;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static com.revolut.transfer.manager.TestAccounts.account;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LedgerTransferEngineTest {
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private TransferTransactionRepository transferTransactionRepository;
+
+    @Mock
+    private LedgerCheckpointRepository ledgerCheckpointRepository;
+
+    private LedgerTransferEngine ledgerTransferEngine;
+
+    private final Map<Long, Account> accounts = new HashMap<>();
+
+    @Before
+    public void init() {
+        AtomicLong transferIds = new AtomicLong(10);
+        doAnswer(invocation -> {
+            ((TransferTransaction) invocation.getArguments()[0]).setId(transferIds.incrementAndGet());
+            return null;
+        }).when(transferTransactionRepository).persist(any(TransferTransaction.class));
+        doAnswer(invocation -> {
+            accounts.values().forEach((Consumer<Account>) invocation.getArguments()[0]);
+            return null;
+        }).when(accountRepository).forEach(any(Consumer.class));
+        when(ledgerCheckpointRepository.findLastTransferId(LedgerCheckpoint.LEDGER)).thenReturn(10L);
+        account(accounts, 1L, "1000");
+        account(accounts, 2L, "1000");
+    }
+
+    @After
+    public void shutdown() {
+        if (ledgerTransferEngine != null) {
+            ledgerTransferEngine.shutdown();
+        }
+    }
+
+    @Test
+    public void testTransferOnlyAppendsToTheHistory() {
+        ledgerTransferEngine = newEngine(100);
+
+        ledgerTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+
+        verify(transferTransactionRepository, times(1)).persist(any(TransferTransaction.class));
+        verify(accountRepository, never()).updateBalances(anyMap());
+        assertThat(accounts.get(1L).getAmount(), is(equalTo(new BigDecimal("1000.00"))));
+        assertThat(ledgerTransferEngine.withCurrentBalance(accounts.get(1L)).getAmount(), is(equalTo(new BigDecimal("900.00"))));
+        assertThat(ledgerTransferEngine.withCurrentBalance(accounts.get(2L)).getAmount(), is(equalTo(new BigDecimal("1100.00"))));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTransferIsRejectedAfterShutdown() {
+        ledgerTransferEngine = newEngine(100);
+        ledgerTransferEngine.shutdown();
+
+        ledgerTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+    }
+
+    @Test
+    public void testFundsAreCheckedInArrivalOrder() {
+        account(accounts, 3L, "100");
+        account(accounts, 4L, "0");
+        ledgerTransferEngine = newEngine(100);
+        // Forgets the transaction of the replay of the history at startup
+        reset(accountRepository);
+        List<GroupCommitTransferEngine.PendingTransfer> group = Arrays.asList(
+                new GroupCommitTransferEngine.PendingTransfer(3L, 4L, Money.toMinorUnits(new BigDecimal("80"))),
+                new GroupCommitTransferEngine.PendingTransfer(3L, 4L, Money.toMinorUnits(new BigDecimal("80"))),
+                new GroupCommitTransferEngine.PendingTransfer(4L, 3L, Money.toMinorUnits(new BigDecimal("30"))));
+
+        ledgerTransferEngine.commitGroup(group);
+
+        verify(accountRepository, times(1)).commitTransaction();
+        verify(transferTransactionRepository, times(2)).persist(any(TransferTransaction.class));
+        assertThat(ledgerTransferEngine.withCurrentBalance(accounts.get(3L)).getAmount(), is(equalTo(new BigDecimal("50.00"))));
+        assertThat(ledgerTransferEngine.withCurrentBalance(accounts.get(4L)).getAmount(), is(equalTo(new BigDecimal("50.00"))));
+        assertThat(group.get(0).getResult().isCompletedExceptionally(), is(equalTo(false)));
+        assertThat(group.get(2).getResult().isCompletedExceptionally(), is(equalTo(false)));
+        try {
+            TransferEngine.await(group.get(1).getResult());
+            fail();
+        } catch (Exception e) {
+            assertThat(e.getClass(), is(equalTo(InsufficientFundsException.class)));
+        }
+    }
+
+    @Test
+    public void testFailedCommitDoesNotChangeTheBalances() {
+        ledgerTransferEngine = newEngine(100);
+        doThrow(new IllegalStateException("DB down")).when(accountRepository).commitTransaction();
+
+        try {
+            ledgerTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is(equalTo("DB down")));
+        }
+
+        assertThat(ledgerTransferEngine.withCurrentBalance(accounts.get(1L)).getAmount(), is(equalTo(new BigDecimal("1000.00"))));
+    }
+
+    @Test
+    public void testHistoryAfterTheCheckpointIsReplayed() {
+        doAnswer(invocation -> {
+            TransferTransactionRepository.TransferConsumer consumer = (TransferTransactionRepository.TransferConsumer) invocation.getArguments()[1];
+            consumer.accept(11L, 1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+            consumer.accept(12L, 2L, 1L, Money.toMinorUnits(new BigDecimal("30")));
+            return null;
+        }).when(transferTransactionRepository).forEachAfter(eq(10L), any(TransferTransactionRepository.TransferConsumer.class));
+
+        ledgerTransferEngine = newEngine(100);
+
+        assertThat(ledgerTransferEngine.withCurrentBalance(accounts.get(1L)).getAmount(), is(equalTo(new BigDecimal("930.00"))));
+        assertThat(ledgerTransferEngine.withCurrentBalance(accounts.get(2L)).getAmount(), is(equalTo(new BigDecimal("1070.00"))));
+    }
+
+    @Test
+    public void testCheckpointIsCreatedAtTheLastTransfer() {
+        when(ledgerCheckpointRepository.findLastTransferId(LedgerCheckpoint.LEDGER)).thenReturn(null);
+        when(transferTransactionRepository.findMaxId()).thenReturn(42L);
+
+        ledgerTransferEngine = newEngine(100);
+
+        verify(ledgerCheckpointRepository, times(1)).save(LedgerCheckpoint.LEDGER, 42L);
+        verify(transferTransactionRepository, never()).forEachAfter(anyLong(), any(TransferTransactionRepository.TransferConsumer.class));
+    }
+
+    @Test
+    public void testCheckpointWritesTheChangedBalances() {
+        ledgerTransferEngine = newEngine(2);
+
+        ledgerTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+        ledgerTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+        ledgerTransferEngine.shutdown();
+
+        Map<Long, Long> balances = new HashMap<>();
+        balances.put(1L, Money.toMinorUnits(new BigDecimal("800")));
+        balances.put(2L, Money.toMinorUnits(new BigDecimal("1200")));
+        verify(accountRepository, times(1)).updateBalances(balances);
+        verify(ledgerCheckpointRepository, times(1)).save(LedgerCheckpoint.LEDGER, 12L);
+        // The accounts are up to date after the shutdown, there is nothing to replay
+        verify(accountRepository, times(1)).updateBalances(Collections.emptyMap());
+        verify(ledgerCheckpointRepository, times(1)).delete(LedgerCheckpoint.LEDGER);
+    }
+
+    private LedgerTransferEngine newEngine(int checkpointEvery) {
+        return new LedgerTransferEngine(accountRepository, transferTransactionRepository, ledgerCheckpointRepository,
+                100, 1000, 1000, checkpointEvery);
+    }
+}
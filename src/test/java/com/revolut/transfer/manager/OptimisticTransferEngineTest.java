@@ -0,0 +1,102 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.InsufficientFundsException;
+import com.revolut.transfer.exceptions.TransferConflictException;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.Money;
+import com.revolut.transfer.model.TransferTransaction;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+import org.hibernate.StaleObjectStateException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.persistence.OptimisticLockException;
+import javax.persistence.RollbackException;
+import java.math.BigDecimal;
+
+import static com.revolut.transfer.manager.TestAccounts.account;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class OptimisticTransferEngineTest {
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private TransferTransactionRepository transferTransactionRepository;
+
+    private OptimisticTransferEngine optimisticTransferEngine;
+
+    @Before
+    public void init() {
+        optimisticTransferEngine = new OptimisticTransferEngine(accountRepository, transferTransactionRepository, 3, 0, 0, new AccountCache(0));
+    }
+
+    @Test
+    public void testSimpleCase() {
+        final Account originAccount = account(accountRepository, 1L, "1000");
+        final Account destinationAccount = account(accountRepository, 2L, "1000");
+
+        optimisticTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+
+        assertThat(originAccount.getAmount(), is(equalTo(new BigDecimal("900.00"))));
+        assertThat(destinationAccount.getAmount(), is(equalTo(new BigDecimal("1100.00"))));
+        verify(accountRepository, times(1)).commitTransaction();
+        verify(transferTransactionRepository, times(1)).save(any(TransferTransaction.class));
+    }
+
+    @Test
+    public void testConflictIsRetried() {
+        account(accountRepository, 1L, "1000");
+        account(accountRepository, 2L, "1000");
+        doThrow(new RollbackException(new OptimisticLockException())).doNothing().when(accountRepository).commitTransaction();
+
+        optimisticTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+
+        verify(accountRepository, times(2)).startTransaction();
+        verify(accountRepository, times(2)).commitTransaction();
+        verify(accountRepository, times(1)).rollbackTransaction();
+    }
+
+    @Test
+    public void testConflictInAllTheAttempts() {
+        account(accountRepository, 1L, "1000");
+        account(accountRepository, 2L, "1000");
+        doThrow(new OptimisticLockException(new StaleObjectStateException(Account.class.getName(), 1L))).when(accountRepository).flush();
+
+        try {
+            optimisticTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+            fail();
+        } catch (TransferConflictException e) {
+            assertThat(e.getProperties().get(TransferConflictException.ATTEMPTS), is(equalTo(3)));
+            assertThat(e.getRetryAfterSeconds(), is(equalTo(1L)));
+        }
+        verify(accountRepository, times(3)).rollbackTransaction();
+        verify(accountRepository, never()).commitTransaction();
+    }
+
+    @Test
+    public void testBusinessErrorsAreNotRetried() {
+        account(accountRepository, 1L, "10");
+        account(accountRepository, 2L, "1000");
+
+        try {
+            optimisticTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+            fail();
+        } catch (InsufficientFundsException e) {
+            // Expected
+        }
+        verify(accountRepository, times(1)).startTransaction();
+        verify(accountRepository, times(1)).rollbackTransaction();
+    }
+}
@@ -0,0 +1,209 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.AccountNotFoundException;
+import com.revolut.transfer.exceptions.InsufficientFundsException;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.Money;
+import com.revolut.transfer.model.PendingDeposit;
+import com.revolut.transfer.model.TransferTransaction;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.PendingDepositRepository;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import static com.revolut.transfer.manager.TestAccounts.account;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ShardedTransferEngineTest {
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private TransferTransactionRepository transferTransactionRepository;
+
+    @Mock
+    private PendingDepositRepository pendingDepositRepository;
+
+    private ShardedTransferEngine shardedTransferEngine;
+
+    @Before
+    public void init() {
+        shardedTransferEngine = new ShardedTransferEngine(accountRepository, transferTransactionRepository, pendingDepositRepository, 2);
+    }
+
+    @After
+    public void shutdown() {
+        shardedTransferEngine.shutdown();
+    }
+
+    @Test
+    public void testTransferInSameShard() {
+        final Account originAccount = account(accountRepository, 1L, "1000");
+        final Account destinationAccount = account(accountRepository, 3L, "1000");
+
+        assertThat(shardedTransferEngine.shardOf(1L), is(equalTo(shardedTransferEngine.shardOf(3L))));
+
+        shardedTransferEngine.transfer(1L, 3L, Money.toMinorUnits(new BigDecimal("100")));
+
+        assertThat(originAccount.getAmount(), is(equalTo(new BigDecimal("900.00"))));
+        assertThat(destinationAccount.getAmount(), is(equalTo(new BigDecimal("1100.00"))));
+        verify(accountRepository, times(1)).commitTransaction();
+        verify(transferTransactionRepository, times(1)).save(any(TransferTransaction.class));
+    }
+
+    @Test
+    public void testTransferBetweenShards() {
+        final Account originAccount = account(accountRepository, 1L, "1000");
+        final Account destinationAccount = account(accountRepository, 2L, "1000");
+
+        shardedTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+
+        assertThat(originAccount.getAmount(), is(equalTo(new BigDecimal("900.00"))));
+        assertThat(destinationAccount.getAmount(), is(equalTo(new BigDecimal("1100.00"))));
+        verify(accountRepository, times(2)).commitTransaction();
+        verify(transferTransactionRepository, times(1)).save(any(TransferTransaction.class));
+        verify(pendingDepositRepository, times(1)).record(any(Long.class), eq(1L), eq(2L), eq(Money.toMinorUnits(new BigDecimal("100"))));
+        verify(pendingDepositRepository, times(1)).remove(any(Long.class));
+    }
+
+    @Test
+    public void testTransferAfterShutdownIsRejected() {
+        account(accountRepository, 1L, "1000");
+        account(accountRepository, 2L, "1000");
+        shardedTransferEngine.shutdown();
+
+        try {
+            shardedTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is(equalTo("Transfer engine stopped")));
+        }
+        verify(accountRepository, never()).startTransaction();
+    }
+
+    @Test
+    public void testPendingDepositIsCompletedAtStartup() {
+        final Account originAccount = account(accountRepository, 1L, "900");
+        final Account destinationAccount = account(accountRepository, 2L, "1000");
+        PendingDeposit pendingDeposit = new PendingDeposit();
+        pendingDeposit.setId(7L);
+        pendingDeposit.setOriginAccountId(1L);
+        pendingDeposit.setDestinationAccountId(2L);
+        pendingDeposit.setAmount(Money.toMinorUnits(new BigDecimal("100")));
+        when(pendingDepositRepository.findAll()).thenReturn(Collections.singletonList(pendingDeposit));
+
+        ShardedTransferEngine.recoverDeposits(accountRepository, transferTransactionRepository, pendingDepositRepository);
+
+        assertThat(originAccount.getAmount(), is(equalTo(new BigDecimal("900.00"))));
+        assertThat(destinationAccount.getAmount(), is(equalTo(new BigDecimal("1100.00"))));
+        verify(pendingDepositRepository, times(1)).remove(7L);
+        verify(transferTransactionRepository, never()).deleteById(anyLong());
+    }
+
+    @Test
+    public void testPendingDepositThatCanNotBeCompletedIsRefundedAtStartup() {
+        final Account originAccount = account(accountRepository, 1L, "900");
+        PendingDeposit pendingDeposit = new PendingDeposit();
+        pendingDeposit.setId(7L);
+        pendingDeposit.setOriginAccountId(1L);
+        pendingDeposit.setDestinationAccountId(2L);
+        pendingDeposit.setAmount(Money.toMinorUnits(new BigDecimal("100")));
+        when(pendingDepositRepository.findAll()).thenReturn(Collections.singletonList(pendingDeposit));
+
+        ShardedTransferEngine.recoverDeposits(accountRepository, transferTransactionRepository, pendingDepositRepository);
+
+        assertThat(originAccount.getAmount(), is(equalTo(new BigDecimal("1000.00"))));
+        verify(transferTransactionRepository, times(1)).deleteById(7L);
+        verify(pendingDepositRepository, times(1)).remove(7L);
+        verify(accountRepository, times(1)).commitTransaction();
+    }
+
+    @Test
+    public void testInsufficientFundsBetweenShards() {
+        final Account originAccount = account(accountRepository, 1L, "10");
+        final Account destinationAccount = account(accountRepository, 2L, "1000");
+
+        try {
+            shardedTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+            fail();
+        } catch (Exception e) {
+            assertThat(e.getClass(), is(equalTo(InsufficientFundsException.class)));
+        }
+        assertThat(originAccount.getAmount(), is(equalTo(new BigDecimal("10.00"))));
+        assertThat(destinationAccount.getAmount(), is(equalTo(new BigDecimal("1000.00"))));
+        verify(accountRepository, never()).commitTransaction();
+        verify(accountRepository, times(1)).rollbackTransaction();
+    }
+
+    @Test
+    public void testDestinationAccountNotFoundBetweenShards() {
+        final Account originAccount = account(accountRepository, 1L, "1000");
+
+        try {
+            shardedTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+            fail();
+        } catch (Exception e) {
+            assertThat(e.getClass(), is(equalTo(AccountNotFoundException.class)));
+        }
+        assertThat(originAccount.getAmount(), is(equalTo(new BigDecimal("1000.00"))));
+        verify(accountRepository, never()).commitTransaction();
+    }
+
+    @Test
+    public void testFailedDepositIsRefunded() {
+        final Account originAccount = account(accountRepository, 1L, "1000");
+        final Account destinationAccount = account(accountRepository, 2L, "1000");
+        // Withdraw and refund commit, the deposit fails
+        doNothing().doThrow(new IllegalStateException("DB down")).doNothing().when(accountRepository).commitTransaction();
+
+        try {
+            shardedTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+            fail();
+        } catch (Exception e) {
+            assertThat(e.getClass(), is(equalTo(IllegalStateException.class)));
+        }
+        assertThat(originAccount.getAmount(), is(equalTo(new BigDecimal("1000.00"))));
+        verify(accountRepository, times(3)).commitTransaction();
+    }
+
+    @Test
+    public void testConcurrentTransfersBetweenShards() {
+        final Account firstAccount = account(accountRepository, 1L, "1000");
+        final Account secondAccount = account(accountRepository, 2L, "1000");
+        final int numberOfTransfers = 200;
+        CompletableFuture[] parallelExecutions = new CompletableFuture[numberOfTransfers];
+
+        for (int i = 0; i < numberOfTransfers; i++) {
+            final boolean forward = i % 2 == 0;
+            parallelExecutions[i] = CompletableFuture.runAsync(() -> {
+                if (forward) {
+                    shardedTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("3")));
+                } else {
+                    shardedTransferEngine.transfer(2L, 1L, Money.toMinorUnits(new BigDecimal("1")));
+                }
+            });
+        }
+        CompletableFuture.allOf(parallelExecutions).join();
+
+        assertThat(firstAccount.getAmount(), is(equalTo(new BigDecimal("800.00"))));
+        assertThat(secondAccount.getAmount(), is(equalTo(new BigDecimal("1200.00"))));
+    }
+}
@@ -0,0 +1,44 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.persistence.AccountRepository;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+/**
+ * Accounts used as fixtures by the tests of the transfer engines
+ */
+final class TestAccounts {
+
+    private TestAccounts() {
+    }
+
+    static Account account(Long id, String amount) {
+        Account account = new Account();
+        account.setId(id);
+        account.setAmount(new BigDecimal(amount));
+        return account;
+    }
+
+    /**
+     * @return an account found by id in the mocked repository
+     */
+    static Account account(AccountRepository accountRepository, Long id, String amount) {
+        Account account = account(id, amount);
+        when(accountRepository.findById(eq(id))).thenReturn(account);
+        return account;
+    }
+
+    /**
+     * @return an account added to the accounts of the DB simulated by the test
+     */
+    static Account account(Map<Long, Account> accounts, Long id, String amount) {
+        Account account = account(id, amount);
+        accounts.put(id, account);
+        return account;
+    }
+}
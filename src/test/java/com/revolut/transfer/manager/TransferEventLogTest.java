@@ -0,0 +1,101 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.metrics.MetricsRegistry;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TransferEventLogTest {
+
+    private static final long MICROS = TimeUnit.MICROSECONDS.toNanos(1);
+
+    @Test
+    public void testRecordsAreWritten() {
+        StringWriter writer = new StringWriter();
+        TransferEventLog transferEventLog = new TransferEventLog(4, writer);
+
+        transferEventLog.record(1L, 2L, 12315, null, 0, 10 * MICROS, 30 * MICROS);
+        transferEventLog.record(null, 2L, 0, "revolut.error.bad_parameter", 0, TransferEventLog.NOT_MEASURED, 5 * MICROS);
+        transferEventLog.shutdown();
+
+        String[] lines = writer.toString().split("\n");
+        assertThat(lines.length, is(equalTo(2)));
+        assertThat(lines[0], containsString(" origin=1 destination=2 amount=12315 outcome=COMPLETED lockWaitMicros=10 dbMicros=20 totalMicros=30"));
+        assertThat(lines[1], containsString(" origin=-1 destination=2 amount=0 outcome=revolut.error.bad_parameter lockWaitMicros=- dbMicros=- totalMicros=5"));
+        assertThat(transferEventLog.getRecorded(), is(equalTo(2L)));
+        assertThat(transferEventLog.getWritten(), is(equalTo(2L)));
+        assertThat(transferEventLog.getDropped(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testRecordsAreDroppedWhenTheBufferIsFull() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StringWriter lines = new StringWriter();
+        Writer blockingWriter = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) throws IOException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                lines.write(buffer, offset, length);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        TransferEventLog transferEventLog = new TransferEventLog(2, blockingWriter);
+
+        transferEventLog.record(1L, 2L, 100, null, 0, 0, 0);
+        assertThat(writing.await(5, TimeUnit.SECONDS), is(true));
+        transferEventLog.record(1L, 2L, 200, null, 0, 0, 0);
+        transferEventLog.record(1L, 2L, 300, null, 0, 0, 0);
+        transferEventLog.record(1L, 2L, 400, null, 0, 0, 0);
+        release.countDown();
+        transferEventLog.shutdown();
+
+        assertThat(transferEventLog.getRecorded(), is(equalTo(3L)));
+        assertThat(transferEventLog.getWritten(), is(equalTo(3L)));
+        assertThat(transferEventLog.getDropped(), is(equalTo(1L)));
+        assertThat(lines.toString().contains("amount=400"), is(false));
+    }
+
+    @Test
+    public void testDisabled() {
+        TransferEventLog transferEventLog = new TransferEventLog(0, (Writer) null);
+
+        transferEventLog.record(1L, 2L, 100, null, 0, 0, 0);
+        transferEventLog.shutdown();
+
+        assertThat(transferEventLog.getRecorded(), is(equalTo(0L)));
+        assertThat(transferEventLog.getDropped(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testCountsAreExportedAsMetrics() throws IOException {
+        TransferEventLog.getInstance();
+        StringWriter metrics = new StringWriter();
+
+        MetricsRegistry.getInstance().write(metrics);
+
+        assertThat(metrics.toString(), containsString("# TYPE transfer_events_written gauge\ntransfer_events_written "));
+        assertThat(metrics.toString(), containsString("# TYPE transfer_events_dropped gauge\ntransfer_events_dropped "));
+    }
+}
@@ -0,0 +1,137 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.InsufficientFundsException;
+import com.revolut.transfer.exceptions.LockTimeoutException;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.AccountLockingSession;
+import com.revolut.transfer.model.Money;
+import com.revolut.transfer.model.TransferTransaction;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.revolut.transfer.manager.TestAccounts.account;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TransferNettingTest {
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private TransferTransactionRepository transferTransactionRepository;
+
+    private AccountLockManager accountLockManager;
+
+    private TransferNetting transferNetting;
+
+    private ExecutorService executor = Executors.newCachedThreadPool();
+
+    @Before
+    public void init() {
+        accountLockManager = new AccountLockManager(0);
+        transferNetting = new TransferNetting(accountLockManager,
+                new TransferOperations(accountRepository, transferTransactionRepository, new AccountCache(0)), 100, 0);
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testTransferWithFreeAccountsIsNotDelayed() {
+        final Account originAccount = account(accountRepository, 1L, "1000");
+        final Account destinationAccount = account(accountRepository, 2L, "1000");
+
+        long lockedNanos = transferNetting.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+
+        assertThat(lockedNanos, is(not(equalTo(TransferEventLog.NOT_MEASURED))));
+        assertThat(originAccount.getAmount(), is(equalTo(new BigDecimal("900.00"))));
+        assertThat(destinationAccount.getAmount(), is(equalTo(new BigDecimal("1100.00"))));
+        assertThat(transferNetting.getOpenBatchSize(1L, 2L), is(equalTo(0)));
+        assertThat(accountLockManager.getLiveLocks(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testWaitingTransfersAreNettedInArrivalOrder() throws Exception {
+        final Account originAccount = account(accountRepository, 1L, "100");
+        final Account destinationAccount = account(accountRepository, 2L, "0");
+        AccountLockingSession busyAccounts = accountLockManager.getOrCreateAccountLocks(1L, 2L);
+        busyAccounts.lock();
+
+        Future<Long> leader = submit(1L, 2L, "80", 1);
+        Future<Long> rejected = submit(1L, 2L, "80", 2);
+        Future<Long> reverse = submit(2L, 1L, "30", 3);
+        accountLockManager.releaseLocks(1L, 2L);
+
+        assertThat(leader.get(), is(not(equalTo(TransferEventLog.NOT_MEASURED))));
+        assertThat(reverse.get(), is(equalTo(TransferEventLog.NOT_MEASURED)));
+        try {
+            rejected.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(InsufficientFundsException.class)));
+        }
+        assertThat(originAccount.getAmount(), is(equalTo(new BigDecimal("50.00"))));
+        assertThat(destinationAccount.getAmount(), is(equalTo(new BigDecimal("50.00"))));
+        verify(accountRepository, times(1)).startTransaction();
+        verify(accountRepository, times(1)).commitTransaction();
+        verify(transferTransactionRepository, times(2)).persist(any(TransferTransaction.class));
+        assertThat(accountLockManager.getLiveLocks(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testWholeBatchIsRejectedOnLockTimeout() throws Exception {
+        accountLockManager = new AccountLockManager(200);
+        transferNetting = new TransferNetting(accountLockManager,
+                new TransferOperations(accountRepository, transferTransactionRepository, new AccountCache(0)), 100, 0);
+        AccountLockingSession busyAccounts = accountLockManager.getOrCreateAccountLocks(1L, 2L);
+        busyAccounts.lock();
+
+        Future<Long> leader = submit(1L, 2L, "10", 1);
+        Future<Long> follower = submit(2L, 1L, "10", 2);
+
+        for (Future<Long> result : new Future[]{leader, follower}) {
+            try {
+                result.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), is(instanceOf(LockTimeoutException.class)));
+            }
+        }
+        verify(accountRepository, never()).startTransaction();
+        accountLockManager.releaseLocks(1L, 2L);
+    }
+
+    /**
+     * Submits a transfer and waits until it has joined the open batch of the accounts
+     * @param batchSize size of the batch once the transfer has joined it
+     */
+    private Future<Long> submit(Long originAccountId, Long destinationAccountId, String amount, int batchSize) throws InterruptedException {
+        Future<Long> result = executor.submit(() -> transferNetting.transfer(originAccountId, destinationAccountId, Money.toMinorUnits(new BigDecimal(amount))));
+        while (transferNetting.getOpenBatchSize(originAccountId, destinationAccountId) < batchSize && !result.isDone()) {
+            Thread.sleep(1);
+        }
+        return result;
+    }
+}
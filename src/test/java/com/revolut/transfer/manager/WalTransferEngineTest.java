@@ -0,0 +1,190 @@
+package com.revolut.transfer.manager;
+
+import com.revolut.transfer.exceptions.InsufficientFundsException;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.LedgerCheckpoint;
+import com.revolut.transfer.model.Money;
+import com.revolut.transfer.model.TransferTransaction;
+import com.revolut.transfer.persistence.AccountRepository;
+import com.revolut.transfer.persistence.LedgerCheckpointRepository;
+import com.revolut.transfer.persistence.TransferTransactionRepository;
+import com.revolut.transfer.persistence.WriteAheadLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static com.revolut.transfer.manager.TestAccounts.account;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WalTransferEngineTest {
+
+    private static final long SEGMENT_SIZE = 1024 * WriteAheadLog.RECORD_SIZE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private TransferTransactionRepository transferTransactionRepository;
+
+    @Mock
+    private LedgerCheckpointRepository ledgerCheckpointRepository;
+
+    private WalTransferEngine walTransferEngine;
+
+    private Path directory;
+
+    private final Map<Long, Account> accounts = new HashMap<>();
+
+    @Before
+    public void init() {
+        directory = folder.getRoot().toPath();
+        doAnswer(invocation -> {
+            accounts.values().forEach((Consumer<Account>) invocation.getArguments()[0]);
+            return null;
+        }).when(accountRepository).forEach(any(Consumer.class));
+        when(ledgerCheckpointRepository.findLastTransferId(LedgerCheckpoint.WRITE_AHEAD_LOG)).thenReturn(null);
+        account(accounts, 1L, "1000");
+        account(accounts, 2L, "1000");
+    }
+
+    @After
+    public void shutdown() {
+        if (walTransferEngine != null) {
+            walTransferEngine.shutdown();
+        }
+    }
+
+    @Test
+    public void testTransferIsLoggedWithoutTheDB() throws IOException {
+        walTransferEngine = newEngine(100);
+
+        walTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+
+        assertThat(walTransferEngine.withCurrentBalance(accounts.get(1L)).getAmount(), is(equalTo(new BigDecimal("900.00"))));
+        assertThat(walTransferEngine.withCurrentBalance(accounts.get(2L)).getAmount(), is(equalTo(new BigDecimal("1100.00"))));
+        assertThat(WriteAheadLog.hasSegments(directory), is(equalTo(true)));
+        verify(accountRepository, never()).startTransaction();
+        verify(transferTransactionRepository, never()).persist(any(TransferTransaction.class));
+    }
+
+    @Test
+    public void testRejectedTransferIsNotLogged() throws IOException {
+        walTransferEngine = newEngine(100);
+
+        try {
+            walTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("2000")));
+            fail();
+        } catch (InsufficientFundsException e) {
+            assertThat(walTransferEngine.withCurrentBalance(accounts.get(1L)).getAmount(), is(equalTo(new BigDecimal("1000.00"))));
+        }
+        walTransferEngine.shutdown();
+
+        verify(transferTransactionRepository, never()).persist(any(TransferTransaction.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTransferIsRejectedAfterShutdown() {
+        walTransferEngine = newEngine(100);
+        walTransferEngine.shutdown();
+
+        walTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+    }
+
+    @Test
+    public void testLogAfterTheCheckpointIsReplayed() throws IOException {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, SEGMENT_SIZE);
+        writeAheadLog.replay(0, (sequence, originAccountId, destinationAccountId, amount, timeMillis) -> { });
+        writeAheadLog.append(1L, 2L, Money.toMinorUnits(new BigDecimal("500")), System.currentTimeMillis());
+        writeAheadLog.append(1L, 2L, Money.toMinorUnits(new BigDecimal("100")), System.currentTimeMillis());
+        writeAheadLog.append(2L, 1L, Money.toMinorUnits(new BigDecimal("30")), System.currentTimeMillis());
+        writeAheadLog.close();
+        when(ledgerCheckpointRepository.findLastTransferId(LedgerCheckpoint.WRITE_AHEAD_LOG)).thenReturn(1L);
+
+        walTransferEngine = newEngine(100);
+
+        assertThat(walTransferEngine.withCurrentBalance(accounts.get(1L)).getAmount(), is(equalTo(new BigDecimal("930.00"))));
+        assertThat(walTransferEngine.withCurrentBalance(accounts.get(2L)).getAmount(), is(equalTo(new BigDecimal("1070.00"))));
+    }
+
+    @Test
+    public void testCheckpointWritesTheHistoryAndTheBalances() {
+        walTransferEngine = newEngine(2);
+
+        walTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+        walTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+        walTransferEngine.shutdown();
+
+        Map<Long, Long> balances = new HashMap<>();
+        balances.put(1L, Money.toMinorUnits(new BigDecimal("800")));
+        balances.put(2L, Money.toMinorUnits(new BigDecimal("1200")));
+        verify(accountRepository, times(1)).updateBalances(balances);
+        verify(transferTransactionRepository, times(2)).persist(any(TransferTransaction.class));
+        verify(ledgerCheckpointRepository, times(2)).save(LedgerCheckpoint.WRITE_AHEAD_LOG, 2L);
+    }
+
+    @Test
+    public void testShutdownDeletesTheLog() throws IOException {
+        walTransferEngine = newEngine(100);
+        walTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("100")));
+
+        walTransferEngine.shutdown();
+
+        assertThat(WriteAheadLog.hasSegments(directory), is(equalTo(false)));
+        verify(accountRepository, times(1)).updateBalances(anyMap());
+        verify(ledgerCheckpointRepository, times(1)).save(LedgerCheckpoint.WRITE_AHEAD_LOG, 1L);
+    }
+
+    @Test
+    public void testConcurrentTransfers() {
+        walTransferEngine = newEngine(50);
+        final int numberOfTransfers = 200;
+        CompletableFuture[] parallelExecutions = new CompletableFuture[numberOfTransfers];
+
+        for (int i = 0; i < numberOfTransfers; i++) {
+            final boolean forward = i % 2 == 0;
+            parallelExecutions[i] = CompletableFuture.runAsync(() -> {
+                if (forward) {
+                    walTransferEngine.transfer(1L, 2L, Money.toMinorUnits(new BigDecimal("3")));
+                } else {
+                    walTransferEngine.transfer(2L, 1L, Money.toMinorUnits(new BigDecimal("1")));
+                }
+            });
+        }
+        CompletableFuture.allOf(parallelExecutions).join();
+
+        assertThat(walTransferEngine.withCurrentBalance(accounts.get(1L)).getAmount(), is(equalTo(new BigDecimal("800.00"))));
+        assertThat(walTransferEngine.withCurrentBalance(accounts.get(2L)).getAmount(), is(equalTo(new BigDecimal("1200.00"))));
+    }
+
+    private WalTransferEngine newEngine(int checkpointEvery) {
+        try {
+            return new WalTransferEngine(accountRepository, transferTransactionRepository, ledgerCheckpointRepository,
+                    directory, SEGMENT_SIZE, 100, 1000, 1000, checkpointEvery);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.revolut.transfer.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MetricsRegistryTest {
+
+    private MetricsRegistry metricsRegistry;
+
+    @Before
+    public void init() {
+        metricsRegistry = new MetricsRegistry();
+    }
+
+    @Test
+    public void testCounter() throws IOException {
+        Counter counter = metricsRegistry.counter("transfers_total", "Transfers", "outcome", "COMPLETED");
+        counter.increment();
+        metricsRegistry.counter("transfers_total", "Transfers", "outcome", "COMPLETED").increment();
+
+        assertThat(metricsRegistry.counter("transfers_total", "Transfers", "outcome", "COMPLETED"), is(sameInstance(counter)));
+        assertThat(counter.get(), is(equalTo(2L)));
+        String metrics = write();
+        assertThat(metrics, containsString("# HELP transfers_total Transfers\n# TYPE transfers_total counter\n"));
+        assertThat(metrics, containsString("transfers_total{outcome=\"COMPLETED\"} 2\n"));
+    }
+
+    @Test
+    public void testHistogram() throws IOException {
+        Histogram histogram = metricsRegistry.histogram("phase_seconds", "Phases", "phase", "commit");
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(40));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.SECONDS.toNanos(20));
+
+        String metrics = write();
+        assertThat(metrics, containsString("# TYPE phase_seconds histogram\n"));
+        assertThat(metrics, containsString("phase_seconds_bucket{phase=\"commit\",le=\"5.0E-5\"} 1\n"));
+        assertThat(metrics, containsString("phase_seconds_bucket{phase=\"commit\",le=\"0.0025\"} 1\n"));
+        assertThat(metrics, containsString("phase_seconds_bucket{phase=\"commit\",le=\"0.005\"} 2\n"));
+        assertThat(metrics, containsString("phase_seconds_bucket{phase=\"commit\",le=\"10.0\"} 2\n"));
+        assertThat(metrics, containsString("phase_seconds_bucket{phase=\"commit\",le=\"+Inf\"} 3\n"));
+        assertThat(metrics, containsString("phase_seconds_count{phase=\"commit\"} 3\n"));
+    }
+
+    @Test
+    public void testGauge() throws IOException {
+        metricsRegistry.gauge("locks", "Locks", () -> Collections.singletonMap("", 1));
+        metricsRegistry.gauge("locks", "Locks", () -> Collections.singletonMap("", 5));
+
+        assertThat(write(), containsString("# TYPE locks gauge\nlocks 5\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSameNameDifferentType() {
+        metricsRegistry.counter("requests", "Requests");
+        metricsRegistry.histogram("requests", "Requests");
+    }
+
+    private String write() throws IOException {
+        StringWriter writer = new StringWriter();
+        metricsRegistry.write(writer);
+        return writer.toString();
+    }
+}
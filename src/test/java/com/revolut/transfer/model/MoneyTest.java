@@ -0,0 +1,47 @@
+package com.revolut.transfer.model;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MoneyTest {
+
+    @Test
+    public void testSimpleCase() {
+        long minorUnits = Money.toMinorUnits(new BigDecimal("123.4"));
+
+        assertThat(minorUnits, is(equalTo(12340L)));
+        assertThat(Money.toDecimal(minorUnits), is(equalTo(new BigDecimal("123.40"))));
+    }
+
+    @Test
+    public void testTrailingZerosAreAccepted() {
+        assertThat(Money.toMinorUnits(new BigDecimal("1.50000")), is(equalTo(150L)));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testMoreDecimalsThanTheCurrency() {
+        Money.toMinorUnits(new BigDecimal("1.005"));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testAmountOutOfRange() {
+        Money.toMinorUnits(new BigDecimal(Long.MAX_VALUE));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testAddOverflow() {
+        Money.add(Long.MAX_VALUE, 1);
+    }
+
+    @Test
+    public void testScaleOfTheCurrency() {
+        assertThat(Money.scaleOf("EUR"), is(equalTo(2)));
+        assertThat(Money.scaleOf("JPY"), is(equalTo(0)));
+        assertThat(Money.scaleOf("BHD"), is(equalTo(3)));
+    }
+}
@@ -0,0 +1,79 @@
+package com.revolut.transfer.persistence;
+
+import com.revolut.transfer.model.Account;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class AccountSnapshotFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAccountsAreReadAsWritten() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("accounts.snapshot");
+        List<Account> accounts = Arrays.asList(account(1L, 10000, 3, "Alice"), account(5L, 250, 1, null));
+
+        AccountSnapshotFile.Fingerprint fingerprint = AccountSnapshotFile.write(file, accounts::forEach);
+        List<Account> read = AccountSnapshotFile.read(file, 10);
+
+        assertThat(fingerprint, is(equalTo(new AccountSnapshotFile.Fingerprint(2, 6, 4))));
+        assertThat(AccountSnapshotFile.readFingerprint(file), is(equalTo(fingerprint)));
+        assertThat(read.size(), is(equalTo(2)));
+        assertThat(read.get(0).getId(), is(equalTo(1L)));
+        assertThat(read.get(0).getBalance(), is(equalTo(10000L)));
+        assertThat(read.get(0).getVersion(), is(equalTo(3L)));
+        assertThat(read.get(0).getAccountReference(), is(equalTo("Alice")));
+        assertThat(read.get(1).getId(), is(equalTo(5L)));
+        assertThat(read.get(1).getAccountReference(), is(nullValue()));
+        assertThat(Files.exists(file.resolveSibling("accounts.snapshot.tmp")), is(equalTo(false)));
+    }
+
+    @Test
+    public void testOnlyTheFirstAccountsAreRead() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("accounts.snapshot");
+        List<Account> accounts = Arrays.asList(account(1L, 100, 0, "a"), account(2L, 200, 0, "b"), account(3L, 300, 0, "c"));
+        AccountSnapshotFile.write(file, accounts::forEach);
+
+        List<Account> read = AccountSnapshotFile.read(file, 2);
+
+        assertThat(read.size(), is(equalTo(2)));
+        assertThat(read.get(1).getId(), is(equalTo(2L)));
+        assertThat(AccountSnapshotFile.readFingerprint(file), is(equalTo(new AccountSnapshotFile.Fingerprint(3, 6, 0))));
+    }
+
+    @Test
+    public void testUnknownFileIsRejected() throws IOException {
+        Path file = folder.newFile("accounts.snapshot").toPath();
+        Files.write(file, new byte[64]);
+
+        try {
+            AccountSnapshotFile.readFingerprint(file);
+            fail();
+        } catch (IOException e) {
+            assertThat(e.getMessage().contains("is not an account snapshot"), is(equalTo(true)));
+        }
+    }
+
+    private Account account(Long id, long balance, long version, String reference) {
+        Account account = new Account();
+        account.setId(id);
+        account.setBalance(balance);
+        account.setVersion(version);
+        account.setAccountReference(reference);
+        return account;
+    }
+}
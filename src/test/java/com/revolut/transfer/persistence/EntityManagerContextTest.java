@@ -0,0 +1,134 @@
+package com.revolut.transfer.persistence;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class EntityManagerContextTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+
+    private EntityManagerContext entityManagerContext;
+
+    @BeforeClass
+    public static void initFactory() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("revolut-ds");
+    }
+
+    @AfterClass
+    public static void closeFactory() {
+        entityManagerFactory.close();
+    }
+
+    @Before
+    public void init() {
+        entityManagerContext = new EntityManagerContext(entityManagerFactory);
+    }
+
+    @Test
+    public void testEntityManagerIsClosedOnCommit() {
+        entityManagerContext.begin();
+        EntityManager entityManager = entityManagerContext.getEntityManager();
+
+        assertThat(entityManagerContext.isTransactionActive(), is(equalTo(true)));
+
+        entityManagerContext.commit();
+
+        assertThat(entityManager.isOpen(), is(equalTo(false)));
+        assertThat(entityManagerContext.isTransactionActive(), is(equalTo(false)));
+    }
+
+    @Test
+    public void testEntityManagerIsClosedOnRollback() {
+        entityManagerContext.begin();
+        EntityManager entityManager = entityManagerContext.getEntityManager();
+
+        entityManagerContext.rollback();
+
+        assertThat(entityManager.isOpen(), is(equalTo(false)));
+        assertThat(entityManagerContext.isTransactionActive(), is(equalTo(false)));
+    }
+
+    @Test
+    public void testRollbackWithoutTransactionExitsSmoothly() {
+        entityManagerContext.rollback();
+
+        assertThat(entityManagerContext.isTransactionActive(), is(equalTo(false)));
+    }
+
+    @Test
+    public void testEveryThreadHasItsOwnEntityManager() throws Exception {
+        entityManagerContext.begin();
+        EntityManager entityManager = entityManagerContext.getEntityManager();
+
+        EntityManager otherThreadEntityManager = CompletableFuture.supplyAsync(() -> {
+            entityManagerContext.begin();
+            try {
+                return entityManagerContext.getEntityManager();
+            } finally {
+                entityManagerContext.commit();
+            }
+        }).get();
+
+        assertThat(otherThreadEntityManager, is(not(sameInstance(entityManager))));
+        assertThat(entityManager.isOpen(), is(equalTo(true)));
+        entityManagerContext.commit();
+    }
+
+    @Test
+    public void testExecuteUsesTheEntityManagerOfTheTransaction() {
+        entityManagerContext.begin();
+        EntityManager entityManager = entityManagerContext.getEntityManager();
+
+        EntityManager used = entityManagerContext.execute(em -> em);
+
+        assertThat(used, is(sameInstance(entityManager)));
+        entityManagerContext.commit();
+    }
+
+    @Test
+    public void testExecuteOutOfTransactionClosesTheEntityManager() {
+        EntityManager used = entityManagerContext.execute(em -> em);
+
+        assertThat(used.isOpen(), is(equalTo(false)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNestedTransactionsAreNotAllowed() {
+        entityManagerContext.begin();
+        try {
+            entityManagerContext.begin();
+        } finally {
+            entityManagerContext.rollback();
+        }
+    }
+
+    @Test
+    public void testOpenEntityManagersAreLimited() throws Exception {
+        entityManagerContext = new EntityManagerContext(entityManagerFactory, 1);
+        entityManagerContext.begin();
+
+        CompletableFuture<Void> otherTransaction = CompletableFuture.runAsync(() -> {
+            entityManagerContext.begin();
+            entityManagerContext.commit();
+        });
+        Thread.sleep(100);
+
+        assertThat(otherTransaction.isDone(), is(equalTo(false)));
+        entityManagerContext.commit();
+        otherTransaction.get(5, TimeUnit.SECONDS);
+    }
+}
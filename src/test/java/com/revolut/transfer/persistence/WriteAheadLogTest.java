@@ -0,0 +1,141 @@
+package com.revolut.transfer.persistence;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class WriteAheadLogTest {
+
+    private static final long SEGMENT_SIZE = 2 * WriteAheadLog.RECORD_SIZE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecordsAfterTheCheckpointAreReplayed() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        WriteAheadLog writeAheadLog = open(directory, 0, new ArrayList<>());
+        writeAheadLog.append(1, 2, 100, 1000);
+        writeAheadLog.append(2, 1, 30, 2000);
+        writeAheadLog.append(1, 2, 5, 3000);
+        writeAheadLog.close();
+
+        List<long[]> records = new ArrayList<>();
+        writeAheadLog = open(directory, 1, records);
+
+        assertThat(records.size(), is(equalTo(2)));
+        assertThat(records.get(0)[0], is(equalTo(2L)));
+        assertThat(records.get(0)[1], is(equalTo(2L)));
+        assertThat(records.get(0)[2], is(equalTo(1L)));
+        assertThat(records.get(0)[3], is(equalTo(30L)));
+        assertThat(records.get(0)[4], is(equalTo(2000L)));
+        assertThat(records.get(1)[0], is(equalTo(3L)));
+        assertThat(writeAheadLog.append(2, 1, 1, 4000), is(equalTo(4L)));
+    }
+
+    @Test
+    public void testTornRecordEndsTheLog() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 10 * WriteAheadLog.RECORD_SIZE);
+        writeAheadLog.replay(0, (sequence, originAccountId, destinationAccountId, amount, timeMillis) -> { });
+        writeAheadLog.append(1, 2, 100, 1000);
+        writeAheadLog.append(2, 1, 30, 2000);
+        writeAheadLog.close();
+        try (RandomAccessFile file = new RandomAccessFile(Files.list(directory).findFirst().get().toFile(), "rw")) {
+            file.seek(WriteAheadLog.RECORD_SIZE + 24);
+            file.write(0x7f);
+        }
+
+        List<long[]> records = new ArrayList<>();
+        writeAheadLog = new WriteAheadLog(directory, 10 * WriteAheadLog.RECORD_SIZE);
+        writeAheadLog.replay(0, (sequence, originAccountId, destinationAccountId, amount, timeMillis) ->
+                records.add(new long[]{sequence, originAccountId, destinationAccountId, amount, timeMillis}));
+
+        assertThat(records.size(), is(equalTo(1)));
+        assertThat(writeAheadLog.append(2, 1, 1, 3000), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testRecordsAfterATornRecordAreNotReplayedAfterAppending() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 10 * WriteAheadLog.RECORD_SIZE);
+        writeAheadLog.replay(0, (sequence, originAccountId, destinationAccountId, amount, timeMillis) -> { });
+        for (int i = 0; i < 4; i++) {
+            writeAheadLog.append(1, 2, 100, 1000);
+        }
+        writeAheadLog.close();
+        try (RandomAccessFile file = new RandomAccessFile(Files.list(directory).findFirst().get().toFile(), "rw")) {
+            file.seek(WriteAheadLog.RECORD_SIZE + 24);
+            file.write(0x7f);
+        }
+        writeAheadLog = new WriteAheadLog(directory, 10 * WriteAheadLog.RECORD_SIZE);
+        writeAheadLog.replay(0, (sequence, originAccountId, destinationAccountId, amount, timeMillis) -> { });
+        writeAheadLog.append(2, 1, 30, 2000);
+        writeAheadLog.close();
+
+        List<long[]> records = new ArrayList<>();
+        writeAheadLog = new WriteAheadLog(directory, 10 * WriteAheadLog.RECORD_SIZE);
+        writeAheadLog.replay(0, (sequence, originAccountId, destinationAccountId, amount, timeMillis) ->
+                records.add(new long[]{sequence, originAccountId, destinationAccountId, amount, timeMillis}));
+
+        // The old records 3 and 4, left after the torn one, are not replayed
+        assertThat(records.size(), is(equalTo(2)));
+        assertThat(records.get(1)[0], is(equalTo(2L)));
+        assertThat(records.get(1)[3], is(equalTo(30L)));
+        assertThat(writeAheadLog.append(2, 1, 1, 3000), is(equalTo(3L)));
+    }
+
+    @Test
+    public void testSegmentsIncludedInTheCheckpointAreDeleted() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        WriteAheadLog writeAheadLog = open(directory, 0, new ArrayList<>());
+        for (int i = 0; i < 5; i++) {
+            writeAheadLog.append(1, 2, 1, 1000);
+        }
+        writeAheadLog.force();
+
+        assertThat(Files.list(directory).count(), is(equalTo(3L)));
+
+        writeAheadLog.deleteSegmentsUpTo(4);
+        writeAheadLog.close();
+
+        assertThat(Files.list(directory).count(), is(equalTo(1L)));
+        List<long[]> records = new ArrayList<>();
+        writeAheadLog = open(directory, 4, records);
+        assertThat(records.size(), is(equalTo(1)));
+        assertThat(records.get(0)[0], is(equalTo(5L)));
+        assertThat(writeAheadLog.append(1, 2, 1, 1000), is(equalTo(6L)));
+    }
+
+    @Test
+    public void testLogStartsAfterTheCheckpointWhenItHasNoSegments() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        WriteAheadLog writeAheadLog = open(directory, 0, new ArrayList<>());
+        writeAheadLog.append(1, 2, 1, 1000);
+        writeAheadLog.force();
+        writeAheadLog.deleteAll();
+
+        assertThat(WriteAheadLog.hasSegments(directory), is(equalTo(false)));
+
+        writeAheadLog = open(directory, 1, new ArrayList<>());
+        assertThat(writeAheadLog.append(1, 2, 1, 1000), is(equalTo(2L)));
+    }
+
+    private WriteAheadLog open(Path directory, long afterSequence, List<long[]> records) throws IOException {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, SEGMENT_SIZE);
+        writeAheadLog.replay(afterSequence, (sequence, originAccountId, destinationAccountId, amount, timeMillis) ->
+                records.add(new long[]{sequence, originAccountId, destinationAccountId, amount, timeMillis}));
+        return writeAheadLog;
+    }
+}
@@ -0,0 +1,53 @@
+package com.revolut.transfer.rest;
+
+import com.revolut.transfer.model.Account;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AccountJsonWriterTest {
+
+    @Test
+    public void testAccountsAreWrittenLikeTheJsonProvider() throws IOException {
+        String json = write(account(1L, "A", "100.00"), account(2L, null, "5.50"));
+
+        assertThat(json, is(equalTo("[{\"accountReference\":\"A\",\"amount\":100.00,\"id\":1},{\"amount\":5.50,\"id\":2}]")));
+    }
+
+    @Test
+    public void testNoAccounts() throws IOException {
+        assertThat(write(), is(equalTo("[]")));
+    }
+
+    @Test
+    public void testAccountReferenceIsEscaped() throws IOException {
+        String json = write(account(1L, "x\u0001\u001f\n\r\b\f\t\"\\/\u00e9", "1.00"));
+
+        assertThat(json, is(equalTo("[{\"accountReference\":\"x\\u0001\\u001F\\n\\r\\b\\f\\t\\\"\\\\/\u00e9\",\"amount\":1.00,\"id\":1}]")));
+    }
+
+    private static String write(Account... accounts) throws IOException {
+        StringWriter output = new StringWriter();
+        AccountJsonWriter writer = new AccountJsonWriter(output);
+        writer.start();
+        for (Account account : accounts) {
+            writer.write(account);
+        }
+        writer.end();
+        return output.toString();
+    }
+
+    private static Account account(Long id, String accountReference, String amount) {
+        Account account = new Account();
+        account.setId(id);
+        account.setAccountReference(accountReference);
+        account.setAmount(new BigDecimal(amount));
+        return account;
+    }
+}
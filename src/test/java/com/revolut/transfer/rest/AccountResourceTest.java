@@ -0,0 +1,148 @@
+package com.revolut.transfer.rest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.transfer.manager.AccountManager;
+import com.revolut.transfer.manager.AsyncTransferManager;
+import com.revolut.transfer.model.Account;
+import com.revolut.transfer.model.TransferHistoryEntry;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.servlet.ServletContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Calls the resource through Jersey in an embedded Jetty, like {@link com.revolut.transfer.Main} does
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AccountResourceTest {
+
+    @Mock
+    private AccountManager accountManager;
+
+    private AsyncTransferManager asyncTransferManager;
+    private Server jettyServer;
+    private CloseableHttpClient client;
+    private String baseUri;
+
+    @Before
+    public void init() throws Exception {
+        asyncTransferManager = new AsyncTransferManager(accountManager, 1, 10, 60);
+        AccountResource accountResource = new AccountResource();
+        accountResource.setAccountManager(accountManager);
+        accountResource.setAsyncTransferManager(asyncTransferManager);
+        ResourceConfig resourceConfig = new ResourceConfig();
+        resourceConfig.packages("com.revolut.transfer.rest.exception");
+        resourceConfig.register(accountResource);
+
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/");
+        ServletHolder jerseyServlet = new ServletHolder(new ServletContainer(resourceConfig));
+        jerseyServlet.setAsyncSupported(true);
+        context.addServlet(jerseyServlet, "/*");
+        jettyServer = new Server(0);
+        jettyServer.setHandler(context);
+        jettyServer.start();
+        baseUri = "http://localhost:" + ((ServerConnector) jettyServer.getConnectors()[0]).getLocalPort();
+        client = HttpClientBuilder.create().build();
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        client.close();
+        jettyServer.stop();
+        asyncTransferManager.shutdown();
+    }
+
+    @Test
+    public void testSubmittedTransferIsPolled() throws Exception {
+        String location;
+        try (CloseableHttpResponse response = client.execute(new HttpPost(baseUri + "/account/1/transfer/2/100/async"))) {
+            assertThat(response.getStatusLine().getStatusCode(), is(equalTo(202)));
+            assertThat(readJson(response).get("status").asText(), is(equalTo("PENDING")));
+            location = response.getFirstHeader("Location").getValue();
+        }
+        assertThat(location.startsWith(baseUri + "/account/transfers/"), is(equalTo(true)));
+
+        try (CloseableHttpResponse response = client.execute(new HttpGet(location + "?wait=5000"))) {
+            assertThat(response.getStatusLine().getStatusCode(), is(equalTo(200)));
+            JsonNode result = readJson(response);
+            assertThat(result.get("id"), is(notNullValue()));
+            assertThat(result.get("status").asText(), is(equalTo("COMPLETED")));
+        }
+        verify(accountManager).transfer(1L, 2L, new BigDecimal("100"));
+    }
+
+    @Test
+    public void testUnknownTransferIsNotFound() throws Exception {
+        try (CloseableHttpResponse response = client.execute(new HttpGet(baseUri + "/account/transfers/unknown"))) {
+            assertThat(response.getStatusLine().getStatusCode(), is(equalTo(404)));
+        }
+        try (CloseableHttpResponse response = client.execute(new HttpGet(baseUri + "/account/transfers/unknown?wait=1000"))) {
+            assertThat(response.getStatusLine().getStatusCode(), is(equalTo(404)));
+        }
+    }
+
+    @Test
+    public void testNextPageOfAccountsIsAbsolute() throws Exception {
+        when(accountManager.getAccounts(any(Long.class), eq(2))).thenReturn(Arrays.asList(account(3L), account(4L)));
+
+        try (CloseableHttpResponse response = client.execute(new HttpGet(baseUri + "/account/?after=2&limit=2"))) {
+            assertThat(response.getStatusLine().getStatusCode(), is(equalTo(200)));
+            assertThat(response.getFirstHeader("Link").getValue(), is(equalTo(
+                    "<" + baseUri + "/account/?limit=2&after=4>; rel=\"next\"")));
+        }
+    }
+
+    @Test
+    public void testNextPageOfTransactionsIsAbsolute() throws Exception {
+        LocalDateTime time = LocalDateTime.parse("2018-01-31T10:15:30");
+        when(accountManager.getTransactions(eq(1L), any(LocalDateTime.class), any(LocalDateTime.class), any(Long.class), eq(2)))
+                .thenReturn(Arrays.asList(new TransferHistoryEntry(8L, 1L, 2L, 100, time), new TransferHistoryEntry(7L, 2L, 1L, 100, time)));
+
+        try (CloseableHttpResponse response = client.execute(new HttpGet(baseUri + "/account/1/transactions?limit=2&from=2018-01-31T10:15:30"))) {
+            assertThat(response.getStatusLine().getStatusCode(), is(equalTo(200)));
+            assertThat(response.getFirstHeader("Link").getValue(), is(equalTo(
+                    "<" + baseUri + "/account/1/transactions?before=7&limit=2&from=2018-01-31T10:15:30>; rel=\"next\"")));
+        }
+    }
+
+    private static Account account(Long id) {
+        Account account = new Account();
+        account.setId(id);
+        account.setAmount(BigDecimal.ZERO);
+        return account;
+    }
+
+    private static JsonNode readJson(HttpResponse response) throws IOException {
+        return new ObjectMapper().readTree(response.getEntity().getContent());
+    }
+}